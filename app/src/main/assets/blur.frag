@@ -0,0 +1,21 @@
+#version 300 es
+
+precision highp float;
+#define MAX_TAPS 16
+uniform sampler2D sTexture;
+uniform vec2 uTexelStep;    // one texel along the blur direction
+uniform int uTapCount;
+uniform float uOffsets[MAX_TAPS];
+uniform float uWeights[MAX_TAPS];
+in vec2 TexCoord;
+out vec4 FragColor;
+
+void main() {
+    vec4 sum = texture(sTexture, TexCoord) * uWeights[0];
+    for (int i = 1; i < uTapCount; i++) {
+        // Each tap sits between two texels so that the bilinear filter returns their weighted sum
+        vec2 offset = uTexelStep * uOffsets[i];
+        sum += (texture(sTexture, TexCoord + offset) + texture(sTexture, TexCoord - offset)) * uWeights[i];
+    }
+    FragColor = sum;
+}
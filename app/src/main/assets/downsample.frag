@@ -0,0 +1,15 @@
+#version 300 es
+
+precision highp float;
+uniform sampler2D sTexture;
+uniform vec2 uOffset;   // quarter of the downsample factor, in input texels
+in vec2 TexCoord;
+out vec4 FragColor;
+
+void main() {
+    vec4 sum = texture(sTexture, TexCoord + vec2(-uOffset.x, -uOffset.y));
+    sum += texture(sTexture, TexCoord + vec2(uOffset.x, -uOffset.y));
+    sum += texture(sTexture, TexCoord + vec2(-uOffset.x, uOffset.y));
+    sum += texture(sTexture, TexCoord + vec2(uOffset.x, uOffset.y));
+    FragColor = sum * 0.25;
+}
@@ -0,0 +1,11 @@
+#version 300 es
+
+in vec4 a_Position;
+in vec4 a_TexCoord;
+
+out vec2 TexCoord;
+
+void main() {
+    gl_Position = a_Position;
+    TexCoord = a_TexCoord.xy;
+}
@@ -0,0 +1,10 @@
+#version 300 es
+
+precision mediump float;
+uniform sampler2D sTexture;
+in vec2 TexCoord;
+out vec4 FragColor;
+
+void main() {
+    FragColor = texture(sTexture, TexCoord);
+}
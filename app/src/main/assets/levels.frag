@@ -0,0 +1,16 @@
+#version 300 es
+
+precision mediump float;
+uniform sampler2D sTexture;
+// Written by levels.comp, or uploaded from a readback when compute shaders are not available
+layout(std140) uniform Levels {
+    vec4 uBlack;
+    vec4 uScale;
+};
+in vec2 TexCoord;
+out vec4 FragColor;
+
+void main() {
+    vec4 color = texture(sTexture, TexCoord);
+    FragColor = vec4(clamp((color.rgb - uBlack.rgb) * uScale.rgb, 0.0, 1.0), color.a);
+}
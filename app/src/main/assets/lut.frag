@@ -0,0 +1,19 @@
+#version 300 es
+
+precision mediump float;
+precision mediump sampler3D;
+uniform sampler2D sTexture;
+uniform sampler3D sLut;
+uniform vec3 uDomainMin;
+uniform vec3 uDomainScale;  // 1/(domain max - domain min)
+uniform float uLutScale;    // (size-1)/size
+uniform float uLutOffset;   // 0.5/size
+in vec2 TexCoord;
+out vec4 FragColor;
+
+void main() {
+    vec4 color = texture(sTexture, TexCoord);
+    vec3 coord = clamp((color.rgb - uDomainMin) * uDomainScale, 0.0, 1.0);
+    // Map onto texel centers so that the hardware trilinear filter interpolates between entries
+    FragColor = vec4(texture(sLut, coord * uLutScale + uLutOffset).rgb, color.a);
+}
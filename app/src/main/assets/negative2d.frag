@@ -0,0 +1,11 @@
+#version 300 es
+
+precision mediump float;
+uniform sampler2D sTexture;
+in vec2 TexCoord;
+out vec4 FragColor;
+
+void main() {
+    vec4 color = texture(sTexture, TexCoord);
+    FragColor = vec4(1.0-color.rgb, color.a);
+}
@@ -0,0 +1,14 @@
+#version 300 es
+
+precision mediump float;
+uniform sampler2D sAtlas;
+// Signal level of white in the output, below 1 for HDR
+uniform float uWhite;
+in vec2 TexCoord;
+out vec4 FragColor;
+
+void main() {
+    // Premultiplied alpha
+    vec4 color = texture(sAtlas, TexCoord);
+    FragColor = vec4(color.rgb * uWhite, color.a);
+}
@@ -0,0 +1,16 @@
+#version 300 es
+
+// Corner of the unit quad, 0 to 1 with y up
+in vec2 a_Corner;
+// Per instance: left, bottom, width and height in normalized device coordinates
+in vec4 a_Rect;
+// Per instance: left, top, width and height in the atlas
+in vec4 a_TexRect;
+
+out vec2 TexCoord;
+
+void main() {
+    gl_Position = vec4(a_Rect.xy + a_Corner * a_Rect.zw, 0.0, 1.0);
+    // The atlas is uploaded top row first
+    TexCoord = a_TexRect.xy + vec2(a_Corner.x, 1.0 - a_Corner.y) * a_TexRect.zw;
+}
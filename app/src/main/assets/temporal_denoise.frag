@@ -0,0 +1,37 @@
+#version 300 es
+
+precision mediump float;
+uniform sampler2D sTexture;
+// The last frames, newest first. Sampler arrays can only be indexed with constants in ES 3.0
+uniform sampler2D sHistory0;
+uniform sampler2D sHistory1;
+uniform sampler2D sHistory2;
+uniform sampler2D sHistory3;
+uniform int uHistoryCount;
+uniform float uInvTwoSigmaSquared;
+in vec2 TexCoord;
+out vec4 FragColor;
+
+const vec3 LUMA = vec3(0.2126, 0.7152, 0.0722);
+
+// Weighs a history pixel by how close its luma is to the current one, see TemporalDenoise
+vec4 weigh(vec3 history, float luma) {
+    float difference = dot(history, LUMA) - luma;
+    float weight = exp(-difference * difference * uInvTwoSigmaSquared);
+    return vec4(weight * history, weight);
+}
+
+void main() {
+    vec4 color = texture(sTexture, TexCoord);
+    float luma = dot(color.rgb, LUMA);
+    vec4 sum = vec4(color.rgb, 1.0);
+    if (uHistoryCount > 0)
+        sum += weigh(texture(sHistory0, TexCoord).rgb, luma);
+    if (uHistoryCount > 1)
+        sum += weigh(texture(sHistory1, TexCoord).rgb, luma);
+    if (uHistoryCount > 2)
+        sum += weigh(texture(sHistory2, TexCoord).rgb, luma);
+    if (uHistoryCount > 3)
+        sum += weigh(texture(sHistory3, TexCoord).rgb, luma);
+    FragColor = vec4(sum.rgb / sum.a, color.a);
+}
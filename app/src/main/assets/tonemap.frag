@@ -0,0 +1,79 @@
+#version 300 es
+
+// HDR (BT.2020 PQ or HLG) to SDR BT.709, see ColorTransfer for the reference implementation
+precision highp float;
+uniform sampler2D sTexture;
+uniform int uHlg;
+uniform float uSourcePeakNits;
+in vec2 TexCoord;
+out vec4 FragColor;
+
+const float PQ_M1 = 2610.0/16384.0;
+const float PQ_M2 = 2523.0/4096.0*128.0;
+const float PQ_C1 = 3424.0/4096.0;
+const float PQ_C2 = 2413.0/4096.0*32.0;
+const float PQ_C3 = 2392.0/4096.0*32.0;
+const float HLG_A = 0.17883277;
+const float HLG_B = 0.28466892;
+const float HLG_C = 0.55991073;
+const float PQ_MAX_NITS = 10000.0;
+const float SDR_WHITE_NITS = 100.0;
+const vec3 BT2020_LUMA = vec3(0.2627, 0.6780, 0.0593);
+// Columns of the row major matrix in ColorTransfer.BT2020_TO_BT709
+const mat3 BT2020_TO_BT709 = mat3(
+        1.6605, -0.1246, -0.0182,
+        -0.5876, 1.1329, -0.1006,
+        -0.0728, -0.0083, 1.1187);
+
+float pqEotf(float signal) {
+    float p = pow(max(signal, 0.0), 1.0/PQ_M2);
+    return pow(max(p - PQ_C1, 0.0)/(PQ_C2 - PQ_C3*p), 1.0/PQ_M1);
+}
+
+float pqInverseEotf(float linear) {
+    float y = pow(max(linear, 0.0), PQ_M1);
+    return pow((PQ_C1 + PQ_C2*y)/(1.0 + PQ_C3*y), PQ_M2);
+}
+
+vec3 hlgInverseOetf(vec3 signal) {
+    vec3 low = max(signal, 0.0)*signal/3.0;
+    vec3 high = (exp((signal - HLG_C)/HLG_A) + HLG_B)/12.0;
+    return mix(low, high, step(0.5, signal));
+}
+
+float eetf(float signal, float sourcePeak, float targetPeak) {
+    float e1 = min(signal/sourcePeak, 1.0);
+    float maxLum = targetPeak/sourcePeak;
+    float ks = 1.5*maxLum - 0.5;
+    if (e1 < ks)
+        return signal;
+    float t = (e1 - ks)/(1.0 - ks);
+    float t2 = t*t;
+    float t3 = t2*t;
+    float e2 = (2.0*t3 - 3.0*t2 + 1.0)*ks + (t3 - 2.0*t2 + t)*(1.0 - ks) + (-2.0*t3 + 3.0*t2)*maxLum;
+    return e2*sourcePeak;
+}
+
+void main() {
+    vec3 signal = texture(sTexture, TexCoord).rgb;
+    vec3 nits;
+    if (uHlg != 0) {
+        vec3 scene = hlgInverseOetf(signal);
+        float gamma = 1.2 + 0.42*log(uSourcePeakNits/1000.0)/log(10.0);
+        float sceneLuminance = dot(BT2020_LUMA, scene);
+        nits = sceneLuminance > 0.0 ? scene*uSourcePeakNits*pow(sceneLuminance, gamma - 1.0) : vec3(0.0);
+    } else {
+        nits = vec3(pqEotf(signal.r), pqEotf(signal.g), pqEotf(signal.b))*PQ_MAX_NITS;
+    }
+
+    float luminance = dot(BT2020_LUMA, nits);
+    float scale = 0.0;
+    if (luminance > 0.0) {
+        float mapped = eetf(pqInverseEotf(luminance/PQ_MAX_NITS), pqInverseEotf(uSourcePeakNits/PQ_MAX_NITS),
+                pqInverseEotf(SDR_WHITE_NITS/PQ_MAX_NITS));
+        scale = pqEotf(mapped)*PQ_MAX_NITS/luminance/SDR_WHITE_NITS;
+    }
+
+    vec3 linear = clamp(BT2020_TO_BT709*(nits*scale), 0.0, 1.0);
+    FragColor = vec4(pow(linear, vec3(1.0/2.4)), 1.0);
+}
@@ -0,0 +1,14 @@
+#version 300 es
+
+precision mediump float;
+uniform sampler2D sTexture;
+uniform sampler2D sBlurred;
+uniform float uAmount;
+in vec2 TexCoord;
+out vec4 FragColor;
+
+void main() {
+    vec4 color = texture(sTexture, TexCoord);
+    vec3 blurred = texture(sBlurred, TexCoord).rgb;
+    FragColor = vec4(clamp(color.rgb + uAmount * (color.rgb - blurred), 0.0, 1.0), color.a);
+}
@@ -5,34 +5,81 @@ import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 import androidx.appcompat.app.AppCompatActivity;
 
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.IBinder;
 import android.util.Log;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
 import android.view.View;
 import android.widget.Button;
 import android.widget.ProgressBar;
 import android.widget.VideoView;
 
-import net.peeknpoke.apps.frameprocessor.FrameProcessor;
-import net.peeknpoke.apps.frameprocessor.FrameProcessorObserver;
+import net.peeknpoke.apps.frameprocessor.FrameProcessorService;
+import net.peeknpoke.apps.frameprocessor.FrameProcessorSettings;
 import net.peeknpoke.apps.videofilter.permissions.StoragePermissionHandler;
 
 import java.io.IOException;
 
-public class MainActivity extends AppCompatActivity implements FrameProcessorObserver {
+public class MainActivity extends AppCompatActivity {
     private static final String TAG = MainActivity.class.getSimpleName();
 
     private static final int PICK_FROM_GALLERY = 1;
     private StoragePermissionHandler mStoragePermissionHandler;
 
     private VideoView mVideoView;
+    private SurfaceView mPreviewView;
+    private FrameProcessorService.PreviewBinder mPreviewBinder;
     private Button mProcessButton;
-    private FrameProcessor mFrameProcessor;
     private Uri mVideoUri;
     private ProgressBar mProgressBar;
+    private final BroadcastReceiver mJobFinishedReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            mProgressBar.setVisibility(View.INVISIBLE);
+        }
+    };
+    // The service draws the filtered frames of the running job into the preview
+    private final ServiceConnection mPreviewConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            mPreviewBinder = (FrameProcessorService.PreviewBinder) service;
+            SurfaceHolder holder = mPreviewView.getHolder();
+            if (holder.getSurface().isValid())
+                mPreviewBinder.setPreviewSurface(holder.getSurface());
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            mPreviewBinder = null;
+        }
+    };
+    private final SurfaceHolder.Callback mPreviewCallback = new SurfaceHolder.Callback() {
+        @Override
+        public void surfaceCreated(@NonNull SurfaceHolder holder) {
+            if (mPreviewBinder != null)
+                mPreviewBinder.setPreviewSurface(holder.getSurface());
+        }
+
+        @Override
+        public void surfaceChanged(@NonNull SurfaceHolder holder, int format, int width, int height) {
+        }
+
+        @Override
+        public void surfaceDestroyed(@NonNull SurfaceHolder holder) {
+            if (mPreviewBinder != null)
+                mPreviewBinder.setPreviewSurface(null);
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -41,8 +88,34 @@ public class MainActivity extends AppCompatActivity implements FrameProcessorObs
 
         mStoragePermissionHandler = new StoragePermissionHandler(getResources().getString(R.string.app_name));
         mVideoView = findViewById(R.id.videoView);
+        mPreviewView = findViewById(R.id.previewView);
+        mPreviewView.getHolder().addCallback(mPreviewCallback);
         mProcessButton = findViewById(R.id.process);
         mProgressBar = findViewById(R.id.processingBar);
+        registerReceiver(mJobFinishedReceiver, new IntentFilter(FrameProcessorService.ACTION_JOB_FINISHED));
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.Q)
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // Without BIND_AUTO_CREATE: connects once a job has started the service
+        bindService(new Intent(this, FrameProcessorService.class), mPreviewConnection, 0);
+    }
+
+    @Override
+    protected void onStop() {
+        if (mPreviewBinder != null)
+            mPreviewBinder.setPreviewSurface(null);
+        mPreviewBinder = null;
+        unbindService(mPreviewConnection);
+        super.onStop();
+    }
+
+    @Override
+    protected void onDestroy() {
+        unregisterReceiver(mJobFinishedReceiver);
+        super.onDestroy();
     }
 
     public void onLoad(View view)
@@ -56,31 +129,30 @@ public class MainActivity extends AppCompatActivity implements FrameProcessorObs
     {
         mProgressBar.bringToFront();
         mProgressBar.setVisibility(View.VISIBLE);
+        // The preview replaces the unfiltered playback, which would decode the input a second time
+        mVideoView.stopPlayback();
+        mVideoView.setVisibility(View.GONE);
+        mPreviewView.setVisibility(View.VISIBLE);
+        FrameProcessorSettings settings = new FrameProcessorSettings();
+        settings.setContainer(FrameProcessorSettings.Container.FRAGMENTED_MP4);
+        settings.setResumable(true);
         try {
-            mFrameProcessor = new FrameProcessor(getApplicationContext(), mVideoUri,
-                    getResources().getString(R.string.app_name));
-            mFrameProcessor.registerObserver(this);
+            FrameProcessorService.startJob(getApplicationContext(), mVideoUri,
+                    getResources().getString(R.string.app_name), settings);
         } catch (IOException e) {
             e.printStackTrace();
             finish();
         }
     }
 
-    @Override
-    protected void onPause() {
-        super.onPause();
-        if (mFrameProcessor!=null)
-        {
-            mFrameProcessor.release();
-        }
-    }
-
     @Override
     protected void onActivityResult(int requestCode, int resultCode, @Nullable Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
 
         if (requestCode == PICK_FROM_GALLERY && resultCode == RESULT_OK && data != null && data.getData() != null) {
             mVideoUri = data.getData();
+            mPreviewView.setVisibility(View.GONE);
+            mVideoView.setVisibility(View.VISIBLE);
             mVideoView.setVideoURI(mVideoUri);
             mVideoView.setOnPreparedListener(mp -> {
                 mVideoView.start();
@@ -117,10 +189,4 @@ public class MainActivity extends AppCompatActivity implements FrameProcessorObs
         super.onResume();
         mStoragePermissionHandler.checkAndRequestPermission(MainActivity.this, StoragePermissionHandler.CODE);
     }
-
-    @Override
-    public void doneProcessing() {
-        mFrameProcessor.removeObserver(this);
-        runOnUiThread(() -> mProgressBar.setVisibility(View.INVISIBLE));
-    }
 }
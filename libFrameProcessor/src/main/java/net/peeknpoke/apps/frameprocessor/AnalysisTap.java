@@ -0,0 +1,84 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.opengl.GLES30;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Optional per frame analysis of the filtered output. The rendered frame is blitted into a small
+ * framebuffer, read back asynchronously through a {@link PixelReader} and analysed by a
+ * {@link FrameAnalyzer} worker pool.
+ */
+class AnalysisTap implements PixelReader.Consumer {
+    static final int ANALYSIS_WIDTH = 128;
+    private static final int READBACK_DEPTH = 3;
+    private static final int WORKERS = 2;
+    private static final int BUFFERS = 6;
+
+    private final int mSourceWidth;
+    private final int mSourceHeight;
+    private final FrameBufferPool mPool;
+    private final FrameBuffer mFrameBuffer;
+    private final PixelReader mPixelReader;
+    private final FrameAnalyzer mAnalyzer;
+
+    AnalysisTap(FrameBufferPool pool, int sourceWidth, int sourceHeight, FrameAnalyzer.Listener listener)
+    {
+        mPool = pool;
+        mSourceWidth = sourceWidth;
+        mSourceHeight = sourceHeight;
+        int width = Math.min(ANALYSIS_WIDTH, sourceWidth);
+        int height = Math.max(1, Math.round((float) width*sourceHeight/sourceWidth));
+        mFrameBuffer = pool.acquire(width, height);
+        mPixelReader = new PixelReader(width, height, READBACK_DEPTH);
+        mAnalyzer = new FrameAnalyzer(width, height, WORKERS, BUFFERS, listener);
+    }
+
+    /**
+     * Downscales the frame just rendered into the default framebuffer and queues its readback.
+     */
+    void capture(long frameIndex, long presentationTimeUs)
+    {
+        GLES30.glBindFramebuffer(GLES30.GL_READ_FRAMEBUFFER, 0);
+        GLES30.glBindFramebuffer(GLES30.GL_DRAW_FRAMEBUFFER, mFrameBuffer.getFramebuffer());
+        GLES30.glBlitFramebuffer(0, 0, mSourceWidth, mSourceHeight,
+                0, 0, mFrameBuffer.getWidth(), mFrameBuffer.getHeight(),
+                GLES30.GL_COLOR_BUFFER_BIT, GLES30.GL_LINEAR);
+
+        GLES30.glBindFramebuffer(GLES30.GL_READ_FRAMEBUFFER, mFrameBuffer.getFramebuffer());
+        mPixelReader.requestReadback(frameIndex, presentationTimeUs);
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, 0);
+
+        mPixelReader.poll(this);
+    }
+
+    @Override
+    public void onPixels(long tag, long presentationTimeUs, ByteBuffer pixels) {
+        mAnalyzer.submit(tag, presentationTimeUs, pixels);
+    }
+
+    int getDropped()
+    {
+        return mPixelReader.getDropped() + mAnalyzer.getDropped();
+    }
+
+    /**
+     * Delivers the readbacks still in flight and waits for their analysis.
+     */
+    void finish()
+    {
+        mPixelReader.flush(this);
+        mAnalyzer.finish();
+    }
+
+    /**
+     * Also stops the analysis of a job released before {@link #finish()}, whose workers would
+     * otherwise outlive it.
+     */
+    void cleanup()
+    {
+        mAnalyzer.release();
+        mPixelReader.cleanup();
+        mPool.release(mFrameBuffer);
+    }
+}
@@ -0,0 +1,66 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLSurface;
+
+class AndroidEgl implements EglApi {
+    @Override
+    public Object initialize() {
+        EGLDisplay display = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        int[] version = new int[2];
+        if (!EGL14.eglInitialize(display, version, 0, version, 1))
+            throw new RuntimeException("eglInitialize failed: " + EGL14.eglGetError());
+        return display;
+    }
+
+    @Override
+    public void terminate(Object display) {
+        EGL14.eglTerminate((EGLDisplay) display);
+    }
+
+    @Override
+    public Object chooseConfig(Object display, int[] attributes) {
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] numConfig = new int[1];
+        if (!EGL14.eglChooseConfig((EGLDisplay) display, attributes, 0, configs, 0, 1, numConfig, 0))
+            return null;
+        return numConfig[0] > 0 ? configs[0] : null;
+    }
+
+    @Override
+    public Object createContext(Object display, Object config, Object shareContext) {
+        int[] ctxAttrib = {
+                EGL14.EGL_CONTEXT_CLIENT_VERSION, 3,
+                EGL14.EGL_NONE
+        };
+        EGLContext context = EGL14.eglCreateContext((EGLDisplay) display, (EGLConfig) config,
+                shareContext != null ? (EGLContext) shareContext : EGL14.EGL_NO_CONTEXT, ctxAttrib, 0);
+        if (context == null || context.equals(EGL14.EGL_NO_CONTEXT))
+            return null;
+        return context;
+    }
+
+    @Override
+    public void destroyContext(Object display, Object context) {
+        EGL14.eglDestroyContext((EGLDisplay) display, (EGLContext) context);
+    }
+
+    @Override
+    public boolean makeCurrent(Object display, Object drawSurface, Object readSurface, Object context) {
+        return EGL14.eglMakeCurrent((EGLDisplay) display, surface(drawSurface), surface(readSurface),
+                context != null ? (EGLContext) context : EGL14.EGL_NO_CONTEXT);
+    }
+
+    private static EGLSurface surface(Object surface)
+    {
+        return surface != null ? (EGLSurface) surface : EGL14.EGL_NO_SURFACE;
+    }
+
+    @Override
+    public void releaseThread() {
+        EGL14.eglReleaseThread();
+    }
+}
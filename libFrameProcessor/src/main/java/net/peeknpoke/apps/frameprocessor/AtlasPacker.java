@@ -0,0 +1,97 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Packs rectangles, such as glyphs and images, into a single texture atlas. Rectangles are
+ * placed on shelves, tallest first, and every power of two width up to the largest texture is
+ * tried to find the atlas of the smallest area. Rectangles are kept a padding apart so that
+ * linear filtering does not bleed their neighbours in.
+ */
+final class AtlasPacker {
+    static final class Layout {
+        final int width;
+        final int height;
+        final int[] x;
+        final int[] y;
+
+        Layout(int width, int height, int[] x, int[] y)
+        {
+            this.width = width;
+            this.height = height;
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    private AtlasPacker()
+    {
+    }
+
+    /**
+     * @param padding empty pixels between the rectangles and around the edges of the atlas
+     * @param maxSize largest width and height of the atlas, e.g. GL_MAX_TEXTURE_SIZE
+     * @return the positions of the top left corners of the rectangles, in the order given, or
+     * null if they do not fit
+     */
+    static Layout pack(final int[] widths, final int[] heights, int padding, int maxSize)
+    {
+        if (widths.length != heights.length)
+            throw new IllegalArgumentException(widths.length + " widths for " + heights.length + " heights");
+        Integer[] order = new Integer[widths.length];
+        int widest = 0;
+        for (int i = 0; i < order.length; i++)
+        {
+            if (widths[i] < 0 || heights[i] < 0)
+                throw new IllegalArgumentException("Invalid size " + widths[i] + "x" + heights[i]);
+            order[i] = i;
+            widest = Math.max(widest, widths[i]);
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                if (heights[a] != heights[b])
+                    return heights[b] - heights[a];
+                return widths[b] - widths[a];
+            }
+        });
+
+        int width = 1;
+        while (width < widest + 2*padding)
+            width *= 2;
+        Layout best = null;
+        for (; width <= maxSize; width *= 2)
+        {
+            Layout layout = shelve(widths, heights, order, padding, width);
+            if (layout.height > maxSize)
+                continue;
+            if (best == null || (long) layout.width*layout.height < (long) best.width*best.height)
+                best = layout;
+        }
+        return best;
+    }
+
+    private static Layout shelve(int[] widths, int[] heights, Integer[] order, int padding, int width)
+    {
+        int[] x = new int[widths.length];
+        int[] y = new int[widths.length];
+        int shelfX = padding;
+        int shelfY = padding;
+        int shelfHeight = 0;
+        for (int index : order)
+        {
+            if (shelfX + widths[index] + padding > width)
+            {
+                shelfY += shelfHeight + padding;
+                shelfX = padding;
+                shelfHeight = 0;
+            }
+            x[index] = shelfX;
+            y[index] = shelfY;
+            shelfX += widths[index] + padding;
+            shelfHeight = Math.max(shelfHeight, heights[index]);
+        }
+        return new Layout(width, shelfY + shelfHeight + padding, x, y);
+    }
+}
@@ -0,0 +1,77 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.content.Context;
+import android.opengl.GLES30;
+import android.util.Log;
+
+/**
+ * Stretches every frame to the full range by the levels of {@link HistogramLevels}. The levels
+ * are measured on the GPU by {@link ComputeLevels} where compute shaders are available, and by
+ * {@link ReadbackLevels} otherwise; either way levels.frag reads them from a uniform buffer, and
+ * a frame is filtered with the levels of the frames before it.
+ */
+class AutoLevelsFilter implements Filter {
+    private static final String TAG = AutoLevelsFilter.class.getSimpleName();
+    private static final String FRAGMENT_SHADER_NAME = "levels.frag";
+    private static final int LEVELS_BINDING = 0;
+
+    private final float mClip;
+    private final boolean mPerChannel;
+    private FilterPass mPass;
+    private LevelsSource mLevels;
+    private int mTextureLoc;
+    private int mWidth;
+    private int mHeight;
+
+    /**
+     * @param clip       fraction of the pixels that may clip at either end
+     * @param perChannel see {@link HistogramLevels#levels}
+     */
+    AutoLevelsFilter(float clip, boolean perChannel)
+    {
+        mClip = clip;
+        mPerChannel = perChannel;
+    }
+
+    @Override
+    public void setup(Context context, FrameBufferPool pool, int width, int height, int internalFormat) {
+        mWidth = width;
+        mHeight = height;
+        mPass = new FilterPass(context, FRAGMENT_SHADER_NAME);
+        mTextureLoc = mPass.getUniformLocation("sTexture");
+        mPass.setUniformBlockBinding("Levels", LEVELS_BINDING);
+
+        if (ComputeLevels.isSupported())
+        {
+            try {
+                mLevels = new ComputeLevels(context, width, height, mClip, mPerChannel);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Falling back to readback levels - " + e.getMessage());
+            }
+        }
+        if (mLevels == null)
+            mLevels = new ReadbackLevels(context, pool, width, height, mClip, mPerChannel);
+    }
+
+    @Override
+    public void draw(int inputTexture, int outputFramebuffer) {
+        mPass.use();
+        FilterPass.bindTexture(0, GLES30.GL_TEXTURE_2D, inputTexture, mTextureLoc);
+        GLES30.glBindBufferBase(GLES30.GL_UNIFORM_BUFFER, LEVELS_BINDING, mLevels.getLevelsBuffer());
+        mPass.draw(outputFramebuffer, mWidth, mHeight);
+        GLES30.glBindBufferBase(GLES30.GL_UNIFORM_BUFFER, LEVELS_BINDING, 0);
+
+        // Measured after drawing, so that the frame does not wait for its own levels
+        mLevels.measure(inputTexture);
+    }
+
+    @Override
+    public void cleanup() {
+        if (mLevels != null)
+            mLevels.cleanup();
+        mLevels = null;
+        if (mPass != null)
+            mPass.cleanup();
+        mPass = null;
+    }
+}
@@ -0,0 +1,54 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.content.Context;
+import android.opengl.GLES30;
+
+class BlurFilter implements Filter {
+    private final float mSigma;
+    private GaussianBlur mBlur;
+    private FilterPass mUpsamplePass;
+    private int mUpsampleTextureLoc;
+    private int mWidth;
+    private int mHeight;
+
+    BlurFilter(float sigma)
+    {
+        mSigma = sigma;
+    }
+
+    @Override
+    public void setup(Context context, FrameBufferPool pool, int width, int height, int internalFormat) {
+        mWidth = width;
+        mHeight = height;
+        mBlur = new GaussianBlur(context, pool, mSigma, width, height, internalFormat);
+        if (mBlur.isDownsampled())
+        {
+            mUpsamplePass = new FilterPass(context, "identity2d.frag");
+            mUpsampleTextureLoc = mUpsamplePass.getUniformLocation("sTexture");
+        }
+    }
+
+    @Override
+    public void draw(int inputTexture, int outputFramebuffer) {
+        if (mUpsamplePass == null)
+        {
+            mBlur.blur(inputTexture, outputFramebuffer);
+            return;
+        }
+
+        int blurred = mBlur.blur(inputTexture);
+        mUpsamplePass.use();
+        FilterPass.bindTexture(0, GLES30.GL_TEXTURE_2D, blurred, mUpsampleTextureLoc);
+        mUpsamplePass.draw(outputFramebuffer, mWidth, mHeight);
+    }
+
+    @Override
+    public void cleanup() {
+        if (mBlur != null)
+            mBlur.cleanup();
+        mBlur = null;
+        if (mUpsamplePass != null)
+            mUpsamplePass.cleanup();
+        mUpsamplePass = null;
+    }
+}
@@ -0,0 +1,71 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Writes samples to another backend from a dedicated thread, so the encoder output buffer can be
+ * released as soon as the sample has been copied. {@link #writeSampleData} only blocks when the
+ * byte budget of queued samples is used up.
+ */
+class BufferedMuxerBackend implements MuxerBackend, BufferedSampleWriter.Sink {
+    static final int MAX_QUEUED_SAMPLES = 120;
+
+    private final MuxerBackend mBackend;
+    private final int mBufferBytes;
+    private BufferedSampleWriter mWriter;
+    // Only used on the writer thread
+    private final MediaCodec.BufferInfo mInfo = new MediaCodec.BufferInfo();
+
+    BufferedMuxerBackend(MuxerBackend backend, int bufferBytes)
+    {
+        mBackend = backend;
+        mBufferBytes = bufferBytes;
+    }
+
+    @Override
+    public List<String> getSupportedMimeTypes() {
+        return mBackend.getSupportedMimeTypes();
+    }
+
+    @Override
+    public void start(MediaFormat format) throws IOException {
+        mBackend.start(format);
+        mWriter = new BufferedSampleWriter(this, mBufferBytes, MAX_QUEUED_SAMPLES);
+    }
+
+    @Override
+    public void writeSampleData(ByteBuffer data, MediaCodec.BufferInfo info) throws IOException {
+        ByteBuffer sample = data.duplicate();
+        sample.limit(info.offset + info.size);
+        sample.position(info.offset);
+        try {
+            mWriter.submit(sample, info.presentationTimeUs, info.flags);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while queueing a sample");
+        }
+    }
+
+    @Override
+    public void writeSample(ByteBuffer data, long presentationTimeUs, int flags) throws IOException {
+        mInfo.set(data.position(), data.remaining(), presentationTimeUs, flags);
+        mBackend.writeSampleData(data, mInfo);
+    }
+
+    @Override
+    public void stop() throws IOException {
+        try {
+            if (mWriter != null)
+                mWriter.finish();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while writing the queued samples");
+        } finally {
+            mBackend.stop();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Moves sample writes off the producing thread. {@link #submit} copies a sample into a
+ * {@link SampleArena} and returns, so the caller can give its buffer back immediately; a writer
+ * thread hands the copies to the {@link Sink} in submission order. Sample records are pooled and
+ * both the byte budget and the number of queued samples are bounded: when either is exhausted
+ * {@link #submit} blocks until the writer catches up.
+ */
+final class BufferedSampleWriter {
+    interface Sink {
+        void writeSample(ByteBuffer data, long presentationTimeUs, int flags) throws IOException;
+    }
+
+    private static final class Sample {
+        final ByteBuffer mView;
+        int mOffset;
+        int mSize;
+        long mPresentationTimeUs;
+        int mFlags;
+
+        Sample(ByteBuffer view)
+        {
+            mView = view;
+        }
+    }
+
+    private final Sink mSink;
+    private final SampleArena mArena;
+    private final ArrayBlockingQueue<Sample> mFreeSamples;
+    private final ArrayBlockingQueue<Sample> mQueue;
+    private final Sample mEndOfStream = new Sample(null);
+    private final Thread mThread;
+    private volatile IOException mError;
+    private boolean mFinished;
+
+    BufferedSampleWriter(Sink sink, int arenaBytes, int maxQueuedSamples)
+    {
+        mSink = sink;
+        mArena = new SampleArena(arenaBytes);
+        mFreeSamples = new ArrayBlockingQueue<>(maxQueuedSamples);
+        for (int i = 0; i < maxQueuedSamples; i++)
+            mFreeSamples.add(new Sample(mArena.newView()));
+        mQueue = new ArrayBlockingQueue<>(maxQueuedSamples + 1);
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "MuxWriter");
+        mThread.start();
+    }
+
+    /**
+     * Copies the sample, from position to limit, and queues it. The data buffer is not modified.
+     * @throws IOException if an earlier write failed
+     */
+    void submit(ByteBuffer data, long presentationTimeUs, int flags) throws IOException, InterruptedException
+    {
+        IOException error = mError;
+        if (error != null)
+            throw error;
+
+        int size = data.remaining();
+        if (size > mArena.getCapacity())
+        {
+            // Larger than the whole budget: write it in place once everything before it is out
+            drain();
+            mSink.writeSample(data.duplicate(), presentationTimeUs, flags);
+            return;
+        }
+
+        Sample sample = mFreeSamples.take();
+        sample.mOffset = mArena.allocate(size);
+        sample.mSize = size;
+        sample.mPresentationTimeUs = presentationTimeUs;
+        sample.mFlags = flags;
+        sample.mView.limit(sample.mOffset + size);
+        sample.mView.position(sample.mOffset);
+        sample.mView.put(data.duplicate());
+        sample.mView.position(sample.mOffset);
+        mQueue.put(sample);
+    }
+
+    /**
+     * Waits until every queued sample has been written.
+     */
+    private void drain() throws InterruptedException
+    {
+        // Every record back in the pool means nothing is queued or being written
+        Sample[] samples = new Sample[mFreeSamples.remainingCapacity() + mFreeSamples.size()];
+        for (int i = 0; i < samples.length; i++)
+            samples[i] = mFreeSamples.take();
+        for (Sample sample : samples)
+            mFreeSamples.add(sample);
+    }
+
+    /**
+     * Writes the remaining samples and stops the writer thread.
+     * @throws IOException the first write error, if any
+     */
+    void finish() throws IOException, InterruptedException
+    {
+        if (!mFinished)
+        {
+            mFinished = true;
+            mQueue.put(mEndOfStream);
+            mThread.join();
+        }
+        if (mError != null)
+            throw mError;
+    }
+
+    SampleArena getArena()
+    {
+        return mArena;
+    }
+
+    private void writeLoop()
+    {
+        while (true)
+        {
+            Sample sample;
+            try {
+                sample = mQueue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (sample == mEndOfStream)
+                return;
+
+            // After a failure samples are only recycled, so the producer never blocks for good
+            if (mError == null)
+            {
+                try {
+                    mSink.writeSample(sample.mView, sample.mPresentationTimeUs, sample.mFlags);
+                } catch (IOException e) {
+                    mError = e;
+                }
+            }
+            mArena.free(sample.mOffset, sample.mSize);
+            mFreeSamples.add(sample);
+        }
+    }
+}
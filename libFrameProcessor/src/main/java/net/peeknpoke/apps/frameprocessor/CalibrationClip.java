@@ -0,0 +1,175 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.LinearGradient;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Shader;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.view.Surface;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Writes the clip {@link PipelineCalibration} processes: shapes moving over a gradient under a
+ * layer of grain, which keeps the encoder about as busy as camera footage without shipping a
+ * video with the library. Frames are drawn with a hardware canvas straight into the encoder.
+ */
+final class CalibrationClip {
+    private static final int BIT_RATE = 16000000;
+    private static final int FRAME_RATE = 30;
+    private static final long DRAIN_TIMEOUT_US = 10000;
+    private static final int GRAIN_SCALE = 8;
+    private static final int SHAPES = 6;
+
+    private CalibrationClip()
+    {
+    }
+
+    /**
+     * Writes an AVC clip, deleting what was written if it fails.
+     */
+    static void write(File file, int width, int height, int frames) throws IOException
+    {
+        MediaFormat format = MediaFormat.createVideoFormat(MediaFormat.MIMETYPE_VIDEO_AVC, width, height);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, BIT_RATE);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, FRAME_RATE);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 1);
+        MediaCodec encoder = MediaCodec.createEncoderByType(MediaFormat.MIMETYPE_VIDEO_AVC);
+        Surface surface = null;
+        MediaMuxer muxer = null;
+        boolean written = false;
+        try {
+            encoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            surface = encoder.createInputSurface();
+            encoder.start();
+            muxer = new MediaMuxer(file.getPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            Painter painter = new Painter(width, height);
+            int[] track = {-1};
+            for (int frame = 0; frame < frames; frame++)
+            {
+                Canvas canvas = surface.lockHardwareCanvas();
+                try {
+                    painter.draw(canvas, frame);
+                } finally {
+                    surface.unlockCanvasAndPost(canvas);
+                }
+                drain(encoder, muxer, track, false);
+            }
+            encoder.signalEndOfInputStream();
+            drain(encoder, muxer, track, true);
+            painter.recycle();
+            written = true;
+        } catch (IllegalStateException e) {
+            // MediaCodec.CodecException is one too
+            throw new IOException("Could not write the calibration clip - " + e.getMessage());
+        } finally {
+            encoder.release();
+            if (surface != null)
+                surface.release();
+            if (muxer != null)
+            {
+                try {
+                    muxer.stop();
+                } catch (IllegalStateException e) {
+                    written = false;
+                }
+                muxer.release();
+            }
+            if (!written)
+                file.delete();
+        }
+    }
+
+    /**
+     * Writes the encoded samples to the muxer until the encoder has no more, or until the end of
+     * the stream if waiting for it.
+     */
+    private static void drain(MediaCodec encoder, MediaMuxer muxer, int[] track, boolean endOfStream)
+    {
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        while (true)
+        {
+            int index = encoder.dequeueOutputBuffer(info, DRAIN_TIMEOUT_US);
+            if (index == MediaCodec.INFO_TRY_AGAIN_LATER)
+            {
+                if (!endOfStream)
+                    return;
+            }
+            else if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED)
+            {
+                track[0] = muxer.addTrack(encoder.getOutputFormat());
+                muxer.start();
+            }
+            else if (index >= 0)
+            {
+                ByteBuffer data = encoder.getOutputBuffer(index);
+                if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0 && info.size > 0 && data != null)
+                    muxer.writeSampleData(track[0], data, info);
+                encoder.releaseOutputBuffer(index, false);
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0)
+                    return;
+            }
+        }
+    }
+
+    private static final class Painter {
+        private final int mWidth;
+        private final int mHeight;
+        private final Paint mBackground = new Paint();
+        private final Paint mShape = new Paint(Paint.ANTI_ALIAS_FLAG);
+        private final Paint mGrainPaint = new Paint();
+        private final Bitmap mGrain;
+        private final int[] mGrainPixels;
+        private final Rect mFrame;
+        private final Random mRandom = new Random(1);
+
+        Painter(int width, int height)
+        {
+            mWidth = width;
+            mHeight = height;
+            mBackground.setShader(new LinearGradient(0, 0, width, height, Color.rgb(20, 30, 60),
+                    Color.rgb(200, 160, 90), Shader.TileMode.CLAMP));
+            int grainWidth = Math.max(1, width/GRAIN_SCALE);
+            int grainHeight = Math.max(1, height/GRAIN_SCALE);
+            mGrain = Bitmap.createBitmap(grainWidth, grainHeight, Bitmap.Config.ARGB_8888);
+            mGrainPixels = new int[grainWidth*grainHeight];
+            mFrame = new Rect(0, 0, width, height);
+        }
+
+        void draw(Canvas canvas, int frame)
+        {
+            canvas.drawRect(mFrame, mBackground);
+            for (int i = 0; i < SHAPES; i++)
+            {
+                double phase = 2*Math.PI*(frame/(double) FRAME_RATE/(2 + i) + i/(double) SHAPES);
+                float x = (float) (mWidth*(0.5 + 0.4*Math.cos(phase)));
+                float y = (float) (mHeight*(0.5 + 0.4*Math.sin(1.3*phase)));
+                mShape.setColor(Color.HSVToColor(new float[]{360.0f*i/SHAPES, 0.7f, 0.9f}));
+                canvas.drawCircle(x, y, mHeight/(6.0f + i), mShape);
+            }
+            // Fresh grain every frame, as a sensor in low light gives
+            for (int i = 0; i < mGrainPixels.length; i++)
+            {
+                int level = mRandom.nextInt(256);
+                mGrainPixels[i] = Color.argb(40, level, level, level);
+            }
+            mGrain.setPixels(mGrainPixels, 0, mGrain.getWidth(), 0, 0, mGrain.getWidth(), mGrain.getHeight());
+            canvas.drawBitmap(mGrain, null, mFrame, mGrainPaint);
+        }
+
+        void recycle()
+        {
+            mGrain.recycle();
+        }
+    }
+}
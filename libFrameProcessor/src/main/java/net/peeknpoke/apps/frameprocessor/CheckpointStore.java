@@ -0,0 +1,96 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * One checkpoint file per job in a private directory. A checkpoint is written to a temporary file
+ * and renamed over the previous one, so a kill while saving leaves the previous checkpoint intact.
+ */
+final class CheckpointStore {
+    private static final String EXTENSION = ".checkpoint";
+    private static final String TEMPORARY_EXTENSION = ".tmp";
+
+    private final File mDirectory;
+
+    CheckpointStore(File directory)
+    {
+        mDirectory = directory;
+    }
+
+    synchronized void save(JobCheckpoint checkpoint) throws IOException
+    {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs())
+            throw new IOException("Could not create " + mDirectory);
+        File temporary = new File(mDirectory, checkpoint.jobId + EXTENSION + TEMPORARY_EXTENSION);
+        FileOutputStream output = new FileOutputStream(temporary);
+        try {
+            checkpoint.write(output);
+            // Survive a power loss too, not only a kill of the process
+            output.getFD().sync();
+        } finally {
+            output.close();
+        }
+        if (!temporary.renameTo(file(checkpoint.jobId)))
+            throw new IOException("Could not replace the checkpoint of " + checkpoint.jobId);
+    }
+
+    /**
+     * @return the checkpoint, or null if the job has none
+     * @throws IOException if the checkpoint cannot be read
+     */
+    synchronized JobCheckpoint load(String jobId) throws IOException
+    {
+        File file = file(jobId);
+        if (!file.exists())
+            return null;
+        InputStream input = new FileInputStream(file);
+        try {
+            return JobCheckpoint.read(input);
+        } finally {
+            input.close();
+        }
+    }
+
+    synchronized void delete(String jobId)
+    {
+        file(jobId).delete();
+        new File(mDirectory, jobId + EXTENSION + TEMPORARY_EXTENSION).delete();
+    }
+
+    /**
+     * @return the jobs that have a checkpoint, oldest first
+     */
+    synchronized List<String> list()
+    {
+        List<String> jobIds = new ArrayList<>();
+        File[] files = mDirectory.listFiles();
+        if (files == null)
+            return jobIds;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File file : files)
+        {
+            String name = file.getName();
+            if (name.endsWith(EXTENSION))
+                jobIds.add(name.substring(0, name.length() - EXTENSION.length()));
+        }
+        return jobIds;
+    }
+
+    private File file(String jobId)
+    {
+        return new File(mDirectory, jobId + EXTENSION);
+    }
+}
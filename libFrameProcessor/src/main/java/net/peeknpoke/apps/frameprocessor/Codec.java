@@ -0,0 +1,26 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The calls the pipeline makes on an asynchronous MediaCodec, so that its scheduling can run
+ * against simulated codecs. Flags are the MediaCodec BUFFER_FLAG_* values.
+ */
+interface Codec {
+    interface Callback {
+        void onInputBufferAvailable(int index);
+
+        void onOutputBufferAvailable(int index, long presentationTimeUs, int size, int flags);
+    }
+
+    ByteBuffer getInputBuffer(int index);
+
+    void queueInputBuffer(int index, int size, long presentationTimeUs, int flags);
+
+    /**
+     * @param render true to send the buffer to the output surface
+     */
+    void releaseOutputBuffer(int index, boolean render);
+
+    void signalEndOfInputStream();
+}
@@ -0,0 +1,80 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Text serialization of the codec list. The first line identifies the format version and the
+ * build fingerprint; a cache written by another build is ignored, since system updates change
+ * the codecs. Each following line holds one tab separated {@link CodecDescriptor}.
+ */
+final class CodecCapabilityCache {
+    private static final String HEADER = "codecs-v1";
+
+    private CodecCapabilityCache()
+    {
+    }
+
+    static void write(Writer writer, String fingerprint, List<CodecDescriptor> codecs) throws IOException
+    {
+        writer.write(HEADER + "\t" + fingerprint + "\n");
+        for (CodecDescriptor codec : codecs)
+        {
+            StringBuilder line = new StringBuilder();
+            line.append(codec.name).append('\t')
+                    .append(codec.mimeType).append('\t')
+                    .append(codec.encoder ? 'E' : 'D')
+                    .append(codec.hardwareAccelerated ? 'H' : '-')
+                    .append(codec.softwareOnly ? 'S' : '-').append('\t')
+                    .append(codec.minWidth).append('\t')
+                    .append(codec.maxWidth).append('\t')
+                    .append(codec.minHeight).append('\t')
+                    .append(codec.maxHeight).append('\t')
+                    .append(codec.widthAlignment).append('\t')
+                    .append(codec.heightAlignment);
+            for (float frameRate : codec.achievableFrameRates)
+                line.append('\t').append(frameRate);
+            writer.write(line.append('\n').toString());
+        }
+    }
+
+    /**
+     * @return the cached codecs, or null if the cache belongs to another build or is unreadable
+     */
+    static List<CodecDescriptor> read(Reader reader, String fingerprint) throws IOException
+    {
+        BufferedReader lines = new BufferedReader(reader);
+        String header = lines.readLine();
+        if (header == null || !header.equals(HEADER + "\t" + fingerprint))
+            return null;
+
+        List<CodecDescriptor> codecs = new ArrayList<>();
+        String line;
+        while ((line = lines.readLine()) != null)
+        {
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+            String[] fields = line.split("\t");
+            int rates = CodecDescriptor.PROBE_SIZES.length;
+            if (fields.length != 9 + rates || fields[2].length() != 3)
+                return null;
+            try {
+                float[] frameRates = new float[rates];
+                for (int i = 0; i < rates; i++)
+                    frameRates[i] = Float.parseFloat(fields[9 + i]);
+                codecs.add(new CodecDescriptor(fields[0], fields[1],
+                        fields[2].charAt(0) == 'E', fields[2].charAt(1) == 'H', fields[2].charAt(2) == 'S',
+                        Integer.parseInt(fields[3]), Integer.parseInt(fields[4]),
+                        Integer.parseInt(fields[5]), Integer.parseInt(fields[6]),
+                        Integer.parseInt(fields[7]), Integer.parseInt(fields[8]), frameRates));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return codecs;
+    }
+}
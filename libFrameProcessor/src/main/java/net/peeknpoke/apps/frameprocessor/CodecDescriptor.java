@@ -0,0 +1,98 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.util.Arrays;
+
+/**
+ * The capabilities of one codec for one mime type, as far as codec selection is concerned. Kept
+ * free of android.media types so that it can be cached on disk and ranked in JVM tests.
+ */
+final class CodecDescriptor {
+    /**
+     * Frame sizes at which the achievable frame rate is recorded, as {width, height} pairs.
+     */
+    static final int[][] PROBE_SIZES = {{1280, 720}, {1920, 1080}, {3840, 2160}};
+
+    final String name;
+    final String mimeType;
+    final boolean encoder;
+    final boolean hardwareAccelerated;
+    final boolean softwareOnly;
+    final int minWidth;
+    final int maxWidth;
+    final int minHeight;
+    final int maxHeight;
+    final int widthAlignment;
+    final int heightAlignment;
+    /**
+     * Achievable frame rate at each of {@link #PROBE_SIZES}; 0 where unsupported, -1 where the
+     * codec does not publish measurements.
+     */
+    final float[] achievableFrameRates;
+
+    CodecDescriptor(String name, String mimeType, boolean encoder, boolean hardwareAccelerated,
+                    boolean softwareOnly, int minWidth, int maxWidth, int minHeight, int maxHeight,
+                    int widthAlignment, int heightAlignment, float[] achievableFrameRates)
+    {
+        if (achievableFrameRates.length != PROBE_SIZES.length)
+            throw new IllegalArgumentException("Expected " + PROBE_SIZES.length + " frame rates");
+        this.name = name;
+        this.mimeType = mimeType;
+        this.encoder = encoder;
+        this.hardwareAccelerated = hardwareAccelerated;
+        this.softwareOnly = softwareOnly;
+        this.minWidth = minWidth;
+        this.maxWidth = maxWidth;
+        this.minHeight = minHeight;
+        this.maxHeight = maxHeight;
+        this.widthAlignment = Math.max(1, widthAlignment);
+        this.heightAlignment = Math.max(1, heightAlignment);
+        this.achievableFrameRates = achievableFrameRates.clone();
+    }
+
+    /**
+     * Size check in either orientation, since portrait video is usually stored rotated.
+     */
+    boolean supportsSize(int width, int height)
+    {
+        return fits(width, height) || fits(height, width);
+    }
+
+    private boolean fits(int width, int height)
+    {
+        return width >= minWidth && width <= maxWidth && height >= minHeight && height <= maxHeight
+                && width%widthAlignment == 0 && height%heightAlignment == 0;
+    }
+
+    /**
+     * Estimates the achievable frame rate at the given size from the recorded measurements,
+     * scaling the nearest measurement by pixel count.
+     * @return the estimate, or -1 if the codec published no measurements
+     */
+    float estimateFrameRate(int width, int height)
+    {
+        long pixels = (long) width*height;
+        int nearest = -1;
+        long nearestDistance = Long.MAX_VALUE;
+        for (int i = 0; i < PROBE_SIZES.length; i++)
+        {
+            if (achievableFrameRates[i] <= 0)
+                continue;
+            long distance = Math.abs((long) PROBE_SIZES[i][0]*PROBE_SIZES[i][1] - pixels);
+            if (distance < nearestDistance)
+            {
+                nearest = i;
+                nearestDistance = distance;
+            }
+        }
+        if (nearest < 0)
+            return -1.0f;
+        return achievableFrameRates[nearest]*PROBE_SIZES[nearest][0]*PROBE_SIZES[nearest][1]/pixels;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + mimeType + (encoder ? " encoder" : " decoder")
+                + (hardwareAccelerated ? ", hw" : "") + (softwareOnly ? ", sw" : "")
+                + ", " + maxWidth + "x" + maxHeight + ", fps " + Arrays.toString(achievableFrameRates) + ")";
+    }
+}
@@ -0,0 +1,67 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Orders the codecs able to handle a stream by expected speed: hardware accelerated codecs first,
+ * software-only codecs last, and within each group the highest achievable frame rate at the
+ * stream size first. Ties keep the platform order.
+ */
+final class CodecRanker {
+    private CodecRanker()
+    {
+    }
+
+    static List<CodecDescriptor> rank(List<CodecDescriptor> codecs, String mimeType, boolean encoder,
+                                      final int width, final int height)
+    {
+        List<CodecDescriptor> candidates = new ArrayList<>();
+        for (CodecDescriptor codec : codecs)
+        {
+            if (codec.encoder == encoder && codec.mimeType.equalsIgnoreCase(mimeType)
+                    && codec.supportsSize(width, height))
+                candidates.add(codec);
+        }
+
+        // Collections.sort is stable, so equal codecs stay in platform order
+        Collections.sort(candidates, new Comparator<CodecDescriptor>() {
+            @Override
+            public int compare(CodecDescriptor a, CodecDescriptor b) {
+                int result = tier(a) - tier(b);
+                if (result != 0)
+                    return result;
+                return Float.compare(b.estimateFrameRate(width, height), a.estimateFrameRate(width, height));
+            }
+        });
+        return candidates;
+    }
+
+    /**
+     * @return the name of the best codec, or null if none can handle the stream
+     */
+    static String select(List<CodecDescriptor> codecs, String mimeType, boolean encoder, int width, int height)
+    {
+        List<CodecDescriptor> ranked = rank(codecs, mimeType, encoder, width, height);
+        return ranked.isEmpty() ? null : ranked.get(0).name;
+    }
+
+    private static int tier(CodecDescriptor codec)
+    {
+        if (codec.hardwareAccelerated)
+            return 0;
+        return codec.softwareOnly ? 2 : 1;
+    }
+
+    /**
+     * Name based classification for platforms that do not report it (before Android 10).
+     */
+    static boolean isSoftwareName(String name)
+    {
+        String lower = name.toLowerCase();
+        return lower.startsWith("omx.google.") || lower.startsWith("c2.android.")
+                || lower.startsWith("omx.ffmpeg.") || lower.contains(".sw.") || lower.endsWith(".sw");
+    }
+}
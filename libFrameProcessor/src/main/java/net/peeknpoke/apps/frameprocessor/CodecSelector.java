@@ -0,0 +1,163 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.content.Context;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.os.Build;
+import android.util.Log;
+import android.util.Range;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Picks codecs by name instead of relying on the platform order of
+ * {@link MediaCodec#createDecoderByType}, which sometimes puts a software codec first.
+ * {@link MediaCodecList} is enumerated once per process and the result is cached on disk per
+ * build fingerprint, since querying every codec's capabilities is slow.
+ */
+final class CodecSelector {
+    private static final String TAG = CodecSelector.class.getSimpleName();
+    private static final String CACHE_FILE = "codec_capabilities.txt";
+
+    private static List<CodecDescriptor> sCodecs;
+
+    private CodecSelector()
+    {
+    }
+
+    static synchronized List<CodecDescriptor> getCodecs(Context context)
+    {
+        if (sCodecs != null)
+            return sCodecs;
+
+        File cacheFile = new File(context.getCacheDir(), CACHE_FILE);
+        List<CodecDescriptor> codecs = readCache(cacheFile);
+        if (codecs == null)
+        {
+            codecs = enumerate();
+            writeCache(cacheFile, codecs);
+        }
+        sCodecs = Collections.unmodifiableList(codecs);
+        return sCodecs;
+    }
+
+    static MediaCodec createDecoder(Context context, String mimeType, int width, int height) throws IOException
+    {
+        return create(context, mimeType, false, width, height);
+    }
+
+    static MediaCodec createEncoder(Context context, String mimeType, int width, int height) throws IOException
+    {
+        return create(context, mimeType, true, width, height);
+    }
+
+    private static MediaCodec create(Context context, String mimeType, boolean encoder, int width, int height)
+            throws IOException
+    {
+        List<CodecDescriptor> ranked = CodecRanker.rank(getCodecs(context), mimeType, encoder, width, height);
+        for (CodecDescriptor codec : ranked)
+        {
+            try {
+                Log.d(TAG, "Using " + codec);
+                return MediaCodec.createByCodecName(codec.name);
+            } catch (IOException | IllegalArgumentException e) {
+                Log.e(TAG, "Could not create " + codec.name + " - " + e.getMessage());
+            }
+        }
+        Log.d(TAG, "No ranked codec for " + mimeType + ", using the platform default");
+        return encoder ? MediaCodec.createEncoderByType(mimeType) : MediaCodec.createDecoderByType(mimeType);
+    }
+
+    private static List<CodecDescriptor> enumerate()
+    {
+        List<CodecDescriptor> codecs = new ArrayList<>();
+        for (MediaCodecInfo info : new MediaCodecList(MediaCodecList.REGULAR_CODECS).getCodecInfos())
+        {
+            for (String mimeType : info.getSupportedTypes())
+            {
+                if (!mimeType.startsWith("video/"))
+                    continue;
+                try {
+                    codecs.add(describe(info, mimeType));
+                } catch (IllegalArgumentException e) {
+                    Log.e(TAG, "Could not query " + info.getName() + " - " + e.getMessage());
+                }
+            }
+        }
+        return codecs;
+    }
+
+    private static CodecDescriptor describe(MediaCodecInfo info, String mimeType)
+    {
+        MediaCodecInfo.VideoCapabilities video = info.getCapabilitiesForType(mimeType).getVideoCapabilities();
+        boolean hardwareAccelerated;
+        boolean softwareOnly;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q)
+        {
+            hardwareAccelerated = info.isHardwareAccelerated();
+            softwareOnly = info.isSoftwareOnly();
+        }
+        else
+        {
+            softwareOnly = CodecRanker.isSoftwareName(info.getName());
+            hardwareAccelerated = !softwareOnly;
+        }
+
+        float[] frameRates = new float[CodecDescriptor.PROBE_SIZES.length];
+        for (int i = 0; i < frameRates.length; i++)
+        {
+            int width = CodecDescriptor.PROBE_SIZES[i][0];
+            int height = CodecDescriptor.PROBE_SIZES[i][1];
+            if (!video.isSizeSupported(width, height))
+                continue;
+            Range<Double> achievable = video.getAchievableFrameRatesFor(width, height);
+            frameRates[i] = achievable == null ? -1.0f : achievable.getUpper().floatValue();
+        }
+
+        return new CodecDescriptor(info.getName(), mimeType, info.isEncoder(), hardwareAccelerated,
+                softwareOnly, video.getSupportedWidths().getLower(), video.getSupportedWidths().getUpper(),
+                video.getSupportedHeights().getLower(), video.getSupportedHeights().getUpper(),
+                video.getWidthAlignment(), video.getHeightAlignment(), frameRates);
+    }
+
+    private static List<CodecDescriptor> readCache(File file)
+    {
+        if (!file.exists())
+            return null;
+        try {
+            Reader reader = new FileReader(file);
+            try {
+                return CodecCapabilityCache.read(reader, Build.FINGERPRINT);
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Could not read codec cache - " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static void writeCache(File file, List<CodecDescriptor> codecs)
+    {
+        try {
+            Writer writer = new BufferedWriter(new FileWriter(file));
+            try {
+                CodecCapabilityCache.write(writer, Build.FINGERPRINT, codecs);
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Could not write codec cache - " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package net.peeknpoke.apps.frameprocessor;
+
+/**
+ * CPU reference of the HDR transfer functions used by the tone mapping shader (tonemap.frag).
+ * Signals are normalized to [0, 1]; linear light is either relative to 10000 nits (PQ) or scene
+ * referred (HLG). The constants follow ITU-R BT.2100 and the tone curve is the BT.2390 EETF.
+ */
+final class ColorTransfer {
+    static final float PQ_MAX_NITS = 10000.0f;
+    static final float HLG_REFERENCE_PEAK_NITS = 1000.0f;
+    static final float SDR_WHITE_NITS = 100.0f;
+
+    private static final double PQ_M1 = 2610.0/16384.0;
+    private static final double PQ_M2 = 2523.0/4096.0*128.0;
+    private static final double PQ_C1 = 3424.0/4096.0;
+    private static final double PQ_C2 = 2413.0/4096.0*32.0;
+    private static final double PQ_C3 = 2392.0/4096.0*32.0;
+
+    private static final double HLG_A = 0.17883277;
+    private static final double HLG_B = 1.0 - 4.0*HLG_A;
+    private static final double HLG_C = 0.5 - HLG_A*Math.log(4.0*HLG_A);
+
+    // BT.2020 luminance coefficients
+    static final float KR = 0.2627f;
+    static final float KG = 0.6780f;
+    static final float KB = 0.0593f;
+
+    /**
+     * Linear BT.2020 to linear BT.709 primaries, row major.
+     */
+    static final float[] BT2020_TO_BT709 = {
+            1.6605f, -0.5876f, -0.0728f,
+            -0.1246f, 1.1329f, -0.0083f,
+            -0.0182f, -0.1006f, 1.1187f
+    };
+
+    private ColorTransfer()
+    {
+    }
+
+    /**
+     * @return linear light relative to {@link #PQ_MAX_NITS}
+     */
+    static float pqEotf(float signal)
+    {
+        double p = Math.pow(Math.max(signal, 0.0f), 1.0/PQ_M2);
+        return (float) Math.pow(Math.max(p - PQ_C1, 0.0)/(PQ_C2 - PQ_C3*p), 1.0/PQ_M1);
+    }
+
+    static float pqInverseEotf(float linear)
+    {
+        double y = Math.pow(Math.max(linear, 0.0f), PQ_M1);
+        return (float) Math.pow((PQ_C1 + PQ_C2*y)/(1.0 + PQ_C3*y), PQ_M2);
+    }
+
+    static float hlgOetf(float sceneLinear)
+    {
+        if (sceneLinear <= 1.0f/12.0f)
+            return (float) Math.sqrt(3.0*Math.max(sceneLinear, 0.0f));
+        return (float) (HLG_A*Math.log(12.0*sceneLinear - HLG_B) + HLG_C);
+    }
+
+    static float hlgInverseOetf(float signal)
+    {
+        if (signal <= 0.5f)
+            return Math.max(signal, 0.0f)*signal/3.0f;
+        return (float) ((Math.exp((signal - HLG_C)/HLG_A) + HLG_B)/12.0);
+    }
+
+    /**
+     * HLG system gamma for a display of the given peak luminance.
+     */
+    static float hlgSystemGamma(float peakNits)
+    {
+        return (float) (1.2 + 0.42*Math.log10(peakNits/HLG_REFERENCE_PEAK_NITS));
+    }
+
+    /**
+     * Applies the HLG OOTF in place, turning scene linear RGB into display light in nits.
+     */
+    static void hlgOotf(float[] rgb, float peakNits)
+    {
+        float luminance = KR*rgb[0] + KG*rgb[1] + KB*rgb[2];
+        float scale = luminance <= 0.0f ? 0.0f
+                : peakNits*(float) Math.pow(luminance, hlgSystemGamma(peakNits) - 1.0f);
+        for (int i = 0; i < 3; i++)
+            rgb[i] *= scale;
+    }
+
+    /**
+     * BT.2390 EETF on PQ signals with a zero black level: values below the knee are kept,
+     * values above are rolled off with a Hermite spline so that sourcePeak maps to targetPeak.
+     */
+    static float eetf(float signal, float sourcePeak, float targetPeak)
+    {
+        if (targetPeak >= sourcePeak)
+            return signal;
+        double e1 = Math.min((double) signal/sourcePeak, 1.0);
+        double maxLum = (double) targetPeak/sourcePeak;
+        double ks = 1.5*maxLum - 0.5;
+        double e2 = e1;
+        if (e1 >= ks)
+        {
+            double t = (e1 - ks)/(1.0 - ks);
+            double t2 = t*t;
+            double t3 = t2*t;
+            e2 = (2.0*t3 - 3.0*t2 + 1.0)*ks + (t3 - 2.0*t2 + t)*(1.0 - ks) + (-2.0*t3 + 3.0*t2)*maxLum;
+        }
+        return (float) (e2*sourcePeak);
+    }
+
+    static float bt1886InverseEotf(float linear)
+    {
+        return (float) Math.pow(Math.min(Math.max(linear, 0.0f), 1.0f), 1.0/2.4);
+    }
+
+    /**
+     * Converts an HDR signal (BT.2020, PQ or HLG) into an SDR BT.709 signal in place. The
+     * luminance is tone mapped and the chromaticity kept, then out of gamut colors are clipped.
+     * @param sourcePeakNits mastering peak of the content
+     */
+    static void toneMapToSdr(float[] rgb, boolean hlg, float sourcePeakNits)
+    {
+        // Display light in nits
+        for (int i = 0; i < 3; i++)
+            rgb[i] = hlg ? hlgInverseOetf(rgb[i]) : pqEotf(rgb[i])*PQ_MAX_NITS;
+        if (hlg)
+            hlgOotf(rgb, sourcePeakNits);
+
+        float luminance = KR*rgb[0] + KG*rgb[1] + KB*rgb[2];
+        float scale = 0.0f;
+        if (luminance > 0.0f)
+        {
+            float mapped = eetf(pqInverseEotf(luminance/PQ_MAX_NITS), pqInverseEotf(sourcePeakNits/PQ_MAX_NITS),
+                    pqInverseEotf(SDR_WHITE_NITS/PQ_MAX_NITS));
+            scale = pqEotf(mapped)*PQ_MAX_NITS/luminance/SDR_WHITE_NITS;
+        }
+
+        float r = rgb[0]*scale;
+        float g = rgb[1]*scale;
+        float b = rgb[2]*scale;
+        for (int i = 0; i < 3; i++)
+        {
+            float linear = BT2020_TO_BT709[3*i]*r + BT2020_TO_BT709[3*i + 1]*g + BT2020_TO_BT709[3*i + 2]*b;
+            rgb[i] = bt1886InverseEotf(linear);
+        }
+    }
+}
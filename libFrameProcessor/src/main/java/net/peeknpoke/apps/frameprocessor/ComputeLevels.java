@@ -0,0 +1,149 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.content.Context;
+import android.opengl.GLES30;
+import android.opengl.GLES31;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Measures levels with OpenGL ES 3.1 compute shaders. histogram.comp counts a grid of pixels of
+ * each frame into a shader storage buffer with shared-memory atomics, and levels.comp turns the
+ * histograms into levels and clears them again. The levels are double buffered: a frame is
+ * filtered with the buffer written after the previous frame while levels.comp writes the other
+ * one, so the filter never waits for the measurement of its own frame.
+ */
+class ComputeLevels implements LevelsSource {
+    private static final String TAG = ComputeLevels.class.getSimpleName();
+    private static final String HISTOGRAM_SHADER_NAME = "histogram.comp";
+    private static final String LEVELS_SHADER_NAME = "levels.comp";
+    private static final int GROUP_SIZE = 16;       // Must match histogram.comp
+    private static final int SIZEOF_INT = 4;
+    private static final int SIZEOF_FLOAT = 4;
+    // Storage buffer bindings of the compute shaders
+    private static final int HISTOGRAM_BINDING = 0;
+    private static final int LEVELS_BINDING = 1;
+    private static final int PREVIOUS_LEVELS_BINDING = 2;
+
+    private final ShareGroup mShareGroup;
+    private final int mHistogramProgram;
+    private final int mLevelsProgram;
+    private final int[] mBuffers = new int[3];      // Histograms, then the two levels
+    private final int mGridWidth;
+    private final int mGridHeight;
+    private final int mStep;
+    private final int mThreshold;
+    private final boolean mPerChannel;
+    private final int mTextureLoc;
+    private final int mGridSizeLoc;
+    private final int mStepLoc;
+    private final int mThresholdLoc;
+    private final int mPerChannelLoc;
+    private final int mMaxGainLoc;
+    private final int mAdaptationLoc;
+    private int mCurrent = 1;
+
+    /**
+     * @return true if the current context can run compute shaders
+     */
+    static boolean isSupported()
+    {
+        int[] version = new int[2];
+        GLES30.glGetIntegerv(GLES30.GL_MAJOR_VERSION, version, 0);
+        GLES30.glGetIntegerv(GLES30.GL_MINOR_VERSION, version, 1);
+        return version[0] > 3 || (version[0] == 3 && version[1] >= 1);
+    }
+
+    /**
+     * @param clip       fraction of the pixels that may clip at either end
+     * @param perChannel see {@link HistogramLevels#levels}
+     * @throws RuntimeException if the shaders do not compile, e.g. on a driver without
+     * shared-memory atomics
+     */
+    ComputeLevels(Context context, int width, int height, float clip, boolean perChannel)
+    {
+        mShareGroup = ShareGroup.current();
+        mHistogramProgram = mShareGroup.acquireComputeProgram(ShaderHelper.loadShaderFile(context,
+                HISTOGRAM_SHADER_NAME));
+        try {
+            mLevelsProgram = mShareGroup.acquireComputeProgram(ShaderHelper.loadShaderFile(context,
+                    LEVELS_SHADER_NAME));
+        } catch (RuntimeException e) {
+            mShareGroup.releaseProgram(mHistogramProgram);
+            throw e;
+        }
+        mTextureLoc = GLES30.glGetUniformLocation(mHistogramProgram, "sTexture");
+        mGridSizeLoc = GLES30.glGetUniformLocation(mHistogramProgram, "uGridSize");
+        mStepLoc = GLES30.glGetUniformLocation(mHistogramProgram, "uStep");
+        mThresholdLoc = GLES30.glGetUniformLocation(mLevelsProgram, "uThreshold");
+        mPerChannelLoc = GLES30.glGetUniformLocation(mLevelsProgram, "uPerChannel");
+        mMaxGainLoc = GLES30.glGetUniformLocation(mLevelsProgram, "uMaxGain");
+        mAdaptationLoc = GLES30.glGetUniformLocation(mLevelsProgram, "uAdaptation");
+
+        mStep = HistogramLevels.sampleStep(width, height);
+        mGridWidth = HistogramLevels.sampledCount(width, mStep);
+        mGridHeight = HistogramLevels.sampledCount(height, mStep);
+        mThreshold = HistogramLevels.clipThreshold(clip, mGridWidth*mGridHeight);
+        mPerChannel = perChannel;
+
+        GLES30.glGenBuffers(mBuffers.length, mBuffers, 0);
+        // Cleared by levels.comp after every frame from then on
+        upload(mBuffers[0], ByteBuffer.allocateDirect(HistogramLevels.CHANNELS*HistogramLevels.BINS*SIZEOF_INT));
+        ByteBuffer identity = ByteBuffer.allocateDirect(HistogramLevels.LEVELS_FLOATS*SIZEOF_FLOAT)
+                .order(ByteOrder.nativeOrder());
+        identity.asFloatBuffer().put(HistogramLevels.identity());
+        upload(mBuffers[1], identity);
+        upload(mBuffers[2], identity);
+        ShaderHelper.checkGLError(TAG, "buffers");
+    }
+
+    private static void upload(int buffer, ByteBuffer data)
+    {
+        GLES30.glBindBuffer(GLES31.GL_SHADER_STORAGE_BUFFER, buffer);
+        GLES30.glBufferData(GLES31.GL_SHADER_STORAGE_BUFFER, data.capacity(), data, GLES30.GL_DYNAMIC_COPY);
+        GLES30.glBindBuffer(GLES31.GL_SHADER_STORAGE_BUFFER, 0);
+    }
+
+    @Override
+    public int getLevelsBuffer() {
+        return mBuffers[mCurrent];
+    }
+
+    @Override
+    public void measure(int inputTexture) {
+        GLES30.glUseProgram(mHistogramProgram);
+        FilterPass.bindTexture(0, GLES30.GL_TEXTURE_2D, inputTexture, mTextureLoc);
+        GLES30.glUniform2i(mGridSizeLoc, mGridWidth, mGridHeight);
+        GLES30.glUniform1i(mStepLoc, mStep);
+        GLES30.glBindBufferBase(GLES31.GL_SHADER_STORAGE_BUFFER, HISTOGRAM_BINDING, mBuffers[0]);
+        GLES31.glDispatchCompute((mGridWidth + GROUP_SIZE - 1)/GROUP_SIZE,
+                (mGridHeight + GROUP_SIZE - 1)/GROUP_SIZE, 1);
+        GLES31.glMemoryBarrier(GLES31.GL_SHADER_STORAGE_BARRIER_BIT);
+
+        int next = 3 - mCurrent;
+        GLES30.glUseProgram(mLevelsProgram);
+        GLES30.glUniform1ui(mThresholdLoc, mThreshold);
+        GLES30.glUniform1i(mPerChannelLoc, mPerChannel ? 1 : 0);
+        GLES30.glUniform1f(mMaxGainLoc, HistogramLevels.MAX_GAIN);
+        GLES30.glUniform1f(mAdaptationLoc, HistogramLevels.ADAPTATION);
+        GLES30.glBindBufferBase(GLES31.GL_SHADER_STORAGE_BUFFER, LEVELS_BINDING, mBuffers[next]);
+        GLES30.glBindBufferBase(GLES31.GL_SHADER_STORAGE_BUFFER, PREVIOUS_LEVELS_BINDING, mBuffers[mCurrent]);
+        GLES31.glDispatchCompute(1, 1, 1);
+        // The next frame reads the levels as uniforms, and the next histogram.comp the cleared bins
+        GLES31.glMemoryBarrier(GLES31.GL_UNIFORM_BARRIER_BIT | GLES31.GL_SHADER_STORAGE_BARRIER_BIT);
+        mCurrent = next;
+
+        for (int binding = HISTOGRAM_BINDING; binding <= PREVIOUS_LEVELS_BINDING; binding++)
+            GLES30.glBindBufferBase(GLES31.GL_SHADER_STORAGE_BUFFER, binding, 0);
+        GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, 0);
+        ShaderHelper.checkGLError(TAG, "measure");
+    }
+
+    @Override
+    public void cleanup() {
+        GLES30.glDeleteBuffers(mBuffers.length, mBuffers, 0);
+        mShareGroup.releaseProgram(mHistogramProgram);
+        mShareGroup.releaseProgram(mLevelsProgram);
+    }
+}
@@ -0,0 +1,124 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * A parsed 3D LUT. Entries are stored as interleaved RGB half floats with red changing fastest,
+ * which is both the .cube order and the layout glTexImage3D expects, so the buffer is uploaded
+ * as is.
+ */
+final class CubeLut {
+    private final String mTitle;
+    private final int mSize;
+    private final float[] mDomainMin;
+    private final float[] mDomainMax;
+    private final ShortBuffer mData;
+
+    CubeLut(String title, int size, float[] domainMin, float[] domainMax, ShortBuffer data)
+    {
+        mTitle = title;
+        mSize = size;
+        mDomainMin = domainMin.clone();
+        mDomainMax = domainMax.clone();
+        mData = data;
+    }
+
+    static ShortBuffer allocateData(int size)
+    {
+        return ByteBuffer.allocateDirect(size*size*size*3*2)
+                .order(ByteOrder.nativeOrder())
+                .asShortBuffer();
+    }
+
+    static CubeLut identity(int size)
+    {
+        ShortBuffer data = allocateData(size);
+        float scale = 1.0f/(size - 1);
+        for (int b = 0; b < size; b++)
+            for (int g = 0; g < size; g++)
+                for (int r = 0; r < size; r++)
+                {
+                    data.put(HalfFloat.toHalf(r*scale));
+                    data.put(HalfFloat.toHalf(g*scale));
+                    data.put(HalfFloat.toHalf(b*scale));
+                }
+        data.position(0);
+        return new CubeLut(null, size, new float[]{0, 0, 0}, new float[]{1, 1, 1}, data);
+    }
+
+    String getTitle() {
+        return mTitle;
+    }
+
+    int getSize() {
+        return mSize;
+    }
+
+    float[] getDomainMin() {
+        return mDomainMin.clone();
+    }
+
+    float[] getDomainMax() {
+        return mDomainMax.clone();
+    }
+
+    /**
+     * @return a read only view of the entries, positioned at 0
+     */
+    ShortBuffer getData()
+    {
+        ShortBuffer data = mData.asReadOnlyBuffer();
+        data.position(0);
+        return data;
+    }
+
+    int getByteCount()
+    {
+        return mData.capacity()*2;
+    }
+
+    /**
+     * CPU reference of the trilinear lookup done by lut.frag.
+     */
+    void sample(float r, float g, float b, float[] out)
+    {
+        float fr = toLatticeCoordinate(r, 0);
+        float fg = toLatticeCoordinate(g, 1);
+        float fb = toLatticeCoordinate(b, 2);
+
+        int r0 = Math.min((int) fr, mSize - 2);
+        int g0 = Math.min((int) fg, mSize - 2);
+        int b0 = Math.min((int) fb, mSize - 2);
+        float dr = fr - r0;
+        float dg = fg - g0;
+        float db = fb - b0;
+
+        for (int c = 0; c < 3; c++)
+        {
+            float c00 = lerp(entry(r0, g0, b0, c), entry(r0 + 1, g0, b0, c), dr);
+            float c10 = lerp(entry(r0, g0 + 1, b0, c), entry(r0 + 1, g0 + 1, b0, c), dr);
+            float c01 = lerp(entry(r0, g0, b0 + 1, c), entry(r0 + 1, g0, b0 + 1, c), dr);
+            float c11 = lerp(entry(r0, g0 + 1, b0 + 1, c), entry(r0 + 1, g0 + 1, b0 + 1, c), dr);
+            out[c] = lerp(lerp(c00, c10, dg), lerp(c01, c11, dg), db);
+        }
+    }
+
+    private float toLatticeCoordinate(float value, int channel)
+    {
+        float normalized = (value - mDomainMin[channel])/(mDomainMax[channel] - mDomainMin[channel]);
+        normalized = Math.max(0.0f, Math.min(1.0f, normalized));
+        return normalized*(mSize - 1);
+    }
+
+    private float entry(int r, int g, int b, int channel)
+    {
+        return HalfFloat.toFloat(mData.get(((b*mSize + g)*mSize + r)*3 + channel));
+    }
+
+    private static float lerp(float a, float b, float t)
+    {
+        return a + (b - a)*t;
+    }
+}
@@ -0,0 +1,312 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ShortBuffer;
+
+/**
+ * Streaming parser for Adobe/Resolve .cube 3D LUTs. The input is scanned through a fixed byte
+ * buffer and numbers are parsed in place, so the only allocation proportional to the LUT is the
+ * output buffer itself.
+ */
+final class CubeLutParser {
+    static final int MIN_SIZE = 2;
+    static final int MAX_SIZE = 256;
+
+    private static final int EOF = -1;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final InputStream mInput;
+    private final byte[] mBuffer = new byte[8192];
+    private int mPosition;
+    private int mLimit;
+    private int mLine = 1;
+    private final StringBuilder mToken = new StringBuilder();
+
+    private CubeLutParser(InputStream input)
+    {
+        mInput = input;
+    }
+
+    static CubeLut parse(InputStream input) throws IOException
+    {
+        return new CubeLutParser(input).parse();
+    }
+
+    private CubeLut parse() throws IOException
+    {
+        String title = null;
+        int size = 0;
+        float[] domainMin = {0.0f, 0.0f, 0.0f};
+        float[] domainMax = {1.0f, 1.0f, 1.0f};
+        ShortBuffer data = null;
+        int entries = 0;
+        int expectedEntries = 0;
+
+        int c;
+        while ((c = skipBlanks()) != EOF)
+        {
+            if (c == '\n' || c == '\r')
+            {
+                read();
+            }
+            else if (c == '#')
+            {
+                skipLine();
+            }
+            else if (isNumberStart(c))
+            {
+                if (data == null)
+                    throw error("LUT data before LUT_3D_SIZE");
+                if (entries == expectedEntries)
+                    throw error("Too many LUT entries");
+                for (int channel = 0; channel < 3; channel++)
+                    data.put(HalfFloat.toHalf(readFloat()));
+                entries++;
+                endLine();
+            }
+            else
+            {
+                String keyword = readWord();
+                if (keyword.equals("TITLE"))
+                {
+                    title = readTitle();
+                }
+                else if (keyword.equals("LUT_3D_SIZE"))
+                {
+                    if (data != null)
+                        throw error("Duplicate LUT_3D_SIZE");
+                    size = readInt();
+                    if (size < MIN_SIZE || size > MAX_SIZE)
+                        throw error("Unsupported LUT size " + size);
+                    expectedEntries = size*size*size;
+                    data = CubeLut.allocateData(size);
+                    endLine();
+                }
+                else if (keyword.equals("DOMAIN_MIN"))
+                {
+                    readTriplet(domainMin);
+                }
+                else if (keyword.equals("DOMAIN_MAX"))
+                {
+                    readTriplet(domainMax);
+                }
+                else if (keyword.equals("LUT_1D_SIZE") || keyword.equals("LUT_1D_INPUT_RANGE"))
+                {
+                    throw error("1D LUTs are not supported");
+                }
+                else
+                {
+                    // Vendor specific keywords (e.g. LUT_3D_INPUT_RANGE variants) are ignored
+                    skipLine();
+                }
+            }
+        }
+
+        if (data == null)
+            throw error("Missing LUT_3D_SIZE");
+        if (entries != expectedEntries)
+            throw error("Expected " + expectedEntries + " LUT entries, found " + entries);
+        for (int channel = 0; channel < 3; channel++)
+        {
+            if (domainMax[channel] <= domainMin[channel])
+                throw error("Invalid domain");
+        }
+
+        data.position(0);
+        return new CubeLut(title, size, domainMin, domainMax, data);
+    }
+
+    private void readTriplet(float[] out) throws IOException
+    {
+        for (int channel = 0; channel < 3; channel++)
+            out[channel] = readFloat();
+        endLine();
+    }
+
+    private String readTitle() throws IOException
+    {
+        int c = skipBlanks();
+        mToken.setLength(0);
+        if (c == '"')
+        {
+            read();
+            while ((c = read()) != EOF && c != '"' && c != '\n')
+                mToken.append((char) c);
+            if (c == '"')
+                skipLine();
+        }
+        else
+        {
+            while ((c = peek()) != EOF && c != '\n' && c != '\r')
+                mToken.append((char) read());
+        }
+        return mToken.toString().trim();
+    }
+
+    private String readWord() throws IOException
+    {
+        mToken.setLength(0);
+        int c;
+        while ((c = peek()) != EOF && !isWhitespace(c))
+            mToken.append((char) read());
+        return mToken.toString();
+    }
+
+    private int readInt() throws IOException
+    {
+        float value = readFloat();
+        if (value != (int) value)
+            throw error("Expected an integer");
+        return (int) value;
+    }
+
+    private float readFloat() throws IOException
+    {
+        int c = skipBlanks();
+        boolean negative = false;
+        if (c == '-' || c == '+')
+        {
+            negative = c == '-';
+            read();
+            c = peek();
+        }
+
+        long mantissa = 0;
+        int exponent = 0;
+        int digits = 0;
+        while (c >= '0' && c <= '9')
+        {
+            if (mantissa < 100000000000000000L)
+                mantissa = mantissa*10 + (c - '0');
+            else
+                exponent++;
+            digits++;
+            read();
+            c = peek();
+        }
+        if (c == '.')
+        {
+            read();
+            c = peek();
+            while (c >= '0' && c <= '9')
+            {
+                if (mantissa < 100000000000000000L)
+                {
+                    mantissa = mantissa*10 + (c - '0');
+                    exponent--;
+                }
+                digits++;
+                read();
+                c = peek();
+            }
+        }
+        if (digits == 0)
+            throw error("Expected a number");
+
+        if (c == 'e' || c == 'E')
+        {
+            read();
+            c = peek();
+            boolean negativeExponent = false;
+            if (c == '-' || c == '+')
+            {
+                negativeExponent = c == '-';
+                read();
+                c = peek();
+            }
+            int explicitExponent = 0;
+            int exponentDigits = 0;
+            while (c >= '0' && c <= '9')
+            {
+                if (explicitExponent < 1000)
+                    explicitExponent = explicitExponent*10 + (c - '0');
+                exponentDigits++;
+                read();
+                c = peek();
+            }
+            if (exponentDigits == 0)
+                throw error("Malformed exponent");
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+
+        double value = mantissa;
+        if (exponent < 0)
+            value = -exponent < POWERS_OF_TEN.length ? value/POWERS_OF_TEN[-exponent] : value*Math.pow(10, exponent);
+        else if (exponent > 0)
+            value = exponent < POWERS_OF_TEN.length ? value*POWERS_OF_TEN[exponent] : value*Math.pow(10, exponent);
+        return (float) (negative ? -value : value);
+    }
+
+    /**
+     * Consumes the end of a line, allowing only blanks and a trailing comment.
+     */
+    private void endLine() throws IOException
+    {
+        int c = skipBlanks();
+        if (c == '#')
+            skipLine();
+        else if (c != EOF && c != '\n' && c != '\r')
+            throw error("Unexpected character '" + (char) c + "'");
+    }
+
+    private void skipLine() throws IOException
+    {
+        int c;
+        while ((c = peek()) != EOF && c != '\n')
+            read();
+    }
+
+    private int skipBlanks() throws IOException
+    {
+        int c;
+        while ((c = peek()) == ' ' || c == '\t')
+            read();
+        return c;
+    }
+
+    private int peek() throws IOException
+    {
+        if (mPosition == mLimit && !fill())
+            return EOF;
+        return mBuffer[mPosition] & 0xff;
+    }
+
+    private int read() throws IOException
+    {
+        if (mPosition == mLimit && !fill())
+            return EOF;
+        int c = mBuffer[mPosition++] & 0xff;
+        if (c == '\n')
+            mLine++;
+        return c;
+    }
+
+    private boolean fill() throws IOException
+    {
+        int count = mInput.read(mBuffer, 0, mBuffer.length);
+        if (count <= 0)
+            return false;
+        mPosition = 0;
+        mLimit = count;
+        return true;
+    }
+
+    private static boolean isNumberStart(int c)
+    {
+        return (c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.';
+    }
+
+    private static boolean isWhitespace(int c)
+    {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    private IOException error(String message)
+    {
+        return new IOException("Invalid .cube file, line " + mLine + ": " + message);
+    }
+}
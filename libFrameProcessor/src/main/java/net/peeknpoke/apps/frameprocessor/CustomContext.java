@@ -4,110 +4,461 @@ import android.content.Context;
 import android.graphics.SurfaceTexture;
 import android.opengl.EGL14;
 import android.opengl.EGLConfig;
-import android.opengl.EGLContext;
 import android.opengl.EGLDisplay;
 import android.opengl.EGLExt;
 import android.opengl.EGLSurface;
 import android.opengl.GLES30;
 import android.opengl.Matrix;
+import android.util.Log;
 import android.view.Surface;
 
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 class CustomContext implements SurfaceTexture.OnFrameAvailableListener, ObserverSubject<CustomContextObserver> {
     private static final String TAG = CustomContext.class.getSimpleName();
-    private EGLContext mCtx;
+    // EGL_KHR_gl_colorspace, EGL_EXT_gl_colorspace_bt2020_pq and _hlg, not in EGLExt
+    private static final int EGL_GL_COLORSPACE_KHR = 0x309D;
+    private static final int EGL_GL_COLORSPACE_BT2020_PQ_EXT = 0x3340;
+    private static final int EGL_GL_COLORSPACE_BT2020_HLG_EXT = 0x3540;
+    private EglContextManager.Worker mWorker;
     private EGLDisplay mDpy;
+    private EGLConfig mConfig;
     private EGLSurface mSurf;
+    private EGLSurface[] mSurfaces;
+    private List<RenditionLadder.Rung> mRungs;
+    private Context mContext;
+    private FrameBuffer mLadderFrame;
+    private FilterPass mScaler;
+    private FilterPass mPreviewPass;
+    private Surface mPreviewWindow;
+    private EGLSurface mPreviewSurface;
+    private PreviewPacer mPreviewPacer;
+    private int mPreviewRotation;
+    private int mScalerTextureLoc;
+    private int mScalerOffsetLoc;
     private TextureHandler mTextureHandler;
-    private Renderer mRenderer;
+    private FilterPipeline mFilterPipeline;
+    private OverlayPass mOverlayPass;
+    private FrameBufferPool mFrameBufferPool;
+    private final FrameProcessorSettings mSettings;
+    private AnalysisTap mAnalysisTap;
+    private StillCapture mStillCapture;
+    private SceneCutPass mSceneCutPass;
+    private final StillEncoder.Destination mStillDestination;
+    private boolean mHasEncoder;
+    private DynamicRange mDynamicRange = DynamicRange.SDR;
+    private long mFrameCount;
     private int mImageWidth;
     private int mImageHeight;
     private SurfaceTexture mSurfaceTexture;
     private Surface mSurface;
     private float[] mTransformMatrix = new float[16];
-    final Object syncWithDecoder = new Object();
-    boolean frameRendered = false;
-    final Object syncWithEncoder = new Object();
-    boolean frameEncoded = true;
-    long frameTime;
+    private final FrameHandshake mHandshake;
+    private ThroughputGovernor mGovernor;
     private List<WeakReference<CustomContextObserver>> mObservers = new ArrayList<>();
 
-    CustomContext(int imageWidth, int imageHeight)
+    CustomContext(int imageWidth, int imageHeight, FrameProcessorSettings settings,
+                  StillEncoder.Destination stillDestination, FrameHandshake handshake)
     {
+        mHandshake = handshake;
         Matrix.setIdentityM(mTransformMatrix, 0);
         mImageWidth = imageWidth;
         mImageHeight = imageHeight;
+        mSettings = settings;
+        mStillDestination = stillDestination;
     }
 
-    void setupRenderingContext(Context context, Surface encoderInputSurface)
+    /**
+     * Paces the frames rendered into the encoders. Must be called before
+     * {@link #setupRenderingContext}.
+     */
+    void setGovernor(ThroughputGovernor governor)
     {
-        createEGLContext(encoderInputSurface);
+        mGovernor = governor;
+    }
+
+    /**
+     * Must be called before {@link #setupRenderingContext}.
+     */
+    void setDynamicRange(DynamicRange dynamicRange)
+    {
+        mDynamicRange = dynamicRange;
+    }
+
+    /**
+     * @param encoderInputSurfaces the surfaces to render into, one per rung and largest first, or
+     *                             none to render into an off screen pbuffer when no video is
+     *                             encoded
+     * @param rungs                the sizes of the surfaces; the first one is the size this
+     *                             context renders at
+     */
+    void setupRenderingContext(Context context, List<Surface> encoderInputSurfaces,
+                               List<RenditionLadder.Rung> rungs)
+    {
+        mHasEncoder = !encoderInputSurfaces.isEmpty();
+        mRungs = rungs;
+        mContext = context;
+        createEGLContext(encoderInputSurfaces);
         mTextureHandler = new TextureHandler();
-        mRenderer = new Renderer(context);
+        mFrameBufferPool = new FrameBufferPool(mWorker.getShareGroup(), FrameBufferPool.DEFAULT_BUDGET_BYTES);
+        mFilterPipeline = new FilterPipeline(context, mFrameBufferPool, mSettings.getFilterChain(),
+                mImageWidth, mImageHeight, mDynamicRange);
+        if (!mSettings.getOverlays().isEmpty())
+            mOverlayPass = new OverlayPass(context, mSettings.getOverlays(), mImageWidth, mImageHeight, mDynamicRange);
+        if (mPreviewWindow!=null)
+            createPreviewSurface();
+        updateFrameTexture();
+        if (mSettings.isAnalysisEnabled())
+        {
+            mAnalysisTap = new AnalysisTap(mFrameBufferPool, mImageWidth, mImageHeight, new FrameAnalyzer.Listener() {
+                @Override
+                public void onFrameStatistics(FrameStatistics statistics) {
+                    notifyFrameStatistics(statistics);
+                }
+            });
+        }
+        if (mSettings.isSceneCutKeyframes() && mHasEncoder)
+            mSceneCutPass = new SceneCutPass(mFrameBufferPool, mImageWidth, mImageHeight);
+        if (mSettings.isStillsOutput() && mStillDestination != null)
+        {
+            mStillCapture = new StillCapture(mImageWidth, mImageHeight, mStillDestination,
+                    mSettings.getStillQuality(), new StillEncoder.Listener() {
+                @Override
+                public void onStillWritten(String location, long presentationTimeUs) {
+                    notifyStillWritten(location, presentationTimeUs);
+                }
+            });
+        }
         mSurfaceTexture = new SurfaceTexture(mTextureHandler.getTexture());
         mSurface = new Surface(mSurfaceTexture);
         mSurfaceTexture.setOnFrameAvailableListener(this);
         notifySetupComplete();
     }
 
-    private void createEGLContext(Surface encoderInputSurface)
+    private void createEGLContext(List<Surface> encoderInputSurfaces)
     {
-        mDpy = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
-        int[] version = new int[2];
-        EGL14.eglInitialize(mDpy, version, 0, version, 1);
+        boolean hasEncoder = !encoderInputSurfaces.isEmpty();
+        // The display is initialized once per process and shared with other jobs
+        EglContextManager manager = EglContextManager.getInstance();
+        mDpy = (EGLDisplay) manager.getDisplay();
 
         int[] configAttr = {
                 EGL14.EGL_COLOR_BUFFER_TYPE, EGL14.EGL_RGB_BUFFER,
                 EGL14.EGL_LEVEL, 0,
-                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                EGL14.EGL_RENDERABLE_TYPE, EGLExt.EGL_OPENGL_ES3_BIT_KHR,
                 EGLExt.EGL_RECORDABLE_ANDROID, 1,
                 EGL14.EGL_NONE
         };
+        if (!hasEncoder)
+        {
+            configAttr = new int[]{
+                    EGL14.EGL_COLOR_BUFFER_TYPE, EGL14.EGL_RGB_BUFFER,
+                    EGL14.EGL_RED_SIZE, 8,
+                    EGL14.EGL_GREEN_SIZE, 8,
+                    EGL14.EGL_BLUE_SIZE, 8,
+                    EGL14.EGL_RENDERABLE_TYPE, EGLExt.EGL_OPENGL_ES3_BIT_KHR,
+                    EGL14.EGL_SURFACE_TYPE, EGL14.EGL_PBUFFER_BIT | EGL14.EGL_WINDOW_BIT,
+                    EGL14.EGL_NONE
+            };
+        }
         EGLConfig[] configs = new EGLConfig[1];
         int[] numConfig = new int[1];
-        EGL14.eglChooseConfig(mDpy, configAttr, 0,
-                configs, 0, 1, numConfig, 0);
+        boolean tenBit = false;
+        if (hasEncoder && mDynamicRange.hdrOutput)
+        {
+            int[] hdrConfigAttr = {
+                    EGL14.EGL_RED_SIZE, 10,
+                    EGL14.EGL_GREEN_SIZE, 10,
+                    EGL14.EGL_BLUE_SIZE, 10,
+                    EGL14.EGL_ALPHA_SIZE, 2,
+                    EGL14.EGL_RENDERABLE_TYPE, EGLExt.EGL_OPENGL_ES3_BIT_KHR,
+                    EGLExt.EGL_RECORDABLE_ANDROID, 1,
+                    EGL14.EGL_NONE
+            };
+            EGL14.eglChooseConfig(mDpy, hdrConfigAttr, 0, configs, 0, 1, numConfig, 0);
+            tenBit = numConfig[0] > 0;
+            if (!tenBit)
+                Log.e(TAG, "No RGBA1010102 config, the HDR signal is rendered with 8 bits");
+        }
+        if (!tenBit)
+        {
+            EGL14.eglChooseConfig(mDpy, configAttr, 0,
+                    configs, 0, 1, numConfig, 0);
+        }
 
         EGLConfig config = configs[0];
+        mConfig = config;
 
         int[] surfAttr = {
                 EGL14.EGL_NONE
         };
+        int colorSpace = getHdrColorSpace();
+        if (hasEncoder && colorSpace != 0)
+        {
+            // Tags the buffers with the HDR dataspace for the encoder
+            surfAttr = new int[]{
+                    EGL_GL_COLORSPACE_KHR, colorSpace,
+                    EGL14.EGL_NONE
+            };
+        }
+
+        if (hasEncoder)
+        {
+            mSurfaces = new EGLSurface[encoderInputSurfaces.size()];
+            for (int i = 0; i < mSurfaces.length; i++)
+                mSurfaces[i] = EGL14.eglCreateWindowSurface(mDpy, config, encoderInputSurfaces.get(i), surfAttr, 0);
+        }
+        else
+        {
+            int[] pbufferAttr = {
+                    EGL14.EGL_WIDTH, mImageWidth,
+                    EGL14.EGL_HEIGHT, mImageHeight,
+                    EGL14.EGL_NONE
+            };
+            mSurfaces = new EGLSurface[]{EGL14.eglCreatePbufferSurface(mDpy, config, pbufferAttr, 0)};
+        }
+        mSurf = mSurfaces[0];
+        mWorker = manager.createWorker(config);
+        if (!mWorker.isShared())
+            Log.w(TAG, "Context could not share with the root, programs, LUTs and pooled textures are not shared");
+        mWorker.makeCurrent(mSurf, mSurf);
+        GLES30.glClearColor(1.0f, 1.0f, 1.0f, 1.0f);
+    }
+
+    /**
+     * @return the EGL color space matching the HDR output, or 0 if SDR or not supported
+     */
+    private int getHdrColorSpace()
+    {
+        if (!mDynamicRange.hdrOutput)
+            return 0;
+        String extensions = EGL14.eglQueryString(mDpy, EGL14.EGL_EXTENSIONS);
+        if (extensions == null)
+            return 0;
+        if (mDynamicRange.inputTransfer == DynamicRange.Transfer.PQ
+                && extensions.contains("EGL_EXT_gl_colorspace_bt2020_pq"))
+            return EGL_GL_COLORSPACE_BT2020_PQ_EXT;
+        if (mDynamicRange.inputTransfer == DynamicRange.Transfer.HLG
+                && extensions.contains("EGL_EXT_gl_colorspace_bt2020_hlg"))
+            return EGL_GL_COLORSPACE_BT2020_HLG_EXT;
+        return 0;
+    }
 
-        mSurf = EGL14.eglCreateWindowSurface(mDpy, config, encoderInputSurface, surfAttr, 0);
-        int[] ctxAttrib = {
-                EGL14.EGL_CONTEXT_CLIENT_VERSION, 2,
+    /**
+     * Shows the rendered frames on a surface, e.g. of a SurfaceView, as often as the display
+     * refreshes. Can be called before the context is set up. Must be called on the rendering
+     * thread.
+     * @param window      the surface, or null to stop showing frames
+     * @param rotation    rotation of the frames for display, in degrees clockwise
+     * @param refreshRate refresh rate of the display, in Hz
+     */
+    void setPreviewSurface(Surface window, int rotation, float refreshRate)
+    {
+        if (mPreviewSurface!=null)
+            destroyPreviewSurface();
+        mPreviewWindow = window;
+        mPreviewRotation = rotation;
+        mPreviewPacer = new PreviewPacer(refreshRate);
+        if (mWorker!=null)
+        {
+            if (mPreviewWindow!=null)
+                createPreviewSurface();
+            updateFrameTexture();
+        }
+    }
+
+    private void createPreviewSurface()
+    {
+        // Without the HDR color space: HDR output is shown as is, flat, on an SDR preview
+        int[] surfAttr = {
                 EGL14.EGL_NONE
         };
-        mCtx = EGL14.eglCreateContext(mDpy, config, EGL14.EGL_NO_CONTEXT, ctxAttrib, 0);
-        EGL14.eglMakeCurrent(mDpy, mSurf, mSurf, mCtx);
-        GLES30.glClearColor(1.0f, 1.0f, 1.0f, 1.0f);
+        mPreviewSurface = EGL14.eglCreateWindowSurface(mDpy, mConfig, mPreviewWindow, surfAttr, 0);
+        if (mPreviewSurface==null || mPreviewSurface==EGL14.EGL_NO_SURFACE)
+        {
+            Log.e(TAG, "Could not create the preview surface - 0x" + Integer.toHexString(EGL14.eglGetError()));
+            mPreviewSurface = null;
+            return;
+        }
+        // Swaps replace a queued buffer instead of waiting for the display
+        mWorker.makeCurrent(mPreviewSurface, mPreviewSurface);
+        EGL14.eglSwapInterval(mDpy, 0);
+        mWorker.makeCurrent(mSurf, mSurf);
+        if (mPreviewPass==null)
+            mPreviewPass = new FilterPass(mContext, "downsample.frag");
+        mPreviewPass.setRotation(mPreviewRotation);
     }
 
-    private void onDrawFrame()
+    private void destroyPreviewSurface()
+    {
+        Log.d(TAG, "Preview: " + mPreviewPacer);
+        mWorker.makeCurrent(mSurf, mSurf);
+        EGL14.eglDestroySurface(mDpy, mPreviewSurface);
+        mPreviewSurface = null;
+    }
+
+    /**
+     * Renders the chain into a texture when its frame is drawn into more than one surface: the
+     * surfaces of the rungs of a ladder and the preview.
+     */
+    private void updateFrameTexture()
+    {
+        boolean needed = mSurfaces.length > 1 || mPreviewSurface!=null;
+        if (needed && mLadderFrame==null)
+        {
+            mLadderFrame = mFrameBufferPool.acquire(mImageWidth, mImageHeight,
+                    mDynamicRange.hdrOutput ? GLES30.GL_RGB10_A2 : GLES30.GL_RGBA8);
+            if (mScaler==null)
+            {
+                mScaler = new FilterPass(mContext, "downsample.frag");
+                mScalerTextureLoc = mScaler.getUniformLocation("sTexture");
+                mScalerOffsetLoc = mScaler.getUniformLocation("uOffset");
+            }
+        }
+        else if (!needed && mLadderFrame!=null)
+        {
+            mFrameBufferPool.release(mLadderFrame);
+            mLadderFrame = null;
+        }
+    }
+
+    private void onDrawFrame(long frameTime)
     {
         GLES30.glClear(GLES30.GL_COLOR_BUFFER_BIT | GLES30.GL_DEPTH_BUFFER_BIT);
-        if (mRenderer!=null)
+        if (mFilterPipeline!=null)
         {
-            mRenderer.onDrawFrame(mTransformMatrix, mTextureHandler.getTexture(), mImageWidth, mImageHeight);
+            int framebuffer = mLadderFrame==null ? 0 : mLadderFrame.getFramebuffer();
+            mFilterPipeline.onDrawFrame(mTransformMatrix, mTextureHandler.getTexture(), framebuffer);
+            if (mOverlayPass!=null)
+                mOverlayPass.draw(frameTime, framebuffer);
+            if (mLadderFrame!=null)
+                drawRung(mImageWidth, mImageHeight);
         }
     }
 
-    void release()
+    /**
+     * Downsamples the frame rendered by the filter chain into the current surface.
+     */
+    private void drawRung(int width, int height)
+    {
+        drawScaled(mScaler, (float) mImageWidth/width, (float) mImageHeight/height, 0, 0, width, height);
+    }
+
+    /**
+     * @param factorX downsampling factor along the width of the rendered frame
+     * @param factorY downsampling factor along its height
+     */
+    private void drawScaled(FilterPass pass, float factorX, float factorY, int x, int y, int width, int height)
+    {
+        float offsetX = RenditionLadder.downsampleOffset(factorX);
+        float offsetY = RenditionLadder.downsampleOffset(factorY);
+        // Both passes use the shared program of downsample.frag, so the locations are the same
+        pass.use();
+        FilterPass.bindTexture(0, GLES30.GL_TEXTURE_2D, mLadderFrame.getTexture(), mScalerTextureLoc);
+        GLES30.glUniform2f(mScalerOffsetLoc, offsetX/mImageWidth, offsetY/mImageHeight);
+        pass.draw(0, x, y, width, height);
+    }
+
+    /**
+     * Draws the rendered frame upright and letterboxed into the preview surface, unless the
+     * previous one was shown less than a display refresh ago.
+     */
+    private void presentPreview()
+    {
+        if (mPreviewSurface==null || !mPreviewPacer.shouldPresent(System.nanoTime()))
+            return;
+        int[] size = new int[2];
+        EGL14.eglQuerySurface(mDpy, mPreviewSurface, EGL14.EGL_WIDTH, size, 0);
+        EGL14.eglQuerySurface(mDpy, mPreviewSurface, EGL14.EGL_HEIGHT, size, 1);
+        boolean sideways = mPreviewRotation % 180 != 0;
+        int frameWidth = sideways ? mImageHeight : mImageWidth;
+        int frameHeight = sideways ? mImageWidth : mImageHeight;
+        int[] viewport = PreviewPacer.fitViewport(frameWidth, frameHeight, size[0], size[1]);
+
+        mWorker.makeCurrent(mPreviewSurface, mPreviewSurface);
+        GLES30.glClearColor(0.0f, 0.0f, 0.0f, 1.0f);
+        GLES30.glClear(GLES30.GL_COLOR_BUFFER_BIT);
+        GLES30.glClearColor(1.0f, 1.0f, 1.0f, 1.0f);
+        drawScaled(mPreviewPass, (float) mImageWidth/(sideways ? viewport[3] : viewport[2]),
+                (float) mImageHeight/(sideways ? viewport[2] : viewport[3]),
+                viewport[0], viewport[1], viewport[2], viewport[3]);
+        if (!EGL14.eglSwapBuffers(mDpy, mPreviewSurface))
+        {
+            // Typically the view went away before the preview was detached
+            Log.e(TAG, "Could not show the preview - 0x" + Integer.toHexString(EGL14.eglGetError()));
+            destroyPreviewSurface();
+            updateFrameTexture();
+        }
+    }
+
+    /**
+     * Waits for the analysis and the stills of the frames rendered so far. Must be called on the
+     * rendering thread.
+     */
+    void finish()
+    {
+        if (mAnalysisTap!=null)
+        {
+            mAnalysisTap.finish();
+            Log.d(TAG, "Analysis dropped frames: " + mAnalysisTap.getDropped());
+        }
+        if (mStillCapture!=null)
+        {
+            mStillCapture.finish();
+            Log.d(TAG, "Stills written: " + mStillCapture.getWritten());
+        }
+    }
+
+    /**
+     * Releases the context on the rendering thread, which its GL objects belong to, and waits for
+     * it. May be called on any thread once the frames have stopped.
+     * @param renderingThread runs tasks on the thread the context was set up on
+     */
+    void release(Executor renderingThread)
+    {
+        EglContextManager.Worker worker = mWorker;
+        // Never set up
+        if (worker==null)
+            return;
+        worker.runOnOwner(renderingThread, new Runnable() {
+            @Override
+            public void run() {
+                releaseContext();
+            }
+        });
+    }
+
+    private void releaseContext()
     {
         cleanup();
+        if (mLadderFrame!=null)
+            mFrameBufferPool.release(mLadderFrame);
+        mLadderFrame = null;
+        if (mFrameBufferPool!=null)
+        {
+            Log.d(TAG, "Framebuffer pool: " + mFrameBufferPool);
+            mFrameBufferPool.trim();
+            Log.d(TAG, "Texture pool: " + mWorker.getShareGroup().describeTexturePool());
+        }
+        // The textures of a share group of its own are of no use to the next job
+        if (!mWorker.isShared())
+            mWorker.getShareGroup().trimTextures();
         mTextureHandler.cleanup();
         mSurfaceTexture.release();
 
-        EGL14.eglMakeCurrent(mDpy, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE,
-                EGL14.EGL_NO_CONTEXT);
-        EGL14.eglDestroySurface(mDpy, mSurf);
-        EGL14.eglDestroyContext(mDpy, mCtx);
-        EGL14.eglReleaseThread();
-        EGL14.eglTerminate(mDpy);
+        // Not current any more once released, and the display stays up for other jobs
+        mWorker.release();
+        for (EGLSurface surface : mSurfaces)
+            EGL14.eglDestroySurface(mDpy, surface);
+        if (mPreviewSurface!=null)
+        {
+            Log.d(TAG, "Preview: " + mPreviewPacer);
+            EGL14.eglDestroySurface(mDpy, mPreviewSurface);
+            mPreviewSurface = null;
+        }
     }
 
     Surface getSurface()
@@ -117,45 +468,100 @@ class CustomContext implements SurfaceTexture.OnFrameAvailableListener, Observer
 
     private void cleanup()
     {
-        if (mRenderer!=null)
-            mRenderer.cleanup();
+        if (mFilterPipeline!=null)
+            mFilterPipeline.cleanup();
 
-        mRenderer = null;
+        mFilterPipeline = null;
+
+        if (mOverlayPass!=null)
+            mOverlayPass.cleanup();
+
+        mOverlayPass = null;
+
+        if (mAnalysisTap!=null)
+            mAnalysisTap.cleanup();
+
+        mAnalysisTap = null;
+
+        if (mStillCapture!=null)
+            mStillCapture.cleanup();
+
+        mStillCapture = null;
+
+        if (mSceneCutPass!=null)
+            mSceneCutPass.cleanup();
+
+        mSceneCutPass = null;
+
+        if (mScaler!=null)
+            mScaler.cleanup();
+
+        mScaler = null;
+
+        if (mPreviewPass!=null)
+            mPreviewPass.cleanup();
+
+        mPreviewPass = null;
     }
 
     @Override
     public void onFrameAvailable(SurfaceTexture surfaceTexture) {
-        synchronized (syncWithEncoder)
+        long frameTime = mHandshake.getFrameTimeUs();
+        if (mHasEncoder)
         {
-            while(!frameEncoded) {
-                try {
-                    syncWithEncoder.wait();
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
-            frameEncoded = false;
-        }
+            if (mGovernor!=null)
+                pace(mGovernor.beforeFrame());
+            mHandshake.awaitEncoded();
 
-        EGLExt.eglPresentationTimeANDROID(mDpy, mSurf,
-                frameTime * 1000);
+            for (EGLSurface surface : mSurfaces)
+                EGLExt.eglPresentationTimeANDROID(mDpy, surface,
+                        frameTime * 1000);
+        }
+        // The previous frame left the surface of the last rung or of the preview current
+        if (mSurfaces.length > 1 || mPreviewSurface!=null)
+            mWorker.makeCurrent(mSurf, mSurf);
         mSurfaceTexture.updateTexImage();
-        onDrawFrame();
+        onDrawFrame(frameTime);
+        // The sync frame has to be requested before this frame is swapped into the encoder
+        if (mSceneCutPass!=null && mSceneCutPass.detect(frameTime))
+            notifySceneCut(frameTime);
+        if (mAnalysisTap!=null)
+            mAnalysisTap.capture(mFrameCount, frameTime);
+        if (mStillCapture!=null)
+        {
+            if (mHandshake.isCaptureStill())
+                mStillCapture.capture(mFrameCount, frameTime);
+            else
+                mStillCapture.poll();
+        }
+        mFrameCount++;
         swapSurfaces();
+        presentPreview();
 
-        synchronized (syncWithDecoder)
-        {
-            frameRendered = true;
-            syncWithDecoder.notify();
+        mHandshake.frameRendered();
+    }
+
+    private static void pace(long delayNanos)
+    {
+        if (delayNanos <= 0)
+            return;
+        try {
+            Thread.sleep(delayNanos/1000000, (int) (delayNanos%1000000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
     private void swapSurfaces()
     {
-        //EGLExt.eglPresentationTimeANDROID(mDpy, mSurf,
-          //      bufferInfo.presentationTimeUs * 1000)
-
         EGL14.eglSwapBuffers(mDpy, mSurf);
+        // The other rungs are downsampled from the same rendered frame into their own surfaces
+        for (int i = 1; i < mSurfaces.length; i++)
+        {
+            mWorker.makeCurrent(mSurfaces[i], mSurfaces[i]);
+            drawRung(mRungs.get(i).width, mRungs.get(i).height);
+            EGL14.eglSwapBuffers(mDpy, mSurfaces[i]);
+        }
     }
 
     private WeakReference<CustomContextObserver> findWeakReference(CustomContextObserver observer)
@@ -185,6 +591,33 @@ class CustomContext implements SurfaceTexture.OnFrameAvailableListener, Observer
         }
     }
 
+    private void notifyFrameStatistics(FrameStatistics statistics)
+    {
+        for (WeakReference<CustomContextObserver> co:mObservers){
+            CustomContextObserver observer = co.get();
+            if (observer!=null)
+                observer.frameStatistics(statistics);
+        }
+    }
+
+    private void notifyStillWritten(String location, long presentationTimeUs)
+    {
+        for (WeakReference<CustomContextObserver> co:mObservers){
+            CustomContextObserver observer = co.get();
+            if (observer!=null)
+                observer.stillWritten(location, presentationTimeUs);
+        }
+    }
+
+    private void notifySceneCut(long presentationTimeUs)
+    {
+        for (WeakReference<CustomContextObserver> co:mObservers){
+            CustomContextObserver observer = co.get();
+            if (observer!=null)
+                observer.sceneCut(presentationTimeUs);
+        }
+    }
+
     private void notifySetupComplete()
     {
         for (WeakReference<CustomContextObserver> co:mObservers){
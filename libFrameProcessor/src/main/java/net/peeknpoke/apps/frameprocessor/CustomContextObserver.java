@@ -2,4 +2,10 @@ package net.peeknpoke.apps.frameprocessor;
 
 public interface CustomContextObserver {
     void setupComplete();
+    void frameStatistics(FrameStatistics statistics);
+    /**
+     * @param location path of the still, or the URI of its MediaStore entry
+     */
+    void stillWritten(String location, long presentationTimeUs);
+    void sceneCut(long presentationTimeUs);
 }
@@ -0,0 +1,205 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free single producer, single consumer queue of compressed samples. The slots and their
+ * direct buffers are reused; a slot buffer only grows when a sample does not fit. The producer
+ * (the demux thread) blocks when all slots are taken or the queued bytes would exceed the budget.
+ * The consumer (the decoder input callback) never blocks: it polls and, when the queue is empty,
+ * asks to be told about the next sample through {@link Listener}.
+ */
+final class DemuxQueue {
+    interface Listener {
+        /**
+         * Called on the producer thread when a sample arrives after the consumer found the queue
+         * empty.
+         */
+        void onSampleAvailable();
+    }
+
+    static final class Sample {
+        ByteBuffer data;
+        long presentationTimeUs;
+        int flags;
+        boolean endOfStream;
+        // Queued bytes, fixed on publish so the consumer may move the data position
+        int size;
+    }
+
+    private static final long PARK_NANOS = 1000000;
+
+    private final Sample[] mSlots;
+    private final int mMask;
+    private final long mBudgetBytes;
+    // Next slot to read, written by the consumer only
+    private final AtomicLong mHead = new AtomicLong();
+    // Next slot to publish, written by the producer only
+    private final AtomicLong mTail = new AtomicLong();
+    private final AtomicLong mQueuedBytes = new AtomicLong();
+    private final AtomicBoolean mConsumerWaiting = new AtomicBoolean();
+    private volatile Thread mProducer;
+    private volatile boolean mProducerWaiting;
+    private volatile boolean mClosed;
+    private Listener mListener;
+
+    /**
+     * @param slots rounded up to a power of two
+     * @param budgetBytes queued bytes above which the producer waits; a single larger sample is
+     *                    still accepted into an empty queue
+     */
+    DemuxQueue(int slots, long budgetBytes, int initialSampleCapacity)
+    {
+        int capacity = 2;
+        while (capacity < slots)
+            capacity <<= 1;
+        mSlots = new Sample[capacity];
+        mMask = capacity - 1;
+        mBudgetBytes = budgetBytes;
+        for (int i = 0; i < capacity; i++)
+        {
+            mSlots[i] = new Sample();
+            mSlots[i].data = ByteBuffer.allocateDirect(initialSampleCapacity);
+        }
+    }
+
+    void setListener(Listener listener)
+    {
+        mListener = listener;
+    }
+
+    int getSlotCount()
+    {
+        return mSlots.length;
+    }
+
+    /**
+     * Producer: waits for a free slot and returns it, cleared, with at least the given capacity.
+     * @return null once the queue is closed
+     */
+    Sample claim(int capacity)
+    {
+        mProducer = Thread.currentThread();
+        long tail = mTail.get();
+        while (!canClaim())
+        {
+            if (mClosed)
+                return null;
+            waitForConsumer();
+        }
+        if (mClosed)
+            return null;
+        Sample sample = mSlots[(int) (tail & mMask)];
+        if (sample.data.capacity() < capacity)
+            sample.data = ByteBuffer.allocateDirect(capacity);
+        sample.data.clear();
+        sample.presentationTimeUs = 0;
+        sample.flags = 0;
+        sample.endOfStream = false;
+        sample.size = 0;
+        return sample;
+    }
+
+    /**
+     * Producer: makes the claimed sample, flipped to its data, visible to the consumer. Waits
+     * while it would take the queue over the byte budget.
+     * @return false if the queue was closed while waiting
+     */
+    boolean publish(Sample sample)
+    {
+        int size = sample.endOfStream ? 0 : sample.data.remaining();
+        while (!canPublish(size))
+        {
+            if (mClosed)
+                return false;
+            waitForConsumer();
+        }
+        sample.size = size;
+        mQueuedBytes.addAndGet(size);
+        // Ordered store: the slot contents are visible before the new tail
+        mTail.lazySet(mTail.get() + 1);
+        if (mConsumerWaiting.compareAndSet(true, false) && mListener != null)
+            mListener.onSampleAvailable();
+        return true;
+    }
+
+    /**
+     * @return true if {@link #claim} would find a free slot without waiting
+     */
+    boolean canClaim()
+    {
+        return mTail.get() - mHead.get() < mSlots.length;
+    }
+
+    /**
+     * @return true if {@link #publish} would accept a sample of the given size without waiting
+     */
+    boolean canPublish(int size)
+    {
+        long queued = mQueuedBytes.get();
+        return queued == 0 || queued + size <= mBudgetBytes;
+    }
+
+    private void waitForConsumer()
+    {
+        mProducerWaiting = true;
+        // The timeout covers a release between the caller's check and the flag
+        LockSupport.parkNanos(this, PARK_NANOS);
+        mProducerWaiting = false;
+    }
+
+    /**
+     * Consumer: the oldest sample, or null if the queue is empty. The sample stays owned by the
+     * queue until {@link #release()}.
+     */
+    Sample peek()
+    {
+        long head = mHead.get();
+        if (head == mTail.get())
+        {
+            mConsumerWaiting.set(true);
+            // Recheck, the producer may have published before seeing the flag
+            if (head == mTail.get())
+                return null;
+            mConsumerWaiting.set(false);
+        }
+        return mSlots[(int) (head & mMask)];
+    }
+
+    /**
+     * Consumer: hands the sample returned by {@link #peek()} back to the producer.
+     */
+    void release()
+    {
+        long head = mHead.get();
+        Sample sample = mSlots[(int) (head & mMask)];
+        mQueuedBytes.addAndGet(-sample.size);
+        mHead.lazySet(head + 1);
+        if (mProducerWaiting)
+            LockSupport.unpark(mProducer);
+    }
+
+    long getQueuedBytes()
+    {
+        return mQueuedBytes.get();
+    }
+
+    int size()
+    {
+        return (int) (mTail.get() - mHead.get());
+    }
+
+    /**
+     * Wakes up and stops a waiting producer.
+     */
+    void close()
+    {
+        mClosed = true;
+        Thread producer = mProducer;
+        if (producer != null)
+            LockSupport.unpark(producer);
+    }
+}
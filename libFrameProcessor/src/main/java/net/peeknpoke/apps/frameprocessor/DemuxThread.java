@@ -0,0 +1,66 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.util.Log;
+
+/**
+ * Reads compressed samples from the extractor into a {@link DemuxQueue} ahead of the decoder, so
+ * extractor I/O does not stall the decoder input callbacks. Ends after queueing an end of stream
+ * sample, or when the queue is closed.
+ */
+class DemuxThread extends Thread {
+    private static final String TAG = DemuxThread.class.getSimpleName();
+
+    private final SampleSource mExtractor;
+    private final DemuxQueue mQueue;
+    private int mMaxSampleSize;
+
+    /**
+     * @param maxSampleSize expected largest sample, grown when the extractor reports a larger one
+     */
+    DemuxThread(SampleSource extractor, DemuxQueue queue, int maxSampleSize)
+    {
+        super("Demux");
+        mExtractor = extractor;
+        mQueue = queue;
+        mMaxSampleSize = maxSampleSize;
+    }
+
+    @Override
+    public void run() {
+        int capacity = 0;
+        while (!isInterrupted())
+        {
+            capacity = (int) Math.max(mExtractor.getSampleSize(), capacity);
+            DemuxQueue.Sample sample = mQueue.claim(capacity);
+            if (sample == null)
+                return;
+
+            int size;
+            try {
+                size = mExtractor.readSampleData(sample.data, 0);
+            } catch (IllegalArgumentException e) {
+                // The slot buffer is too small; claim the same slot again with more room
+                capacity = Math.max(sample.data.capacity()*2, mMaxSampleSize);
+                mMaxSampleSize = capacity;
+                Log.d(TAG, "Growing sample buffers to " + capacity);
+                continue;
+            }
+
+            if (size < 0)
+            {
+                sample.endOfStream = true;
+                sample.data.limit(0);
+                mQueue.publish(sample);
+                return;
+            }
+            sample.data.position(0);
+            sample.data.limit(size);
+            sample.presentationTimeUs = mExtractor.getSampleTime();
+            sample.flags = mExtractor.getSampleFlags();
+            mExtractor.advance();
+            if (!mQueue.publish(sample))
+                return;
+            capacity = 0;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.PowerManager;
+
+import androidx.annotation.RequiresApi;
+
+/**
+ * Thermal status and battery saver of the device, for the {@link ThroughputGovernor}.
+ */
+@RequiresApi(api = Build.VERSION_CODES.Q)
+final class DeviceThermalSensors implements ThroughputGovernor.Sensors {
+    private final PowerManager mPowerManager;
+
+    DeviceThermalSensors(Context context)
+    {
+        mPowerManager = context.getSystemService(PowerManager.class);
+    }
+
+    @Override
+    public int getThermalStatus() {
+        // Emergency and shutdown are above critical and handled like it
+        return mPowerManager.getCurrentThermalStatus();
+    }
+
+    @Override
+    public boolean isPowerSaveMode() {
+        return mPowerManager.isPowerSaveMode();
+    }
+}
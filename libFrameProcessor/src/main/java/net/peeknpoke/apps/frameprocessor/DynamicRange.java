@@ -0,0 +1,120 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * How a job handles the dynamic range of its input: SDR input is processed as before, HDR input
+ * is either kept as a 10-bit BT.2020 signal or tone mapped to SDR.
+ */
+final class DynamicRange {
+    enum Transfer {
+        SDR,
+        PQ,
+        HLG
+    }
+
+    static final DynamicRange SDR = new DynamicRange(Transfer.SDR, false, ColorTransfer.SDR_WHITE_NITS);
+
+    final Transfer inputTransfer;
+    final boolean hdrOutput;
+    final float sourcePeakNits;
+
+    DynamicRange(Transfer inputTransfer, boolean hdrOutput, float sourcePeakNits)
+    {
+        this.inputTransfer = inputTransfer;
+        this.hdrOutput = hdrOutput && inputTransfer != Transfer.SDR;
+        this.sourcePeakNits = sourcePeakNits;
+    }
+
+    boolean isHdrInput()
+    {
+        return inputTransfer != Transfer.SDR;
+    }
+
+    boolean needsToneMapping()
+    {
+        return isHdrInput() && !hdrOutput;
+    }
+
+    /**
+     * @param colorTransfer a MediaFormat.COLOR_TRANSFER_* value
+     */
+    static Transfer transferOf(int colorTransfer)
+    {
+        switch (colorTransfer)
+        {
+            case MediaFormat.COLOR_TRANSFER_ST2084:
+                return Transfer.PQ;
+            case MediaFormat.COLOR_TRANSFER_HLG:
+                return Transfer.HLG;
+            default:
+                return Transfer.SDR;
+        }
+    }
+
+    static int colorTransferOf(Transfer transfer)
+    {
+        switch (transfer)
+        {
+            case PQ:
+                return MediaFormat.COLOR_TRANSFER_ST2084;
+            case HLG:
+                return MediaFormat.COLOR_TRANSFER_HLG;
+            default:
+                return MediaFormat.COLOR_TRANSFER_SDR_VIDEO;
+        }
+    }
+
+    /**
+     * @return the 10-bit encoder profile for the codec and transfer, or -1 if the codec has none
+     */
+    static int tenBitProfile(String mimeType, Transfer transfer)
+    {
+        boolean pq = transfer == Transfer.PQ;
+        if (TranscodePlanner.MIME_HEVC.equals(mimeType))
+            return pq ? MediaCodecInfo.CodecProfileLevel.HEVCProfileMain10HDR10
+                    : MediaCodecInfo.CodecProfileLevel.HEVCProfileMain10;
+        if (TranscodePlanner.MIME_AV1.equals(mimeType))
+            return pq ? MediaCodecInfo.CodecProfileLevel.AV1ProfileMain10HDR10
+                    : MediaCodecInfo.CodecProfileLevel.AV1ProfileMain10;
+        if (TranscodePlanner.MIME_VP9.equals(mimeType))
+            return pq ? MediaCodecInfo.CodecProfileLevel.VP9Profile2HDR
+                    : MediaCodecInfo.CodecProfileLevel.VP9Profile2;
+        return -1;
+    }
+
+    static boolean supportsProfile(MediaCodecInfo.CodecProfileLevel[] profileLevels, int profile)
+    {
+        for (MediaCodecInfo.CodecProfileLevel profileLevel : profileLevels)
+        {
+            if (profileLevel.profile == profile)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reads the maximum mastering display luminance from MediaFormat.KEY_HDR_STATIC_INFO (an
+     * ST 2086 / CTA-861.3 type 1 descriptor of little endian 16 bit values).
+     * @return the peak in nits, or defaultNits if the info is missing or empty
+     */
+    static float peakFromStaticInfo(ByteBuffer staticInfo, float defaultNits)
+    {
+        if (staticInfo == null || staticInfo.remaining() < 25)
+            return defaultNits;
+        ByteBuffer info = staticInfo.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int base = info.position();
+        if (info.get(base) != 0)
+            return defaultNits;
+        // Descriptor id, then the RGB and white point chromaticities
+        int maxMasteringLuminance = info.getShort(base + 17) & 0xffff;
+        int maxContentLightLevel = info.getShort(base + 21) & 0xffff;
+        if (maxContentLightLevel > 0 && (maxMasteringLuminance == 0 || maxContentLightLevel < maxMasteringLuminance))
+            return maxContentLightLevel;
+        return maxMasteringLuminance > 0 ? maxMasteringLuminance : defaultNits;
+    }
+}
@@ -0,0 +1,32 @@
+package net.peeknpoke.apps.frameprocessor;
+
+/**
+ * The EGL calls needed to manage contexts, with opaque handles so that the context lifecycle can
+ * be exercised without a device. Null stands for EGL_NO_SURFACE and EGL_NO_CONTEXT.
+ */
+interface EglApi {
+    /**
+     * @return the initialized default display
+     */
+    Object initialize();
+
+    void terminate(Object display);
+
+    /**
+     * @return the first matching config, or null if there is none
+     */
+    Object chooseConfig(Object display, int[] attributes);
+
+    /**
+     * Creates an OpenGL ES 3 context.
+     * @param shareContext context whose objects are shared, or null
+     * @return the context, or null if it could not be created
+     */
+    Object createContext(Object display, Object config, Object shareContext);
+
+    void destroyContext(Object display, Object context);
+
+    boolean makeCurrent(Object display, Object drawSurface, Object readSurface, Object context);
+
+    void releaseThread();
+}
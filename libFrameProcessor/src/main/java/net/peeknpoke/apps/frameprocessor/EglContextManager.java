@@ -0,0 +1,288 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.opengl.EGL14;
+import android.opengl.EGLExt;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+/**
+ * Owns the EGL display and a root context, and hands out worker contexts created with the root as
+ * their share context, so programs and static textures are compiled and uploaded once for all
+ * rendering threads (see {@link ShareGroup}). The root is never made current; it only anchors the
+ * share group and outlives the workers.
+ * <p>
+ * A worker context is bound to one thread at a time: making it current on a second thread, or
+ * releasing it from a thread other than the one it is current on, throws
+ * {@link IllegalStateException} instead of failing inside the driver. Workers never terminate the
+ * display, which other jobs are still using.
+ */
+final class EglContextManager {
+    private static final int[] ROOT_CONFIG = {
+            EGL14.EGL_RED_SIZE, 8,
+            EGL14.EGL_GREEN_SIZE, 8,
+            EGL14.EGL_BLUE_SIZE, 8,
+            EGL14.EGL_RENDERABLE_TYPE, EGLExt.EGL_OPENGL_ES3_BIT_KHR,
+            EGL14.EGL_SURFACE_TYPE, EGL14.EGL_PBUFFER_BIT,
+            EGL14.EGL_NONE
+    };
+
+    private static EglContextManager sInstance;
+
+    private final EglApi mEgl;
+    private final ThreadLocal<Worker> mCurrent = new ThreadLocal<>();
+    private Object mDisplay;
+    private Object mRootContext;
+    private ShareGroup mShareGroup;
+    private int mWorkers;
+
+    /**
+     * A context of one rendering thread, shared with the root unless the driver refused.
+     */
+    final class Worker {
+        private final Object mContext;
+        private final ShareGroup mWorkerShareGroup;
+        private final boolean mShared;
+        private Thread mThread;
+        private boolean mReleased;
+
+        private Worker(Object context, ShareGroup shareGroup, boolean shared)
+        {
+            mContext = context;
+            mWorkerShareGroup = shareGroup;
+            mShared = shared;
+        }
+
+        Object getDisplay()
+        {
+            return mDisplay;
+        }
+
+        /**
+         * Binds the context and the surfaces to the calling thread. Whatever worker was current on
+         * the thread before is no longer current.
+         */
+        void makeCurrent(Object drawSurface, Object readSurface)
+        {
+            synchronized (EglContextManager.this)
+            {
+                checkNotReleased();
+                Thread thread = Thread.currentThread();
+                if (mThread != null && mThread != thread)
+                    throw new IllegalStateException("Context is current on " + mThread.getName()
+                            + ", cannot make it current on " + thread.getName());
+                if (!mEgl.makeCurrent(mDisplay, drawSurface, readSurface, mContext))
+                    throw new IllegalStateException("eglMakeCurrent failed");
+                Worker previous = mCurrent.get();
+                if (previous != null && previous != this)
+                    previous.mThread = null;
+                mThread = thread;
+                mCurrent.set(this);
+                ShareGroup.setCurrent(mWorkerShareGroup);
+            }
+        }
+
+        /**
+         * Unbinds the context from the calling thread, if it is current there.
+         */
+        void makeNotCurrent()
+        {
+            synchronized (EglContextManager.this)
+            {
+                checkNotReleased();
+                if (mThread == null)
+                    return;
+                checkOwner("made not current");
+                unbind();
+            }
+        }
+
+        /**
+         * Destroys the context. Objects of the share group used by this worker must have been
+         * released with the context current.
+         */
+        void release()
+        {
+            synchronized (EglContextManager.this)
+            {
+                if (mReleased)
+                    return;
+                if (mThread != null)
+                {
+                    checkOwner("released");
+                    unbind();
+                }
+                mEgl.destroyContext(mDisplay, mContext);
+                mReleased = true;
+                mWorkers--;
+            }
+        }
+
+        /**
+         * Runs the task on the thread the context is current on and waits for it, e.g. to delete
+         * the GL objects of a job and release the context from whichever thread ends the job. The
+         * task runs on the calling thread when that is the owner or when the context is not
+         * current anywhere.
+         * @param owner runs tasks on the thread the context is current on
+         */
+        void runOnOwner(Executor owner, final Runnable task)
+        {
+            synchronized (EglContextManager.this)
+            {
+                if (mThread == null || mThread == Thread.currentThread())
+                {
+                    task.run();
+                    return;
+                }
+            }
+            final CountDownLatch done = new CountDownLatch(1);
+            owner.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        ShareGroup getShareGroup()
+        {
+            return mWorkerShareGroup;
+        }
+
+        /**
+         * @return false if the driver could not share with the root and the context has a share
+         * group of its own
+         */
+        boolean isShared()
+        {
+            return mShared;
+        }
+
+        boolean isCurrent()
+        {
+            synchronized (EglContextManager.this)
+            {
+                return mThread == Thread.currentThread();
+            }
+        }
+
+        private void unbind()
+        {
+            mEgl.makeCurrent(mDisplay, null, null, null);
+            mEgl.releaseThread();
+            mThread = null;
+            mCurrent.remove();
+            ShareGroup.setCurrent(null);
+        }
+
+        private void checkOwner(String action)
+        {
+            if (mThread != Thread.currentThread())
+                throw new IllegalStateException("Context is current on " + mThread.getName()
+                        + " and cannot be " + action + " on " + Thread.currentThread().getName());
+        }
+
+        private void checkNotReleased()
+        {
+            if (mReleased)
+                throw new IllegalStateException("Context has been released");
+        }
+    }
+
+    EglContextManager(EglApi egl)
+    {
+        mEgl = egl;
+    }
+
+    static synchronized EglContextManager getInstance()
+    {
+        if (sInstance == null)
+            sInstance = new EglContextManager(new AndroidEgl());
+        return sInstance;
+    }
+
+    /**
+     * @return the initialized display shared by all workers
+     */
+    synchronized Object getDisplay()
+    {
+        initialize();
+        return mDisplay;
+    }
+
+    /**
+     * @param config config of the worker's surfaces, chosen on {@link #getDisplay()}
+     */
+    synchronized Worker createWorker(Object config)
+    {
+        initialize();
+        boolean shared = true;
+        Object context = mEgl.createContext(mDisplay, config, mRootContext);
+        if (context == null)
+        {
+            // Some drivers refuse to share between configs, e.g. RGBA1010102 and RGBA8888
+            shared = false;
+            context = mEgl.createContext(mDisplay, config, null);
+            if (context == null)
+                throw new RuntimeException("eglCreateContext failed");
+        }
+        mWorkers++;
+        return new Worker(context, shared ? mShareGroup : new ShareGroup(), shared);
+    }
+
+    /**
+     * @return the worker current on the calling thread, or null
+     */
+    Worker getCurrentWorker()
+    {
+        return mCurrent.get();
+    }
+
+    synchronized int getWorkerCount()
+    {
+        return mWorkers;
+    }
+
+    /**
+     * Destroys the root context and terminates the display.
+     * @throws IllegalStateException if workers have not been released
+     */
+    synchronized void shutdown()
+    {
+        if (mWorkers > 0)
+            throw new IllegalStateException(mWorkers + " worker contexts have not been released");
+        if (mDisplay == null)
+            return;
+        mEgl.destroyContext(mDisplay, mRootContext);
+        mEgl.terminate(mDisplay);
+        mRootContext = null;
+        mShareGroup = null;
+        mDisplay = null;
+    }
+
+    private void initialize()
+    {
+        if (mDisplay != null)
+            return;
+        Object display = mEgl.initialize();
+        Object config = mEgl.chooseConfig(display, ROOT_CONFIG);
+        Object rootContext = config != null ? mEgl.createContext(display, config, null) : null;
+        if (rootContext == null)
+        {
+            mEgl.terminate(display);
+            throw new RuntimeException("Could not create the root EGL context");
+        }
+        mDisplay = display;
+        mRootContext = rootContext;
+        mShareGroup = new ShareGroup();
+    }
+}
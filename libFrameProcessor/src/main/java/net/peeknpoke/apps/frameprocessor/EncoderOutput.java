@@ -0,0 +1,367 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * One encoded video output of a job: an encoder fed through its input surface and the muxer its
+ * samples are written to. A job has one per {@link RenditionLadder.Rung}. The callbacks of each
+ * encoder run on a thread of their own, so a slow muxer of one rendition does not hold up the
+ * others, and every output buffer is reported to the {@link FrameHandshake}.
+ */
+final class EncoderOutput {
+    private static final String TAG = EncoderOutput.class.getSimpleName();
+
+    interface Listener {
+        /**
+         * Called on the callback thread of the output once its muxer has started.
+         */
+        void onOutputStarted(EncoderOutput output, MediaFormat format);
+
+        /**
+         * Called on the callback thread of the output after its last sample.
+         */
+        void onOutputFinished(EncoderOutput output);
+    }
+
+    private final int mIndex;
+    private final RenditionLadder.Rung mRung;
+    private final File mFile;
+    private final OutputSink mSink;
+    private final MuxerBackend mMuxer;
+    private final FrameHandshake mHandshake;
+    private final Listener mListener;
+    private final HandlerThread mCallbackThread;
+    private MediaCodec mEncoder;
+    private String mEncoderName;
+    private String mMimeType;
+    private int mBitRate;
+    private Surface mInputSurface;
+    private boolean mMuxerStarted;
+    private MediaFormat mPendingOutputFormat;
+    private volatile boolean mFailed;
+    private boolean mStopped;
+    private int mEncodedFrames;
+    private long mFirstEncodedTimeUs = -1;
+    private long mLastEncodedTimeUs;
+    private long mOutputBytes;
+
+    /**
+     * @param index index of the output in the {@link FrameHandshake}
+     * @param file  the output file, or null when there is no media folder to write to
+     * @param sink  where the muxer writes, or null together with the muxer to encode without
+     *              writing the samples anywhere
+     */
+    EncoderOutput(int index, RenditionLadder.Rung rung, File file, OutputSink sink, MuxerBackend muxer,
+                  FrameHandshake handshake, Listener listener)
+    {
+        mIndex = index;
+        mRung = rung;
+        mFile = file;
+        mSink = sink;
+        mMuxer = muxer;
+        mHandshake = handshake;
+        mListener = listener;
+        mCallbackThread = new HandlerThread("EncoderOutput" + index);
+        mCallbackThread.start();
+    }
+
+    int getIndex()
+    {
+        return mIndex;
+    }
+
+    RenditionLadder.Rung getRung()
+    {
+        return mRung;
+    }
+
+    File getFile()
+    {
+        return mFile;
+    }
+
+    OutputSink getSink()
+    {
+        return mSink;
+    }
+
+    MuxerBackend getMuxer()
+    {
+        return mMuxer;
+    }
+
+    /**
+     * @param encoder a created encoder of the given codec, not configured yet
+     */
+    void setEncoder(MediaCodec encoder, String mimeType, int bitRate)
+    {
+        mEncoder = encoder;
+        mEncoderName = encoder.getName();
+        mMimeType = mimeType;
+        mBitRate = bitRate;
+    }
+
+    MediaCodec getEncoder()
+    {
+        return mEncoder;
+    }
+
+    String getEncoderName()
+    {
+        return mEncoderName;
+    }
+
+    String getMimeType()
+    {
+        return mMimeType;
+    }
+
+    int getBitRate()
+    {
+        return mBitRate;
+    }
+
+    /**
+     * Configures the encoder and creates its input surface.
+     */
+    void configure(MediaFormat format)
+    {
+        mEncoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        mInputSurface = mEncoder.createInputSurface();
+        mEncoder.setCallback(new MediaCodec.Callback() {
+            @Override
+            public void onInputBufferAvailable(@NonNull MediaCodec codec, int index) {
+                // When using an input surface, there are no input buffers
+            }
+
+            @Override
+            public void onOutputBufferAvailable(@NonNull MediaCodec codec, int index, @NonNull MediaCodec.BufferInfo info) {
+                Log.d(TAG, "Encoder " + mIndex + " processing output buffer "+index+" size: "+info.size);
+                writeOutputBuffer(codec, index, info);
+            }
+
+            @Override
+            public void onError(@NonNull MediaCodec codec, @NonNull MediaCodec.CodecException e) {
+                Log.e(TAG, "Encoder media codec error - "+e.getMessage()+" - "+e.getErrorCode());
+            }
+
+            @Override
+            public void onOutputFormatChanged(@NonNull MediaCodec codec, @NonNull MediaFormat format) {
+                Log.d(TAG, "Encoder " + mIndex + " output format changed");
+                if (needsCodecSpecificData(format) && !format.containsKey("csd-0"))
+                {
+                    // Some encoders only deliver it as a codec config buffer
+                    mPendingOutputFormat = format;
+                    return;
+                }
+                startMuxer(format);
+            }
+        }, new Handler(mCallbackThread.getLooper()));
+    }
+
+    Surface getInputSurface()
+    {
+        return mInputSurface;
+    }
+
+    void start()
+    {
+        mEncoder.start();
+    }
+
+    /**
+     * Tells the encoder the frame rate it will be fed at, so it can run at a lower clock.
+     * @param frameRate frames per second, or 0 to encode as fast as possible
+     */
+    void setOperatingRate(float frameRate)
+    {
+        MediaCodec encoder = mEncoder;
+        if (encoder==null)
+            return;
+        Bundle parameters = new Bundle();
+        parameters.putFloat(MediaFormat.KEY_OPERATING_RATE, frameRate > 0 ? frameRate : Short.MAX_VALUE);
+        try {
+            encoder.setParameters(parameters);
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "Could not set the operating rate - " + e.getMessage());
+        }
+    }
+
+    void requestSyncFrame()
+    {
+        MediaCodec encoder = mEncoder;
+        if (encoder==null)
+            return;
+        Bundle parameters = new Bundle();
+        parameters.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+        try {
+            encoder.setParameters(parameters);
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "Could not request sync frame - " + e.getMessage());
+        }
+    }
+
+    private void writeOutputBuffer(MediaCodec codec, int index, MediaCodec.BufferInfo info)
+    {
+        ByteBuffer outputBuffer = codec.getOutputBuffer(index);
+        if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0)
+        {
+            // The muxer takes codec specific data from the track format only
+            if (mPendingOutputFormat!=null && outputBuffer!=null)
+            {
+                outputBuffer.position(info.offset);
+                outputBuffer.limit(info.offset + info.size);
+                Mp4TrackFormat.Codec trackCodec = TranscodePlanner.MIME_HEVC.equals(
+                        mPendingOutputFormat.getString(MediaFormat.KEY_MIME)) ? Mp4TrackFormat.Codec.HEVC
+                        : Mp4TrackFormat.Codec.AVC;
+                ByteBuffer[] csd = Mp4TrackFormat.codecSpecificData(trackCodec, outputBuffer);
+                for (int i = 0; i < csd.length; i++)
+                    mPendingOutputFormat.setByteBuffer("csd-" + i, csd[i]);
+                startMuxer(mPendingOutputFormat);
+                mPendingOutputFormat = null;
+            }
+        }
+        else if (mMuxerStarted)
+        {
+            try {
+                mMuxer.writeSampleData(outputBuffer, info);
+            } catch (IOException e) {
+                Log.e(TAG, "Could not write sample - " + e.getMessage());
+            }
+            if (info.size > 0)
+            {
+                if (mFirstEncodedTimeUs < 0)
+                    mFirstEncodedTimeUs = info.presentationTimeUs;
+                mLastEncodedTimeUs = info.presentationTimeUs;
+                mEncodedFrames++;
+            }
+        }
+        codec.releaseOutputBuffer(index, false);
+        mHandshake.frameEncoded(mIndex);
+
+        if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0)
+            mListener.onOutputFinished(this);
+    }
+
+    private void startMuxer(MediaFormat format)
+    {
+        if (mMuxer==null)
+            return;
+        try {
+            mMuxer.start(format);
+            mMuxerStarted = true;
+        } catch (IOException | IllegalArgumentException e) {
+            Log.e(TAG, "Could not start the output - " + e.getMessage());
+            mFailed = true;
+            return;
+        }
+        mListener.onOutputStarted(this, format);
+    }
+
+    private static boolean needsCodecSpecificData(MediaFormat format)
+    {
+        String mimeType = format.getString(MediaFormat.KEY_MIME);
+        return TranscodePlanner.MIME_AVC.equals(mimeType) || TranscodePlanner.MIME_HEVC.equals(mimeType);
+    }
+
+    /**
+     * @return true if the output could not be written, e.g. because a resumed job got different
+     * codec specific data from its encoder
+     */
+    boolean isFailed()
+    {
+        return mFailed;
+    }
+
+    /**
+     * Stops the encoder and completes the output. Does nothing when called again.
+     * @param finished   false if the job is released before it finished, whose output is then
+     *                   not completed
+     * @param resumable  true to keep the partial output of an unfinished job, still pending, for
+     *                   the job to continue; false to discard it
+     * @return false if the output could not be completed
+     */
+    boolean stop(boolean finished, boolean resumable)
+    {
+        if (mStopped)
+            return !mFailed;
+        mStopped = true;
+        if (mEncoder!=null)
+        {
+            mEncoder.stop();
+            mEncoder.release();
+            mEncoder = null;
+        }
+        if (mMuxer!=null && !finished)
+        {
+            abandon(resumable);
+        }
+        else if (mMuxer!=null)
+        {
+            try {
+                mMuxer.stop();
+                mOutputBytes = mSink.commit();
+            } catch (IOException e) {
+                Log.e(TAG, "Could not finish the output - " + e.getMessage());
+                mSink.abort();
+                mFailed = true;
+            }
+        }
+        return !mFailed;
+    }
+
+    private void abandon(boolean keep)
+    {
+        try {
+            // Writes out buffered fragments; a resumed job cuts the output back to its checkpoint
+            mMuxer.stop();
+        } catch (IOException | RuntimeException e) {
+            Log.d(TAG, "Could not stop the muxer of an unfinished output - " + e.getMessage());
+        }
+        if (!keep)
+        {
+            mSink.abort();
+            return;
+        }
+        try {
+            mSink.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not close the output - " + e.getMessage());
+        }
+    }
+
+    void release()
+    {
+        if (mInputSurface!=null)
+            mInputSurface.release();
+        mCallbackThread.quitSafely();
+    }
+
+    /**
+     * @param stallNanos time the renderer waited for this output, from the {@link FrameHandshake}
+     */
+    TranscodeReport getReport(String inputMimeType, long inputBytes, long stallNanos)
+    {
+        long durationUs = 0;
+        if (mEncodedFrames > 1)
+        {
+            long spanUs = mLastEncodedTimeUs - mFirstEncodedTimeUs;
+            durationUs = spanUs + spanUs/(mEncodedFrames - 1);
+        }
+        return new TranscodeReport(inputMimeType, mMimeType, mEncoderName,
+                mRung.width, mRung.height, inputBytes, mOutputBytes, durationUs, mBitRate, mEncodedFrames,
+                stallNanos/1000);
+    }
+}
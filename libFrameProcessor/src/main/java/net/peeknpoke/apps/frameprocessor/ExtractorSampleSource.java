@@ -0,0 +1,42 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.media.MediaExtractor;
+import android.os.Build;
+
+import java.nio.ByteBuffer;
+
+class ExtractorSampleSource implements SampleSource {
+    private final MediaExtractor mExtractor;
+
+    ExtractorSampleSource(MediaExtractor extractor)
+    {
+        mExtractor = extractor;
+    }
+
+    @Override
+    public long getSampleSize() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P)
+            return mExtractor.getSampleSize();
+        return -1;
+    }
+
+    @Override
+    public int readSampleData(ByteBuffer buffer, int offset) {
+        return mExtractor.readSampleData(buffer, offset);
+    }
+
+    @Override
+    public long getSampleTime() {
+        return mExtractor.getSampleTime();
+    }
+
+    @Override
+    public int getSampleFlags() {
+        return mExtractor.getSampleFlags();
+    }
+
+    @Override
+    public boolean advance() {
+        return mExtractor.advance();
+    }
+}
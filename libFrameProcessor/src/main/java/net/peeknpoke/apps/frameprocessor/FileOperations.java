@@ -48,4 +48,14 @@ class FileOperations {
             return null;
         }
     }
+
+    /**
+     * @return the file next to mediaFile with the same name and the given extension
+     */
+    static File createSidecarFile(File mediaFile, String extension)
+    {
+        String path = mediaFile.getPath();
+        int dot = path.lastIndexOf('.');
+        return new File((dot > path.lastIndexOf(File.separatorChar) ? path.substring(0, dot) : path) + extension);
+    }
 }
@@ -0,0 +1,185 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Output written to a local file, or to any writable file descriptor. Preallocated space that the
+ * output did not use is trimmed on commit; the end of the output is found by walking the top
+ * level MP4 boxes, since the muxer leaves the descriptor offset wherever it wrote last.
+ */
+class FileOutputSink implements OutputSink {
+    private static final String TAG = FileOutputSink.class.getSimpleName();
+
+    private final File mFile;
+    private final FileDescriptor mFileDescriptor;
+    private final Closeable mOwner;
+    private final FileChannel mChannel;
+    private long mPreallocated;
+
+    FileOutputSink(File file) throws IOException
+    {
+        this(open(file), file);
+    }
+
+    private FileOutputSink(RandomAccessFile output, File file) throws IOException
+    {
+        this(output.getFD(), output, file);
+    }
+
+    /**
+     * Opens an existing output to append to it, cut back to the given length.
+     */
+    static FileOutputSink reopen(File file, long length) throws IOException
+    {
+        RandomAccessFile output = new RandomAccessFile(file, "rw");
+        try {
+            output.setLength(length);
+            output.seek(length);
+        } catch (IOException e) {
+            output.close();
+            throw e;
+        }
+        return new FileOutputSink(output, file);
+    }
+
+    private static RandomAccessFile open(File file) throws IOException
+    {
+        RandomAccessFile output = new RandomAccessFile(file, "rw");
+        output.setLength(0);
+        return output;
+    }
+
+    /**
+     * @param fileDescriptor opened for reading and writing
+     * @param owner closed on commit or abort to release the descriptor
+     */
+    FileOutputSink(FileDescriptor fileDescriptor, Closeable owner, File file)
+    {
+        mFile = file;
+        mFileDescriptor = fileDescriptor;
+        mOwner = owner;
+        // Not closed itself, the descriptor belongs to the owner
+        mChannel = new FileOutputStream(fileDescriptor).getChannel();
+    }
+
+    /**
+     * @return the file written, or null when the output is not a file the app can name
+     */
+    File getFile()
+    {
+        return mFile;
+    }
+
+    @Override
+    public FileDescriptor getFileDescriptor() {
+        return mFileDescriptor;
+    }
+
+    @Override
+    public WritableByteChannel getChannel() {
+        return mChannel;
+    }
+
+    @Override
+    public void preallocate(long bytes) {
+        try {
+            reserve(mFileDescriptor, bytes);
+            mPreallocated = bytes;
+        } catch (IOException e) {
+            // Not all file systems support it (e.g. FAT on SD cards)
+            Log.d(TAG, "Could not preallocate " + bytes + " bytes - " + e.getMessage());
+        }
+    }
+
+    void reserve(FileDescriptor fileDescriptor, long bytes) throws IOException
+    {
+        try {
+            Os.posix_fallocate(fileDescriptor, 0, bytes);
+        } catch (ErrnoException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    @Override
+    public long commit() throws IOException {
+        try {
+            long length = mChannel.size();
+            if (mPreallocated > 0)
+            {
+                long used = measureBoxes(new FileInputStream(mFileDescriptor).getChannel());
+                if (used > 0 && used < length)
+                {
+                    mChannel.truncate(used);
+                    length = used;
+                }
+            }
+            return length;
+        } finally {
+            mOwner.close();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mOwner.close();
+    }
+
+    @Override
+    public void abort() {
+        try {
+            mOwner.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not close the output - " + e.getMessage());
+        }
+        if (mFile != null && !mFile.delete())
+            Log.e(TAG, "Could not delete " + mFile);
+    }
+
+    /**
+     * @return the end of the last complete top level box, stopping at the zeros of unused
+     * preallocated space
+     */
+    static long measureBoxes(FileChannel channel) throws IOException
+    {
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(16);
+        long position = 0;
+        while (position + 8 <= size)
+        {
+            header.clear();
+            header.limit(16);
+            while (header.hasRemaining() && channel.read(header, position + header.position()) > 0)
+            {
+                // Read the whole header, or up to the end of the file
+            }
+            header.flip();
+            if (header.remaining() < 8)
+                break;
+            long boxSize = header.getInt(0) & 0xffffffffL;
+            int type = header.getInt(4);
+            if (boxSize == 1)
+            {
+                if (header.remaining() < 16)
+                    break;
+                boxSize = header.getLong(8);
+            }
+            if (type == 0 || boxSize < 8 || position + boxSize > size)
+                break;
+            position += boxSize;
+        }
+        return position;
+    }
+}
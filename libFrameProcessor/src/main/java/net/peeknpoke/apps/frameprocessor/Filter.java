@@ -0,0 +1,21 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.content.Context;
+
+/**
+ * A single stage of the filter chain. All methods are called on the rendering thread with the
+ * GL context current. The input is always a GL_TEXTURE_2D; the output framebuffer is 0 for the
+ * encoder surface.
+ */
+interface Filter {
+    /**
+     * @param pool           for intermediate framebuffers, which are released again in
+     *                       {@link #cleanup()}
+     * @param internalFormat format of the framebuffers of the chain, e.g. GL_RGB10_A2 for HDR
+     *                       input; full resolution intermediates use it too so that they do
+     *                       not lose precision
+     */
+    void setup(Context context, FrameBufferPool pool, int width, int height, int internalFormat);
+    void draw(int inputTexture, int outputFramebuffer);
+    void cleanup();
+}
@@ -0,0 +1,40 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Ordered list of filters applied to every decoded frame.
+ */
+public final class FilterChain {
+    private final List<FilterSpec> mFilters = new ArrayList<>();
+
+    public FilterChain(FilterSpec... filters)
+    {
+        mFilters.addAll(Arrays.asList(filters));
+    }
+
+    public void add(FilterSpec filter)
+    {
+        mFilters.add(filter);
+    }
+
+    public List<FilterSpec> getFilters()
+    {
+        return Collections.unmodifiableList(mFilters);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (FilterSpec filter : mFilters)
+        {
+            if (builder.length() > 0)
+                builder.append('|');
+            builder.append(filter);
+        }
+        return builder.toString();
+    }
+}
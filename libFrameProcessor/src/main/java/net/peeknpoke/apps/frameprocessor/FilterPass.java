@@ -0,0 +1,160 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.content.Context;
+import android.opengl.GLES30;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Full screen quad drawn with a fragment shader that reads GL_TEXTURE_2D inputs. Unlike
+ * {@link Renderer}, the texture coordinates are not flipped since the inputs are framebuffers
+ * rendered by us. The program is shared by all passes using the same shader in the share group
+ * of the current context.
+ */
+class FilterPass {
+    private static final String TAG = FilterPass.class.getSimpleName();
+    private static final String VERTEX_SHADER_NAME = "filter.vert";
+
+    private static final int SIZEOF_FLOAT = 4;
+    private static final int COORDS_PER_VERTEX = 2;
+
+    private static final float[] QUAD_COORDS = {
+            -1.0f, -1.0f,   // 0 bottom left
+            1.0f, -1.0f,   // 1 bottom right
+            -1.0f,  1.0f,   // 2 top left
+            1.0f,  1.0f,   // 3 top right
+    };
+
+    private static final float[] QUAD_TEXCOORDS = {
+            0.0f, 0.0f,     // 0 bottom left
+            1.0f, 0.0f,     // 1 bottom right
+            0.0f, 1.0f,     // 2 top left
+            1.0f, 1.0f      // 3 top right
+    };
+
+    private final String mName;
+    private final ShareGroup mShareGroup;
+    private int mProgram;
+    private int mPositionParam;
+    private int mTexCoordParam;
+    private FloatBuffer mVertexBuffer;
+    private FloatBuffer mTextureVertexBuffer;
+
+    FilterPass(Context context, String fragmentShaderName)
+    {
+        mName = fragmentShaderName;
+        mShareGroup = ShareGroup.current();
+        mProgram = mShareGroup.acquireProgram(ShaderHelper.loadShaderFile(context, VERTEX_SHADER_NAME),
+                ShaderHelper.loadShaderFile(context, fragmentShaderName));
+        mPositionParam = GLES30.glGetAttribLocation(mProgram, "a_Position");
+        mTexCoordParam = GLES30.glGetAttribLocation(mProgram, "a_TexCoord");
+        mVertexBuffer = createBuffer(QUAD_COORDS);
+        mTextureVertexBuffer = createBuffer(QUAD_TEXCOORDS);
+    }
+
+    private static FloatBuffer createBuffer(float[] coords)
+    {
+        ByteBuffer bb = ByteBuffer.allocateDirect(coords.length * SIZEOF_FLOAT);
+        bb.order(ByteOrder.nativeOrder());
+        FloatBuffer buffer = bb.asFloatBuffer();
+        buffer.put(coords);
+        buffer.position(0);
+        return buffer;
+    }
+
+    int getUniformLocation(String name)
+    {
+        return GLES30.glGetUniformLocation(mProgram, name);
+    }
+
+    /**
+     * Reads the uniform block of the given name from the uniform buffer bound at the binding
+     * point. The binding is a property of the shared program, so every pass using the same
+     * shader must pick the same one.
+     */
+    void setUniformBlockBinding(String name, int binding)
+    {
+        GLES30.glUniformBlockBinding(mProgram, GLES30.glGetUniformBlockIndex(mProgram, name), binding);
+    }
+
+    void use()
+    {
+        GLES30.glUseProgram(mProgram);
+    }
+
+    /**
+     * Rotates the input clockwise by a multiple of 90 degrees, e.g. by the rotation of the
+     * container to show a frame upright.
+     */
+    void setRotation(int degrees)
+    {
+        mTextureVertexBuffer = createBuffer(rotatedTexCoords(degrees));
+    }
+
+    /**
+     * @return {@link #QUAD_TEXCOORDS} for the input rotated clockwise by degrees
+     */
+    static float[] rotatedTexCoords(int degrees)
+    {
+        // Each quarter turn moves every corner to the texture coordinate of the next one
+        // clockwise: bottom left, top left, top right, bottom right
+        int[] clockwise = {0, 2, 3, 1};
+        int turns = ((degrees/90) % 4 + 4) % 4;
+        float[] coords = new float[QUAD_TEXCOORDS.length];
+        for (int i = 0; i < clockwise.length; i++)
+        {
+            int corner = clockwise[i];
+            int source = clockwise[(i + 4 - turns) % 4];
+            coords[2*corner] = QUAD_TEXCOORDS[2*source];
+            coords[2*corner + 1] = QUAD_TEXCOORDS[2*source + 1];
+        }
+        return coords;
+    }
+
+    /**
+     * Draws the quad into the given framebuffer. The program must be in use and its textures and
+     * uniforms set by the caller.
+     */
+    void draw(int framebuffer, int width, int height)
+    {
+        draw(framebuffer, 0, 0, width, height);
+    }
+
+    /**
+     * Draws the quad into a viewport of the given framebuffer.
+     */
+    void draw(int framebuffer, int x, int y, int width, int height)
+    {
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, framebuffer);
+        GLES30.glViewport(x, y, width, height);
+
+        GLES30.glVertexAttribPointer(mPositionParam, COORDS_PER_VERTEX, GLES30.GL_FLOAT, false,
+                COORDS_PER_VERTEX*SIZEOF_FLOAT, mVertexBuffer);
+        GLES30.glVertexAttribPointer(mTexCoordParam, COORDS_PER_VERTEX, GLES30.GL_FLOAT, false,
+                COORDS_PER_VERTEX*SIZEOF_FLOAT, mTextureVertexBuffer);
+        GLES30.glEnableVertexAttribArray(mPositionParam);
+        GLES30.glEnableVertexAttribArray(mTexCoordParam);
+
+        GLES30.glDrawArrays(GLES30.GL_TRIANGLE_STRIP, 0, 4);
+
+        GLES30.glDisableVertexAttribArray(mPositionParam);
+        GLES30.glDisableVertexAttribArray(mTexCoordParam);
+        ShaderHelper.checkGLError(TAG, mName);
+    }
+
+    static void bindTexture(int unit, int target, int texture, int samplerLocation)
+    {
+        GLES30.glActiveTexture(GLES30.GL_TEXTURE0 + unit);
+        GLES30.glBindTexture(target, texture);
+        GLES30.glUniform1i(samplerLocation, unit);
+    }
+
+    void cleanup()
+    {
+        if (mProgram != 0)
+            mShareGroup.releaseProgram(mProgram);
+        mProgram = 0;
+    }
+}
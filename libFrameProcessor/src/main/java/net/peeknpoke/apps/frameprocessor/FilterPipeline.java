@@ -0,0 +1,132 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.content.Context;
+import android.opengl.GLES30;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Renders the decoded OES texture through the filter chain into the current EGL surface, or into
+ * a framebuffer. The first pass samples the OES texture with {@link Renderer}; the remaining
+ * filters ping-pong between two framebuffers and the last one draws straight into the output. A leading negative
+ * filter is fused into the OES pass, so the default chain costs a single pass as before.
+ * HDR input keeps its PQ or HLG signal through the chain in 10-bit framebuffers and is tone
+ * mapped by a final pass when the output is SDR.
+ */
+class FilterPipeline {
+    private static final String IDENTITY_SHADER_NAME = "identity.frag";
+    private static final String NEGATIVE_SHADER_NAME = "negative.frag";
+
+    private final Renderer mRenderer;
+    private final List<Filter> mFilters = new ArrayList<>();
+    private final FrameBufferPool mPool;
+    private final FrameBuffer[] mFrameBuffers = new FrameBuffer[2];
+    private final int mWidth;
+    private final int mHeight;
+
+    FilterPipeline(Context context, FrameBufferPool pool, FilterChain filterChain, int width, int height,
+                   DynamicRange dynamicRange)
+    {
+        mPool = pool;
+        mWidth = width;
+        mHeight = height;
+
+        List<FilterSpec> specs = filterChain.getFilters();
+        int first = 0;
+        String oesShaderName = IDENTITY_SHADER_NAME;
+        if (!specs.isEmpty() && specs.get(0).getType() == FilterSpec.Type.NEGATIVE)
+        {
+            oesShaderName = NEGATIVE_SHADER_NAME;
+            first = 1;
+        }
+        mRenderer = new Renderer(context, oesShaderName);
+
+        int internalFormat = dynamicRange.isHdrInput() ? GLES30.GL_RGB10_A2 : GLES30.GL_RGBA8;
+        for (int i = first; i < specs.size(); i++)
+        {
+            Filter filter = createFilter(specs.get(i));
+            filter.setup(context, pool, width, height, internalFormat);
+            mFilters.add(filter);
+        }
+        if (dynamicRange.needsToneMapping())
+        {
+            Filter toneMap = new ToneMapFilter(dynamicRange.inputTransfer == DynamicRange.Transfer.HLG,
+                    dynamicRange.sourcePeakNits);
+            toneMap.setup(context, pool, width, height, internalFormat);
+            mFilters.add(toneMap);
+        }
+
+        if (!mFilters.isEmpty())
+        {
+            mFrameBuffers[0] = pool.acquire(width, height, internalFormat);
+            if (mFilters.size() > 1)
+                mFrameBuffers[1] = pool.acquire(width, height, internalFormat);
+        }
+    }
+
+    static Filter createFilter(FilterSpec spec)
+    {
+        switch (spec.getType())
+        {
+            case NEGATIVE:
+                return new ShaderFilter("negative2d.frag");
+            case LUT:
+                return new LutFilter(spec.getString(FilterSpec.PARAM_PATH));
+            case GAUSSIAN_BLUR:
+                return new BlurFilter(spec.getFloat(FilterSpec.PARAM_SIGMA));
+            case UNSHARP_MASK:
+                return new UnsharpMaskFilter(spec.getFloat(FilterSpec.PARAM_SIGMA),
+                        spec.getFloat(FilterSpec.PARAM_AMOUNT));
+            case TEMPORAL_DENOISE:
+                return new TemporalDenoiseFilter(spec.getInt(FilterSpec.PARAM_FRAMES),
+                        spec.getFloat(FilterSpec.PARAM_STRENGTH));
+            case AUTO_LEVELS:
+                return new AutoLevelsFilter(spec.getFloat(FilterSpec.PARAM_CLIP),
+                        spec.getBoolean(FilterSpec.PARAM_PER_CHANNEL));
+            default:
+                throw new IllegalArgumentException("Unknown filter " + spec);
+        }
+    }
+
+    /**
+     * @param outputFramebuffer 0 for the surface
+     */
+    void onDrawFrame(float[] transformMatrix, int oesTexture, int outputFramebuffer)
+    {
+        if (mFilters.isEmpty())
+        {
+            GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, outputFramebuffer);
+            mRenderer.onDrawFrame(transformMatrix, oesTexture, mWidth, mHeight);
+            GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, 0);
+            return;
+        }
+
+        int current = 0;
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, mFrameBuffers[current].getFramebuffer());
+        mRenderer.onDrawFrame(transformMatrix, oesTexture, mWidth, mHeight);
+
+        for (int i = 0; i < mFilters.size(); i++)
+        {
+            boolean last = i == mFilters.size() - 1;
+            int output = last ? outputFramebuffer : mFrameBuffers[1 - current].getFramebuffer();
+            mFilters.get(i).draw(mFrameBuffers[current].getTexture(), output);
+            current = 1 - current;
+        }
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, 0);
+    }
+
+    void cleanup()
+    {
+        mRenderer.cleanup();
+        for (Filter filter : mFilters)
+            filter.cleanup();
+        mFilters.clear();
+        for (int i = 0; i < mFrameBuffers.length; i++)
+        {
+            if (mFrameBuffers[i] != null)
+                mPool.release(mFrameBuffers[i]);
+            mFrameBuffers[i] = null;
+        }
+    }
+}
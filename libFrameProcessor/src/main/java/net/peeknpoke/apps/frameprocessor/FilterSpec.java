@@ -0,0 +1,167 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable description of one filter of a {@link FilterChain}. Parameters are kept sorted so
+ * that {@link #toString()} is a canonical description of the filter.
+ */
+public final class FilterSpec {
+    public enum Type {
+        NEGATIVE,
+        LUT,
+        GAUSSIAN_BLUR,
+        UNSHARP_MASK,
+        TEMPORAL_DENOISE,
+        AUTO_LEVELS
+    }
+
+    static final String PARAM_PATH = "path";
+    static final String PARAM_SIGMA = "sigma";
+    static final String PARAM_AMOUNT = "amount";
+    static final String PARAM_FRAMES = "frames";
+    static final String PARAM_STRENGTH = "strength";
+    static final String PARAM_CLIP = "clip";
+    static final String PARAM_PER_CHANNEL = "perChannel";
+
+    private final Type mType;
+    private final Map<String, String> mParams;
+
+    private FilterSpec(Type type, Map<String, String> params)
+    {
+        mType = type;
+        mParams = Collections.unmodifiableMap(new TreeMap<>(params));
+    }
+
+    /**
+     * @param params parameters as returned by {@link #getParams()}
+     */
+    static FilterSpec create(Type type, Map<String, String> params)
+    {
+        return new FilterSpec(type, params);
+    }
+
+    public static FilterSpec negative()
+    {
+        return new FilterSpec(Type.NEGATIVE, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * @param cubeFilePath path of a .cube 3D LUT file
+     */
+    public static FilterSpec lut(String cubeFilePath)
+    {
+        return new FilterSpec(Type.LUT, Collections.singletonMap(PARAM_PATH, cubeFilePath));
+    }
+
+    /**
+     * @param sigma standard deviation of the Gaussian in pixels
+     */
+    public static FilterSpec gaussianBlur(float sigma)
+    {
+        return new FilterSpec(Type.GAUSSIAN_BLUR,
+                Collections.singletonMap(PARAM_SIGMA, Float.toString(sigma)));
+    }
+
+    /**
+     * @param sigma standard deviation of the blur that is subtracted, in pixels
+     * @param amount strength of the sharpening, 1 doubles the local contrast
+     */
+    public static FilterSpec unsharpMask(float sigma, float amount)
+    {
+        Map<String, String> params = new TreeMap<>();
+        params.put(PARAM_SIGMA, Float.toString(sigma));
+        params.put(PARAM_AMOUNT, Float.toString(amount));
+        return new FilterSpec(Type.UNSHARP_MASK, params);
+    }
+
+    /**
+     * Averages every frame with the previous ones where the picture does not move, which removes
+     * the grain of low light footage and with it the bits the encoder spends on the grain.
+     * @param frames   number of previous frames averaged in, 1 to 4
+     * @param strength standard deviation of the noise, in code values from 0 to 1, e.g. 0.02
+     *                 for about 5 of 255; differences well above it are treated as motion
+     */
+    public static FilterSpec temporalDenoise(int frames, float strength)
+    {
+        Map<String, String> params = new TreeMap<>();
+        params.put(PARAM_FRAMES, Integer.toString(frames));
+        params.put(PARAM_STRENGTH, Float.toString(strength));
+        return new FilterSpec(Type.TEMPORAL_DENOISE, params);
+    }
+
+    /**
+     * Stretches every frame to the full range, from the histograms of the frames before it.
+     * @param clip       fraction of the pixels that may clip to black and to white, e.g. 0.005
+     * @param perChannel true to stretch red, green and blue each on their own, which also
+     *                   balances the white, false to stretch all three alike by the luma
+     */
+    public static FilterSpec autoLevels(float clip, boolean perChannel)
+    {
+        Map<String, String> params = new TreeMap<>();
+        params.put(PARAM_CLIP, Float.toString(clip));
+        params.put(PARAM_PER_CHANNEL, Boolean.toString(perChannel));
+        return new FilterSpec(Type.AUTO_LEVELS, params);
+    }
+
+    public Type getType() {
+        return mType;
+    }
+
+    Map<String, String> getParams()
+    {
+        return mParams;
+    }
+
+    String getString(String key)
+    {
+        return mParams.get(key);
+    }
+
+    float getFloat(String key)
+    {
+        return Float.parseFloat(mParams.get(key));
+    }
+
+    int getInt(String key)
+    {
+        return Integer.parseInt(mParams.get(key));
+    }
+
+    boolean getBoolean(String key)
+    {
+        return Boolean.parseBoolean(mParams.get(key));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof FilterSpec))
+            return false;
+        FilterSpec other = (FilterSpec) o;
+        return mType == other.mType && mParams.equals(other.mParams);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31*mType.hashCode() + mParams.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(mType.name().toLowerCase());
+        builder.append('(');
+        boolean first = true;
+        for (Map.Entry<String, String> param : mParams.entrySet())
+        {
+            if (!first)
+                builder.append(',');
+            builder.append(param.getKey()).append('=').append(param.getValue());
+            first = false;
+        }
+        return builder.append(')').toString();
+    }
+}
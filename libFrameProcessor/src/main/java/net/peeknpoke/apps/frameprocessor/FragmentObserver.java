@@ -0,0 +1,13 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.io.File;
+
+/**
+ * Notified on the thread writing the output whenever a fragment of a
+ * {@link FrameProcessorSettings.Container#FRAGMENTED_MP4} output has been written. The byte
+ * range of the file up to offset + length is final and can be uploaded or read.
+ */
+public interface FragmentObserver {
+    void onFragmentWritten(File file, int sequenceNumber, long offset, long length,
+                           long startTimeUs, long durationUs);
+}
@@ -0,0 +1,110 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Fragmented MP4 through {@link FragmentedMp4Writer}: every closed fragment is on disk and
+ * readable while the job is still running.
+ */
+class FragmentedMp4Backend implements MuxerBackend {
+    private final WritableByteChannel mChannel;
+    private final int mRotationDegrees;
+    private final long mFragmentDurationUs;
+    private final FragmentedMp4Writer.Listener mListener;
+    private FragmentedMp4Writer mWriter;
+    private int mResumeSequenceNumber = -1;
+    private long mResumeBytes;
+    private long mResumeConfigCrc;
+
+    FragmentedMp4Backend(OutputSink sink, int rotationDegrees, long fragmentDurationUs,
+                         FragmentedMp4Writer.Listener listener) throws IOException
+    {
+        mChannel = sink.getChannel();
+        mRotationDegrees = rotationDegrees;
+        mFragmentDurationUs = fragmentDurationUs;
+        mListener = listener;
+    }
+
+    /**
+     * Appends to the fragments already in the output instead of writing an init segment. The
+     * encoder must produce the same codec specific data as the one that wrote the init segment.
+     * @param configCrc {@link #codecConfigCrc} of the original output format
+     */
+    void resumeAfter(int sequenceNumber, long bytesWritten, long configCrc)
+    {
+        mResumeSequenceNumber = sequenceNumber;
+        mResumeBytes = bytesWritten;
+        mResumeConfigCrc = configCrc;
+    }
+
+    /**
+     * @return CRC of the codec specific data of an encoder output format
+     */
+    static long codecConfigCrc(MediaFormat format)
+    {
+        CRC32 crc = new CRC32();
+        for (String key : new String[]{"csd-0", "csd-1"})
+        {
+            ByteBuffer data = format.getByteBuffer(key);
+            if (data != null)
+                crc.update(data.duplicate());
+        }
+        return crc.getValue();
+    }
+
+    @Override
+    public List<String> getSupportedMimeTypes() {
+        return Arrays.asList(TranscodePlanner.MIME_AVC, TranscodePlanner.MIME_HEVC);
+    }
+
+    @Override
+    public void start(MediaFormat format) throws IOException {
+        String mimeType = format.getString(MediaFormat.KEY_MIME);
+        Mp4TrackFormat.Codec codec;
+        if (TranscodePlanner.MIME_AVC.equals(mimeType))
+            codec = Mp4TrackFormat.Codec.AVC;
+        else if (TranscodePlanner.MIME_HEVC.equals(mimeType))
+            codec = Mp4TrackFormat.Codec.HEVC;
+        else
+            throw new IOException("Unsupported codec for fragmented MP4: " + mimeType);
+
+        Mp4TrackFormat trackFormat = new Mp4TrackFormat(codec, format.getInteger(MediaFormat.KEY_WIDTH),
+                format.getInteger(MediaFormat.KEY_HEIGHT), mRotationDegrees,
+                format.getByteBuffer("csd-0"), format.getByteBuffer("csd-1"));
+        mWriter = new FragmentedMp4Writer(mChannel, trackFormat, mFragmentDurationUs, mListener);
+        if (mResumeSequenceNumber >= 0)
+        {
+            // The samples would not match the sample description of the existing init segment
+            if (codecConfigCrc(format) != mResumeConfigCrc)
+                throw new IOException("Codec specific data differs from the output being resumed");
+            mWriter.resume(mResumeSequenceNumber, mResumeBytes);
+        }
+        else
+        {
+            mWriter.start();
+        }
+    }
+
+    @Override
+    public void writeSampleData(ByteBuffer data, MediaCodec.BufferInfo info) throws IOException {
+        if (info.size == 0)
+            return;
+        data.position(info.offset);
+        data.limit(info.offset + info.size);
+        mWriter.writeSample(data, info.presentationTimeUs, (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0);
+    }
+
+    @Override
+    public void stop() throws IOException {
+        if (mWriter != null)
+            mWriter.finish();
+    }
+}
@@ -0,0 +1,495 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes a single video track as fragmented MP4 (ISO BMFF with movie fragments, CMAF style): an
+ * init segment (ftyp + moov) followed by moof + mdat pairs. A fragment is closed at the first
+ * sync sample after the fragment duration is reached, so every fragment starts with a keyframe
+ * and can be consumed as soon as {@link Listener#onFragmentWritten} reports it.
+ *
+ * Encoder output is in decode order but MediaCodec only reports presentation times. Assuming
+ * closed GOPs, the decode times of a fragment are its presentation times in ascending order,
+ * and reordering is expressed with signed composition offsets (trun version 1).
+ *
+ * Sample data is copied into a reused direct buffer with Annex B start codes replaced by 4 byte
+ * lengths; nothing is allocated per sample once the buffers have grown to the fragment size.
+ */
+final class FragmentedMp4Writer {
+    interface Listener {
+        /**
+         * @param offset byte offset of the moof box in the output
+         * @param length length of the moof and mdat boxes
+         */
+        void onFragmentWritten(int sequenceNumber, long offset, long length, long startTimeUs, long durationUs);
+    }
+
+    static final int TIMESCALE = 90000;
+    private static final int TRACK_ID = 1;
+    private static final long DEFAULT_FRAME_DURATION_US = 33333;
+
+    private static final int TRUN_DATA_OFFSET = 0x000001;
+    private static final int TRUN_SAMPLE_DURATION = 0x000100;
+    private static final int TRUN_SAMPLE_SIZE = 0x000200;
+    private static final int TRUN_SAMPLE_FLAGS = 0x000400;
+    private static final int TRUN_SAMPLE_COMPOSITION_OFFSET = 0x000800;
+    private static final int TFHD_DEFAULT_BASE_IS_MOOF = 0x020000;
+    private static final int SAMPLE_FLAGS_SYNC = 0x02000000;
+    private static final int SAMPLE_FLAGS_NON_SYNC = 0x01010000;
+
+    private final WritableByteChannel mChannel;
+    private final Mp4TrackFormat mFormat;
+    private final long mFragmentDurationUs;
+    private final Listener mListener;
+    private final Mp4BoxWriter mBoxWriter = new Mp4BoxWriter(4096);
+    private ByteBuffer mSampleData = ByteBuffer.allocateDirect(1 << 20);
+
+    private long[] mPresentationTimes = new long[64];
+    private long[] mDecodeTimes = new long[64];
+    private int[] mSizes = new int[64];
+    private boolean[] mSync = new boolean[64];
+    private int mSampleCount;
+
+    private boolean mStarted;
+    private int mSequenceNumber;
+    private long mBytesWritten;
+    private long mLastDurationUs = DEFAULT_FRAME_DURATION_US;
+
+    FragmentedMp4Writer(WritableByteChannel channel, Mp4TrackFormat format, long fragmentDurationUs,
+                        Listener listener)
+    {
+        mChannel = channel;
+        mFormat = format;
+        mFragmentDurationUs = fragmentDurationUs;
+        mListener = listener;
+    }
+
+    /**
+     * Writes the init segment.
+     */
+    void start() throws IOException
+    {
+        if (mStarted)
+            throw new IllegalStateException("Already started");
+        mStarted = true;
+        mBoxWriter.reset();
+        writeFtyp();
+        writeMoov();
+        write(mBoxWriter.getBytes());
+    }
+
+    /**
+     * Continues an output that already holds the init segment and the given fragments, instead of
+     * {@link #start()}. The channel must be positioned at the end of the last fragment.
+     * @param sequenceNumber sequence number of the last fragment in the output
+     * @param bytesWritten   length of the output
+     */
+    void resume(int sequenceNumber, long bytesWritten)
+    {
+        if (mStarted)
+            throw new IllegalStateException("Already started");
+        mStarted = true;
+        mSequenceNumber = sequenceNumber;
+        mBytesWritten = bytesWritten;
+    }
+
+    /**
+     * @param data the sample, Annex B or already length prefixed, from position to limit
+     */
+    void writeSample(ByteBuffer data, long presentationTimeUs, boolean sync) throws IOException
+    {
+        if (!mStarted)
+            throw new IllegalStateException("Not started");
+        if (mSampleCount == 0 && !sync)
+            throw new IllegalArgumentException("A fragment must start with a sync sample");
+        if (sync && mSampleCount > 0
+                && presentationTimeUs - minPresentationTime() >= mFragmentDurationUs)
+            closeFragment(presentationTimeUs);
+
+        if (mSampleCount == mSizes.length)
+            growSampleTables();
+        int start = mSampleData.position();
+        appendLengthPrefixed(data);
+        mPresentationTimes[mSampleCount] = presentationTimeUs;
+        mSizes[mSampleCount] = mSampleData.position() - start;
+        mSync[mSampleCount] = sync;
+        mSampleCount++;
+    }
+
+    /**
+     * Writes the last fragment. The channel is left open.
+     */
+    void finish() throws IOException
+    {
+        if (mSampleCount > 0)
+            closeFragment(-1);
+    }
+
+    long getBytesWritten()
+    {
+        return mBytesWritten;
+    }
+
+    private long minPresentationTime()
+    {
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < mSampleCount; i++)
+            min = Math.min(min, mPresentationTimes[i]);
+        return min;
+    }
+
+    /**
+     * @param nextStartUs start of the following fragment, or -1 at the end of the stream
+     */
+    private void closeFragment(long nextStartUs) throws IOException
+    {
+        System.arraycopy(mPresentationTimes, 0, mDecodeTimes, 0, mSampleCount);
+        Arrays.sort(mDecodeTimes, 0, mSampleCount);
+        long startUs = mDecodeTimes[0];
+        long endUs;
+        if (nextStartUs >= 0)
+            endUs = nextStartUs;
+        else
+            endUs = mDecodeTimes[mSampleCount - 1] + (mSampleCount > 1
+                    ? (mDecodeTimes[mSampleCount - 1] - startUs)/(mSampleCount - 1) : mLastDurationUs);
+        mLastDurationUs = (endUs - startUs)/mSampleCount;
+        mSequenceNumber++;
+
+        mBoxWriter.reset();
+        mBoxWriter.startBox("moof");
+        mBoxWriter.startFullBox("mfhd", 0, 0);
+        mBoxWriter.putInt(mSequenceNumber);
+        mBoxWriter.endBox();
+        mBoxWriter.startBox("traf");
+        mBoxWriter.startFullBox("tfhd", 0, TFHD_DEFAULT_BASE_IS_MOOF);
+        mBoxWriter.putInt(TRACK_ID);
+        mBoxWriter.endBox();
+        mBoxWriter.startFullBox("tfdt", 1, 0);
+        mBoxWriter.putLong(toTicks(startUs));
+        mBoxWriter.endBox();
+        mBoxWriter.startFullBox("trun", 1, TRUN_DATA_OFFSET | TRUN_SAMPLE_DURATION | TRUN_SAMPLE_SIZE
+                | TRUN_SAMPLE_FLAGS | TRUN_SAMPLE_COMPOSITION_OFFSET);
+        mBoxWriter.putInt(mSampleCount);
+        int dataOffsetPosition = mBoxWriter.position();
+        mBoxWriter.putInt(0);
+        for (int i = 0; i < mSampleCount; i++)
+        {
+            long decodeTicks = toTicks(mDecodeTimes[i]);
+            long nextDecodeTicks = toTicks(i + 1 < mSampleCount ? mDecodeTimes[i + 1] : endUs);
+            mBoxWriter.putInt((int) (nextDecodeTicks - decodeTicks));
+            mBoxWriter.putInt(mSizes[i]);
+            mBoxWriter.putInt(mSync[i] ? SAMPLE_FLAGS_SYNC : SAMPLE_FLAGS_NON_SYNC);
+            mBoxWriter.putInt((int) (toTicks(mPresentationTimes[i]) - decodeTicks));
+        }
+        mBoxWriter.endBox();
+        mBoxWriter.endBox();
+        mBoxWriter.endBox();
+        int moofSize = mBoxWriter.position();
+        // Relative to the start of moof, past the mdat header
+        mBoxWriter.putInt(dataOffsetPosition, moofSize + 8);
+        mBoxWriter.putInt(8 + mSampleData.position());
+        mBoxWriter.putFourCc("mdat");
+
+        long offset = mBytesWritten;
+        write(mBoxWriter.getBytes());
+        mSampleData.flip();
+        write(mSampleData);
+        mSampleData.clear();
+        mSampleCount = 0;
+
+        if (mListener != null)
+            mListener.onFragmentWritten(mSequenceNumber, offset, mBytesWritten - offset, startUs, endUs - startUs);
+    }
+
+    private void write(ByteBuffer bytes) throws IOException
+    {
+        while (bytes.hasRemaining())
+            mBytesWritten += mChannel.write(bytes);
+    }
+
+    private void appendLengthPrefixed(ByteBuffer data)
+    {
+        int start = data.position();
+        int end = data.limit();
+        int startCode = Mp4TrackFormat.findStartCode(data, start, end);
+        if (startCode != start)
+        {
+            // Already length prefixed (or a single unit without start code)
+            ensureSampleCapacity(end - start);
+            mSampleData.put(data.duplicate());
+            return;
+        }
+
+        // Each start code of 3 or 4 bytes becomes a 4 byte length
+        ensureSampleCapacity((end - start)*4/3 + 4);
+        int nalStart = Mp4TrackFormat.skipStartCode(data, startCode);
+        while (nalStart < end)
+        {
+            int next = Mp4TrackFormat.findStartCode(data, nalStart, end);
+            int nalEnd = next < 0 ? end : next;
+            mSampleData.putInt(nalEnd - nalStart);
+            ByteBuffer nal = data.duplicate();
+            nal.position(nalStart);
+            nal.limit(nalEnd);
+            mSampleData.put(nal);
+            if (next < 0)
+                break;
+            nalStart = Mp4TrackFormat.skipStartCode(data, next);
+        }
+    }
+
+    private void ensureSampleCapacity(int count)
+    {
+        if (mSampleData.remaining() >= count)
+            return;
+        ByteBuffer grown = ByteBuffer.allocateDirect(Math.max(mSampleData.capacity()*2, mSampleData.position() + count));
+        mSampleData.flip();
+        grown.put(mSampleData);
+        mSampleData = grown;
+    }
+
+    private void growSampleTables()
+    {
+        int capacity = mSizes.length*2;
+        mPresentationTimes = Arrays.copyOf(mPresentationTimes, capacity);
+        mDecodeTimes = Arrays.copyOf(mDecodeTimes, capacity);
+        mSizes = Arrays.copyOf(mSizes, capacity);
+        mSync = Arrays.copyOf(mSync, capacity);
+    }
+
+    static long toTicks(long timeUs)
+    {
+        return timeUs*TIMESCALE/1000000;
+    }
+
+    private void writeFtyp()
+    {
+        mBoxWriter.startBox("ftyp");
+        mBoxWriter.putFourCc("iso6");
+        mBoxWriter.putInt(0);
+        mBoxWriter.putFourCc("iso6");
+        mBoxWriter.putFourCc("cmfc");
+        mBoxWriter.putFourCc("mp41");
+        mBoxWriter.endBox();
+    }
+
+    private void writeMoov()
+    {
+        mBoxWriter.startBox("moov");
+
+        mBoxWriter.startFullBox("mvhd", 0, 0);
+        mBoxWriter.putInt(0);
+        mBoxWriter.putInt(0);
+        mBoxWriter.putInt(TIMESCALE);
+        mBoxWriter.putInt(0);
+        mBoxWriter.putInt(0x00010000);
+        mBoxWriter.putShort(0x0100);
+        mBoxWriter.putZeros(10);
+        writeMatrix(0);
+        mBoxWriter.putZeros(24);
+        mBoxWriter.putInt(TRACK_ID + 1);
+        mBoxWriter.endBox();
+
+        mBoxWriter.startBox("trak");
+        writeTkhd();
+        mBoxWriter.startBox("mdia");
+        mBoxWriter.startFullBox("mdhd", 0, 0);
+        mBoxWriter.putInt(0);
+        mBoxWriter.putInt(0);
+        mBoxWriter.putInt(TIMESCALE);
+        mBoxWriter.putInt(0);
+        // Packed ISO 639-2 "und"
+        mBoxWriter.putShort(0x55c4);
+        mBoxWriter.putShort(0);
+        mBoxWriter.endBox();
+        mBoxWriter.startFullBox("hdlr", 0, 0);
+        mBoxWriter.putInt(0);
+        mBoxWriter.putFourCc("vide");
+        mBoxWriter.putZeros(12);
+        mBoxWriter.putBytes("VideoHandler\0".getBytes());
+        mBoxWriter.endBox();
+        mBoxWriter.startBox("minf");
+        mBoxWriter.startFullBox("vmhd", 0, 1);
+        mBoxWriter.putZeros(8);
+        mBoxWriter.endBox();
+        mBoxWriter.startBox("dinf");
+        mBoxWriter.startFullBox("dref", 0, 0);
+        mBoxWriter.putInt(1);
+        mBoxWriter.startFullBox("url ", 0, 1);
+        mBoxWriter.endBox();
+        mBoxWriter.endBox();
+        mBoxWriter.endBox();
+        writeStbl();
+        mBoxWriter.endBox();
+        mBoxWriter.endBox();
+        mBoxWriter.endBox();
+
+        mBoxWriter.startBox("mvex");
+        mBoxWriter.startFullBox("trex", 0, 0);
+        mBoxWriter.putInt(TRACK_ID);
+        mBoxWriter.putInt(1);
+        mBoxWriter.putInt(0);
+        mBoxWriter.putInt(0);
+        mBoxWriter.putInt(0);
+        mBoxWriter.endBox();
+        mBoxWriter.endBox();
+
+        mBoxWriter.endBox();
+    }
+
+    private void writeTkhd()
+    {
+        // Track enabled and in movie
+        mBoxWriter.startFullBox("tkhd", 0, 3);
+        mBoxWriter.putInt(0);
+        mBoxWriter.putInt(0);
+        mBoxWriter.putInt(TRACK_ID);
+        mBoxWriter.putInt(0);
+        mBoxWriter.putInt(0);
+        mBoxWriter.putZeros(8);
+        mBoxWriter.putShort(0);
+        mBoxWriter.putShort(0);
+        mBoxWriter.putShort(0);
+        mBoxWriter.putShort(0);
+        writeMatrix(mFormat.rotationDegrees);
+        mBoxWriter.putInt(mFormat.width << 16);
+        mBoxWriter.putInt(mFormat.height << 16);
+        mBoxWriter.endBox();
+    }
+
+    private void writeMatrix(int rotationDegrees)
+    {
+        // 16.16 fixed point a, b, c, d and 2.30 u, v, w, as written by MediaMuxer
+        int a = 0x00010000, b = 0, c = 0, d = 0x00010000;
+        switch (rotationDegrees)
+        {
+            case 90:
+                a = 0; b = 0x00010000; c = -0x00010000; d = 0;
+                break;
+            case 180:
+                a = -0x00010000; d = -0x00010000;
+                break;
+            case 270:
+                a = 0; b = -0x00010000; c = 0x00010000; d = 0;
+                break;
+        }
+        mBoxWriter.putInt(a);
+        mBoxWriter.putInt(b);
+        mBoxWriter.putInt(0);
+        mBoxWriter.putInt(c);
+        mBoxWriter.putInt(d);
+        mBoxWriter.putInt(0);
+        mBoxWriter.putInt(0);
+        mBoxWriter.putInt(0);
+        mBoxWriter.putInt(0x40000000);
+    }
+
+    private void writeStbl()
+    {
+        mBoxWriter.startBox("stbl");
+        mBoxWriter.startFullBox("stsd", 0, 0);
+        mBoxWriter.putInt(1);
+        writeSampleEntry();
+        mBoxWriter.endBox();
+        for (String type : new String[]{"stts", "stsc", "stco"})
+        {
+            mBoxWriter.startFullBox(type, 0, 0);
+            mBoxWriter.putInt(0);
+            mBoxWriter.endBox();
+        }
+        mBoxWriter.startFullBox("stsz", 0, 0);
+        mBoxWriter.putInt(0);
+        mBoxWriter.putInt(0);
+        mBoxWriter.endBox();
+        mBoxWriter.endBox();
+    }
+
+    private void writeSampleEntry()
+    {
+        boolean hevc = mFormat.codec == Mp4TrackFormat.Codec.HEVC;
+        mBoxWriter.startBox(hevc ? "hvc1" : "avc1");
+        mBoxWriter.putZeros(6);
+        mBoxWriter.putShort(1);
+        mBoxWriter.putZeros(16);
+        mBoxWriter.putShort(mFormat.width);
+        mBoxWriter.putShort(mFormat.height);
+        mBoxWriter.putInt(0x00480000);
+        mBoxWriter.putInt(0x00480000);
+        mBoxWriter.putInt(0);
+        mBoxWriter.putShort(1);
+        mBoxWriter.putZeros(32);
+        mBoxWriter.putShort(0x0018);
+        mBoxWriter.putShort(-1);
+        if (hevc)
+            writeHvcC();
+        else
+            writeAvcC();
+        mBoxWriter.endBox();
+    }
+
+    private void writeAvcC()
+    {
+        byte[] sps = mFormat.sps.get(0);
+        mBoxWriter.startBox("avcC");
+        mBoxWriter.putByte(1);
+        mBoxWriter.putByte(sps[1]);
+        mBoxWriter.putByte(sps[2]);
+        mBoxWriter.putByte(sps[3]);
+        // 4 byte NAL lengths
+        mBoxWriter.putByte(0xfc | 3);
+        mBoxWriter.putByte(0xe0 | mFormat.sps.size());
+        for (byte[] nal : mFormat.sps)
+        {
+            mBoxWriter.putShort(nal.length);
+            mBoxWriter.putBytes(nal);
+        }
+        mBoxWriter.putByte(mFormat.pps.size());
+        for (byte[] nal : mFormat.pps)
+        {
+            mBoxWriter.putShort(nal.length);
+            mBoxWriter.putBytes(nal);
+        }
+        mBoxWriter.endBox();
+    }
+
+    private void writeHvcC()
+    {
+        byte[] profileTierLevel = mFormat.hevcProfileTierLevel();
+        int profileIdc = profileTierLevel[0] & 0x1f;
+        // Main 10 streams are 10 bit; the decoder takes the exact depth from the SPS
+        int bitDepthMinus8 = profileIdc == 2 ? 2 : 0;
+
+        mBoxWriter.startBox("hvcC");
+        mBoxWriter.putByte(1);
+        mBoxWriter.putBytes(profileTierLevel);
+        mBoxWriter.putShort(0xf000);
+        mBoxWriter.putByte(0xfc);
+        // 4:2:0
+        mBoxWriter.putByte(0xfc | 1);
+        mBoxWriter.putByte(0xf8 | bitDepthMinus8);
+        mBoxWriter.putByte(0xf8 | bitDepthMinus8);
+        mBoxWriter.putShort(0);
+        // One temporal layer, temporal id nested, 4 byte NAL lengths
+        mBoxWriter.putByte((1 << 3) | (1 << 2) | 3);
+        mBoxWriter.putByte(3);
+        writeHvcCArray(Mp4TrackFormat.HEVC_VPS, mFormat.vps);
+        writeHvcCArray(Mp4TrackFormat.HEVC_SPS, mFormat.sps);
+        writeHvcCArray(Mp4TrackFormat.HEVC_PPS, mFormat.pps);
+        mBoxWriter.endBox();
+    }
+
+    private void writeHvcCArray(int nalType, List<byte[]> units)
+    {
+        mBoxWriter.putByte(0x80 | nalType);
+        mBoxWriter.putShort(units.size());
+        for (byte[] nal : units)
+        {
+            mBoxWriter.putShort(nal.length);
+            mBoxWriter.putBytes(nal);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Computes {@link FrameStatistics} on a worker pool. Pixel data is copied into a fixed set of
+ * pooled direct buffers and results are delivered in submission order, so the scene change score
+ * can be computed against the previous frame. Nothing is allocated per frame: when every buffer
+ * is busy the frame is dropped.
+ */
+final class FrameAnalyzer {
+    interface Listener {
+        void onFrameStatistics(FrameStatistics statistics);
+    }
+
+    private final class Job implements Runnable {
+        final ByteBuffer mPixels;
+        final FrameStatistics mStatistics = new FrameStatistics();
+        long mSequence;
+
+        Job(int byteCount)
+        {
+            mPixels = ByteBuffer.allocateDirect(byteCount).order(ByteOrder.nativeOrder());
+        }
+
+        @Override
+        public void run() {
+            mPixels.position(0);
+            mStatistics.mPixelCount = mPixelCount;
+            mStatistics.mAverageLuma = StatisticsCalculator.lumaHistogram(mPixels, mPixelCount,
+                    mStatistics.mHistogram);
+            complete(this);
+        }
+    }
+
+    private final int mPixelCount;
+    private final Listener mListener;
+    private final ArrayBlockingQueue<Job> mFreeJobs;
+    private final Job[] mReorderBuffer;
+    private final ThreadPoolExecutor mExecutor;
+    private final int[] mPreviousHistogram = new int[FrameStatistics.HISTOGRAM_BINS];
+    private int mPreviousPixelCount;
+    // Written by the submitting thread only, which must never wait for a blocked listener
+    private volatile long mNextSequence;
+    private long mNextDelivery;
+    private final AtomicInteger mDropped = new AtomicInteger();
+
+    FrameAnalyzer(int width, int height, int workers, int buffers, Listener listener)
+    {
+        mPixelCount = width*height;
+        mListener = listener;
+        mFreeJobs = new ArrayBlockingQueue<>(buffers);
+        mReorderBuffer = new Job[buffers];
+        for (int i = 0; i < buffers; i++)
+            mFreeJobs.add(new Job(mPixelCount*4));
+
+        // The work queue can hold every job, so execute() never rejects
+        mExecutor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(buffers), new ThreadFactory() {
+            private int mCount;
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "FrameAnalyzer-" + mCount++);
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Copies the RGBA pixels and schedules their analysis. Must be called from a single thread.
+     * @return false if no buffer was free and the frame was dropped
+     */
+    boolean submit(long frameIndex, long presentationTimeUs, ByteBuffer rgba)
+    {
+        Job job = mFreeJobs.poll();
+        if (job == null)
+        {
+            mDropped.incrementAndGet();
+            return false;
+        }
+
+        job.mPixels.clear();
+        int limit = rgba.limit();
+        if (rgba.remaining() > job.mPixels.capacity())
+            rgba.limit(rgba.position() + job.mPixels.capacity());
+        job.mPixels.put(rgba);
+        rgba.limit(limit);
+        job.mStatistics.mFrameIndex = frameIndex;
+        job.mStatistics.mPresentationTimeUs = presentationTimeUs;
+        job.mSequence = mNextSequence;
+        mNextSequence = job.mSequence + 1;
+        mExecutor.execute(job);
+        return true;
+    }
+
+    private void complete(Job job)
+    {
+        synchronized (this)
+        {
+            mReorderBuffer[(int) (job.mSequence % mReorderBuffer.length)] = job;
+            int slot;
+            while ((job = mReorderBuffer[slot = (int) (mNextDelivery % mReorderBuffer.length)]) != null)
+            {
+                mReorderBuffer[slot] = null;
+                FrameStatistics statistics = job.mStatistics;
+                statistics.mSceneChangeScore = StatisticsCalculator.histogramDistance(mPreviousHistogram,
+                        mPreviousPixelCount, statistics.mHistogram, statistics.mPixelCount);
+                System.arraycopy(statistics.mHistogram, 0, mPreviousHistogram, 0, mPreviousHistogram.length);
+                mPreviousPixelCount = statistics.mPixelCount;
+                mListener.onFrameStatistics(statistics);
+                mNextDelivery++;
+                mFreeJobs.add(job);
+            }
+            notifyAll();
+        }
+    }
+
+    int getDropped() {
+        return mDropped.get();
+    }
+
+    synchronized long getDelivered() {
+        return mNextDelivery;
+    }
+
+    /**
+     * Waits until every submitted frame has been delivered and stops the workers.
+     */
+    void finish()
+    {
+        synchronized (this)
+        {
+            try {
+                while (mNextDelivery < mNextSequence)
+                    wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Stops the workers without waiting for the frames still queued, e.g. when the job is
+     * released before it finished. Harmless after {@link #finish()}.
+     */
+    void release()
+    {
+        mExecutor.shutdownNow();
+    }
+
+    boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        return mExecutor.awaitTermination(timeout, unit);
+    }
+}
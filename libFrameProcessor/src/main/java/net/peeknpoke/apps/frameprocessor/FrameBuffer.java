@@ -0,0 +1,97 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.opengl.GLES30;
+
+/**
+ * A framebuffer object of the current context around a texture of the {@link ShareGroup} texture
+ * pool. The framebuffer object belongs to the context; the texture goes back to the pool on
+ * cleanup, for a later job on another context to reuse.
+ */
+class FrameBuffer {
+    private final ShareGroup mShareGroup;
+    private final int mWidth;
+    private final int mHeight;
+    private ShareGroup.PooledTexture mTexture;
+    private int mFramebuffer;
+
+    /**
+     * @param internalFormat a color renderable sized format, e.g. GL_RGB10_A2 for HDR signals
+     */
+    FrameBuffer(ShareGroup shareGroup, int width, int height, int internalFormat)
+    {
+        mShareGroup = shareGroup;
+        mWidth = width;
+        mHeight = height;
+        mTexture = shareGroup.acquirePooledTexture(width, height, internalFormat);
+        try {
+            createFramebuffer();
+        } catch (RuntimeException e) {
+            shareGroup.releasePooledTexture(mTexture);
+            throw e;
+        }
+    }
+
+    /**
+     * @return an immutable texture to render into
+     */
+    static int createTexture(int width, int height, int internalFormat)
+    {
+        final int[] textureHandle = new int[1];
+        GLES30.glGenTextures(1, textureHandle, 0);
+        if (textureHandle[0] == 0)
+        {
+            throw new RuntimeException("Error creating texture.");
+        }
+        int texture = textureHandle[0];
+
+        GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, texture);
+        GLES30.glTexStorage2D(GLES30.GL_TEXTURE_2D, 1, internalFormat, width, height);
+        GLES30.glTexParameteri(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_WRAP_S, GLES30.GL_CLAMP_TO_EDGE);
+        GLES30.glTexParameteri(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_WRAP_T, GLES30.GL_CLAMP_TO_EDGE);
+        GLES30.glTexParameteri(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_MIN_FILTER, GLES30.GL_LINEAR);
+        GLES30.glTexParameteri(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_MAG_FILTER, GLES30.GL_LINEAR);
+        GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, 0);
+        return texture;
+    }
+
+    private void createFramebuffer()
+    {
+        final int[] framebufferHandle = new int[1];
+        GLES30.glGenFramebuffers(1, framebufferHandle, 0);
+        mFramebuffer = framebufferHandle[0];
+
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, mFramebuffer);
+        GLES30.glFramebufferTexture2D(GLES30.GL_FRAMEBUFFER, GLES30.GL_COLOR_ATTACHMENT0,
+                GLES30.GL_TEXTURE_2D, mTexture.name, 0);
+        int status = GLES30.glCheckFramebufferStatus(GLES30.GL_FRAMEBUFFER);
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, 0);
+        if (status != GLES30.GL_FRAMEBUFFER_COMPLETE)
+        {
+            throw new RuntimeException("Incomplete framebuffer: " + status);
+        }
+    }
+
+    int getTexture() {
+        return mTexture != null ? mTexture.name : 0;
+    }
+
+    int getFramebuffer() {
+        return mFramebuffer;
+    }
+
+    int getWidth() {
+        return mWidth;
+    }
+
+    int getHeight() {
+        return mHeight;
+    }
+
+    void cleanup()
+    {
+        GLES30.glDeleteFramebuffers(1, new int[]{mFramebuffer}, 0);
+        mShareGroup.releasePooledTexture(mTexture);
+        mFramebuffer = 0;
+        mTexture = null;
+    }
+}
@@ -0,0 +1,78 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.opengl.GLES30;
+
+/**
+ * Pool of texture backed framebuffers for the GL context it is used on. The framebuffer objects
+ * are created around textures of the share group's pool, so a pool of a later job only creates
+ * new framebuffer objects for the textures a job before it has released.
+ */
+class FrameBufferPool extends ResourcePool<FrameBuffer> {
+    static final long DEFAULT_BUDGET_BYTES = 128L*1024*1024;
+
+    private static final class FrameBufferAllocator implements Allocator<FrameBuffer> {
+        private final ShareGroup mShareGroup;
+
+        FrameBufferAllocator(ShareGroup shareGroup)
+        {
+            mShareGroup = shareGroup;
+        }
+
+        @Override
+        public FrameBuffer create(Key key) {
+            return new FrameBuffer(mShareGroup, key.width, key.height, key.format);
+        }
+
+        @Override
+        public void destroy(FrameBuffer frameBuffer) {
+            frameBuffer.cleanup();
+        }
+
+        @Override
+        public long sizeOf(Key key) {
+            return FrameBufferPool.sizeOf(key);
+        }
+    }
+
+    /**
+     * @param shareGroup share group of the context the pool is used on
+     */
+    FrameBufferPool(ShareGroup shareGroup, long budgetBytes)
+    {
+        super(new FrameBufferAllocator(shareGroup), budgetBytes);
+    }
+
+    FrameBuffer acquire(int width, int height, int internalFormat)
+    {
+        return acquire(new Key(width, height, internalFormat));
+    }
+
+    FrameBuffer acquire(int width, int height)
+    {
+        return acquire(width, height, GLES30.GL_RGBA8);
+    }
+
+    static long sizeOf(Key key)
+    {
+        return (long) key.width*key.height*bytesPerPixel(key.format);
+    }
+
+    static int bytesPerPixel(int internalFormat)
+    {
+        switch (internalFormat)
+        {
+            case GLES30.GL_R8:
+                return 1;
+            case GLES30.GL_RG8:
+            case GLES30.GL_R16F:
+                return 2;
+            case GLES30.GL_RGBA16F:
+                return 8;
+            case GLES30.GL_RGBA32F:
+                return 16;
+            default:
+                // GL_RGBA8, GL_RGB10_A2 and other 32-bit formats
+                return 4;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Paces the three stages of the pipeline, which run on different threads. The decoder releases
+ * one frame to the renderer and waits until it has been rendered, so no decoded frame is dropped.
+ * The renderer waits until the encoder has output the previous frame before rendering the next
+ * one, so no rendered frame is dropped either. With more frames in flight it only waits until the
+ * encoder is fewer than that many frames behind, and renders while the encoder works on the
+ * frames before. With several encoders, one per rendition, the renderer waits for all of them, so
+ * the slowest encoder paces the pipeline. The encoder callbacks
+ * must not run on the thread of the decoder callbacks, or the decoder waits for a render that
+ * waits for the encoder.
+ */
+final class FrameHandshake {
+    private final Lock mDecoderLock;
+    private final Condition mRendered;
+    private final Lock mEncoderLock;
+    private final Condition mEncoded;
+    private final ThroughputGovernor.Clock mClock;
+    private boolean mFrameRendered;
+    private int mInFlightFrames;
+    private final int[] mPendingFrames;     // Rendered into each encoder and not output yet
+    private final long[] mStallNanos;
+    private int mLastEncoder = -1;
+    private boolean mClosed;
+    private volatile long mFrameTimeUs;
+    private volatile boolean mCaptureStill;
+
+    /**
+     * @param encoders number of encoders fed from every rendered frame
+     */
+    FrameHandshake(int encoders)
+    {
+        this(encoders, 1);
+    }
+
+    /**
+     * @param encoders       number of encoders fed from every rendered frame
+     * @param inFlightFrames frames the renderer may be ahead of the encoder output, at least 1.
+     *                       Each one takes a buffer of the encoder input surface, which only has
+     *                       a few
+     */
+    FrameHandshake(int encoders, int inFlightFrames)
+    {
+        this(encoders, inFlightFrames, new ReentrantLock(), new ReentrantLock(), ThroughputGovernor.SYSTEM_CLOCK);
+    }
+
+    /**
+     * With the locks and the clock given, e.g. those of a simulation on a virtual clock.
+     * @param decoderLock guards the handoff of a frame from the decoder to the renderer
+     * @param encoderLock guards the frames rendered into the encoders
+     * @param clock       measures the stalls of the renderer
+     */
+    FrameHandshake(int encoders, int inFlightFrames, Lock decoderLock, Lock encoderLock,
+                   ThroughputGovernor.Clock clock)
+    {
+        mDecoderLock = decoderLock;
+        mRendered = decoderLock.newCondition();
+        mEncoderLock = encoderLock;
+        mEncoded = encoderLock.newCondition();
+        mClock = clock;
+        mPendingFrames = new int[Math.max(1, encoders)];
+        mInFlightFrames = Math.max(1, inFlightFrames);
+        mStallNanos = new long[mPendingFrames.length];
+    }
+
+    /**
+     * Called by the decoder before it releases a frame to the renderer.
+     */
+    void frameReleased(long presentationTimeUs, boolean captureStill)
+    {
+        mFrameTimeUs = presentationTimeUs;
+        mCaptureStill = captureStill;
+    }
+
+    /**
+     * Called by the decoder after releasing a frame to be rendered.
+     */
+    void awaitRendered()
+    {
+        mDecoderLock.lock();
+        try {
+            while (!mFrameRendered && !mClosed)
+                mRendered.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            mFrameRendered = false;
+            mDecoderLock.unlock();
+        }
+    }
+
+    /**
+     * Called by the renderer before rendering a frame into the encoder surfaces.
+     */
+    void awaitEncoded()
+    {
+        mEncoderLock.lock();
+        try {
+            long start = 0;
+            try {
+                while (!canRender() && !mClosed)
+                {
+                    if (start == 0)
+                        start = mClock.nanoTime();
+                    mEncoded.await();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // The wait is charged to the encoder that was ready last
+            if (start != 0 && mLastEncoder >= 0)
+                mStallNanos[mLastEncoder] += mClock.nanoTime() - start;
+            for (int i = 0; i < mPendingFrames.length; i++)
+                mPendingFrames[i]++;
+        } finally {
+            mEncoderLock.unlock();
+        }
+    }
+
+    /**
+     * Changes the frames the renderer may be ahead of the encoder output, e.g. as the
+     * {@link ThroughputGovernor} sees fit. Frames already in flight are not taken back.
+     */
+    void setInFlightFrames(int inFlightFrames)
+    {
+        mEncoderLock.lock();
+        try {
+            mInFlightFrames = Math.max(1, inFlightFrames);
+            mEncoded.signal();
+        } finally {
+            mEncoderLock.unlock();
+        }
+    }
+
+    private boolean canRender()
+    {
+        for (int pending : mPendingFrames)
+        {
+            if (pending >= mInFlightFrames)
+                return false;
+        }
+        return true;
+    }
+
+    void frameRendered()
+    {
+        mDecoderLock.lock();
+        try {
+            mFrameRendered = true;
+            mRendered.signal();
+        } finally {
+            mDecoderLock.unlock();
+        }
+    }
+
+    /**
+     * Called by an encoder for every output buffer.
+     * @param encoder index of the encoder, 0 when there is only one
+     */
+    void frameEncoded(int encoder)
+    {
+        mEncoderLock.lock();
+        try {
+            // Codec config buffers release a frame too
+            if (mPendingFrames[encoder] > 0)
+                mPendingFrames[encoder]--;
+            mLastEncoder = encoder;
+            mEncoded.signal();
+        } finally {
+            mEncoderLock.unlock();
+        }
+    }
+
+    /**
+     * @return time the renderer spent waiting for the encoder after the others were ready
+     */
+    long getStallNanos(int encoder)
+    {
+        mEncoderLock.lock();
+        try {
+            return mStallNanos[encoder];
+        } finally {
+            mEncoderLock.unlock();
+        }
+    }
+
+    long getFrameTimeUs()
+    {
+        return mFrameTimeUs;
+    }
+
+    boolean isCaptureStill()
+    {
+        return mCaptureStill;
+    }
+
+    /**
+     * Releases the stages waiting on each other, for good.
+     */
+    void close()
+    {
+        mDecoderLock.lock();
+        try {
+            mClosed = true;
+            mRendered.signalAll();
+        } finally {
+            mDecoderLock.unlock();
+        }
+        mEncoderLock.lock();
+        try {
+            mClosed = true;
+            mEncoded.signalAll();
+        } finally {
+            mEncoderLock.unlock();
+        }
+    }
+}
@@ -1,54 +1,133 @@
 package net.peeknpoke.apps.frameprocessor;
 
 import android.content.Context;
-import android.content.Intent;
+import android.content.res.AssetFileDescriptor;
+import android.hardware.display.DisplayManager;
 import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
 import android.media.MediaExtractor;
 import android.media.MediaFormat;
-import android.media.MediaMuxer;
+import android.media.MediaScannerConnection;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Environment;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.ParcelFileDescriptor;
 import android.provider.MediaStore;
 import android.util.Log;
+import android.view.Display;
 import android.view.Surface;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.RequiresApi;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.lang.ref.WeakReference;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
-public class FrameProcessor implements ObserverSubject<FrameProcessorObserver>, CustomContextObserver {
+public class FrameProcessor implements ObserverSubject<FrameProcessorObserver>, CustomContextObserver,
+        EncoderOutput.Listener, ThroughputGovernor.Listener {
     private static final String TAG = FrameProcessor.class.getSimpleName();
+    static final String SCENE_CUTS_EXTENSION = ".cuts.txt";
+    private static final int DEMUX_SLOTS = 64;
+    private static final int INITIAL_SAMPLE_CAPACITY = 256*1024;
+    private static final long PREVIEW_DETACH_TIMEOUT_MS = 500;
     private CustomContext mRenderingContext;
     private MediaCodec mMediaCodecDecoder;
-    private MediaCodec mMediaCodecEncoder;
     private MediaExtractor mMediaExtractor;
-    private MediaMuxer mMediaMuxer;
-    private Surface mEncoderInputSurface;
+    private MappedMediaDataSource mInputSource;
+    private DemuxQueue mDemuxQueue;
+    private DemuxThread mDemuxThread;
+    private final FrameHandshake mHandshake;
+    private PipelineScheduler mScheduler;
+    private final List<EncoderOutput> mOutputs = new ArrayList<>();
+    private int mFinishedOutputs;
     private ArrayList<WeakReference<FrameProcessorObserver>> mObservers = new ArrayList<>();
-    private int mMuxerVideoTrackIndex = -1;
     private File mOutputVideoFile;
     private Handler mMainHandler;
     private MediaFormat mMediaFormat;
     private Handler mEncoderHandler;
+    private Handler mRenderingHandler;
+    private StatisticsSidecarWriter mStatisticsWriter;
+    private final ArrayList<WeakReference<FrameStatisticsObserver>> mStatisticsObservers = new ArrayList<>();
+    private final ArrayList<WeakReference<FragmentObserver>> mFragmentObservers = new ArrayList<>();
+    private final Context mContext;
+    private final FrameProcessorSettings mSettings;
+    private final boolean mEncodeVideo;
+    private StillFrameSelector mStillSelector;
+    private long mInputBytes = -1;
+    private volatile List<TranscodeReport> mTranscodeReports = Collections.emptyList();
+    private DynamicRange.Transfer mInputTransfer = DynamicRange.Transfer.SDR;
+    private float mSourcePeakNits = ColorTransfer.HLG_REFERENCE_PEAK_NITS;
+    private final List<Long> mSceneCuts = Collections.synchronizedList(new ArrayList<Long>());
+    private final JobCheckpoint mCheckpoint;
+    private final CheckpointStore mCheckpointStore;
+    private ResumePlanner.Plan mResumePlan;
+    private long mSkipUntilUs = Long.MIN_VALUE;
+    private boolean mFinished;
+    private int mRotation;
+    private final String mOutputMimeType;
 
     @RequiresApi(api = Build.VERSION_CODES.Q)
     public FrameProcessor(final Context context, Uri uri, final String appName) throws IOException {
+        this(context, uri, appName, new FrameProcessorSettings());
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.Q)
+    public FrameProcessor(final Context context, Uri uri, final String appName,
+                          FrameProcessorSettings settings) throws IOException {
+        this(context, uri, appName, settings, null, null);
+    }
+
+    /**
+     * Runs the job of a checkpoint, continuing its output if the {@link ResumePlanner} allows it,
+     * and keeps the checkpoint up to date as fragments are written.
+     */
+    @RequiresApi(api = Build.VERSION_CODES.Q)
+    FrameProcessor(Context context, JobCheckpoint checkpoint, CheckpointStore checkpointStore) throws IOException {
+        this(context, Uri.parse(checkpoint.inputUri), checkpoint.appName, checkpoint.settings,
+                checkpoint, checkpointStore);
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.Q)
+    private FrameProcessor(final Context context, Uri uri, final String appName, FrameProcessorSettings settings,
+                           JobCheckpoint checkpoint, CheckpointStore checkpointStore) throws IOException {
+        mContext = context;
+        PipelineProfile profile = settings.isDeviceProfile() ? PipelineCalibration.getDeviceProfile(context) :
+                settings.getPipelineProfile();
+        if (profile!=null)
+            Log.d(TAG, "Pipeline profile: " + profile);
+        mHandshake = new FrameHandshake(Math.max(1, settings.getRenditions().size()),
+                profile!=null ? profile.getInFlightFrames() : 1);
+        mOutputMimeType = settings.getOutputMimeType()!=null || profile==null ? settings.getOutputMimeType() :
+                profile.getMimeType();
+        mCheckpoint = checkpoint;
+        mCheckpointStore = checkpointStore;
+        mSettings = settings;
+        mEncodeVideo = settings.isVideoOutput();
         mMainHandler = new Handler(context.getMainLooper());
         mMediaExtractor = new MediaExtractor();
 
-        final Handler renderingHandler = createThread("CustomContext");
+        mRenderingHandler = createThread("CustomContext");
         mEncoderHandler = createThread("Encoder");
 
-        mMediaExtractor.setDataSource(context, uri, null);
+        mInputSource = openMappedInput(context, uri, settings.getInputWindowBytes());
+        if (mInputSource!=null)
+            mMediaExtractor.setDataSource(mInputSource);
+        else
+            mMediaExtractor.setDataSource(context, uri, null);
+        mInputBytes = getContentLength(context, uri);
         int videoTrackIndex = getVideoTrackIndex(mMediaExtractor);
         if (videoTrackIndex <0)
         {
@@ -62,28 +141,98 @@ public class FrameProcessor implements ObserverSubject<FrameProcessorObserver>,
         final int width = mMediaFormat.getInteger(MediaFormat.KEY_WIDTH);
         final int height = mMediaFormat.getInteger(MediaFormat.KEY_HEIGHT);
         int rotation = mMediaFormat.getInteger(MediaFormat.KEY_ROTATION);
+        mRotation = rotation;
         final String mimeType = mMediaFormat.getString(MediaFormat.KEY_MIME);
+        if (settings.isPreserveHdr() && mMediaFormat.containsKey(MediaFormat.KEY_COLOR_TRANSFER))
+        {
+            mInputTransfer = DynamicRange.transferOf(mMediaFormat.getInteger(MediaFormat.KEY_COLOR_TRANSFER));
+            if (mMediaFormat.containsKey(MediaFormat.KEY_HDR_STATIC_INFO))
+                mSourcePeakNits = DynamicRange.peakFromStaticInfo(
+                        mMediaFormat.getByteBuffer(MediaFormat.KEY_HDR_STATIC_INFO), mSourcePeakNits);
+        }
+
+        if (settings.isStillsOutput())
+            mStillSelector = new StillFrameSelector((long) (settings.getStillIntervalSeconds()*1000000));
 
-        // Create media muxer
+        boolean resume = false;
+        if (mCheckpoint!=null)
+        {
+            mResumePlan = ResumePlanner.plan(mCheckpoint, getCheckpointedOutputLength(context, mCheckpoint));
+            Log.d(TAG, "Job " + mCheckpoint.jobId + ": " + mResumePlan);
+            resume = mResumePlan.resume;
+            if (resume)
+            {
+                mMediaExtractor.seekTo(mResumePlan.seekTimeUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+                mSkipUntilUs = mResumePlan.skipUntilUs;
+            }
+            else
+            {
+                discardCheckpointedOutput(context, mCheckpoint);
+            }
+        }
+
+        final List<RenditionLadder.Rung> rungs = RenditionLadder.plan(width, height, settings.getRenditions(),
+                settings.getBitRate(), profile!=null ? profile.getMaxShortSide() : PipelineProfile.NO_SIZE_LIMIT);
         File folder = FileOperations.getAppMediaFolder(appName);
-        if (folder!=null) {
-            mOutputVideoFile = FileOperations.createMediaFile(folder, "output", MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO);
-            mMediaMuxer = new MediaMuxer(mOutputVideoFile.getPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
-            mMediaMuxer.setOrientationHint(rotation);
+        if (folder!=null)
+        {
+            if (resume)
+                mOutputVideoFile = new File(mCheckpoint.getOutputPath(0));
+            else
+                mOutputVideoFile = FileOperations.createMediaFile(folder, "output", MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO);
+        }
+        if (mEncodeVideo)
+        {
+            for (int i = 0; i < rungs.size(); i++)
+                mOutputs.add(createOutput(context, appName, rungs.get(i), i, rotation, resume));
+            // The sidecars describe the largest rendition
+            mOutputVideoFile = mOutputs.get(0).getFile();
+            if (mCheckpoint!=null && !resume && mOutputVideoFile!=null)
+            {
+                mCheckpoint.startOutput(mOutputVideoFile.getPath(), getOutputUri(mOutputs.get(0)));
+                for (int i = 1; i < mOutputs.size(); i++)
+                    mCheckpoint.addOutput(mOutputs.get(i).getFile().getPath(), getOutputUri(mOutputs.get(i)));
+                saveCheckpoint();
+            }
         }
-        mRenderingContext = new CustomContext(width, height);
+        if (mOutputVideoFile!=null && settings.isAnalysisEnabled())
+            mStatisticsWriter = new StatisticsSidecarWriter(mOutputVideoFile);
+        // Without an encoder stills are rendered at the input size, otherwise at the largest rung
+        int renderWidth = mEncodeVideo ? rungs.get(0).width : width;
+        int renderHeight = mEncodeVideo ? rungs.get(0).height : height;
+        mRenderingContext = new CustomContext(renderWidth, renderHeight, settings,
+                createStillDestination(context, appName, folder), mHandshake);
         mRenderingContext.registerObserver(this);
+        if (mEncodeVideo && settings.isAdaptiveThroughput())
+            mRenderingContext.setGovernor(new ThroughputGovernor(ThroughputGovernor.SYSTEM_CLOCK, new DeviceThermalSensors(context), profile!=null ? profile.getInFlightFrames() : 1, this));
 
-        // Create media encoder. Create this first as it has no dependencies on decoder and muxer
+        if (!mEncodeVideo)
+        {
+            // Stills only: no encoder, render off screen. JPEG is SDR, so HDR input is tone mapped
+            mRenderingContext.setDynamicRange(new DynamicRange(mInputTransfer, false, mSourcePeakNits));
+            mRenderingHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mRenderingContext.setupRenderingContext(context, Collections.<Surface>emptyList(),
+                            Collections.<RenditionLadder.Rung>emptyList());
+                }
+            });
+            return;
+        }
+
+        // Create media encoders. Create these first as they have no dependencies on decoder and muxer
         mEncoderHandler.post(new Runnable() {
             @Override
             public void run() {
                 try {
-                    createMediaEncoder(context, mimeType, width, height);
-                    renderingHandler.post(new Runnable() {
+                    createMediaEncoders(context, mimeType);
+                    final List<Surface> surfaces = new ArrayList<>();
+                    for (EncoderOutput output : mOutputs)
+                        surfaces.add(output.getInputSurface());
+                    mRenderingHandler.post(new Runnable() {
                         @Override
                         public void run() {
-                            mRenderingContext.setupRenderingContext(context, mEncoderInputSurface);
+                            mRenderingContext.setupRenderingContext(context, surfaces, rungs);
                         }
                     });
                 } catch (IOException e) {
@@ -95,6 +244,85 @@ public class FrameProcessor implements ObserverSubject<FrameProcessorObserver>,
         // Create opengl rendering context
     }
 
+    /**
+     * Opens the output of a rung. The only output of a job keeps the name of the job, the
+     * renditions of a ladder are named after their rung.
+     */
+    @RequiresApi(api = Build.VERSION_CODES.Q)
+    private EncoderOutput createOutput(Context context, String appName, RenditionLadder.Rung rung, final int index,
+                                       int rotation, boolean resume) throws IOException
+    {
+        File file = null;
+        OutputSink sink = null;
+        MuxerBackend muxer = null;
+        if (mOutputVideoFile!=null)
+        {
+            file = rung.label==null ? mOutputVideoFile :
+                    FileOperations.createSidecarFile(mOutputVideoFile, "_" + rung.label + ".mp4");
+            if (resume)
+                sink = reopenCheckpointedOutput(context, mCheckpoint, mResumePlan.truncateToBytes);
+            else if (mSettings.isPublishToMediaStore())
+                sink = MediaStoreOutputSink.create(context,
+                        Environment.DIRECTORY_DCIM + File.separator + appName, file.getName());
+            else
+                sink = new FileOutputSink(file);
+            if (mSettings.getContainer() == FrameProcessorSettings.Container.FRAGMENTED_MP4)
+            {
+                final File fragmentedFile = file;
+                FragmentedMp4Backend fragmentedBackend = new FragmentedMp4Backend(sink, rotation,
+                        (long) (mSettings.getFragmentDurationSeconds()*1000000), new FragmentedMp4Writer.Listener() {
+                    @Override
+                    public void onFragmentWritten(int sequenceNumber, long offset, long length, long startTimeUs, long durationUs) {
+                        fragmentWritten(index, fragmentedFile, sequenceNumber, offset, length, startTimeUs, durationUs);
+                    }
+                });
+                if (resume)
+                    fragmentedBackend.resumeAfter(mResumePlan.lastSequenceNumber,
+                            mResumePlan.truncateToBytes, mCheckpoint.getEncoderConfigCrc());
+                muxer = fragmentedBackend;
+            }
+            else
+                muxer = new MediaMuxerBackend(sink.getFileDescriptor(), rotation);
+            if (mSettings.getMuxBufferBytes() > 0)
+                muxer = new BufferedMuxerBackend(muxer, mSettings.getMuxBufferBytes());
+        }
+        return new EncoderOutput(index, rung, file, sink, muxer, mHandshake, this);
+    }
+
+    /**
+     * @return where stills are written, like the video outputs, or null when they cannot be
+     */
+    @RequiresApi(api = Build.VERSION_CODES.Q)
+    private StillEncoder.Destination createStillDestination(final Context context, final String appName,
+                                                            final File folder)
+    {
+        if (mSettings.isPublishToMediaStore())
+        {
+            return new StillEncoder.Destination() {
+                @Override
+                public OutputSink open(String name) throws IOException {
+                    return MediaStoreOutputSink.create(context, MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                            "image/jpeg", Environment.DIRECTORY_DCIM + File.separator + appName, name + ".jpg");
+                }
+            };
+        }
+        if (folder==null)
+            return null;
+        return new StillEncoder.Destination() {
+            @Override
+            public OutputSink open(String name) throws IOException {
+                return new FileOutputSink(FileOperations.createMediaFile(folder, name,
+                        MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE));
+            }
+        };
+    }
+
+    private static String getOutputUri(EncoderOutput output)
+    {
+        OutputSink sink = output.getSink();
+        return sink instanceof MediaStoreOutputSink ? ((MediaStoreOutputSink) sink).getUri().toString() : null;
+    }
+
     private Handler createThread(String name)
     {
         HandlerThread thread = new HandlerThread(name);
@@ -105,17 +333,25 @@ public class FrameProcessor implements ObserverSubject<FrameProcessorObserver>,
 
     private void start()
     {
-        mEncoderHandler.post(new Runnable() {
-            @Override
-            public void run() {
-                mMediaCodecEncoder.start();
-            }
-        });
+        if (mEncodeVideo)
+        {
+            mEncoderHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (EncoderOutput output : mOutputs)
+                        output.start();
+                }
+            });
+        }
+        startDemuxing();
         mMediaCodecDecoder.start();
     }
 
     private void stop()
     {
+        if (mScheduler != null)
+            mScheduler.stop();
+        mHandshake.close();
         if (mMediaCodecDecoder != null)
         {
             mMediaCodecDecoder.stop();
@@ -123,17 +359,24 @@ public class FrameProcessor implements ObserverSubject<FrameProcessorObserver>,
             mMediaCodecDecoder = null;
         }
 
-        if (mMediaCodecEncoder != null)
-        {
-            mMediaCodecEncoder.stop();
-            mMediaCodecEncoder.release();
-            mMediaCodecEncoder = null;
-        }
-        if (mMediaMuxer != null)
+        // The partial output of a job released before it finished is not published
+        boolean resumable = mCheckpoint!=null && ResumePlanner.canResume(mSettings);
+        boolean completed = true;
+        for (EncoderOutput output : mOutputs)
+            completed &= output.stop(mFinished, resumable);
+        // A job released before it finished keeps its checkpoint to continue later
+        if (mCheckpoint!=null && mFinished && completed && !mOutputs.isEmpty())
+            mCheckpointStore.delete(mCheckpoint.jobId);
+
+        if (mDemuxThread != null)
         {
-            mMediaMuxer.stop();
-            mMediaMuxer.release();
-            mMediaMuxer = null;
+            mDemuxQueue.close();
+            try {
+                mDemuxThread.join();
+            } catch (InterruptedException e) {
+                Log.e(TAG, "Interrupted while stopping the demux thread");
+            }
+            mDemuxThread = null;
         }
 
         if (mMediaExtractor != null)
@@ -141,6 +384,15 @@ public class FrameProcessor implements ObserverSubject<FrameProcessorObserver>,
             mMediaExtractor.release();
             mMediaExtractor = null;
         }
+        if (mInputSource != null)
+        {
+            Log.d(TAG, "Input reads: " + mInputSource.getMetrics());
+            try {
+                mInputSource.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Could not close the input - " + e.getMessage());
+            }
+        }
     }
 
     private void createMediaDecoder() throws IOException
@@ -151,13 +403,13 @@ public class FrameProcessor implements ObserverSubject<FrameProcessorObserver>,
             Log.e(TAG, "Could not read mime type");
             return;
         }
-        mMediaCodecDecoder = MediaCodec.createDecoderByType(mimeType);
+        mMediaCodecDecoder = CodecSelector.createDecoder(mContext, mimeType,
+                mMediaFormat.getInteger(MediaFormat.KEY_WIDTH), mMediaFormat.getInteger(MediaFormat.KEY_HEIGHT));
         mMediaCodecDecoder.setCallback(new MediaCodec.Callback() {
             @Override
             public void onInputBufferAvailable(@NonNull MediaCodec codec, int index) {
-                ByteBuffer inputBuffer = codec.getInputBuffer(index);
-                Log.d(TAG, "Decoder filling buffer: "+index);
-                fillInputBuffer(inputBuffer, index);
+                Log.d(TAG, "Decoder input buffer available: "+index);
+                mScheduler.onInputBufferAvailable(index);
             }
 
             @Override
@@ -169,7 +421,7 @@ public class FrameProcessor implements ObserverSubject<FrameProcessorObserver>,
                     codec.releaseOutputBuffer(index, false);
                 }
                 else
-                    processOutputBuffer(info, index);
+                    mScheduler.onOutputBufferAvailable(index, info.presentationTimeUs, info.size, info.flags);
             }
 
             @Override
@@ -186,100 +438,201 @@ public class FrameProcessor implements ObserverSubject<FrameProcessorObserver>,
         mMediaCodecDecoder.configure(mMediaFormat, mRenderingContext.getSurface(), null, 0);
     }
 
-    private void createMediaEncoder(final Context context, String mimeType, int width, int height) throws IOException
+    /**
+     * Creates and configures the encoder of every output. The outputs share the rendered frames,
+     * so HDR input is only kept as HDR when every encoder has a 10-bit profile for it.
+     */
+    private void createMediaEncoders(Context context, String inputMimeType) throws IOException
     {
-        MediaFormat mediaFormat = MediaFormat.createVideoFormat(mimeType, width, height);
-        mediaFormat.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
-        mediaFormat.setInteger(MediaFormat.KEY_BIT_RATE, 2000000);
-        mediaFormat.setInteger(MediaFormat.KEY_FRAME_RATE, 30);
-        mediaFormat.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 5);
-        mMediaCodecEncoder = MediaCodec.createEncoderByType(mimeType);
-        mMediaCodecEncoder.configure(mediaFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
-        mEncoderInputSurface = mMediaCodecEncoder.createInputSurface();
-        mMediaCodecEncoder.setCallback(new MediaCodec.Callback() {
-            @Override
-            public void onInputBufferAvailable(@NonNull MediaCodec codec, int index) {
-                // When using an input surface, there are no input buffers
-            }
-
-            @Override
-            public void onOutputBufferAvailable(@NonNull MediaCodec codec, int index, @NonNull MediaCodec.BufferInfo info) {
-                Log.d(TAG, "Encoder processing output buffer "+index+" size: "+info.size);
-                ByteBuffer outputBuffer = mMediaCodecEncoder.getOutputBuffer(index);
-                mMediaMuxer.writeSampleData(mMuxerVideoTrackIndex, outputBuffer, info);
-                mMediaCodecEncoder.releaseOutputBuffer(index, false);
-                synchronized (mRenderingContext.syncWithEncoder)
-                {
-                    mRenderingContext.frameEncoded = true;
-                    mRenderingContext.syncWithEncoder.notify();
-                }
-
-                if (info.size==0)
-                {
-                    stopConverting();
-                    if (mOutputVideoFile!=null)
-                    {
-                        Intent mediaScanIntent = new Intent(Intent.ACTION_MEDIA_SCANNER_SCAN_FILE);
-                        mediaScanIntent.setData(Uri.fromFile(mOutputVideoFile));
-                        context.sendBroadcast(mediaScanIntent);
-                    }
-                }
-            }
-
-            @Override
-            public void onError(@NonNull MediaCodec codec, @NonNull MediaCodec.CodecException e) {
-                Log.e(TAG, "Encoder media codec error - "+e.getMessage()+" - "+e.getErrorCode());
-            }
+        boolean hdrOutput = mInputTransfer != DynamicRange.Transfer.SDR;
+        for (EncoderOutput output : mOutputs)
+        {
+            createMediaEncoder(context, output, inputMimeType);
+            if (hdrOutput)
+                hdrOutput = hasTenBitProfile(output);
+        }
+        mRenderingContext.setDynamicRange(mInputTransfer == DynamicRange.Transfer.SDR ? DynamicRange.SDR :
+                new DynamicRange(mInputTransfer, hdrOutput, mSourcePeakNits));
 
-            @Override
-            public void onOutputFormatChanged(@NonNull MediaCodec codec, @NonNull MediaFormat format) {
-                Log.e(TAG, "Encoder output format changed");
-                mMuxerVideoTrackIndex = mMediaMuxer.addTrack(format);
-                mMediaMuxer.start();
-            }
-        });
+        for (EncoderOutput output : mOutputs)
+        {
+            RenditionLadder.Rung rung = output.getRung();
+            MediaFormat mediaFormat = MediaFormat.createVideoFormat(output.getMimeType(), rung.width, rung.height);
+            mediaFormat.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+            mediaFormat.setInteger(MediaFormat.KEY_BIT_RATE, output.getBitRate());
+            mediaFormat.setInteger(MediaFormat.KEY_FRAME_RATE, 30);
+            mediaFormat.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 5);
+            setColorKeys(mediaFormat, output.getMimeType(), hdrOutput);
+            output.configure(mediaFormat);
+        }
     }
 
-    private void fillInputBuffer(ByteBuffer inputBuffer, int index)
+    private void createMediaEncoder(Context context, EncoderOutput output, String inputMimeType) throws IOException
     {
-        int sampleSize = mMediaExtractor.readSampleData(inputBuffer, 0);
-        Log.d(TAG, "sample size: "+sampleSize+" time: "+mMediaExtractor.getSampleTime());
-        if (sampleSize < 0)
+        RenditionLadder.Rung rung = output.getRung();
+        MuxerBackend muxer = output.getMuxer();
+        TranscodePlanner.Plan plan = isResuming() ? null : TranscodePlanner.plan(CodecSelector.getCodecs(context),
+                mOutputMimeType, inputMimeType, rung.width, rung.height, rung.bitRate,
+                muxer!=null ? muxer.getSupportedMimeTypes() : Collections.singletonList(inputMimeType));
+        if (isResuming())
+        {
+            // The appended fragments have to match the init segment written by the same encoder
+            output.setEncoder(MediaCodec.createByCodecName(mCheckpoint.getEncoderName()),
+                    mCheckpoint.getEncoderMimeType(), mCheckpoint.getEncoderBitRate());
+        }
+        else if (plan!=null)
         {
-            // End of input data reached
-            mMediaCodecDecoder.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
-            Log.d(TAG, "input EOS");
+            if (plan.fellBack)
+                Log.d(TAG, "Cannot encode " + mOutputMimeType + ", using " + plan.mimeType);
+            output.setEncoder(MediaCodec.createByCodecName(plan.codecName), plan.mimeType, plan.bitRate);
         }
         else
         {
-            mMediaCodecDecoder.queueInputBuffer(index, 0, sampleSize,
-            mMediaExtractor.getSampleTime(), 0);
-            mMediaExtractor.advance();
+            output.setEncoder(CodecSelector.createEncoder(context, inputMimeType, rung.width, rung.height),
+                    inputMimeType, Math.round(rung.bitRate*TranscodePlanner.relativeBitRate(inputMimeType)));
         }
+        if (output.getSink()!=null && !isResuming() && mMediaFormat.containsKey(MediaFormat.KEY_DURATION))
+            output.getSink().preallocate(TranscodePlanner.estimateOutputBytes(output.getBitRate(),
+                    mMediaFormat.getLong(MediaFormat.KEY_DURATION)));
+    }
+
+    private boolean hasTenBitProfile(EncoderOutput output)
+    {
+        int profile = DynamicRange.tenBitProfile(output.getMimeType(), mInputTransfer);
+        boolean supported = profile >= 0 && DynamicRange.supportsProfile(output.getEncoder().getCodecInfo()
+                .getCapabilitiesForType(output.getMimeType()).profileLevels, profile);
+        if (!supported)
+            Log.d(TAG, output.getEncoderName() + " has no 10-bit profile, tone mapping to SDR");
+        return supported;
     }
 
-    private void processOutputBuffer(MediaCodec.BufferInfo info, int index)
+    /**
+     * Selects a 10-bit profile and the BT.2020 color keys for HDR output, BT.709 SDR for HDR input
+     * that is tone mapped.
+     */
+    private void setColorKeys(MediaFormat mediaFormat, String mimeType, boolean hdrOutput)
     {
-        if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
-            Log.d(TAG, "output EOS");
-            mMediaCodecEncoder.signalEndOfInputStream();
+        if (mInputTransfer == DynamicRange.Transfer.SDR)
+            return;
+
+        if (hdrOutput)
+        {
+            mediaFormat.setInteger(MediaFormat.KEY_PROFILE, DynamicRange.tenBitProfile(mimeType, mInputTransfer));
+            mediaFormat.setInteger(MediaFormat.KEY_COLOR_STANDARD, MediaFormat.COLOR_STANDARD_BT2020);
+            mediaFormat.setInteger(MediaFormat.KEY_COLOR_TRANSFER, DynamicRange.colorTransferOf(mInputTransfer));
+            if (mMediaFormat.containsKey(MediaFormat.KEY_HDR_STATIC_INFO))
+                mediaFormat.setByteBuffer(MediaFormat.KEY_HDR_STATIC_INFO,
+                        mMediaFormat.getByteBuffer(MediaFormat.KEY_HDR_STATIC_INFO));
         }
+        else
+        {
+            mediaFormat.setInteger(MediaFormat.KEY_COLOR_STANDARD, MediaFormat.COLOR_STANDARD_BT709);
+            mediaFormat.setInteger(MediaFormat.KEY_COLOR_TRANSFER, MediaFormat.COLOR_TRANSFER_SDR_VIDEO);
+        }
+        mediaFormat.setInteger(MediaFormat.KEY_COLOR_RANGE, MediaFormat.COLOR_RANGE_LIMITED);
+    }
 
-        mRenderingContext.frameTime = info.presentationTimeUs;
-        mMediaCodecDecoder.releaseOutputBuffer(index, info.size != 0);
-        if (info.size!=0)
+    @Override
+    public void onOutputStarted(EncoderOutput output, MediaFormat format) {
+        if (mCheckpoint!=null && !isResuming() && output.getIndex() == 0)
         {
-            synchronized (mRenderingContext.syncWithDecoder)
+            mCheckpoint.encoderStarted(output.getEncoderName(), output.getMimeType(), output.getBitRate(),
+                    FragmentedMp4Backend.codecConfigCrc(format));
+            saveCheckpoint();
+        }
+    }
+
+    @Override
+    public void onOutputFinished(EncoderOutput output) {
+        // Called on the callback thread of the output; the job ends with the last one
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (++mFinishedOutputs == mOutputs.size())
+                    stopConverting();
+            }
+        });
+    }
+
+    /**
+     * @return a mapped source for inputs backed by a regular file, null for anything else
+     */
+    private static MappedMediaDataSource openMappedInput(Context context, Uri uri, int windowBytes)
+    {
+        if (windowBytes <= 0)
+            return null;
+        ParcelFileDescriptor descriptor = null;
+        try {
+            descriptor = context.getContentResolver().openFileDescriptor(uri, "r");
+            // Pipes and sockets have no size and cannot be mapped
+            if (descriptor!=null && descriptor.getStatSize() >= 0)
+            {
+                MappedMediaDataSource source = new MappedMediaDataSource(descriptor, windowBytes);
+                descriptor = null;
+                return source;
+            }
+        } catch (IOException | SecurityException e) {
+            Log.d(TAG, "Reading the input through the content resolver - " + e.getMessage());
+        } finally {
+            if (descriptor!=null)
             {
                 try {
-                    while(!mRenderingContext.frameRendered)
-                        mRenderingContext.syncWithDecoder.wait();
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+                    descriptor.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "Could not close the input - " + e.getMessage());
                 }
-                mRenderingContext.frameRendered = false;
             }
         }
+        return null;
+    }
+
+    private static long getContentLength(Context context, Uri uri)
+    {
+        try {
+            AssetFileDescriptor descriptor = context.getContentResolver().openAssetFileDescriptor(uri, "r");
+            if (descriptor==null)
+                return -1;
+            long length = descriptor.getLength();
+            descriptor.close();
+            return length == AssetFileDescriptor.UNKNOWN_LENGTH ? -1 : length;
+        } catch (IOException | SecurityException e) {
+            Log.e(TAG, "Could not get the size of " + uri + " - " + e.getMessage());
+            return -1;
+        }
+    }
+
+    private void startDemuxing()
+    {
+        int maxSampleSize = mMediaFormat.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE) ?
+                mMediaFormat.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE) : INITIAL_SAMPLE_CAPACITY;
+        mDemuxQueue = new DemuxQueue(DEMUX_SLOTS, mSettings.getDemuxQueueBytes(), INITIAL_SAMPLE_CAPACITY);
+        // The main thread receives the decoder callbacks and consumes the queue
+        Executor mainExecutor = new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                mMainHandler.post(runnable);
+            }
+        };
+        List<Codec> encoders = new ArrayList<>();
+        for (EncoderOutput output : mOutputs)
+            encoders.add(new MediaCodecAdapter(output.getEncoder()));
+        mScheduler = new PipelineScheduler(new MediaCodecAdapter(mMediaCodecDecoder), encoders, mDemuxQueue, mHandshake,
+                mStillSelector, mainExecutor, new PipelineScheduler.Listener() {
+            @Override
+            public void onDecoderFinished() {
+                Log.d(TAG, "output EOS");
+                // Do not stop the decoder from within its own callback
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        stopConverting();
+                    }
+                });
+            }
+        });
+        mScheduler.setSkipUntilUs(mSkipUntilUs);
+        mDemuxThread = new DemuxThread(new ExtractorSampleSource(mMediaExtractor), mDemuxQueue, maxSampleSize);
+        mDemuxThread.start();
     }
 
     private int getVideoTrackIndex(MediaExtractor extractor)
@@ -299,13 +652,221 @@ public class FrameProcessor implements ObserverSubject<FrameProcessorObserver>,
     {
         stop();
         mRenderingContext.removeObserver(this);
-        mRenderingContext.release();
-        mEncoderInputSurface.release();
+        // Before the encoders, whose input surfaces the context renders into
+        mRenderingContext.release(new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                mRenderingHandler.post(task);
+            }
+        });
+        mRenderingHandler.getLooper().quitSafely();
+        for (EncoderOutput output : mOutputs)
+            output.release();
     }
 
     private void stopConverting() {
+        mFinished = true;
         stop();
-        notifyObserversDoneProcessing();
+        if (mEncodeVideo)
+        {
+            List<TranscodeReport> reports = new ArrayList<>();
+            for (EncoderOutput output : mOutputs)
+            {
+                TranscodeReport report = output.getReport(mMediaFormat.getString(MediaFormat.KEY_MIME), mInputBytes,
+                        mHandshake.getStallNanos(output.getIndex()));
+                Log.d(TAG, "Transcode report: " + report);
+                reports.add(report);
+            }
+            mTranscodeReports = Collections.unmodifiableList(reports);
+        }
+        // Let the rendering thread drain the analysis of the last frames before reporting
+        mRenderingHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mRenderingContext.finish();
+                if (mStatisticsWriter!=null)
+                    mStatisticsWriter.close();
+                if (!mSceneCuts.isEmpty())
+                    writeSceneCuts();
+                notifyObserversDoneProcessing();
+            }
+        });
+    }
+
+    private boolean isResuming()
+    {
+        return mResumePlan!=null && mResumePlan.resume;
+    }
+
+    /**
+     * @return true if an output could not be written, e.g. because a resumed job got different
+     * codec specific data from its encoder
+     */
+    boolean isOutputFailed()
+    {
+        for (EncoderOutput output : mOutputs)
+        {
+            if (output.isFailed())
+                return true;
+        }
+        return false;
+    }
+
+    private void saveCheckpoint()
+    {
+        try {
+            mCheckpointStore.save(mCheckpoint);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not save the checkpoint - " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return length of the output recorded in the checkpoint, or -1 if it is gone
+     */
+    private static long getCheckpointedOutputLength(Context context, JobCheckpoint checkpoint)
+    {
+        if (checkpoint.getOutputCount() == 0)
+            return -1;
+        if (checkpoint.getOutputUri(0)!=null)
+            return getContentLength(context, Uri.parse(checkpoint.getOutputUri(0)));
+        File file = new File(checkpoint.getOutputPath(0));
+        return file.exists() ? file.length() : -1;
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.Q)
+    private static OutputSink reopenCheckpointedOutput(Context context, JobCheckpoint checkpoint, long length)
+            throws IOException
+    {
+        if (checkpoint.getOutputUri(0)!=null)
+            return MediaStoreOutputSink.reopen(context, Uri.parse(checkpoint.getOutputUri(0)), length);
+        return FileOutputSink.reopen(new File(checkpoint.getOutputPath(0)), length);
+    }
+
+    /**
+     * Deletes the partial outputs of a checkpoint that cannot be resumed.
+     */
+    private static void discardCheckpointedOutput(Context context, JobCheckpoint checkpoint)
+    {
+        for (int i = 0; i < checkpoint.getOutputCount(); i++)
+        {
+            String uri = checkpoint.getOutputUri(i);
+            if (uri!=null)
+            {
+                try {
+                    context.getContentResolver().delete(Uri.parse(uri), null, null);
+                } catch (SecurityException e) {
+                    Log.e(TAG, "Could not delete " + uri + " - " + e.getMessage());
+                }
+            }
+            else
+            {
+                File file = new File(checkpoint.getOutputPath(i));
+                if (file.exists() && !file.delete())
+                    Log.e(TAG, "Could not delete " + file);
+            }
+        }
+    }
+
+    private void writeSceneCuts()
+    {
+        if (mOutputVideoFile==null)
+            return;
+        File file = FileOperations.createSidecarFile(mOutputVideoFile, SCENE_CUTS_EXTENSION);
+        try {
+            Writer writer = new BufferedWriter(new FileWriter(file));
+            try {
+                for (Long cut : getSceneCuts())
+                    writer.write(cut + "\n");
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Could not write scene cuts - " + e.getMessage());
+        }
+    }
+
+    /**
+     * Shows the filtered frames on a surface, e.g. of a SurfaceView, while the job runs. The
+     * frames are drawn upright and letterboxed, at most as often as the display refreshes; the
+     * others are dropped so that the preview never slows the job down. Call with null before the
+     * surface is destroyed: the call returns once the surface is no longer drawn into.
+     * @param surface the surface to draw into, or null to stop the preview
+     */
+    public void setPreviewSurface(final Surface surface) {
+        if (mRenderingContext==null)
+            return;
+        DisplayManager displayManager = (DisplayManager) mContext.getSystemService(Context.DISPLAY_SERVICE);
+        final float refreshRate = displayManager.getDisplay(Display.DEFAULT_DISPLAY).getRefreshRate();
+        final CountDownLatch detached = new CountDownLatch(1);
+        mRenderingHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mRenderingContext.setPreviewSurface(surface, mRotation, refreshRate);
+                detached.countDown();
+            }
+        });
+        if (surface==null)
+        {
+            // The rendering thread may be waiting for the encoders, but not for longer than a frame
+            try {
+                if (!detached.await(PREVIEW_DETACH_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+                    Log.e(TAG, "Preview still attached after " + PREVIEW_DETACH_TIMEOUT_MS + " ms");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return the storage report of the finished job, of its largest rendition for a ladder, or
+     * null before {@link FrameProcessorObserver#doneProcessing()} or when no video is encoded
+     */
+    public TranscodeReport getTranscodeReport() {
+        List<TranscodeReport> reports = mTranscodeReports;
+        return reports.isEmpty() ? null : reports.get(0);
+    }
+
+    /**
+     * @return the storage reports of the finished job, one per rendition from the largest down,
+     * or an empty list before {@link FrameProcessorObserver#doneProcessing()} or when no video is
+     * encoded
+     */
+    public List<TranscodeReport> getRenditionReports() {
+        return mTranscodeReports;
+    }
+
+    /**
+     * @return the video files written, one per rendition, or an empty list when no video is
+     * encoded or it is published to the MediaStore
+     */
+    List<File> getOutputFiles()
+    {
+        List<File> files = new ArrayList<>();
+        for (EncoderOutput output : mOutputs)
+        {
+            if (output.getFile()!=null && !(output.getSink() instanceof MediaStoreOutputSink))
+                files.add(output.getFile());
+        }
+        return files;
+    }
+
+    /**
+     * @return latency of the input reads so far, or null when the input is not memory mapped
+     */
+    public ReadLatencyMetrics getInputReadMetrics() {
+        MappedMediaDataSource source = mInputSource;
+        return source!=null ? source.getMetrics() : null;
+    }
+
+    /**
+     * @return the presentation times, in microseconds, of the scene cuts detected so far
+     */
+    public List<Long> getSceneCuts() {
+        synchronized (mSceneCuts)
+        {
+            return new ArrayList<>(mSceneCuts);
+        }
     }
 
     private WeakReference<FrameProcessorObserver> findWeakReference(FrameProcessorObserver rendererObserver)
@@ -334,6 +895,79 @@ public class FrameProcessor implements ObserverSubject<FrameProcessorObserver>,
         }
     }
 
+    public void registerStatisticsObserver(FrameStatisticsObserver observer) {
+        synchronized (mStatisticsObservers)
+        {
+            for (WeakReference<FrameStatisticsObserver> ref : mStatisticsObservers)
+            {
+                if (ref.get() == observer)
+                    return;
+            }
+            mStatisticsObservers.add(new WeakReference<>(observer));
+        }
+    }
+
+    public void removeStatisticsObserver(FrameStatisticsObserver observer) {
+        synchronized (mStatisticsObservers)
+        {
+            for (int i = 0; i < mStatisticsObservers.size(); i++)
+            {
+                if (mStatisticsObservers.get(i).get() == observer)
+                {
+                    mStatisticsObservers.remove(i);
+                    return;
+                }
+            }
+        }
+    }
+
+    public void registerFragmentObserver(FragmentObserver observer) {
+        synchronized (mFragmentObservers)
+        {
+            for (WeakReference<FragmentObserver> ref : mFragmentObservers)
+            {
+                if (ref.get() == observer)
+                    return;
+            }
+            mFragmentObservers.add(new WeakReference<>(observer));
+        }
+    }
+
+    public void removeFragmentObserver(FragmentObserver observer) {
+        synchronized (mFragmentObservers)
+        {
+            for (int i = 0; i < mFragmentObservers.size(); i++)
+            {
+                if (mFragmentObservers.get(i).get() == observer)
+                {
+                    mFragmentObservers.remove(i);
+                    return;
+                }
+            }
+        }
+    }
+
+    private void fragmentWritten(int index, File file, int sequenceNumber, long offset, long length,
+                                 long startTimeUs, long durationUs)
+    {
+        // Called on the thread writing the output, once the fragment is in the file. Ladder jobs
+        // are not resumed, so only the first output is checkpointed
+        if (mCheckpoint!=null && index == 0)
+        {
+            mCheckpoint.fragmentWritten(sequenceNumber, offset + length, startTimeUs + durationUs);
+            saveCheckpoint();
+        }
+        synchronized (mFragmentObservers)
+        {
+            for (WeakReference<FragmentObserver> fo:mFragmentObservers){
+                FragmentObserver observer = fo.get();
+                if (observer!=null)
+                    observer.onFragmentWritten(file, sequenceNumber, offset, length,
+                            startTimeUs, durationUs);
+            }
+        }
+    }
+
     private void notifyObserversDoneProcessing() {
         for (WeakReference<FrameProcessorObserver> co:mObservers){
             FrameProcessorObserver observer = co.get();
@@ -353,6 +987,48 @@ public class FrameProcessor implements ObserverSubject<FrameProcessorObserver>,
         }
     }
 
+    @Override
+    public void frameStatistics(FrameStatistics statistics) {
+        // Called on an analysis worker thread
+        if (mStatisticsWriter!=null)
+            mStatisticsWriter.write(statistics);
+        synchronized (mStatisticsObservers)
+        {
+            for (WeakReference<FrameStatisticsObserver> so:mStatisticsObservers){
+                FrameStatisticsObserver observer = so.get();
+                if (observer!=null)
+                    observer.onFrameStatistics(statistics);
+            }
+        }
+    }
+
+    @Override
+    public void stillWritten(String location, long presentationTimeUs) {
+        // Called on a still encoder worker thread
+        Log.d(TAG, "Still written: " + location + " at " + presentationTimeUs);
+        // MediaStore entries are indexed already
+        if (!mSettings.isPublishToMediaStore())
+            MediaScannerConnection.scanFile(mContext, new String[]{location}, new String[]{"image/jpeg"}, null);
+    }
+
+    @Override
+    public void sceneCut(long presentationTimeUs) {
+        // Called on the rendering thread before the frame reaches the encoder
+        Log.d(TAG, "Scene cut at " + presentationTimeUs);
+        mSceneCuts.add(presentationTimeUs);
+        for (EncoderOutput output : mOutputs)
+            output.requestSyncFrame();
+    }
+
+    @Override
+    public void onGovernorChanged(ThroughputGovernor governor) {
+        // Called on the rendering thread, between frames
+        Log.d(TAG, "Throughput governor: " + governor);
+        mHandshake.setInFlightFrames(governor.getInFlightFrames());
+        for (EncoderOutput output : mOutputs)
+            output.setOperatingRate(governor.getFrameRateCap());
+    }
+
     @Override
     public void setupComplete() {
         mMainHandler.post(new Runnable() {
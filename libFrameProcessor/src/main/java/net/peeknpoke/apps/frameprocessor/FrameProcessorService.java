@@ -0,0 +1,449 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Binder;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.ParcelFileDescriptor;
+import android.provider.MediaStore;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.StructStat;
+import android.util.Log;
+import android.view.Surface;
+
+import androidx.annotation.RequiresApi;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Runs {@link FrameProcessor} jobs one at a time in a foreground service, so they carry on while
+ * the activity that started them is paused. Every job is stored as a {@link JobCheckpoint} until
+ * it finishes; when the process is killed the system restarts the service, which picks the jobs
+ * up again from their checkpoints. Finished jobs are broadcast to the app with
+ * {@link #ACTION_JOB_FINISHED}. Binding to the service returns a {@link PreviewBinder} to show
+ * the frames of the running job. Jobs with a {@link FrameProcessorSettings#setResultCacheBytes
+ * result cache} that were run before get a copy of the previous output instead.
+ */
+@RequiresApi(api = Build.VERSION_CODES.Q)
+public class FrameProcessorService extends Service implements FrameProcessorObserver {
+    private static final String TAG = FrameProcessorService.class.getSimpleName();
+    public static final String ACTION_JOB_FINISHED = "net.peeknpoke.apps.frameprocessor.action.JOB_FINISHED";
+    public static final String EXTRA_JOB_ID = "net.peeknpoke.apps.frameprocessor.extra.JOB_ID";
+    public static final String EXTRA_SUCCEEDED = "net.peeknpoke.apps.frameprocessor.extra.SUCCEEDED";
+    /**
+     * True if the output of the job was copied from the result cache.
+     */
+    public static final String EXTRA_CACHED = "net.peeknpoke.apps.frameprocessor.extra.CACHED";
+    private static final String CHANNEL_ID = "jobs";
+    private static final int NOTIFICATION_ID = 1;
+    private static final String CHECKPOINT_DIRECTORY = "checkpoints";
+    private static final String RESULT_CACHE_DIRECTORY = "results";
+
+    private final ArrayDeque<String> mPendingJobs = new ArrayDeque<>();
+    private Handler mMainHandler;
+    // Hashes inputs and copies results, so that neither holds up the main thread
+    private Handler mCacheHandler;
+    private ResultCache mResultCache;
+    private String mCurrentResultKey;
+    private CheckpointStore mCheckpointStore;
+    private FrameProcessor mFrameProcessor;
+    private JobCheckpoint mCurrentJob;
+    private String mRetriedJobId;
+    private Surface mPreviewSurface;
+    private final PreviewBinder mBinder = new PreviewBinder();
+
+    /**
+     * Local binder, for activities in the same process.
+     */
+    public class PreviewBinder extends Binder {
+        /**
+         * Shows the filtered frames of the running job, and of the jobs after it, on a surface.
+         * Must be called on the main thread, with null before the surface is destroyed.
+         * @see FrameProcessor#setPreviewSurface(Surface)
+         */
+        public void setPreviewSurface(Surface surface) {
+            mPreviewSurface = surface;
+            if (mFrameProcessor!=null)
+                mFrameProcessor.setPreviewSurface(surface);
+        }
+    }
+
+    /**
+     * Queues a job and starts the service to run it.
+     * @return the id of the job, as reported by {@link #ACTION_JOB_FINISHED}
+     */
+    public static String startJob(Context context, Uri uri, String appName, FrameProcessorSettings settings)
+            throws IOException {
+        JobCheckpoint checkpoint = new JobCheckpoint(UUID.randomUUID().toString(), uri.toString(), appName, settings);
+        getCheckpointStore(context).save(checkpoint);
+        Intent intent = new Intent(context, FrameProcessorService.class);
+        intent.putExtra(EXTRA_JOB_ID, checkpoint.jobId);
+        context.startForegroundService(intent);
+        return checkpoint.jobId;
+    }
+
+    private static CheckpointStore getCheckpointStore(Context context)
+    {
+        return new CheckpointStore(new File(context.getFilesDir(), CHECKPOINT_DIRECTORY));
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mMainHandler = new Handler(getMainLooper());
+        HandlerThread cacheThread = new HandlerThread("ResultCache");
+        cacheThread.start();
+        mCacheHandler = new Handler(cacheThread.getLooper());
+        mCheckpointStore = getCheckpointStore(this);
+        NotificationChannel channel = new NotificationChannel(CHANNEL_ID,
+                getString(R.string.job_channel_name), NotificationManager.IMPORTANCE_LOW);
+        getSystemService(NotificationManager.class).createNotificationChannel(channel);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        startForeground(NOTIFICATION_ID, new Notification.Builder(this, CHANNEL_ID)
+                .setSmallIcon(android.R.drawable.stat_notify_sync)
+                .setContentTitle(getString(R.string.job_notification_title))
+                .setOngoing(true)
+                .build());
+        if (intent!=null && intent.hasExtra(EXTRA_JOB_ID))
+        {
+            enqueue(intent.getStringExtra(EXTRA_JOB_ID));
+        }
+        else
+        {
+            // Restarted after the process was killed
+            for (String jobId : mCheckpointStore.list())
+                enqueue(jobId);
+        }
+        runNextJob();
+        return START_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        // The checkpoint of an interrupted job stays, so it continues when the service restarts
+        if (mFrameProcessor!=null)
+        {
+            mFrameProcessor.removeObserver(this);
+            mFrameProcessor.release();
+            mFrameProcessor = null;
+        }
+        mCurrentJob = null;
+        // Results being stored are still written
+        mCacheHandler.getLooper().quitSafely();
+        super.onDestroy();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return mBinder;
+    }
+
+    private void enqueue(String jobId)
+    {
+        if ((mCurrentJob!=null && mCurrentJob.jobId.equals(jobId)) || mPendingJobs.contains(jobId))
+            return;
+        mPendingJobs.add(jobId);
+    }
+
+    private void runNextJob()
+    {
+        if (mCurrentJob!=null)
+            return;
+        String jobId;
+        while ((jobId = mPendingJobs.poll()) != null)
+        {
+            JobCheckpoint checkpoint;
+            try {
+                checkpoint = mCheckpointStore.load(jobId);
+            } catch (IOException e) {
+                Log.e(TAG, "Could not run job " + jobId + " - " + e.getMessage());
+                mCheckpointStore.delete(jobId);
+                notifyJobFinished(jobId, false, false);
+                continue;
+            }
+            if (checkpoint==null)
+                continue;
+            mCurrentJob = checkpoint;
+            // A job that was interrupted continues its own output
+            if (checkpoint.getOutputCount() == 0 && ResultKey.isCacheable(checkpoint.settings))
+                lookUpResult(checkpoint);
+            else
+                startProcessing(checkpoint, null);
+            return;
+        }
+        stopForeground(true);
+        stopSelf();
+    }
+
+    /**
+     * @param resultKey the key to store the output under once the job finishes, or null
+     */
+    private void startProcessing(JobCheckpoint job, String resultKey)
+    {
+        try {
+            mFrameProcessor = new FrameProcessor(getApplicationContext(), job, mCheckpointStore);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not run job " + job.jobId + " - " + e.getMessage());
+            mCurrentJob = null;
+            mCheckpointStore.delete(job.jobId);
+            notifyJobFinished(job.jobId, false, false);
+            runNextJob();
+            return;
+        }
+        mCurrentResultKey = resultKey;
+        mFrameProcessor.registerObserver(this);
+        if (mPreviewSurface!=null)
+            mFrameProcessor.setPreviewSurface(mPreviewSurface);
+    }
+
+    /**
+     * Derives the key of the job on the cache thread, then copies the cached result if there is
+     * one, and starts the job otherwise.
+     */
+    private void lookUpResult(final JobCheckpoint job)
+    {
+        final Context context = getApplicationContext();
+        mCacheHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                String key = null;
+                boolean copied = false;
+                try {
+                    key = getResultKey(context, job);
+                    copied = key!=null && copyCachedResult(context, job, key);
+                } catch (IOException | SecurityException e) {
+                    Log.e(TAG, "Could not look up the result of job " + job.jobId + " - " + e.getMessage());
+                }
+                final String resultKey = key;
+                final boolean cached = copied;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Gone if the service was destroyed in the meantime
+                        if (mCurrentJob!=job)
+                            return;
+                        if (cached)
+                            finishCachedJob(job);
+                        else
+                            startProcessing(job, resultKey);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * @return the key of the job, or null if its input cannot be sampled, e.g. a pipe
+     */
+    private static String getResultKey(Context context, JobCheckpoint job) throws IOException
+    {
+        ParcelFileDescriptor descriptor = context.getContentResolver().openFileDescriptor(Uri.parse(job.inputUri), "r");
+        if (descriptor==null)
+            return null;
+        try {
+            if (descriptor.getStatSize() < 0)
+                return null;
+            StructStat stat = Os.fstat(descriptor.getFileDescriptor());
+            // Not closed itself, the descriptor belongs to the ParcelFileDescriptor
+            FileChannel channel = new FileInputStream(descriptor.getFileDescriptor()).getChannel();
+            String input = ResultKey.fingerprintInput(channel, stat.st_size, stat.st_mtime*1000);
+            PipelineProfile profile = job.settings.isDeviceProfile() ? PipelineCalibration.getDeviceProfile(context)
+                    : job.settings.getPipelineProfile();
+            return ResultKey.of(input, ResultKey.describe(job.settings, profile));
+        } catch (ErrnoException e) {
+            throw new IOException(e.getMessage());
+        } finally {
+            descriptor.close();
+        }
+    }
+
+    private ResultCache getResultCache()
+    {
+        if (mResultCache==null)
+            mResultCache = new ResultCache(new File(getCacheDir(), RESULT_CACHE_DIRECTORY));
+        return mResultCache;
+    }
+
+    /**
+     * Writes a copy of each cached output where the job would have written it.
+     * @return false if there is no result for the key
+     */
+    private boolean copyCachedResult(Context context, JobCheckpoint job, String key) throws IOException
+    {
+        ResultCache cache = getResultCache();
+        ResultCache.Result result = cache.lookup(key);
+        File folder = FileOperations.getAppMediaFolder(job.appName);
+        if (result==null || folder==null)
+            return false;
+        File first = FileOperations.createMediaFile(folder, "output", MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO);
+        List<OutputSink> sinks = new ArrayList<>();
+        try {
+            for (int i = 0; i < result.suffixes.size(); i++)
+            {
+                File file = FileOperations.createSidecarFile(first, result.suffixes.get(i));
+                OutputSink sink = job.settings.isPublishToMediaStore() ?
+                        MediaStoreOutputSink.create(context, Environment.DIRECTORY_DCIM + File.separator + job.appName,
+                                file.getName()) :
+                        new FileOutputSink(file);
+                sinks.add(sink);
+                copy(cache.getFile(result, i), sink.getChannel());
+            }
+            for (OutputSink sink : sinks)
+                sink.commit();
+        } catch (IOException e) {
+            for (OutputSink sink : sinks)
+                sink.abort();
+            throw e;
+        }
+        Log.d(TAG, "Job " + job.jobId + ": copied " + result.getBytes() + " bytes from the result cache");
+        return true;
+    }
+
+    private static void copy(File file, WritableByteChannel target) throws IOException
+    {
+        FileInputStream input = new FileInputStream(file);
+        try {
+            FileChannel source = input.getChannel();
+            long size = source.size();
+            long position = 0;
+            while (position < size)
+                position += source.transferTo(position, size - position, target);
+        } finally {
+            input.close();
+        }
+    }
+
+    private void finishCachedJob(JobCheckpoint job)
+    {
+        mCurrentJob = null;
+        mCheckpointStore.delete(job.jobId);
+        notifyJobFinished(job.jobId, true, true);
+        runNextJob();
+    }
+
+    /**
+     * Copies the outputs of a finished job into the cache, on the cache thread.
+     */
+    private void storeResult(final JobCheckpoint job, final String key)
+    {
+        final Context context = getApplicationContext();
+        mCacheHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                List<String> suffixes = new ArrayList<>();
+                List<InputStream> outputs = new ArrayList<>();
+                try {
+                    String first = new File(job.getOutputPath(0)).getName();
+                    for (int i = 0; i < job.getOutputCount(); i++)
+                    {
+                        suffixes.add(ResultCache.suffixOf(first, new File(job.getOutputPath(i)).getName()));
+                        outputs.add(openOutput(context, job, i));
+                    }
+                    boolean kept = getResultCache().store(key, suffixes, outputs, job.settings.getResultCacheBytes());
+                    Log.d(TAG, "Job " + job.jobId + (kept ? " stored in" : " too large for") + " the result cache");
+                } catch (IOException | SecurityException e) {
+                    Log.e(TAG, "Could not store the result of job " + job.jobId + " - " + e.getMessage());
+                } finally {
+                    for (InputStream output : outputs)
+                    {
+                        try {
+                            output.close();
+                        } catch (IOException e) {
+                            Log.e(TAG, "Could not close an output - " + e.getMessage());
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    private static InputStream openOutput(Context context, JobCheckpoint job, int index) throws IOException
+    {
+        String uri = job.getOutputUri(index);
+        if (uri==null)
+            return new FileInputStream(job.getOutputPath(index));
+        InputStream input = context.getContentResolver().openInputStream(Uri.parse(uri));
+        if (input==null)
+            throw new IOException("Could not open " + uri);
+        return input;
+    }
+
+    @Override
+    public void doneProcessing() {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                finishJob();
+            }
+        });
+    }
+
+    private void finishJob()
+    {
+        FrameProcessor frameProcessor = mFrameProcessor;
+        JobCheckpoint job = mCurrentJob;
+        String resultKey = mCurrentResultKey;
+        if (frameProcessor==null)
+            return;
+        mCurrentResultKey = null;
+        frameProcessor.removeObserver(this);
+        frameProcessor.release();
+        mFrameProcessor = null;
+        mCurrentJob = null;
+
+        if (frameProcessor.isOutputFailed() && !job.jobId.equals(mRetriedJobId))
+        {
+            // Typically a resumed encoder with different codec specific data: start over once
+            Log.e(TAG, "Job " + job.jobId + " failed to write its output, starting over");
+            mRetriedJobId = job.jobId;
+            job.discardProgress();
+            try {
+                mCheckpointStore.save(job);
+                mPendingJobs.addFirst(job.jobId);
+            } catch (IOException e) {
+                Log.e(TAG, "Could not save the checkpoint - " + e.getMessage());
+            }
+        }
+        else
+        {
+            mCheckpointStore.delete(job.jobId);
+            boolean succeeded = !frameProcessor.isOutputFailed();
+            if (succeeded && resultKey!=null && job.getOutputCount() > 0)
+                storeResult(job, resultKey);
+            notifyJobFinished(job.jobId, succeeded, false);
+        }
+        runNextJob();
+    }
+
+    private void notifyJobFinished(String jobId, boolean succeeded, boolean cached)
+    {
+        Intent intent = new Intent(ACTION_JOB_FINISHED);
+        intent.setPackage(getPackageName());
+        intent.putExtra(EXTRA_JOB_ID, jobId);
+        intent.putExtra(EXTRA_SUCCEEDED, succeeded);
+        intent.putExtra(EXTRA_CACHED, cached);
+        sendBroadcast(intent);
+    }
+}
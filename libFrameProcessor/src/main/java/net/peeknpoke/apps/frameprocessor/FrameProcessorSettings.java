@@ -0,0 +1,338 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Options of a {@link FrameProcessor} job. The defaults reproduce the original behaviour: a
+ * negative filter and an encoder configured like the input.
+ */
+public class FrameProcessorSettings {
+    public enum OutputMode {
+        VIDEO,
+        STILLS,
+        VIDEO_AND_STILLS
+    }
+
+    public enum Container {
+        MP4,
+        FRAGMENTED_MP4
+    }
+
+    public static final float STILLS_AT_SYNC_FRAMES = 0.0f;
+
+    private FilterChain mFilterChain = new FilterChain(FilterSpec.negative());
+    private boolean mAnalysisEnabled;
+    private OutputMode mOutputMode = OutputMode.VIDEO;
+    private float mStillIntervalSeconds = STILLS_AT_SYNC_FRAMES;
+    private int mStillQuality = 90;
+    private boolean mSceneCutKeyframes;
+    private String mOutputMimeType;
+    private int mBitRate = 2000000;
+    private boolean mPreserveHdr;
+    private Container mContainer = Container.MP4;
+    private float mFragmentDurationSeconds = 2.0f;
+    private int mMuxBufferBytes = 8*1024*1024;
+    private boolean mPublishToMediaStore = true;
+    private int mInputWindowBytes = 16*1024*1024;
+    private int mDemuxQueueBytes = 4*1024*1024;
+    private boolean mResumable;
+    private List<Rendition> mRenditions = Collections.emptyList();
+    private PipelineProfile mPipelineProfile;
+    private boolean mDeviceProfile = true;
+    private boolean mAdaptiveThroughput = true;
+    private List<Overlay> mOverlays = Collections.emptyList();
+    private long mResultCacheBytes;
+
+    public FilterChain getFilterChain() {
+        return mFilterChain;
+    }
+
+    public void setFilterChain(FilterChain filterChain) {
+        mFilterChain = filterChain;
+    }
+
+    public boolean isAnalysisEnabled() {
+        return mAnalysisEnabled;
+    }
+
+    /**
+     * Computes {@link FrameStatistics} for every frame of the filtered output. They are delivered
+     * to {@link FrameStatisticsObserver}s and written to a .stats.csv file next to the video.
+     */
+    public void setAnalysisEnabled(boolean analysisEnabled) {
+        mAnalysisEnabled = analysisEnabled;
+    }
+
+    public OutputMode getOutputMode() {
+        return mOutputMode;
+    }
+
+    /**
+     * With {@link OutputMode#STILLS} the video encoder is not created at all and frames that are
+     * not selected as stills are decoded without being rendered.
+     */
+    public void setOutputMode(OutputMode outputMode) {
+        mOutputMode = outputMode;
+    }
+
+    public float getStillIntervalSeconds() {
+        return mStillIntervalSeconds;
+    }
+
+    /**
+     * @param stillIntervalSeconds time between stills, or {@link #STILLS_AT_SYNC_FRAMES} to write
+     *                             a still at every sync frame of the input
+     */
+    public void setStillIntervalSeconds(float stillIntervalSeconds) {
+        mStillIntervalSeconds = stillIntervalSeconds;
+    }
+
+    public int getStillQuality() {
+        return mStillQuality;
+    }
+
+    /**
+     * @param stillQuality JPEG quality, 0 to 100
+     */
+    public void setStillQuality(int stillQuality) {
+        mStillQuality = stillQuality;
+    }
+
+    public boolean isSceneCutKeyframes() {
+        return mSceneCutKeyframes;
+    }
+
+    /**
+     * Detects scene cuts while rendering and asks the encoder for a sync frame at each of them,
+     * so shots start on a keyframe instead of mid-GOP. The cut timestamps are written to a
+     * .cuts.txt file next to the video.
+     */
+    public void setSceneCutKeyframes(boolean sceneCutKeyframes) {
+        mSceneCutKeyframes = sceneCutKeyframes;
+    }
+
+    public String getOutputMimeType() {
+        return mOutputMimeType;
+    }
+
+    /**
+     * @param outputMimeType video codec of the output, e.g. MediaFormat.MIMETYPE_VIDEO_HEVC, or
+     *                       null to keep the codec of the input. Falls back to the input codec,
+     *                       then AVC, when no encoder or the muxer cannot handle it.
+     */
+    public void setOutputMimeType(String outputMimeType) {
+        mOutputMimeType = outputMimeType;
+    }
+
+    public int getBitRate() {
+        return mBitRate;
+    }
+
+    /**
+     * @param bitRate bit rate of AVC output. Other codecs get the equivalent rate for the same
+     *                quality, e.g. half of it for HEVC.
+     */
+    public void setBitRate(int bitRate) {
+        mBitRate = bitRate;
+    }
+
+    public boolean isPreserveHdr() {
+        return mPreserveHdr;
+    }
+
+    /**
+     * Keeps HDR10 and HLG input as a 10-bit BT.2020 signal, encoded with a 10-bit profile of the
+     * output codec. When the encoder has no such profile (AVC, for example) the frames are tone
+     * mapped to SDR BT.709 instead. Has no effect on SDR input.
+     */
+    public void setPreserveHdr(boolean preserveHdr) {
+        mPreserveHdr = preserveHdr;
+    }
+
+    public Container getContainer() {
+        return mContainer;
+    }
+
+    /**
+     * With {@link Container#FRAGMENTED_MP4} the output is written as an init segment followed by
+     * fragments that start at keyframes. Each fragment is final once reported to the
+     * {@link FragmentObserver}s, so it can be uploaded or played while the job continues. Only
+     * AVC and HEVC can be written this way; other output codecs fall back to them.
+     */
+    public void setContainer(Container container) {
+        mContainer = container;
+    }
+
+    public float getFragmentDurationSeconds() {
+        return mFragmentDurationSeconds;
+    }
+
+    /**
+     * @param fragmentDurationSeconds minimum fragment duration; fragments are closed at the
+     *                                next keyframe after it
+     */
+    public void setFragmentDurationSeconds(float fragmentDurationSeconds) {
+        mFragmentDurationSeconds = fragmentDurationSeconds;
+    }
+
+    public int getMuxBufferBytes() {
+        return mMuxBufferBytes;
+    }
+
+    /**
+     * Encoded samples are copied into an off-heap buffer of this size and written to the output
+     * from a separate thread, so slow storage does not hold up the encoder until the buffer is
+     * full. Samples larger than the buffer are written directly. 0 writes every sample from the
+     * encoder callback.
+     */
+    public void setMuxBufferBytes(int muxBufferBytes) {
+        mMuxBufferBytes = muxBufferBytes;
+    }
+
+    public boolean isPublishToMediaStore() {
+        return mPublishToMediaStore;
+    }
+
+    /**
+     * When set the video is written into a pending MediaStore entry, which is published once the
+     * output is complete. Otherwise it is written as a plain file in the app media folder and is
+     * not added to the media library.
+     */
+    public void setPublishToMediaStore(boolean publishToMediaStore) {
+        mPublishToMediaStore = publishToMediaStore;
+    }
+
+    public int getInputWindowBytes() {
+        return mInputWindowBytes;
+    }
+
+    /**
+     * Inputs that are regular files are memory mapped in windows of this size, and the window
+     * after the one being read is loaded on a background thread. 0 reads the input through the
+     * content resolver, as do inputs that cannot be mapped.
+     */
+    public void setInputWindowBytes(int inputWindowBytes) {
+        mInputWindowBytes = inputWindowBytes;
+    }
+
+    public int getDemuxQueueBytes() {
+        return mDemuxQueueBytes;
+    }
+
+    /**
+     * Compressed samples are read ahead of the decoder on a separate thread, up to this many
+     * bytes, so storage latency does not hold up decoding. At least one sample is always read
+     * ahead.
+     */
+    public void setDemuxQueueBytes(int demuxQueueBytes) {
+        mDemuxQueueBytes = demuxQueueBytes;
+    }
+
+    public boolean isResumable() {
+        return mResumable;
+    }
+
+    /**
+     * Jobs run by {@link FrameProcessorService} write a checkpoint after every fragment and, when
+     * the process is killed, continue from the last one instead of starting over. Only
+     * {@link Container#FRAGMENTED_MP4} video output can be continued; other jobs start over.
+     * The .stats.csv and .cuts.txt files of a continued job only cover the part encoded after it
+     * continued.
+     */
+    public void setResumable(boolean resumable) {
+        mResumable = resumable;
+    }
+
+    public List<Rendition> getRenditions() {
+        return mRenditions;
+    }
+
+    /**
+     * Encodes one output per rendition from a single decode. The filter chain runs once, at the
+     * size of the largest rendition, and each smaller one is downsampled from it. Renditions are
+     * never larger than the input, and their outputs are named after their size, e.g.
+     * output_720p.mp4. The .stats.csv and .cuts.txt files describe the largest rendition. Jobs
+     * with more than one rendition start over instead of continuing after being killed.
+     *
+     * @param renditions the renditions to encode, or an empty list for a single output at the
+     *                   size of the input and {@link #setBitRate(int)}
+     */
+    public void setRenditions(List<Rendition> renditions) {
+        mRenditions = Collections.unmodifiableList(new ArrayList<>(renditions));
+    }
+
+    public PipelineProfile getPipelineProfile() {
+        return mPipelineProfile;
+    }
+
+    /**
+     * Jobs use the profile that {@link PipelineCalibration} stored for the device, unless one is
+     * set here. The profile sets how many frames are rendered ahead of the encoder, the output
+     * codec when {@link #setOutputMimeType(String)} is not set, and the largest output size when
+     * there are no renditions.
+     *
+     * @param pipelineProfile the profile to use, or null for the defaults of the library
+     */
+    public void setPipelineProfile(PipelineProfile pipelineProfile) {
+        mPipelineProfile = pipelineProfile;
+        mDeviceProfile = false;
+    }
+
+    /**
+     * @return true if no profile has been set and the one stored for the device is used
+     */
+    boolean isDeviceProfile() {
+        return mDeviceProfile;
+    }
+
+    public boolean isAdaptiveThroughput() {
+        return mAdaptiveThroughput;
+    }
+
+    /**
+     * Slows video jobs down before the device throttles, when its thermal status rises, and in
+     * battery saver, so that long jobs keep a steady pace instead of collapsing to a fraction of
+     * it once throttled. The pace rises again once the device has cooled down.
+     */
+    public void setAdaptiveThroughput(boolean adaptiveThroughput) {
+        mAdaptiveThroughput = adaptiveThroughput;
+    }
+
+    public List<Overlay> getOverlays() {
+        return mOverlays;
+    }
+
+    /**
+     * Burns images and text, such as a logo and the timecode, into every frame after the filter
+     * chain, so that they show in the video, the stills and every rendition alike.
+     */
+    public void setOverlays(List<Overlay> overlays) {
+        mOverlays = Collections.unmodifiableList(new ArrayList<>(overlays));
+    }
+
+    public long getResultCacheBytes() {
+        return mResultCacheBytes;
+    }
+
+    /**
+     * Jobs run by {@link FrameProcessorService} keep a copy of their output in the cache
+     * directory of the app. A later job with the same input, judged by its size, modification
+     * time and sampled content, and the same output settings is then given a copy of that
+     * output instead of being transcoded again. The least recently used outputs are dropped once
+     * the cache holds more than this many bytes. Jobs that write stills, statistics or scene
+     * cuts are not cached. 0 disables the cache.
+     */
+    public void setResultCacheBytes(long resultCacheBytes) {
+        mResultCacheBytes = resultCacheBytes;
+    }
+
+    boolean isVideoOutput() {
+        return mOutputMode != OutputMode.STILLS;
+    }
+
+    boolean isStillsOutput() {
+        return mOutputMode != OutputMode.VIDEO;
+    }
+}
@@ -0,0 +1,54 @@
+package net.peeknpoke.apps.frameprocessor;
+
+/**
+ * Per frame statistics computed on a downscaled copy of the filtered output. Instances are
+ * recycled: they are only valid during {@link FrameStatisticsObserver#onFrameStatistics}.
+ */
+public final class FrameStatistics {
+    public static final int HISTOGRAM_BINS = 256;
+
+    long mFrameIndex;
+    long mPresentationTimeUs;
+    float mAverageLuma;
+    float mSceneChangeScore;
+    int mPixelCount;
+    final int[] mHistogram = new int[HISTOGRAM_BINS];
+
+    public long getFrameIndex() {
+        return mFrameIndex;
+    }
+
+    public long getPresentationTimeUs() {
+        return mPresentationTimeUs;
+    }
+
+    /**
+     * @return average BT.601 luma in [0, 255]
+     */
+    public float getAverageLuma() {
+        return mAverageLuma;
+    }
+
+    /**
+     * @return histogram distance to the previous analysed frame, 0 for identical and 1 for
+     * disjoint histograms
+     */
+    public float getSceneChangeScore() {
+        return mSceneChangeScore;
+    }
+
+    public int getPixelCount() {
+        return mPixelCount;
+    }
+
+    public int getHistogramBin(int luma) {
+        return mHistogram[luma];
+    }
+
+    /**
+     * Copies the luma histogram into the given array of {@link #HISTOGRAM_BINS} entries.
+     */
+    public void getHistogram(int[] out) {
+        System.arraycopy(mHistogram, 0, out, 0, HISTOGRAM_BINS);
+    }
+}
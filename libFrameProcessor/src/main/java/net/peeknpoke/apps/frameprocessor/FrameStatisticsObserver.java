@@ -0,0 +1,5 @@
+package net.peeknpoke.apps.frameprocessor;
+
+public interface FrameStatisticsObserver {
+    void onFrameStatistics(FrameStatistics statistics);
+}
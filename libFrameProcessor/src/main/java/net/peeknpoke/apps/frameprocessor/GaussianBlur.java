@@ -0,0 +1,137 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.content.Context;
+import android.opengl.GLES30;
+
+/**
+ * Two pass separable Gaussian blur. When the kernel asks for downsampling, the input is first
+ * box filtered into a reduced framebuffer and both passes run at that size; the caller samples
+ * the result with linear filtering, which upsamples it for free.
+ */
+class GaussianBlur {
+    private final GaussianKernel mKernel;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mScaledWidth;
+    private final int mScaledHeight;
+    private final FilterPass mBlurPass;
+    private FilterPass mDownsamplePass;
+    private final FrameBufferPool mPool;
+    private final FrameBuffer[] mFrameBuffers = new FrameBuffer[2];
+    private final float[] mOffsets;
+    private final float[] mWeights;
+
+    private final int mBlurTextureLoc;
+    private final int mTexelStepLoc;
+    private final int mTapCountLoc;
+    private final int mOffsetsLoc;
+    private final int mWeightsLoc;
+    private int mDownsampleTextureLoc;
+    private int mDownsampleOffsetLoc;
+
+    /**
+     * @param internalFormat format of the intermediate framebuffers, that of the input so that
+     *                       HDR signals keep their precision
+     */
+    GaussianBlur(Context context, FrameBufferPool pool, float sigma, int width, int height, int internalFormat)
+    {
+        mPool = pool;
+        mKernel = GaussianKernel.create(sigma);
+        mOffsets = mKernel.getOffsets();
+        mWeights = mKernel.getWeights();
+        mWidth = width;
+        mHeight = height;
+        int factor = mKernel.getDownsampleFactor();
+        mScaledWidth = Math.max(1, width/factor);
+        mScaledHeight = Math.max(1, height/factor);
+
+        mBlurPass = new FilterPass(context, "blur.frag");
+        mBlurTextureLoc = mBlurPass.getUniformLocation("sTexture");
+        mTexelStepLoc = mBlurPass.getUniformLocation("uTexelStep");
+        mTapCountLoc = mBlurPass.getUniformLocation("uTapCount");
+        mOffsetsLoc = mBlurPass.getUniformLocation("uOffsets");
+        mWeightsLoc = mBlurPass.getUniformLocation("uWeights");
+
+        if (factor > 1)
+        {
+            mDownsamplePass = new FilterPass(context, "downsample.frag");
+            mDownsampleTextureLoc = mDownsamplePass.getUniformLocation("sTexture");
+            mDownsampleOffsetLoc = mDownsamplePass.getUniformLocation("uOffset");
+        }
+
+        mFrameBuffers[0] = pool.acquire(mScaledWidth, mScaledHeight, internalFormat);
+        mFrameBuffers[1] = pool.acquire(mScaledWidth, mScaledHeight, internalFormat);
+    }
+
+    boolean isDownsampled()
+    {
+        return mKernel.getDownsampleFactor() > 1;
+    }
+
+    /**
+     * Blurs into an internal framebuffer.
+     * @return the texture holding the blurred image, possibly at reduced resolution
+     */
+    int blur(int inputTexture)
+    {
+        int source = downsample(inputTexture);
+        horizontal(source, mFrameBuffers[1].getFramebuffer());
+        vertical(mFrameBuffers[1].getTexture(), mFrameBuffers[0].getFramebuffer(), mScaledWidth, mScaledHeight);
+        return mFrameBuffers[0].getTexture();
+    }
+
+    /**
+     * Blurs straight into a full resolution framebuffer. Only valid when not downsampled.
+     */
+    void blur(int inputTexture, int outputFramebuffer)
+    {
+        horizontal(inputTexture, mFrameBuffers[1].getFramebuffer());
+        vertical(mFrameBuffers[1].getTexture(), outputFramebuffer, mWidth, mHeight);
+    }
+
+    private int downsample(int inputTexture)
+    {
+        if (mDownsamplePass == null)
+            return inputTexture;
+
+        // Four bilinear taps, each averaging a 2x2 block, cover the whole factor x factor block
+        // for factors 2 and 4 and are a close approximation at 8
+        float offset = mKernel.getDownsampleFactor()/4.0f;
+        mDownsamplePass.use();
+        FilterPass.bindTexture(0, GLES30.GL_TEXTURE_2D, inputTexture, mDownsampleTextureLoc);
+        GLES30.glUniform2f(mDownsampleOffsetLoc, offset/mWidth, offset/mHeight);
+        mDownsamplePass.draw(mFrameBuffers[0].getFramebuffer(), mScaledWidth, mScaledHeight);
+        return mFrameBuffers[0].getTexture();
+    }
+
+    private void horizontal(int inputTexture, int outputFramebuffer)
+    {
+        setupBlurPass(inputTexture, 1.0f/mScaledWidth, 0.0f);
+        mBlurPass.draw(outputFramebuffer, mScaledWidth, mScaledHeight);
+    }
+
+    private void vertical(int inputTexture, int outputFramebuffer, int width, int height)
+    {
+        setupBlurPass(inputTexture, 0.0f, 1.0f/mScaledHeight);
+        mBlurPass.draw(outputFramebuffer, width, height);
+    }
+
+    private void setupBlurPass(int inputTexture, float stepX, float stepY)
+    {
+        mBlurPass.use();
+        FilterPass.bindTexture(0, GLES30.GL_TEXTURE_2D, inputTexture, mBlurTextureLoc);
+        GLES30.glUniform2f(mTexelStepLoc, stepX, stepY);
+        GLES30.glUniform1i(mTapCountLoc, mOffsets.length);
+        GLES30.glUniform1fv(mOffsetsLoc, mOffsets.length, mOffsets, 0);
+        GLES30.glUniform1fv(mWeightsLoc, mWeights.length, mWeights, 0);
+    }
+
+    void cleanup()
+    {
+        mBlurPass.cleanup();
+        if (mDownsamplePass != null)
+            mDownsamplePass.cleanup();
+        for (FrameBuffer frameBuffer : mFrameBuffers)
+            mPool.release(frameBuffer);
+    }
+}
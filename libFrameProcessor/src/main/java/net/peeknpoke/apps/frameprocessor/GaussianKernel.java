@@ -0,0 +1,110 @@
+package net.peeknpoke.apps.frameprocessor;
+
+/**
+ * Weights and offsets of a separable Gaussian for blur.frag. Pairs of neighbouring taps are
+ * merged into one bilinear fetch placed between the two texels, which halves the number of
+ * texture reads. Large sigmas are run on a downsampled image so the kernel stays short.
+ */
+final class GaussianKernel {
+    static final int MAX_TAPS = 16;         // Must match blur.frag
+    static final float DOWNSAMPLE_SIGMA = 3.0f;
+    static final int MAX_DOWNSAMPLE_FACTOR = 8;
+    static final float MAX_SIGMA = MAX_DOWNSAMPLE_FACTOR*(MAX_TAPS - 1)*2/3.0f;
+
+    private final float mSigma;
+    private final int mDownsampleFactor;
+    private final float[] mOffsets;
+    private final float[] mWeights;
+
+    private GaussianKernel(float sigma, int downsampleFactor, float[] offsets, float[] weights)
+    {
+        mSigma = sigma;
+        mDownsampleFactor = downsampleFactor;
+        mOffsets = offsets;
+        mWeights = weights;
+    }
+
+    /**
+     * @param sigma standard deviation in full resolution pixels
+     */
+    static GaussianKernel create(float sigma)
+    {
+        sigma = Math.max(0.1f, Math.min(sigma, MAX_SIGMA));
+        int factor = downsampleFactor(sigma);
+        float scaledSigma = sigma/factor;
+        float[] discrete = discreteWeights(scaledSigma, radius(scaledSigma));
+        return linearSampled(sigma, factor, discrete);
+    }
+
+    static int downsampleFactor(float sigma)
+    {
+        int factor = 1;
+        while (sigma/factor > DOWNSAMPLE_SIGMA && factor < MAX_DOWNSAMPLE_FACTOR)
+            factor *= 2;
+        return factor;
+    }
+
+    static int radius(float sigma)
+    {
+        return Math.min((int) Math.ceil(3.0f*sigma), 2*(MAX_TAPS - 1));
+    }
+
+    /**
+     * @return the normalized weights of taps 0..radius. Tap i is used on both sides of the center.
+     */
+    static float[] discreteWeights(float sigma, int radius)
+    {
+        float[] weights = new float[radius + 1];
+        double sum = 0;
+        for (int i = 0; i <= radius; i++)
+        {
+            weights[i] = (float) Math.exp(-(i*i)/(2.0*sigma*sigma));
+            sum += i == 0 ? weights[i] : 2*weights[i];
+        }
+        for (int i = 0; i <= radius; i++)
+            weights[i] /= sum;
+        return weights;
+    }
+
+    private static GaussianKernel linearSampled(float sigma, int factor, float[] discrete)
+    {
+        int radius = discrete.length - 1;
+        int taps = 1 + (radius + 1)/2;
+        float[] offsets = new float[taps];
+        float[] weights = new float[taps];
+        offsets[0] = 0.0f;
+        weights[0] = discrete[0];
+        for (int tap = 1; tap < taps; tap++)
+        {
+            int first = 2*tap - 1;
+            float w1 = discrete[first];
+            float w2 = first + 1 <= radius ? discrete[first + 1] : 0.0f;
+            weights[tap] = w1 + w2;
+            offsets[tap] = (first*w1 + (first + 1)*w2)/(w1 + w2);
+        }
+        return new GaussianKernel(sigma, factor, offsets, weights);
+    }
+
+    float getSigma() {
+        return mSigma;
+    }
+
+    int getDownsampleFactor() {
+        return mDownsampleFactor;
+    }
+
+    int getTapCount() {
+        return mOffsets.length;
+    }
+
+    /**
+     * @return offsets in texels of the (possibly downsampled) image; tap 0 is the center
+     */
+    float[] getOffsets() {
+        return mOffsets.clone();
+    }
+
+    float[] getWeights() {
+        return mWeights.clone();
+    }
+}
@@ -0,0 +1,80 @@
+package net.peeknpoke.apps.frameprocessor;
+
+/**
+ * IEEE 754 half precision conversions, used to upload float data as GL_HALF_FLOAT without going
+ * through the driver's conversion.
+ */
+final class HalfFloat {
+    private HalfFloat()
+    {
+    }
+
+    static short toHalf(float value)
+    {
+        int bits = Float.floatToRawIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int exponent = (bits >>> 23) & 0xff;
+        int mantissa = bits & 0x7fffff;
+
+        if (exponent == 0xff)
+        {
+            // Infinity or NaN
+            return (short) (sign | 0x7c00 | (mantissa != 0 ? 0x200 : 0));
+        }
+
+        int halfExponent = exponent - 127 + 15;
+        if (halfExponent >= 0x1f)
+        {
+            // Overflow
+            return (short) (sign | 0x7c00);
+        }
+        if (halfExponent <= 0)
+        {
+            if (halfExponent < -10)
+                return (short) sign;
+            // Subnormal half
+            mantissa |= 0x800000;
+            int shift = 14 - halfExponent;
+            int halfMantissa = mantissa >> shift;
+            int remainder = mantissa & ((1 << shift) - 1);
+            int halfway = 1 << (shift - 1);
+            if (remainder > halfway || (remainder == halfway && (halfMantissa & 1) != 0))
+                halfMantissa++;
+            return (short) (sign | halfMantissa);
+        }
+
+        int half = sign | (halfExponent << 10) | (mantissa >> 13);
+        int remainder = mantissa & 0x1fff;
+        if (remainder > 0x1000 || (remainder == 0x1000 && (half & 1) != 0))
+            half++;     // May carry into the exponent, which is the correct rounding
+        return (short) half;
+    }
+
+    static float toFloat(short half)
+    {
+        int bits = half & 0xffff;
+        int sign = (bits & 0x8000) << 16;
+        int exponent = (bits >>> 10) & 0x1f;
+        int mantissa = bits & 0x3ff;
+
+        if (exponent == 0)
+        {
+            if (mantissa == 0)
+                return Float.intBitsToFloat(sign);
+            // Normalize the subnormal
+            while ((mantissa & 0x400) == 0)
+            {
+                mantissa <<= 1;
+                exponent--;
+            }
+            exponent++;
+            mantissa &= 0x3ff;
+        }
+        else if (exponent == 0x1f)
+        {
+            return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+        }
+
+        return Float.intBitsToFloat(sign | ((exponent - 15 + 127) << 23) | (mantissa << 13));
+    }
+}
@@ -0,0 +1,132 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Histograms and levels of {@link AutoLevelsFilter}, and a CPU reference of histogram.comp and
+ * levels.comp. The red, green, blue and luma values of a frame are counted into four histograms
+ * of {@link #BINS} bins. The levels stretch the range between the darkest and the brightest
+ * values, ignoring a fraction of outliers at either end, to the full range. They are a black
+ * point and a scale per channel, laid out like the uniform block of levels.frag, and move towards
+ * those of each new frame by {@link #ADAPTATION} so that a flash does not make the picture pump.
+ */
+final class HistogramLevels {
+    static final int BINS = 256;
+    static final int CHANNELS = 4;          // Red, green, blue, then luma
+    static final int LUMA = 3;
+    /**
+     * Black point of red, green and blue, padding, scale of red, green and blue, padding.
+     */
+    static final int LEVELS_FLOATS = 8;
+    // Stretching a flat frame further only brings out its noise
+    static final float MAX_GAIN = 4.0f;
+    static final float ADAPTATION = 0.25f;
+    // Frames are sampled on a grid of at most this many pixels in either direction
+    static final int SAMPLED_SIZE = 480;
+
+    private HistogramLevels()
+    {
+    }
+
+    static float[] identity()
+    {
+        return new float[]{0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 1.0f, 1.0f, 1.0f};
+    }
+
+    /**
+     * @return the distance between the sampled pixels, in pixels
+     */
+    static int sampleStep(int width, int height)
+    {
+        int size = Math.max(width, height);
+        return Math.max(1, (size + SAMPLED_SIZE - 1)/SAMPLED_SIZE);
+    }
+
+    /**
+     * @return the number of pixels sampled in a row or column of the given length
+     */
+    static int sampledCount(int length, int step)
+    {
+        return (length + step - 1)/step;
+    }
+
+    /**
+     * @param clip fraction of the pixels that may clip at either end
+     * @return the number of pixels that may clip at either end
+     */
+    static int clipThreshold(float clip, int pixelCount)
+    {
+        return (int) Math.round(Math.max(0.0f, Math.min(clip, 0.5f))*(double) pixelCount);
+    }
+
+    /**
+     * Counts every step-th pixel in each direction of tightly packed RGBA pixels. Luma is the
+     * integer BT.601 approximation of {@link StatisticsCalculator#lumaHistogram}.
+     * @param histograms {@link #CHANNELS} times {@link #BINS} counts
+     * @return the number of pixels counted
+     */
+    static int histograms(ByteBuffer rgba, int width, int height, int step, int[] histograms)
+    {
+        for (int i = 0; i < histograms.length; i++)
+            histograms[i] = 0;
+
+        int base = rgba.position();
+        int count = 0;
+        for (int y = 0; y < height; y += step)
+        {
+            for (int x = 0; x < width; x += step)
+            {
+                int offset = base + 4*(y*width + x);
+                int r = rgba.get(offset) & 0xff;
+                int g = rgba.get(offset + 1) & 0xff;
+                int b = rgba.get(offset + 2) & 0xff;
+                histograms[r]++;
+                histograms[BINS + g]++;
+                histograms[2*BINS + b]++;
+                histograms[LUMA*BINS + ((77*r + 150*g + 29*b) >> 8)]++;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Moves the levels towards those of a frame.
+     * @param threshold  pixels that may clip at either end, see {@link #clipThreshold}
+     * @param perChannel true to stretch red, green and blue each on their own, which also
+     *                   removes a color cast, false to stretch all three by the luma
+     * @param previous   the levels applied so far, may be the same array as levels
+     */
+    static void levels(int[] histograms, int threshold, boolean perChannel, float[] previous, float[] levels)
+    {
+        float[] target = identity();
+        for (int channel = 0; channel < 3; channel++)
+        {
+            int base = (perChannel ? channel : LUMA)*BINS;
+            int low = 0;
+            long below = 0;
+            while (low < BINS - 1 && below + histograms[base + low] <= threshold)
+                below += histograms[base + low++];
+            int high = BINS - 1;
+            long above = 0;
+            while (high > 0 && above + histograms[base + high] <= threshold)
+                above += histograms[base + high--];
+            if (high > low)
+            {
+                target[channel] = low/255.0f;
+                target[4 + channel] = Math.min(MAX_GAIN, 255.0f/(high - low));
+            }
+        }
+        for (int i = 0; i < LEVELS_FLOATS; i++)
+            levels[i] = previous[i] + (target[i] - previous[i])*ADAPTATION;
+    }
+
+    /**
+     * The mapping of levels.frag, for 8-bit code values.
+     */
+    static int apply(float[] levels, int channel, int value)
+    {
+        float mapped = (value/255.0f - levels[channel])*levels[4 + channel];
+        return Math.round(Math.max(0.0f, Math.min(mapped, 1.0f))*255.0f);
+    }
+}
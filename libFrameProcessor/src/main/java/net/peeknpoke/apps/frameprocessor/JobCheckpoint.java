@@ -0,0 +1,405 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Everything needed to run a job again after the process was killed: the input, the settings and
+ * the outputs, one per rendition, and once fragments have been written, how far the output got and with which
+ * encoder. Stored as a properties file so that it stays readable and can grow new keys.
+ * <p>
+ * The progress is only ever advanced to the end of a fragment that has been written completely,
+ * so the output can always be cut back to it and appended to.
+ */
+final class JobCheckpoint {
+    static final int VERSION = 2;
+
+    private static final String KEY_VERSION = "version";
+    private static final String KEY_JOB_ID = "job.id";
+    private static final String KEY_INPUT_URI = "input.uri";
+    private static final String KEY_APP_NAME = "app.name";
+    private static final String OUTPUT = "output.";
+    private static final String KEY_ENCODER_NAME = "encoder.name";
+    private static final String KEY_ENCODER_MIME_TYPE = "encoder.mimeType";
+    private static final String KEY_ENCODER_BIT_RATE = "encoder.bitRate";
+    private static final String KEY_ENCODER_CONFIG_CRC = "encoder.configCrc";
+    private static final String KEY_FRAGMENTS = "progress.fragments";
+    private static final String KEY_OUTPUT_BYTES = "progress.outputBytes";
+    private static final String KEY_RESUME_TIME = "progress.resumeTimeUs";
+    private static final String SETTINGS = "settings.";
+    private static final String FILTER = "filter.";
+    private static final String PIPELINE_PROFILE = SETTINGS + "pipelineProfile.";
+
+    final String jobId;
+    final String inputUri;
+    final String appName;
+    final FrameProcessorSettings settings;
+
+    private final List<String> mOutputPaths = new ArrayList<>();
+    private final List<String> mOutputUris = new ArrayList<>();
+    private String mEncoderName;
+    private String mEncoderMimeType;
+    private int mEncoderBitRate;
+    private long mEncoderConfigCrc;
+    private int mFragments;
+    private long mOutputBytes;
+    private long mResumeTimeUs;
+
+    JobCheckpoint(String jobId, String inputUri, String appName, FrameProcessorSettings settings)
+    {
+        this.jobId = jobId;
+        this.inputUri = inputUri;
+        this.appName = appName;
+        this.settings = settings;
+    }
+
+    /**
+     * Records a new output, replacing the previous ones and discarding any progress.
+     * @param outputUri MediaStore entry of the output, or null for a plain file
+     */
+    synchronized void startOutput(String outputPath, String outputUri)
+    {
+        mOutputPaths.clear();
+        mOutputUris.clear();
+        addOutput(outputPath, outputUri);
+        discardProgress();
+    }
+
+    /**
+     * Records the output of a further rendition. The progress is that of the first output.
+     */
+    synchronized void addOutput(String outputPath, String outputUri)
+    {
+        mOutputPaths.add(outputPath);
+        mOutputUris.add(outputUri);
+    }
+
+    /**
+     * Forgets the encoder and the fragments written, keeping the output so that it is replaced
+     * when the job starts over.
+     */
+    synchronized void discardProgress()
+    {
+        mEncoderName = null;
+        mEncoderMimeType = null;
+        mEncoderBitRate = 0;
+        mEncoderConfigCrc = 0;
+        mFragments = 0;
+        mOutputBytes = 0;
+        mResumeTimeUs = 0;
+    }
+
+    /**
+     * @param configCrc CRC of the codec specific data in the init segment
+     */
+    synchronized void encoderStarted(String name, String mimeType, int bitRate, long configCrc)
+    {
+        mEncoderName = name;
+        mEncoderMimeType = mimeType;
+        mEncoderBitRate = bitRate;
+        mEncoderConfigCrc = configCrc;
+    }
+
+    /**
+     * @param outputBytes end of the fragment in the output
+     * @param endTimeUs   end of the fragment, the time of the keyframe starting the next one
+     */
+    synchronized void fragmentWritten(int sequenceNumber, long outputBytes, long endTimeUs)
+    {
+        mFragments = sequenceNumber;
+        mOutputBytes = outputBytes;
+        mResumeTimeUs = endTimeUs;
+    }
+
+    synchronized int getOutputCount()
+    {
+        return mOutputPaths.size();
+    }
+
+    synchronized String getOutputPath(int index)
+    {
+        return mOutputPaths.get(index);
+    }
+
+    /**
+     * @return MediaStore entry of the output, or null for a plain file
+     */
+    synchronized String getOutputUri(int index)
+    {
+        return mOutputUris.get(index);
+    }
+
+    synchronized String getEncoderName()
+    {
+        return mEncoderName;
+    }
+
+    synchronized String getEncoderMimeType()
+    {
+        return mEncoderMimeType;
+    }
+
+    synchronized int getEncoderBitRate()
+    {
+        return mEncoderBitRate;
+    }
+
+    synchronized long getEncoderConfigCrc()
+    {
+        return mEncoderConfigCrc;
+    }
+
+    /**
+     * @return number of fragments completely written, which is also the last sequence number
+     */
+    synchronized int getFragments()
+    {
+        return mFragments;
+    }
+
+    synchronized long getOutputBytes()
+    {
+        return mOutputBytes;
+    }
+
+    synchronized long getResumeTimeUs()
+    {
+        return mResumeTimeUs;
+    }
+
+    synchronized void write(OutputStream output) throws IOException
+    {
+        Properties properties = new Properties();
+        properties.setProperty(KEY_VERSION, Integer.toString(VERSION));
+        properties.setProperty(KEY_JOB_ID, jobId);
+        properties.setProperty(KEY_INPUT_URI, inputUri);
+        properties.setProperty(KEY_APP_NAME, appName);
+        properties.setProperty(OUTPUT + "count", Integer.toString(mOutputPaths.size()));
+        for (int index = 0; index < mOutputPaths.size(); index++)
+        {
+            properties.setProperty(OUTPUT + index + ".path", mOutputPaths.get(index));
+            putIfSet(properties, OUTPUT + index + ".uri", mOutputUris.get(index));
+        }
+        putIfSet(properties, KEY_ENCODER_NAME, mEncoderName);
+        putIfSet(properties, KEY_ENCODER_MIME_TYPE, mEncoderMimeType);
+        properties.setProperty(KEY_ENCODER_BIT_RATE, Integer.toString(mEncoderBitRate));
+        properties.setProperty(KEY_ENCODER_CONFIG_CRC, Long.toString(mEncoderConfigCrc));
+        properties.setProperty(KEY_FRAGMENTS, Integer.toString(mFragments));
+        properties.setProperty(KEY_OUTPUT_BYTES, Long.toString(mOutputBytes));
+        properties.setProperty(KEY_RESUME_TIME, Long.toString(mResumeTimeUs));
+        writeSettings(properties, settings);
+        properties.store(output, null);
+    }
+
+    /**
+     * @throws IOException if the checkpoint is incomplete or of another version
+     */
+    static JobCheckpoint read(InputStream input) throws IOException
+    {
+        Properties properties = new Properties();
+        properties.load(input);
+        int version = getInt(properties, KEY_VERSION);
+        if (version != VERSION)
+            throw new IOException("Unsupported checkpoint version " + version);
+
+        JobCheckpoint checkpoint = new JobCheckpoint(getString(properties, KEY_JOB_ID),
+                getString(properties, KEY_INPUT_URI), getString(properties, KEY_APP_NAME),
+                readSettings(properties));
+        int outputs = getInt(properties, OUTPUT + "count");
+        for (int index = 0; index < outputs; index++)
+            checkpoint.addOutput(getString(properties, OUTPUT + index + ".path"),
+                    properties.getProperty(OUTPUT + index + ".uri"));
+        checkpoint.mEncoderName = properties.getProperty(KEY_ENCODER_NAME);
+        checkpoint.mEncoderMimeType = properties.getProperty(KEY_ENCODER_MIME_TYPE);
+        checkpoint.mEncoderBitRate = getInt(properties, KEY_ENCODER_BIT_RATE);
+        checkpoint.mEncoderConfigCrc = getLong(properties, KEY_ENCODER_CONFIG_CRC);
+        checkpoint.mFragments = getInt(properties, KEY_FRAGMENTS);
+        checkpoint.mOutputBytes = getLong(properties, KEY_OUTPUT_BYTES);
+        checkpoint.mResumeTimeUs = getLong(properties, KEY_RESUME_TIME);
+        return checkpoint;
+    }
+
+    private static void writeSettings(Properties properties, FrameProcessorSettings settings)
+    {
+        properties.setProperty(SETTINGS + "analysis", Boolean.toString(settings.isAnalysisEnabled()));
+        properties.setProperty(SETTINGS + "outputMode", settings.getOutputMode().name());
+        properties.setProperty(SETTINGS + "stillInterval", Float.toString(settings.getStillIntervalSeconds()));
+        properties.setProperty(SETTINGS + "stillQuality", Integer.toString(settings.getStillQuality()));
+        properties.setProperty(SETTINGS + "sceneCutKeyframes", Boolean.toString(settings.isSceneCutKeyframes()));
+        putIfSet(properties, SETTINGS + "outputMimeType", settings.getOutputMimeType());
+        properties.setProperty(SETTINGS + "bitRate", Integer.toString(settings.getBitRate()));
+        properties.setProperty(SETTINGS + "preserveHdr", Boolean.toString(settings.isPreserveHdr()));
+        properties.setProperty(SETTINGS + "container", settings.getContainer().name());
+        properties.setProperty(SETTINGS + "fragmentDuration", Float.toString(settings.getFragmentDurationSeconds()));
+        properties.setProperty(SETTINGS + "muxBufferBytes", Integer.toString(settings.getMuxBufferBytes()));
+        properties.setProperty(SETTINGS + "publishToMediaStore", Boolean.toString(settings.isPublishToMediaStore()));
+        properties.setProperty(SETTINGS + "inputWindowBytes", Integer.toString(settings.getInputWindowBytes()));
+        properties.setProperty(SETTINGS + "demuxQueueBytes", Integer.toString(settings.getDemuxQueueBytes()));
+        properties.setProperty(SETTINGS + "resumable", Boolean.toString(settings.isResumable()));
+        properties.setProperty(SETTINGS + "adaptiveThroughput", Boolean.toString(settings.isAdaptiveThroughput()));
+        properties.setProperty(SETTINGS + "resultCacheBytes", Long.toString(settings.getResultCacheBytes()));
+        List<Rendition> renditions = settings.getRenditions();
+        properties.setProperty(SETTINGS + "rendition.count", Integer.toString(renditions.size()));
+        for (int index = 0; index < renditions.size(); index++)
+        {
+            String prefix = SETTINGS + "rendition." + index + ".";
+            properties.setProperty(prefix + "shortSide", Integer.toString(renditions.get(index).getShortSide()));
+            properties.setProperty(prefix + "bitRate", Integer.toString(renditions.get(index).getBitRate()));
+        }
+        List<Overlay> overlays = settings.getOverlays();
+        properties.setProperty(SETTINGS + "overlay.count", Integer.toString(overlays.size()));
+        for (int index = 0; index < overlays.size(); index++)
+        {
+            Overlay overlay = overlays.get(index);
+            String prefix = SETTINGS + "overlay." + index + ".";
+            properties.setProperty(prefix + "type", overlay.getType().name());
+            putIfSet(properties, prefix + "value", overlay.getValue());
+            properties.setProperty(prefix + "anchor", overlay.getAnchor().name());
+            properties.setProperty(prefix + "height", Float.toString(overlay.getHeight()));
+            properties.setProperty(prefix + "framesPerSecond", Float.toString(overlay.getFramesPerSecond()));
+        }
+        // A profile set on the settings; without one the job uses the profile of the device
+        properties.setProperty(SETTINGS + "deviceProfile", Boolean.toString(settings.isDeviceProfile()));
+        if (settings.getPipelineProfile() != null)
+            settings.getPipelineProfile().write(properties, PIPELINE_PROFILE);
+
+        int index = 0;
+        for (FilterSpec filter : settings.getFilterChain().getFilters())
+        {
+            String prefix = FILTER + index + ".";
+            properties.setProperty(prefix + "type", filter.getType().name());
+            for (Map.Entry<String, String> param : filter.getParams().entrySet())
+                properties.setProperty(prefix + "param." + param.getKey(), param.getValue());
+            index++;
+        }
+        properties.setProperty(FILTER + "count", Integer.toString(index));
+    }
+
+    private static FrameProcessorSettings readSettings(Properties properties) throws IOException
+    {
+        FrameProcessorSettings settings = new FrameProcessorSettings();
+        try {
+            settings.setAnalysisEnabled(getBoolean(properties, SETTINGS + "analysis"));
+            settings.setOutputMode(FrameProcessorSettings.OutputMode.valueOf(getString(properties, SETTINGS + "outputMode")));
+            settings.setStillIntervalSeconds(Float.parseFloat(getString(properties, SETTINGS + "stillInterval")));
+            settings.setStillQuality(getInt(properties, SETTINGS + "stillQuality"));
+            settings.setSceneCutKeyframes(getBoolean(properties, SETTINGS + "sceneCutKeyframes"));
+            settings.setOutputMimeType(properties.getProperty(SETTINGS + "outputMimeType"));
+            settings.setBitRate(getInt(properties, SETTINGS + "bitRate"));
+            settings.setPreserveHdr(getBoolean(properties, SETTINGS + "preserveHdr"));
+            settings.setContainer(FrameProcessorSettings.Container.valueOf(getString(properties, SETTINGS + "container")));
+            settings.setFragmentDurationSeconds(Float.parseFloat(getString(properties, SETTINGS + "fragmentDuration")));
+            settings.setMuxBufferBytes(getInt(properties, SETTINGS + "muxBufferBytes"));
+            settings.setPublishToMediaStore(getBoolean(properties, SETTINGS + "publishToMediaStore"));
+            settings.setInputWindowBytes(getInt(properties, SETTINGS + "inputWindowBytes"));
+            settings.setDemuxQueueBytes(getInt(properties, SETTINGS + "demuxQueueBytes"));
+            settings.setResumable(getBoolean(properties, SETTINGS + "resumable"));
+            settings.setAdaptiveThroughput(Boolean.parseBoolean(
+                    properties.getProperty(SETTINGS + "adaptiveThroughput", "true")));
+            settings.setResultCacheBytes(Long.parseLong(properties.getProperty(SETTINGS + "resultCacheBytes", "0")));
+            List<Rendition> renditions = new ArrayList<>();
+            int renditionCount = getInt(properties, SETTINGS + "rendition.count");
+            for (int index = 0; index < renditionCount; index++)
+            {
+                String prefix = SETTINGS + "rendition." + index + ".";
+                renditions.add(new Rendition(getInt(properties, prefix + "shortSide"),
+                        getInt(properties, prefix + "bitRate")));
+            }
+            settings.setRenditions(renditions);
+            settings.setOverlays(readOverlays(properties));
+            // Checkpoints written before profiles existed have neither key
+            if (!Boolean.parseBoolean(properties.getProperty(SETTINGS + "deviceProfile", "true")))
+                settings.setPipelineProfile(PipelineProfile.read(properties, PIPELINE_PROFILE));
+
+            FilterChain filterChain = new FilterChain();
+            int count = getInt(properties, FILTER + "count");
+            for (int index = 0; index < count; index++)
+            {
+                String prefix = FILTER + index + ".";
+                String paramPrefix = prefix + "param.";
+                Map<String, String> params = new TreeMap<>();
+                for (String key : properties.stringPropertyNames())
+                {
+                    if (key.startsWith(paramPrefix))
+                        params.put(key.substring(paramPrefix.length()), properties.getProperty(key));
+                }
+                filterChain.add(FilterSpec.create(FilterSpec.Type.valueOf(getString(properties, prefix + "type")), params));
+            }
+            settings.setFilterChain(filterChain);
+        } catch (IllegalArgumentException e) {
+            // Also covers NumberFormatException
+            throw new IOException("Invalid checkpoint settings - " + e.getMessage());
+        }
+        return settings;
+    }
+
+    private static List<Overlay> readOverlays(Properties properties) throws IOException
+    {
+        List<Overlay> overlays = new ArrayList<>();
+        // Checkpoints written before overlays existed have none
+        int count = Integer.parseInt(properties.getProperty(SETTINGS + "overlay.count", "0"));
+        for (int index = 0; index < count; index++)
+        {
+            String prefix = SETTINGS + "overlay." + index + ".";
+            Overlay.Anchor anchor = Overlay.Anchor.valueOf(getString(properties, prefix + "anchor"));
+            float height = Float.parseFloat(getString(properties, prefix + "height"));
+            switch (Overlay.Type.valueOf(getString(properties, prefix + "type")))
+            {
+                case IMAGE:
+                    overlays.add(Overlay.image(getString(properties, prefix + "value"), anchor, height));
+                    break;
+                case TEXT:
+                    overlays.add(Overlay.text(getString(properties, prefix + "value"), anchor, height));
+                    break;
+                case TIMECODE:
+                    overlays.add(Overlay.timecode(anchor, height,
+                            Float.parseFloat(getString(properties, prefix + "framesPerSecond"))));
+                    break;
+            }
+        }
+        return overlays;
+    }
+
+    private static void putIfSet(Properties properties, String key, String value)
+    {
+        if (value != null)
+            properties.setProperty(key, value);
+    }
+
+    private static String getString(Properties properties, String key) throws IOException
+    {
+        String value = properties.getProperty(key);
+        if (value == null)
+            throw new IOException("Checkpoint has no " + key);
+        return value;
+    }
+
+    private static boolean getBoolean(Properties properties, String key) throws IOException
+    {
+        return Boolean.parseBoolean(getString(properties, key));
+    }
+
+    private static int getInt(Properties properties, String key) throws IOException
+    {
+        try {
+            return Integer.parseInt(getString(properties, key));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid " + key + " in checkpoint");
+        }
+    }
+
+    private static long getLong(Properties properties, String key) throws IOException
+    {
+        try {
+            return Long.parseLong(getString(properties, key));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid " + key + " in checkpoint");
+        }
+    }
+}
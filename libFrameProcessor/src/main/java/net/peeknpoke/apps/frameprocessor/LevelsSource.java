@@ -0,0 +1,21 @@
+package net.peeknpoke.apps.frameprocessor;
+
+/**
+ * Whole-frame levels for {@link AutoLevelsFilter}, kept in a uniform buffer of
+ * {@link HistogramLevels#LEVELS_FLOATS} floats that the filter reads without a CPU round trip.
+ * Called on the rendering thread with the GL context current.
+ */
+interface LevelsSource {
+    /**
+     * @return the uniform buffer with the levels to apply to the current frame, measured on the
+     * previous ones
+     */
+    int getLevelsBuffer();
+
+    /**
+     * Measures a frame, whose levels apply from a later frame on.
+     */
+    void measure(int inputTexture);
+
+    void cleanup();
+}
@@ -0,0 +1,138 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process wide LRU cache of parsed LUTs, keyed by the hash of the .cube file contents and bounded
+ * by the size of the upload ready data. Jobs of a batch that share a grade parse it only once.
+ */
+final class LutCache {
+    private final long mMaxBytes;
+    private long mBytes;
+    private int mHits;
+    private int mMisses;
+    private final LinkedHashMap<String, CubeLut> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+    LutCache(long maxBytes)
+    {
+        mMaxBytes = maxBytes;
+    }
+
+    CubeLut get(File file) throws IOException
+    {
+        String key = hash(file);
+        synchronized (this)
+        {
+            CubeLut lut = mEntries.get(key);
+            if (lut != null)
+            {
+                mHits++;
+                return lut;
+            }
+            mMisses++;
+        }
+
+        // Parse outside of the lock, a concurrent miss on the same file only costs a second parse
+        CubeLut lut;
+        InputStream input = new FileInputStream(file);
+        try
+        {
+            lut = CubeLutParser.parse(input);
+        }
+        finally
+        {
+            input.close();
+        }
+        put(key, lut);
+        return lut;
+    }
+
+    synchronized void put(String key, CubeLut lut)
+    {
+        int bytes = lut.getByteCount();
+        if (bytes > mMaxBytes)
+            return;
+
+        CubeLut previous = mEntries.put(key, lut);
+        if (previous != null)
+            mBytes -= previous.getByteCount();
+        mBytes += bytes;
+
+        Iterator<Map.Entry<String, CubeLut>> iterator = mEntries.entrySet().iterator();
+        while (mBytes > mMaxBytes && iterator.hasNext())
+        {
+            Map.Entry<String, CubeLut> eldest = iterator.next();
+            mBytes -= eldest.getValue().getByteCount();
+            iterator.remove();
+        }
+    }
+
+    synchronized boolean contains(String key)
+    {
+        return mEntries.containsKey(key);
+    }
+
+    synchronized long getBytes() {
+        return mBytes;
+    }
+
+    synchronized int getHits() {
+        return mHits;
+    }
+
+    synchronized int getMisses() {
+        return mMisses;
+    }
+
+    synchronized void clear()
+    {
+        mEntries.clear();
+        mBytes = 0;
+    }
+
+    static String hash(File file) throws IOException
+    {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+
+        FileInputStream input = new FileInputStream(file);
+        try
+        {
+            FileChannel channel = input.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(16*1024);
+            while (channel.read(buffer) > 0)
+            {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        finally
+        {
+            input.close();
+        }
+
+        byte[] bytes = digest.digest();
+        StringBuilder hex = new StringBuilder(bytes.length*2);
+        for (byte b : bytes)
+        {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,122 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.content.Context;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+class LutFilter implements Filter {
+    private static final String TAG = LutFilter.class.getSimpleName();
+    private static final String FRAGMENT_SHADER_NAME = "lut.frag";
+    private static final long LUT_CACHE_BYTES = 32*1024*1024;
+
+    private static final LutCache sLutCache = new LutCache(LUT_CACHE_BYTES);
+
+    private final String mLutPath;
+    private FilterPass mPass;
+    private ShareGroup mShareGroup;
+    private int mLutTexture;
+    private int mWidth;
+    private int mHeight;
+    private int mTextureLoc;
+    private int mLutLoc;
+    private int mDomainMinLoc;
+    private int mDomainScaleLoc;
+    private int mLutScaleLoc;
+    private int mLutOffsetLoc;
+    private CubeLut mLut;
+
+    LutFilter(String lutPath)
+    {
+        mLutPath = lutPath;
+    }
+
+    @Override
+    public void setup(Context context, FrameBufferPool pool, int width, int height, int internalFormat) {
+        mWidth = width;
+        mHeight = height;
+        mPass = new FilterPass(context, FRAGMENT_SHADER_NAME);
+        mTextureLoc = mPass.getUniformLocation("sTexture");
+        mLutLoc = mPass.getUniformLocation("sLut");
+        mDomainMinLoc = mPass.getUniformLocation("uDomainMin");
+        mDomainScaleLoc = mPass.getUniformLocation("uDomainScale");
+        mLutScaleLoc = mPass.getUniformLocation("uLutScale");
+        mLutOffsetLoc = mPass.getUniformLocation("uLutOffset");
+
+        try {
+            mLut = sLutCache.get(new File(mLutPath));
+        } catch (IOException e) {
+            Log.e(TAG, "Could not load LUT " + mLutPath + " - " + e.getMessage());
+            mLut = CubeLut.identity(CubeLutParser.MIN_SIZE);
+        }
+        // Workers applying the same cached LUT share one texture
+        mShareGroup = ShareGroup.current();
+        mLutTexture = mShareGroup.acquireTexture(mLut, LUT_UPLOADER);
+    }
+
+    private static final SharedObjects.Creator<CubeLut> LUT_UPLOADER = new SharedObjects.Creator<CubeLut>() {
+        @Override
+        public int create(CubeLut lut) {
+            return uploadLut(lut);
+        }
+    };
+
+    private static int uploadLut(CubeLut lut)
+    {
+        final int[] textureHandle = new int[1];
+        GLES30.glGenTextures(1, textureHandle, 0);
+        if (textureHandle[0] == 0)
+        {
+            throw new RuntimeException("Error creating texture.");
+        }
+
+        int size = lut.getSize();
+        GLES30.glBindTexture(GLES30.GL_TEXTURE_3D, textureHandle[0]);
+        // Rows of 3 half floats are not 4 byte aligned for odd sizes (17, 33, 65)
+        GLES30.glPixelStorei(GLES30.GL_UNPACK_ALIGNMENT, 2);
+        GLES30.glTexImage3D(GLES30.GL_TEXTURE_3D, 0, GLES30.GL_RGB16F, size, size, size, 0,
+                GLES30.GL_RGB, GLES30.GL_HALF_FLOAT, lut.getData());
+        GLES30.glPixelStorei(GLES30.GL_UNPACK_ALIGNMENT, 4);
+        GLES30.glTexParameteri(GLES30.GL_TEXTURE_3D, GLES30.GL_TEXTURE_WRAP_S, GLES30.GL_CLAMP_TO_EDGE);
+        GLES30.glTexParameteri(GLES30.GL_TEXTURE_3D, GLES30.GL_TEXTURE_WRAP_T, GLES30.GL_CLAMP_TO_EDGE);
+        GLES30.glTexParameteri(GLES30.GL_TEXTURE_3D, GLES30.GL_TEXTURE_WRAP_R, GLES30.GL_CLAMP_TO_EDGE);
+        GLES30.glTexParameteri(GLES30.GL_TEXTURE_3D, GLES30.GL_TEXTURE_MIN_FILTER, GLES30.GL_LINEAR);
+        GLES30.glTexParameteri(GLES30.GL_TEXTURE_3D, GLES30.GL_TEXTURE_MAG_FILTER, GLES30.GL_LINEAR);
+        GLES30.glBindTexture(GLES30.GL_TEXTURE_3D, 0);
+        ShaderHelper.checkGLError(TAG, "LUT upload");
+        return textureHandle[0];
+    }
+
+    @Override
+    public void draw(int inputTexture, int outputFramebuffer) {
+        int size = mLut.getSize();
+        float[] domainMin = mLut.getDomainMin();
+        float[] domainMax = mLut.getDomainMax();
+
+        mPass.use();
+        FilterPass.bindTexture(0, GLES30.GL_TEXTURE_2D, inputTexture, mTextureLoc);
+        FilterPass.bindTexture(1, GLES30.GL_TEXTURE_3D, mLutTexture, mLutLoc);
+        GLES30.glUniform3f(mDomainMinLoc, domainMin[0], domainMin[1], domainMin[2]);
+        GLES30.glUniform3f(mDomainScaleLoc, 1.0f/(domainMax[0] - domainMin[0]),
+                1.0f/(domainMax[1] - domainMin[1]), 1.0f/(domainMax[2] - domainMin[2]));
+        GLES30.glUniform1f(mLutScaleLoc, (size - 1.0f)/size);
+        GLES30.glUniform1f(mLutOffsetLoc, 0.5f/size);
+        mPass.draw(outputFramebuffer, mWidth, mHeight);
+
+        GLES30.glActiveTexture(GLES30.GL_TEXTURE1);
+        GLES30.glBindTexture(GLES30.GL_TEXTURE_3D, 0);
+        GLES30.glActiveTexture(GLES30.GL_TEXTURE0);
+    }
+
+    @Override
+    public void cleanup() {
+        if (mLutTexture != 0)
+            mShareGroup.releaseTexture(mLutTexture);
+        mLutTexture = 0;
+        if (mPass!=null)
+            mPass.cleanup();
+        mPass = null;
+    }
+}
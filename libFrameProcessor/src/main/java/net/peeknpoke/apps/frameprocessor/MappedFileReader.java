@@ -0,0 +1,210 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Positional reads from a file through memory mapped windows. Once a read gets past the middle of
+ * a window, the next window is mapped and its pages loaded on a background thread, so sequential
+ * readers such as the extractor find the data in memory. Only a few windows are kept mapped,
+ * which keeps the address space used by multi-GB inputs bounded.
+ */
+final class MappedFileReader {
+    static final int MAX_MAPPED_WINDOWS = 3;
+
+    private final FileChannel mChannel;
+    private final long mSize;
+    private final int mWindowBytes;
+    // Most recently used last
+    private final LinkedHashMap<Long, MappedByteBuffer> mWindows = new LinkedHashMap<>(4, 0.75f, true);
+    private final Thread mPrefetchThread;
+    private long mPrefetchRequest = -1;
+    private boolean mClosed;
+
+    private long mReadCount;
+    private long mBytesRead;
+    private long mTotalNanos;
+    private long mMaxNanos;
+    private final long[] mHistogram = new long[ReadLatencyMetrics.BUCKETS];
+
+    /**
+     * @param channel closed with the reader
+     */
+    MappedFileReader(FileChannel channel, int windowBytes) throws IOException
+    {
+        if (windowBytes <= 0)
+            throw new IllegalArgumentException("Invalid window size " + windowBytes);
+        mChannel = channel;
+        mSize = channel.size();
+        mWindowBytes = windowBytes;
+        mPrefetchThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                prefetchLoop();
+            }
+        }, "InputPrefetch");
+        mPrefetchThread.setDaemon(true);
+        mPrefetchThread.start();
+    }
+
+    long getSize()
+    {
+        return mSize;
+    }
+
+    /**
+     * @return the number of bytes read, or -1 at the end of the file
+     */
+    int readAt(long position, byte[] buffer, int offset, int size) throws IOException
+    {
+        if (position >= mSize)
+            return -1;
+        long start = System.nanoTime();
+        int count = (int) Math.min(size, mSize - position);
+        int copied = 0;
+        long window = 0;
+        while (copied < count)
+        {
+            long current = position + copied;
+            window = current/mWindowBytes;
+            MappedByteBuffer data = getWindow(window);
+            int windowOffset = (int) (current - window*mWindowBytes);
+            int chunk = Math.min(count - copied, data.capacity() - windowOffset);
+            // Absolute reads on a private duplicate, the window is shared with other reads
+            ByteBuffer view = data.duplicate();
+            view.position(windowOffset);
+            view.get(buffer, offset + copied, chunk);
+            copied += chunk;
+        }
+
+        long end = position + count;
+        if (end - window*mWindowBytes > mWindowBytes/2 && (window + 1)*mWindowBytes < mSize)
+            requestPrefetch(window + 1);
+        record(System.nanoTime() - start, count);
+        return count;
+    }
+
+    private MappedByteBuffer getWindow(long window) throws IOException
+    {
+        synchronized (mWindows)
+        {
+            MappedByteBuffer data = mWindows.get(window);
+            if (data != null)
+                return data;
+        }
+        // Missed the prefetch, map it here
+        MappedByteBuffer data = map(window);
+        synchronized (mWindows)
+        {
+            cache(window, data);
+        }
+        return data;
+    }
+
+    private MappedByteBuffer map(long window) throws IOException
+    {
+        long start = window*mWindowBytes;
+        return mChannel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(mWindowBytes, mSize - start));
+    }
+
+    private void cache(long window, MappedByteBuffer data)
+    {
+        mWindows.put(window, data);
+        // Dropped windows are unmapped once they are garbage collected
+        Iterator<Map.Entry<Long, MappedByteBuffer>> iterator = mWindows.entrySet().iterator();
+        while (mWindows.size() > MAX_MAPPED_WINDOWS)
+        {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    boolean isMapped(long window)
+    {
+        synchronized (mWindows)
+        {
+            return mWindows.containsKey(window);
+        }
+    }
+
+    private void requestPrefetch(long window)
+    {
+        synchronized (mWindows)
+        {
+            if (mWindows.containsKey(window) || mPrefetchRequest == window)
+                return;
+            mPrefetchRequest = window;
+            mWindows.notifyAll();
+        }
+    }
+
+    private void prefetchLoop()
+    {
+        while (true)
+        {
+            long window;
+            synchronized (mWindows)
+            {
+                while (mPrefetchRequest < 0 && !mClosed)
+                {
+                    try {
+                        mWindows.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (mClosed)
+                    return;
+                window = mPrefetchRequest;
+            }
+
+            try {
+                MappedByteBuffer data = map(window);
+                data.load();
+                synchronized (mWindows)
+                {
+                    if (!mWindows.containsKey(window))
+                        cache(window, data);
+                }
+            } catch (IOException e) {
+                // The reader maps the window itself when it gets there
+            }
+
+            synchronized (mWindows)
+            {
+                if (mPrefetchRequest == window)
+                    mPrefetchRequest = -1;
+            }
+        }
+    }
+
+    private synchronized void record(long nanos, int bytes)
+    {
+        mReadCount++;
+        mBytesRead += bytes;
+        mTotalNanos += nanos;
+        mMaxNanos = Math.max(mMaxNanos, nanos);
+        mHistogram[ReadLatencyMetrics.bucketOf(nanos)]++;
+    }
+
+    synchronized ReadLatencyMetrics getMetrics()
+    {
+        return new ReadLatencyMetrics(mReadCount, mBytesRead, mTotalNanos, mMaxNanos, mHistogram.clone());
+    }
+
+    void close() throws IOException
+    {
+        synchronized (mWindows)
+        {
+            mClosed = true;
+            mWindows.clear();
+            mWindows.notifyAll();
+        }
+        mChannel.close();
+    }
+}
@@ -0,0 +1,46 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.media.MediaDataSource;
+import android.os.ParcelFileDescriptor;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Extractor input read through a {@link MappedFileReader}, for local files that can be mapped.
+ */
+class MappedMediaDataSource extends MediaDataSource {
+    private final ParcelFileDescriptor mDescriptor;
+    private final MappedFileReader mReader;
+
+    MappedMediaDataSource(ParcelFileDescriptor descriptor, int windowBytes) throws IOException
+    {
+        mDescriptor = descriptor;
+        FileInputStream input = new FileInputStream(descriptor.getFileDescriptor());
+        mReader = new MappedFileReader(input.getChannel(), windowBytes);
+    }
+
+    @Override
+    public int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+        return mReader.readAt(position, buffer, offset, size);
+    }
+
+    @Override
+    public long getSize() {
+        return mReader.getSize();
+    }
+
+    ReadLatencyMetrics getMetrics()
+    {
+        return mReader.getMetrics();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            mReader.close();
+        } finally {
+            mDescriptor.close();
+        }
+    }
+}
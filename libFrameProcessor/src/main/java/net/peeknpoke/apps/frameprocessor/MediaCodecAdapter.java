@@ -0,0 +1,34 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.media.MediaCodec;
+
+import java.nio.ByteBuffer;
+
+class MediaCodecAdapter implements Codec {
+    private final MediaCodec mCodec;
+
+    MediaCodecAdapter(MediaCodec codec)
+    {
+        mCodec = codec;
+    }
+
+    @Override
+    public ByteBuffer getInputBuffer(int index) {
+        return mCodec.getInputBuffer(index);
+    }
+
+    @Override
+    public void queueInputBuffer(int index, int size, long presentationTimeUs, int flags) {
+        mCodec.queueInputBuffer(index, 0, size, presentationTimeUs, flags);
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index, boolean render) {
+        mCodec.releaseOutputBuffer(index, render);
+    }
+
+    @Override
+    public void signalEndOfInputStream() {
+        mCodec.signalEndOfInputStream();
+    }
+}
@@ -0,0 +1,58 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.os.Build;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Regular MP4 through {@link MediaMuxer}; the file is only playable after {@link #stop()}.
+ */
+class MediaMuxerBackend implements MuxerBackend {
+    private final MediaMuxer mMediaMuxer;
+    private int mTrackIndex = -1;
+
+    MediaMuxerBackend(FileDescriptor fileDescriptor, int rotationDegrees) throws IOException
+    {
+        mMediaMuxer = new MediaMuxer(fileDescriptor, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+        mMediaMuxer.setOrientationHint(rotationDegrees);
+    }
+
+    @Override
+    public List<String> getSupportedMimeTypes() {
+        List<String> mimeTypes = new ArrayList<>(Arrays.asList(TranscodePlanner.MIME_AVC,
+                TranscodePlanner.MIME_HEVC, MediaFormat.MIMETYPE_VIDEO_MPEG4, MediaFormat.MIMETYPE_VIDEO_H263));
+        // AV1 in MP4 is supported by the muxer from Android 12
+        if (Build.VERSION.SDK_INT >= 31)
+            mimeTypes.add(TranscodePlanner.MIME_AV1);
+        return mimeTypes;
+    }
+
+    @Override
+    public void start(MediaFormat format) {
+        mTrackIndex = mMediaMuxer.addTrack(format);
+        mMediaMuxer.start();
+    }
+
+    @Override
+    public void writeSampleData(ByteBuffer data, MediaCodec.BufferInfo info) {
+        mMediaMuxer.writeSampleData(mTrackIndex, data, info);
+    }
+
+    @Override
+    public void stop() {
+        try {
+            if (mTrackIndex >= 0)
+                mMediaMuxer.stop();
+        } finally {
+            mMediaMuxer.release();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.provider.MediaStore;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+
+import androidx.annotation.RequiresApi;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Output written straight into a pending {@link MediaStore} entry, a video or a still. The entry
+ * is indexed from the start, so no media scan is needed; it only becomes visible to other apps on
+ * commit.
+ */
+@RequiresApi(api = Build.VERSION_CODES.Q)
+class MediaStoreOutputSink extends FileOutputSink {
+    private final ContentResolver mContentResolver;
+    private final Uri mUri;
+
+    private MediaStoreOutputSink(ContentResolver contentResolver, Uri uri, ParcelFileDescriptor descriptor)
+    {
+        super(descriptor.getFileDescriptor(), descriptor, null);
+        mContentResolver = contentResolver;
+        mUri = uri;
+    }
+
+    /**
+     * @param relativePath directory below the storage root, e.g. DCIM/appName
+     */
+    static MediaStoreOutputSink create(Context context, String relativePath, String displayName) throws IOException
+    {
+        return create(context, MediaStore.Video.Media.EXTERNAL_CONTENT_URI, "video/mp4", relativePath, displayName);
+    }
+
+    /**
+     * @param collection e.g. {@link MediaStore.Images.Media#EXTERNAL_CONTENT_URI} for stills
+     */
+    static MediaStoreOutputSink create(Context context, Uri collection, String mimeType, String relativePath,
+                                       String displayName) throws IOException
+    {
+        ContentResolver contentResolver = context.getContentResolver();
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.MediaColumns.DISPLAY_NAME, displayName);
+        values.put(MediaStore.MediaColumns.MIME_TYPE, mimeType);
+        values.put(MediaStore.MediaColumns.RELATIVE_PATH, relativePath + File.separator);
+        values.put(MediaStore.MediaColumns.IS_PENDING, 1);
+        Uri uri = contentResolver.insert(collection, values);
+        if (uri == null)
+            throw new IOException("Could not create a MediaStore entry for " + displayName);
+
+        ParcelFileDescriptor descriptor = null;
+        try {
+            descriptor = contentResolver.openFileDescriptor(uri, "rw");
+        } finally {
+            if (descriptor == null)
+                contentResolver.delete(uri, null, null);
+        }
+        if (descriptor == null)
+            throw new IOException("Could not open " + uri);
+        return new MediaStoreOutputSink(contentResolver, uri, descriptor);
+    }
+
+    /**
+     * Opens the pending entry of an interrupted job to append to it, cut back to the given length.
+     */
+    static MediaStoreOutputSink reopen(Context context, Uri uri, long length) throws IOException
+    {
+        ContentResolver contentResolver = context.getContentResolver();
+        ParcelFileDescriptor descriptor = contentResolver.openFileDescriptor(uri, "rw");
+        if (descriptor == null)
+            throw new IOException("Could not open " + uri);
+        try {
+            Os.ftruncate(descriptor.getFileDescriptor(), length);
+            Os.lseek(descriptor.getFileDescriptor(), length, OsConstants.SEEK_SET);
+        } catch (ErrnoException e) {
+            descriptor.close();
+            throw new IOException("Could not cut " + uri + " back to " + length + " bytes - " + e.getMessage());
+        }
+        return new MediaStoreOutputSink(contentResolver, uri, descriptor);
+    }
+
+    Uri getUri()
+    {
+        return mUri;
+    }
+
+    @Override
+    public long commit() throws IOException {
+        long length = super.commit();
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.MediaColumns.IS_PENDING, 0);
+        mContentResolver.update(mUri, values, null, null);
+        return length;
+    }
+
+    @Override
+    public void abort() {
+        super.abort();
+        mContentResolver.delete(mUri, null, null);
+    }
+}
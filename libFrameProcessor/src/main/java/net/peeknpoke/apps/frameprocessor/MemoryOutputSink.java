@@ -0,0 +1,89 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Output kept in memory, for short clips that are handed on directly. Only backends writing
+ * through a channel can use it.
+ */
+class MemoryOutputSink implements OutputSink {
+    private byte[] mData = new byte[64*1024];
+    private int mLength;
+    private boolean mOpen = true;
+
+    private final WritableByteChannel mChannel = new WritableByteChannel() {
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (!mOpen)
+                throw new IOException("Output already committed");
+            int count = src.remaining();
+            ensureCapacity((long) mLength + count);
+            src.get(mData, mLength, count);
+            mLength += count;
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return mOpen;
+        }
+
+        @Override
+        public void close() {
+            mOpen = false;
+        }
+    };
+
+    @Override
+    public FileDescriptor getFileDescriptor() throws IOException {
+        throw new IOException("In-memory output has no file descriptor");
+    }
+
+    @Override
+    public WritableByteChannel getChannel() {
+        return mChannel;
+    }
+
+    @Override
+    public void preallocate(long bytes) {
+        ensureCapacity(bytes);
+    }
+
+    private void ensureCapacity(long bytes)
+    {
+        if (bytes > Integer.MAX_VALUE - 8)
+            throw new OutOfMemoryError("Output too large to keep in memory");
+        if (bytes > mData.length)
+            mData = Arrays.copyOf(mData, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(bytes, 2L*mData.length)));
+    }
+
+    @Override
+    public long commit() {
+        mOpen = false;
+        return mLength;
+    }
+
+    @Override
+    public void close() {
+        mOpen = false;
+    }
+
+    @Override
+    public void abort() {
+        mOpen = false;
+        mData = new byte[0];
+        mLength = 0;
+    }
+
+    /**
+     * @return a copy of the output
+     */
+    byte[] toByteArray()
+    {
+        return Arrays.copyOf(mData, mLength);
+    }
+}
@@ -0,0 +1,130 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Serializes ISO BMFF boxes into a reusable direct buffer. Box sizes are patched when a box is
+ * closed, so nested boxes are written in a single forward pass. The buffer only grows; after
+ * {@link #reset()} it is reused for the next batch of boxes.
+ */
+final class Mp4BoxWriter {
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final int MAX_DEPTH = 16;
+
+    private ByteBuffer mBuffer;
+    private final int[] mBoxStarts = new int[MAX_DEPTH];
+    private int mDepth;
+
+    Mp4BoxWriter(int initialCapacity)
+    {
+        mBuffer = ByteBuffer.allocateDirect(initialCapacity);
+    }
+
+    void reset()
+    {
+        mBuffer.clear();
+        mDepth = 0;
+    }
+
+    int position()
+    {
+        return mBuffer.position();
+    }
+
+    void startBox(String type)
+    {
+        if (mDepth == MAX_DEPTH)
+            throw new IllegalStateException("Boxes nested too deeply");
+        ensure(8);
+        mBoxStarts[mDepth++] = mBuffer.position();
+        mBuffer.putInt(0);
+        putFourCc(type);
+    }
+
+    void startFullBox(String type, int version, int flags)
+    {
+        startBox(type);
+        putInt((version << 24) | (flags & 0xffffff));
+    }
+
+    void endBox()
+    {
+        if (mDepth == 0)
+            throw new IllegalStateException("No open box");
+        int start = mBoxStarts[--mDepth];
+        mBuffer.putInt(start, mBuffer.position() - start);
+    }
+
+    void putFourCc(String type)
+    {
+        if (type.length() != 4)
+            throw new IllegalArgumentException("Invalid box type " + type);
+        ensure(4);
+        mBuffer.put(type.getBytes(ASCII));
+    }
+
+    void putByte(int value)
+    {
+        ensure(1);
+        mBuffer.put((byte) value);
+    }
+
+    void putShort(int value)
+    {
+        ensure(2);
+        mBuffer.putShort((short) value);
+    }
+
+    void putInt(int value)
+    {
+        ensure(4);
+        mBuffer.putInt(value);
+    }
+
+    void putInt(int index, int value)
+    {
+        mBuffer.putInt(index, value);
+    }
+
+    void putLong(long value)
+    {
+        ensure(8);
+        mBuffer.putLong(value);
+    }
+
+    void putBytes(byte[] bytes)
+    {
+        ensure(bytes.length);
+        mBuffer.put(bytes);
+    }
+
+    void putZeros(int count)
+    {
+        ensure(count);
+        for (int i = 0; i < count; i++)
+            mBuffer.put((byte) 0);
+    }
+
+    /**
+     * @return the written bytes, ready to be read; valid until the next write or reset
+     */
+    ByteBuffer getBytes()
+    {
+        if (mDepth != 0)
+            throw new IllegalStateException("Unclosed box");
+        ByteBuffer bytes = mBuffer.duplicate();
+        bytes.flip();
+        return bytes;
+    }
+
+    private void ensure(int count)
+    {
+        if (mBuffer.remaining() >= count)
+            return;
+        ByteBuffer grown = ByteBuffer.allocateDirect(Math.max(mBuffer.capacity()*2, mBuffer.position() + count));
+        mBuffer.flip();
+        grown.put(mBuffer);
+        mBuffer = grown;
+    }
+}
@@ -0,0 +1,207 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Video track description for {@link FragmentedMp4Writer}: the frame size and the parameter
+ * sets taken from the encoder's codec specific data (csd-0/csd-1, Annex B byte streams).
+ */
+final class Mp4TrackFormat {
+    enum Codec {
+        AVC,
+        HEVC
+    }
+
+    // HEVC NAL unit types
+    static final int HEVC_VPS = 32;
+    static final int HEVC_SPS = 33;
+    static final int HEVC_PPS = 34;
+    // AVC NAL unit types
+    static final int AVC_SPS = 7;
+    static final int AVC_PPS = 8;
+
+    final Codec codec;
+    final int width;
+    final int height;
+    final int rotationDegrees;
+    final List<byte[]> vps = new ArrayList<>();
+    final List<byte[]> sps = new ArrayList<>();
+    final List<byte[]> pps = new ArrayList<>();
+
+    /**
+     * @param codecSpecificData Annex B buffers holding the parameter sets, in any split
+     */
+    Mp4TrackFormat(Codec codec, int width, int height, int rotationDegrees, ByteBuffer... codecSpecificData)
+    {
+        if (rotationDegrees%90 != 0)
+            throw new IllegalArgumentException("Unsupported rotation " + rotationDegrees);
+        this.codec = codec;
+        this.width = width;
+        this.height = height;
+        this.rotationDegrees = ((rotationDegrees%360) + 360)%360;
+        for (ByteBuffer data : codecSpecificData)
+        {
+            if (data == null)
+                continue;
+            for (byte[] nal : splitAnnexB(data))
+                addParameterSet(nal);
+        }
+        if (sps.isEmpty() || pps.isEmpty() || (codec == Codec.HEVC && vps.isEmpty()))
+            throw new IllegalArgumentException("Missing parameter sets");
+    }
+
+    private void addParameterSet(byte[] nal)
+    {
+        if (nal.length == 0)
+            return;
+        if (codec == Codec.AVC)
+        {
+            int type = nal[0] & 0x1f;
+            if (type == AVC_SPS)
+                sps.add(nal);
+            else if (type == AVC_PPS)
+                pps.add(nal);
+        }
+        else
+        {
+            int type = (nal[0] >> 1) & 0x3f;
+            if (type == HEVC_VPS)
+                vps.add(nal);
+            else if (type == HEVC_SPS)
+                sps.add(nal);
+            else if (type == HEVC_PPS)
+                pps.add(nal);
+        }
+    }
+
+    /**
+     * @return the NAL units of an Annex B byte stream, without start codes. A buffer without a
+     * leading start code is returned as a single unit.
+     */
+    static List<byte[]> splitAnnexB(ByteBuffer data)
+    {
+        List<byte[]> units = new ArrayList<>();
+        int start = data.position();
+        int end = data.limit();
+        int nalStart = findStartCode(data, start, end);
+        if (nalStart < 0)
+        {
+            byte[] unit = new byte[end - start];
+            data.duplicate().get(unit);
+            units.add(unit);
+            return units;
+        }
+        nalStart = skipStartCode(data, nalStart);
+        while (nalStart < end)
+        {
+            int next = findStartCode(data, nalStart, end);
+            int nalEnd = next < 0 ? end : next;
+            byte[] unit = new byte[nalEnd - nalStart];
+            for (int i = 0; i < unit.length; i++)
+                unit[i] = data.get(nalStart + i);
+            units.add(unit);
+            if (next < 0)
+                break;
+            nalStart = skipStartCode(data, next);
+        }
+        return units;
+    }
+
+    /**
+     * Splits the codec config buffer of an encoder into the csd buffers MediaMuxer expects: for
+     * AVC the SPS in csd-0 and the PPS in csd-1, for HEVC the VPS, SPS and PPS together in csd-0.
+     * Every parameter set keeps a 4 byte start code. Other NAL units are dropped.
+     * @return csd-0 and, for AVC, csd-1; only csd-0 holding the whole buffer if the AVC buffer
+     * does not hold both parameter sets
+     */
+    static ByteBuffer[] codecSpecificData(Codec codec, ByteBuffer config)
+    {
+        if (codec == Codec.AVC)
+        {
+            ByteArrayOutputStream sps = new ByteArrayOutputStream();
+            ByteArrayOutputStream pps = new ByteArrayOutputStream();
+            for (byte[] nal : splitAnnexB(config.duplicate()))
+            {
+                int type = nal.length > 0 ? nal[0] & 0x1f : -1;
+                if (type == AVC_SPS)
+                    writeWithStartCode(sps, nal);
+                else if (type == AVC_PPS)
+                    writeWithStartCode(pps, nal);
+            }
+            if (sps.size() > 0 && pps.size() > 0)
+                return new ByteBuffer[]{ByteBuffer.wrap(sps.toByteArray()), ByteBuffer.wrap(pps.toByteArray())};
+        }
+        ByteBuffer csd = ByteBuffer.allocate(config.remaining());
+        csd.put(config.duplicate()).flip();
+        return new ByteBuffer[]{csd};
+    }
+
+    private static void writeWithStartCode(ByteArrayOutputStream stream, byte[] nal)
+    {
+        stream.write(0);
+        stream.write(0);
+        stream.write(0);
+        stream.write(1);
+        stream.write(nal, 0, nal.length);
+    }
+
+    /**
+     * @return the index of the next 00 00 01 or 00 00 00 01 start code, or -1
+     */
+    static int findStartCode(ByteBuffer data, int from, int end)
+    {
+        for (int i = from; i + 2 < end; i++)
+        {
+            if (data.get(i) == 0 && data.get(i + 1) == 0)
+            {
+                if (data.get(i + 2) == 1)
+                    return i;
+                if (i + 3 < end && data.get(i + 2) == 0 && data.get(i + 3) == 1)
+                    return i;
+            }
+        }
+        return -1;
+    }
+
+    static int skipStartCode(ByteBuffer data, int index)
+    {
+        return data.get(index + 2) == 1 ? index + 3 : index + 4;
+    }
+
+    /**
+     * Removes emulation prevention bytes (the 03 in 00 00 03).
+     */
+    static byte[] unescape(byte[] nal, int from, int count)
+    {
+        ByteArrayOutputStream rbsp = new ByteArrayOutputStream(count);
+        int zeros = 0;
+        for (int i = from; i < nal.length && rbsp.size() < count; i++)
+        {
+            int b = nal[i] & 0xff;
+            if (zeros >= 2 && b == 3)
+            {
+                zeros = 0;
+                continue;
+            }
+            rbsp.write(b);
+            zeros = b == 0 ? zeros + 1 : 0;
+        }
+        return rbsp.toByteArray();
+    }
+
+    /**
+     * @return the general profile_tier_level of the first HEVC SPS: profile space, tier and
+     * profile idc, 4 compatibility flag bytes, 6 constraint flag bytes and the level idc
+     */
+    byte[] hevcProfileTierLevel()
+    {
+        // Skip the 2 byte NAL header and the VPS id / sub layer byte
+        byte[] rbsp = unescape(sps.get(0), 3, 12);
+        if (rbsp.length < 12)
+            throw new IllegalArgumentException("Truncated HEVC SPS");
+        return rbsp;
+    }
+}
@@ -0,0 +1,28 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Destination of the encoded video track. Samples are written on the encoder thread, or on the
+ * writer thread of a {@link BufferedMuxerBackend}.
+ */
+interface MuxerBackend {
+    /**
+     * @return the video mime types this container can hold
+     */
+    List<String> getSupportedMimeTypes();
+
+    /**
+     * Adds the track and starts writing. The format carries the codec specific data.
+     */
+    void start(MediaFormat format) throws IOException;
+
+    void writeSampleData(ByteBuffer data, MediaCodec.BufferInfo info) throws IOException;
+
+    void stop() throws IOException;
+}
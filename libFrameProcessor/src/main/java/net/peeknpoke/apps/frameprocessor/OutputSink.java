@@ -0,0 +1,40 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Destination of the encoded output file. {@link MediaMuxerBackend} writes through the file
+ * descriptor, {@link FragmentedMp4Backend} through the channel. Once the backend has stopped,
+ * {@link #commit()} gives back space reserved by {@link #preallocate(long)} and makes the output
+ * visible; {@link #abort()} discards it. {@link #close()} leaves an unfinished output as it is,
+ * for a job that continues it later.
+ */
+interface OutputSink {
+    /**
+     * @throws IOException if the target has no file descriptor
+     */
+    FileDescriptor getFileDescriptor() throws IOException;
+
+    WritableByteChannel getChannel() throws IOException;
+
+    /**
+     * Reserves space for the expected output size, so it is not fragmented by growing writes.
+     * Best effort; the output may end up larger or smaller.
+     */
+    void preallocate(long bytes);
+
+    /**
+     * @return the length of the output
+     */
+    long commit() throws IOException;
+
+    void abort();
+
+    /**
+     * Releases the output without making it visible, e.g. a pending MediaStore entry stays
+     * pending.
+     */
+    void close() throws IOException;
+}
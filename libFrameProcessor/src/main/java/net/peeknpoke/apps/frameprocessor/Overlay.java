@@ -0,0 +1,134 @@
+package net.peeknpoke.apps.frameprocessor;
+
+/**
+ * An image or a line of text burned into the output, e.g. a logo or the timecode of every frame.
+ * Overlays are placed at a corner of the frame, a margin away from its edges, and are sized
+ * relative to the height of the frame so that every rendition shows them the same.
+ */
+public final class Overlay {
+    public enum Type {
+        IMAGE,
+        TEXT,
+        TIMECODE
+    }
+
+    public enum Anchor {
+        TOP_LEFT,
+        TOP_RIGHT,
+        BOTTOM_LEFT,
+        BOTTOM_RIGHT
+    }
+
+    /**
+     * Distance of overlays from the edges of the frame, relative to the height of the frame.
+     */
+    public static final float MARGIN = 0.04f;
+
+    private final Type mType;
+    private final String mValue;
+    private final Anchor mAnchor;
+    private final float mHeight;
+    private final float mFramesPerSecond;
+
+    private Overlay(Type type, String value, Anchor anchor, float height, float framesPerSecond)
+    {
+        if (anchor == null || height <= 0 || height > 1)
+            throw new IllegalArgumentException("Invalid overlay " + type + " at " + anchor + ", " + height);
+        mType = type;
+        mValue = value;
+        mAnchor = anchor;
+        mHeight = height;
+        mFramesPerSecond = framesPerSecond;
+    }
+
+    /**
+     * @param path   path of a PNG, JPEG or WebP image; its transparency is kept
+     * @param height height of the image relative to the height of the frame, e.g. 0.1
+     */
+    public static Overlay image(String path, Anchor anchor, float height)
+    {
+        if (path == null)
+            throw new IllegalArgumentException("No image");
+        return new Overlay(Type.IMAGE, path, anchor, height, 0);
+    }
+
+    /**
+     * @param text   a single line, drawn in white with a dark outline
+     * @param height height of the line relative to the height of the frame, e.g. 0.05
+     */
+    public static Overlay text(String text, Anchor anchor, float height)
+    {
+        if (text == null || text.isEmpty() || text.indexOf('\n') >= 0)
+            throw new IllegalArgumentException("Invalid text " + text);
+        return new Overlay(Type.TEXT, text, anchor, height, 0);
+    }
+
+    /**
+     * The presentation time of every frame as HH:MM:SS:FF, drawn like {@link #text}.
+     * @param framesPerSecond frame rate the frame count FF is counted at; fractional rates are
+     *                        counted at the rounded rate without dropping frame numbers
+     */
+    public static Overlay timecode(Anchor anchor, float height, float framesPerSecond)
+    {
+        if (framesPerSecond <= 0)
+            throw new IllegalArgumentException("Invalid timecode rate " + framesPerSecond);
+        return new Overlay(Type.TIMECODE, null, anchor, height, framesPerSecond);
+    }
+
+    public Type getType() {
+        return mType;
+    }
+
+    /**
+     * @return the path of an image, the text of a text, or null for a timecode
+     */
+    public String getValue() {
+        return mValue;
+    }
+
+    public Anchor getAnchor() {
+        return mAnchor;
+    }
+
+    public float getHeight() {
+        return mHeight;
+    }
+
+    public float getFramesPerSecond() {
+        return mFramesPerSecond;
+    }
+
+    /**
+     * @return true for the overlays drawn from the glyphs of the atlas
+     */
+    boolean isText()
+    {
+        return mType != Type.IMAGE;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof Overlay))
+            return false;
+        Overlay other = (Overlay) o;
+        return mType == other.mType && mAnchor == other.mAnchor && mHeight == other.mHeight
+                && mFramesPerSecond == other.mFramesPerSecond
+                && (mValue == null ? other.mValue == null : mValue.equals(other.mValue));
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 31*mType.hashCode() + mAnchor.hashCode();
+        hash = 31*hash + Float.floatToIntBits(mHeight);
+        hash = 31*hash + Float.floatToIntBits(mFramesPerSecond);
+        return 31*hash + (mValue == null ? 0 : mValue.hashCode());
+    }
+
+    @Override
+    public String toString() {
+        String value = mType == Type.TIMECODE ? mFramesPerSecond + "fps" : mValue;
+        return mType.name().toLowerCase() + "(" + value + "," + mAnchor.name().toLowerCase() + "," + mHeight + ")";
+    }
+}
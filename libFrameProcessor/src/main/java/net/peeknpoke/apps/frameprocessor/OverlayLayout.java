@@ -0,0 +1,303 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Places the {@link Overlay}s of a job on the frame and describes them as instances of a quad,
+ * one per image and one per character, each with the rectangle it covers in normalized device
+ * coordinates and the region of the atlas it shows. Static overlays come first and never change;
+ * the characters of timecodes come last, so that a frame only rewrites the tail of the instances.
+ * Overlays at the same corner are stacked away from it in the order given.
+ */
+final class OverlayLayout {
+    /**
+     * Left, bottom, width and height on the frame, then left, top, width and height in the atlas.
+     */
+    static final int FLOATS_PER_INSTANCE = 8;
+    static final String TIMECODE_CHARACTERS = "0123456789:";
+    static final int TIMECODE_LENGTH = "00:00:00:00".length();
+
+    /**
+     * A region of the atlas, in pixels from its top left corner. Glyphs are a whole character
+     * cell: the advance wide and the line high.
+     */
+    static final class Sprite {
+        final int x;
+        final int y;
+        final int width;
+        final int height;
+
+        Sprite(int x, int y, int width, int height)
+        {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    private static final class Timecode {
+        final float framesPerSecond;
+        final int firstInstance;
+        final int left;
+        final int top;
+        final float scale;
+
+        Timecode(float framesPerSecond, int firstInstance, int left, int top, float scale)
+        {
+            this.framesPerSecond = framesPerSecond;
+            this.firstInstance = firstInstance;
+            this.left = left;
+            this.top = top;
+            this.scale = scale;
+        }
+    }
+
+    private final Map<Character, Sprite> mGlyphs;
+    private final int mAtlasWidth;
+    private final int mAtlasHeight;
+    private final int mFrameWidth;
+    private final int mFrameHeight;
+    private final float[] mInstances;
+    private final int mDynamicStart;
+    private final List<Timecode> mTimecodes = new ArrayList<>();
+    private final String[] mTimecodeTexts;
+
+    /**
+     * @param images the sprites of the image overlays, in the order of the overlays
+     * @param glyphs the sprites of every character of the text overlays, all as high as
+     *               {@link #glyphHeight}, and of {@link #TIMECODE_CHARACTERS} if there is a
+     *               timecode, with all digits equally wide
+     */
+    OverlayLayout(List<Overlay> overlays, List<Sprite> images, Map<Character, Sprite> glyphs,
+                  int atlasWidth, int atlasHeight, int frameWidth, int frameHeight)
+    {
+        mGlyphs = glyphs;
+        mAtlasWidth = atlasWidth;
+        mAtlasHeight = atlasHeight;
+        mFrameWidth = frameWidth;
+        mFrameHeight = frameHeight;
+
+        int staticInstances = 0;
+        int timecodes = 0;
+        for (Overlay overlay : overlays)
+        {
+            if (overlay.getType() == Overlay.Type.TIMECODE)
+                timecodes++;
+            else
+                staticInstances += overlay.getType() == Overlay.Type.IMAGE ? 1 : overlay.getValue().length();
+        }
+        mInstances = new float[(staticInstances + timecodes*TIMECODE_LENGTH)*FLOATS_PER_INSTANCE];
+        mDynamicStart = staticInstances;
+        mTimecodeTexts = new String[timecodes];
+
+        int margin = Math.round(Overlay.MARGIN*frameHeight);
+        int[] stacked = new int[Overlay.Anchor.values().length];
+        int instance = 0;
+        int image = 0;
+        for (Overlay overlay : overlays)
+        {
+            int height = pixelHeight(overlay, frameHeight);
+            int width;
+            float scale;
+            Sprite sprite = null;
+            if (overlay.getType() == Overlay.Type.IMAGE)
+            {
+                sprite = images.get(image++);
+                scale = (float) height/sprite.height;
+                width = Math.round(sprite.width*scale);
+            }
+            else
+            {
+                scale = (float) height/glyphHeight(overlays, frameHeight);
+                String text = overlay.getType() == Overlay.Type.TIMECODE
+                        ? formatTimecode(0, overlay.getFramesPerSecond()) : overlay.getValue();
+                width = Math.round(textWidth(text)*scale);
+            }
+
+            Overlay.Anchor anchor = overlay.getAnchor();
+            boolean left = anchor == Overlay.Anchor.TOP_LEFT || anchor == Overlay.Anchor.BOTTOM_LEFT;
+            boolean top = anchor == Overlay.Anchor.TOP_LEFT || anchor == Overlay.Anchor.TOP_RIGHT;
+            int x = left ? margin : frameWidth - margin - width;
+            int offset = stacked[anchor.ordinal()];
+            int y = top ? margin + offset : frameHeight - margin - offset - height;
+            stacked[anchor.ordinal()] += height + margin/2;
+
+            switch (overlay.getType())
+            {
+                case IMAGE:
+                    put(instance++, sprite, x, y, width, height);
+                    break;
+                case TEXT:
+                    instance = putText(instance, overlay.getValue(), x, y, scale);
+                    break;
+                case TIMECODE:
+                    mTimecodes.add(new Timecode(overlay.getFramesPerSecond(),
+                            mDynamicStart + mTimecodes.size()*TIMECODE_LENGTH, x, y, scale));
+                    break;
+            }
+        }
+        update(0);
+    }
+
+    /**
+     * @return the characters to rasterize into the atlas
+     */
+    static String characters(List<Overlay> overlays)
+    {
+        TreeSet<Character> characters = new TreeSet<>();
+        for (Overlay overlay : overlays)
+        {
+            String text = overlay.getType() == Overlay.Type.TIMECODE ? TIMECODE_CHARACTERS
+                    : overlay.getType() == Overlay.Type.TEXT ? overlay.getValue() : "";
+            for (int i = 0; i < text.length(); i++)
+                characters.add(text.charAt(i));
+        }
+        StringBuilder builder = new StringBuilder(characters.size());
+        for (char character : characters)
+            builder.append(character);
+        return builder.toString();
+    }
+
+    /**
+     * @return height of the glyphs in the atlas: that of the tallest text on the frame, so that
+     * no text is magnified
+     */
+    static int glyphHeight(List<Overlay> overlays, int frameHeight)
+    {
+        int height = 1;
+        for (Overlay overlay : overlays)
+        {
+            if (overlay.isText())
+                height = Math.max(height, pixelHeight(overlay, frameHeight));
+        }
+        return height;
+    }
+
+    /**
+     * @return height of the overlay on the frame, in pixels. Images are scaled to it before they
+     * are packed.
+     */
+    static int pixelHeight(Overlay overlay, int frameHeight)
+    {
+        return Math.max(1, Math.round(overlay.getHeight()*frameHeight));
+    }
+
+    /**
+     * @return the non-drop-frame timecode HH:MM:SS:FF of the frame presented at the given time.
+     * Hours wrap around after 99.
+     */
+    static String formatTimecode(long presentationTimeUs, float framesPerSecond)
+    {
+        int nominal = Math.max(1, Math.round(framesPerSecond));
+        long frame = Math.max(0, Math.round(presentationTimeUs*(double) framesPerSecond/1000000));
+        long seconds = frame/nominal;
+        char[] text = new char[TIMECODE_LENGTH];
+        putTwoDigits(text, 0, seconds/3600 % 100);
+        text[2] = ':';
+        putTwoDigits(text, 3, seconds/60 % 60);
+        text[5] = ':';
+        putTwoDigits(text, 6, seconds % 60);
+        text[8] = ':';
+        putTwoDigits(text, 9, frame % nominal);
+        return new String(text);
+    }
+
+    private static void putTwoDigits(char[] text, int offset, long value)
+    {
+        text[offset] = (char) ('0' + value/10 % 10);
+        text[offset + 1] = (char) ('0' + value % 10);
+    }
+
+    /**
+     * Rewrites the instances of the timecodes for the frame presented at the given time.
+     * @return true if any of them changed since the previous frame
+     */
+    boolean update(long presentationTimeUs)
+    {
+        boolean changed = false;
+        for (int i = 0; i < mTimecodes.size(); i++)
+        {
+            Timecode timecode = mTimecodes.get(i);
+            String text = formatTimecode(presentationTimeUs, timecode.framesPerSecond);
+            if (text.equals(mTimecodeTexts[i]))
+                continue;
+            putText(timecode.firstInstance, text, timecode.left, timecode.top, timecode.scale);
+            mTimecodeTexts[i] = text;
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * @return {@link #FLOATS_PER_INSTANCE} floats for every instance
+     */
+    float[] getInstances()
+    {
+        return mInstances;
+    }
+
+    int getInstanceCount()
+    {
+        return mInstances.length/FLOATS_PER_INSTANCE;
+    }
+
+    /**
+     * @return the first instance that {@link #update} can change
+     */
+    int getDynamicStart()
+    {
+        return mDynamicStart;
+    }
+
+    private int textWidth(String text)
+    {
+        int width = 0;
+        for (int i = 0; i < text.length(); i++)
+            width += glyph(text.charAt(i)).width;
+        return width;
+    }
+
+    private int putText(int instance, String text, int x, int y, float scale)
+    {
+        float pen = x;
+        for (int i = 0; i < text.length(); i++)
+        {
+            Sprite glyph = glyph(text.charAt(i));
+            float width = glyph.width*scale;
+            put(instance++, glyph, Math.round(pen), y, Math.round(pen + width) - Math.round(pen),
+                    Math.round(glyph.height*scale));
+            pen += width;
+        }
+        return instance;
+    }
+
+    private Sprite glyph(char character)
+    {
+        Sprite glyph = mGlyphs.get(character);
+        if (glyph == null)
+            throw new IllegalArgumentException("No glyph for '" + character + "'");
+        return glyph;
+    }
+
+    /**
+     * @param x left of the quad, in pixels from the left of the frame
+     * @param y top of the quad, in pixels from the top of the frame
+     */
+    private void put(int instance, Sprite sprite, int x, int y, int width, int height)
+    {
+        int offset = instance*FLOATS_PER_INSTANCE;
+        // The frame is upright in GL coordinates, so its top is at +1
+        mInstances[offset] = 2.0f*x/mFrameWidth - 1.0f;
+        mInstances[offset + 1] = 1.0f - 2.0f*(y + height)/mFrameHeight;
+        mInstances[offset + 2] = 2.0f*width/mFrameWidth;
+        mInstances[offset + 3] = 2.0f*height/mFrameHeight;
+        mInstances[offset + 4] = (float) sprite.x/mAtlasWidth;
+        mInstances[offset + 5] = (float) sprite.y/mAtlasHeight;
+        mInstances[offset + 6] = (float) sprite.width/mAtlasWidth;
+        mInstances[offset + 7] = (float) sprite.height/mAtlasHeight;
+    }
+}
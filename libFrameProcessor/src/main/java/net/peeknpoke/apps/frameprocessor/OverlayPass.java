@@ -0,0 +1,302 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.opengl.GLES30;
+import android.opengl.GLUtils;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Composites the {@link Overlay}s of a job over every rendered frame. The images and the glyphs
+ * of the texts are rasterized into one atlas texture when the job starts; a frame then only
+ * rewrites the instances of the timecode digits and draws all overlays with a single instanced
+ * draw, blended into the framebuffer the chain rendered into.
+ */
+class OverlayPass {
+    private static final String TAG = OverlayPass.class.getSimpleName();
+    private static final String VERTEX_SHADER_NAME = "overlay.vert";
+    private static final String FRAGMENT_SHADER_NAME = "overlay.frag";
+    private static final int SIZEOF_FLOAT = 4;
+    private static final int PADDING = 2;
+    // Reference white of BT.2408: 203 nits in PQ, 75% of the signal in HLG
+    private static final float PQ_REFERENCE_WHITE_NITS = 203.0f;
+    private static final float HLG_REFERENCE_WHITE = 0.75f;
+
+    private static final float[] CORNERS = {
+            0.0f, 0.0f,
+            1.0f, 0.0f,
+            0.0f, 1.0f,
+            1.0f, 1.0f
+    };
+
+    private final int mWidth;
+    private final int mHeight;
+    private final float mWhite;
+    private final ShareGroup mShareGroup;
+    private OverlayLayout mLayout;
+    private FloatBuffer mInstances;
+    private int mProgram;
+    private int mCornerParam;
+    private int mRectParam;
+    private int mTexRectParam;
+    private int mAtlasLoc;
+    private int mWhiteLoc;
+    private final int[] mBuffers = new int[2];
+    private int mAtlasTexture;
+
+    OverlayPass(Context context, List<Overlay> overlays, int width, int height, DynamicRange dynamicRange)
+    {
+        mWidth = width;
+        mHeight = height;
+        mWhite = whiteLevel(dynamicRange);
+        mShareGroup = ShareGroup.current();
+        mProgram = mShareGroup.acquireProgram(ShaderHelper.loadShaderFile(context, VERTEX_SHADER_NAME),
+                ShaderHelper.loadShaderFile(context, FRAGMENT_SHADER_NAME));
+        mCornerParam = GLES30.glGetAttribLocation(mProgram, "a_Corner");
+        mRectParam = GLES30.glGetAttribLocation(mProgram, "a_Rect");
+        mTexRectParam = GLES30.glGetAttribLocation(mProgram, "a_TexRect");
+        mAtlasLoc = GLES30.glGetUniformLocation(mProgram, "sAtlas");
+        mWhiteLoc = GLES30.glGetUniformLocation(mProgram, "uWhite");
+        createAtlas(overlays);
+    }
+
+    private static float whiteLevel(DynamicRange dynamicRange)
+    {
+        if (!dynamicRange.hdrOutput)
+            return 1.0f;
+        if (dynamicRange.inputTransfer == DynamicRange.Transfer.HLG)
+            return HLG_REFERENCE_WHITE;
+        return ColorTransfer.pqInverseEotf(PQ_REFERENCE_WHITE_NITS/ColorTransfer.PQ_MAX_NITS);
+    }
+
+    private void createAtlas(List<Overlay> overlays)
+    {
+        List<Bitmap> bitmaps = new ArrayList<>();
+        for (Overlay overlay : overlays)
+        {
+            if (overlay.getType() == Overlay.Type.IMAGE)
+                bitmaps.add(loadImage(overlay.getValue(), OverlayLayout.pixelHeight(overlay, mHeight)));
+        }
+        int imageCount = bitmaps.size();
+        String characters = OverlayLayout.characters(overlays);
+        if (!characters.isEmpty())
+            bitmaps.addAll(rasterizeGlyphs(characters, OverlayLayout.glyphHeight(overlays, mHeight)));
+
+        int[] widths = new int[bitmaps.size()];
+        int[] heights = new int[bitmaps.size()];
+        for (int i = 0; i < widths.length; i++)
+        {
+            widths[i] = bitmaps.get(i).getWidth();
+            heights[i] = bitmaps.get(i).getHeight();
+        }
+        int[] maxSize = new int[1];
+        GLES30.glGetIntegerv(GLES30.GL_MAX_TEXTURE_SIZE, maxSize, 0);
+        AtlasPacker.Layout packed = AtlasPacker.pack(widths, heights, PADDING, maxSize[0]);
+        if (packed == null)
+        {
+            Log.e(TAG, "Overlays do not fit in a " + maxSize[0] + " texture, they are not drawn");
+            recycle(bitmaps);
+            return;
+        }
+
+        Bitmap atlas = Bitmap.createBitmap(packed.width, packed.height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(atlas);
+        List<OverlayLayout.Sprite> images = new ArrayList<>();
+        Map<Character, OverlayLayout.Sprite> glyphs = new HashMap<>();
+        for (int i = 0; i < bitmaps.size(); i++)
+        {
+            canvas.drawBitmap(bitmaps.get(i), packed.x[i], packed.y[i], null);
+            OverlayLayout.Sprite sprite = new OverlayLayout.Sprite(packed.x[i], packed.y[i], widths[i], heights[i]);
+            if (i < imageCount)
+                images.add(sprite);
+            else
+                glyphs.put(characters.charAt(i - imageCount), sprite);
+        }
+        recycle(bitmaps);
+        mAtlasTexture = uploadAtlas(atlas);
+        atlas.recycle();
+        Log.d(TAG, "Atlas of " + packed.width + "x" + packed.height + " for " + overlays.size() + " overlays");
+
+        mLayout = new OverlayLayout(overlays, images, glyphs, packed.width, packed.height, mWidth, mHeight);
+        float[] instances = mLayout.getInstances();
+        mInstances = ByteBuffer.allocateDirect(instances.length*SIZEOF_FLOAT)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        mInstances.put(instances).position(0);
+
+        GLES30.glGenBuffers(mBuffers.length, mBuffers, 0);
+        FloatBuffer corners = ByteBuffer.allocateDirect(CORNERS.length*SIZEOF_FLOAT)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        corners.put(CORNERS).position(0);
+        GLES30.glBindBuffer(GLES30.GL_ARRAY_BUFFER, mBuffers[0]);
+        GLES30.glBufferData(GLES30.GL_ARRAY_BUFFER, CORNERS.length*SIZEOF_FLOAT, corners, GLES30.GL_STATIC_DRAW);
+        GLES30.glBindBuffer(GLES30.GL_ARRAY_BUFFER, mBuffers[1]);
+        GLES30.glBufferData(GLES30.GL_ARRAY_BUFFER, instances.length*SIZEOF_FLOAT, mInstances, GLES30.GL_DYNAMIC_DRAW);
+        // The other passes draw from client memory
+        GLES30.glBindBuffer(GLES30.GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * @return the image scaled to the height, or an empty one if it cannot be decoded
+     */
+    private static Bitmap loadImage(String path, int height)
+    {
+        Bitmap image = BitmapFactory.decodeFile(path);
+        if (image == null)
+        {
+            Log.e(TAG, "Could not decode overlay " + path);
+            return Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888);
+        }
+        int width = Math.max(1, Math.round((float) image.getWidth()*height/image.getHeight()));
+        Bitmap scaled = Bitmap.createScaledBitmap(image, width, height, true);
+        if (scaled != image)
+            image.recycle();
+        return scaled;
+    }
+
+    /**
+     * @return one cell per character, the line high and the advance wide, white with a dark
+     * outline. Digits share the width of the widest one so that a timecode does not jitter.
+     */
+    private static List<Bitmap> rasterizeGlyphs(String characters, int lineHeight)
+    {
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setTextSize(lineHeight);
+        Paint.FontMetrics metrics = paint.getFontMetrics();
+        paint.setTextSize(lineHeight*lineHeight/(metrics.descent - metrics.ascent));
+        metrics = paint.getFontMetrics();
+        float outline = Math.max(1.0f, lineHeight/16.0f);
+        float digitWidth = 0;
+        for (char digit = '0'; digit <= '9'; digit++)
+            digitWidth = Math.max(digitWidth, paint.measureText(String.valueOf(digit)));
+
+        List<Bitmap> glyphs = new ArrayList<>();
+        for (int i = 0; i < characters.length(); i++)
+        {
+            String character = characters.substring(i, i + 1);
+            boolean digit = character.charAt(0) >= '0' && character.charAt(0) <= '9';
+            float advance = digit ? digitWidth : paint.measureText(character);
+            int width = Math.max(1, (int) Math.ceil(advance + outline));
+            Bitmap glyph = Bitmap.createBitmap(width, lineHeight, Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(glyph);
+            float x = (width - paint.measureText(character))/2;
+            float baseline = -metrics.ascent;
+            paint.setStyle(Paint.Style.STROKE);
+            paint.setStrokeWidth(outline);
+            paint.setColor(Color.argb(160, 0, 0, 0));
+            canvas.drawText(character, x, baseline, paint);
+            paint.setStyle(Paint.Style.FILL);
+            paint.setColor(Color.WHITE);
+            canvas.drawText(character, x, baseline, paint);
+            glyphs.add(glyph);
+        }
+        return glyphs;
+    }
+
+    private static void recycle(List<Bitmap> bitmaps)
+    {
+        for (Bitmap bitmap : bitmaps)
+            bitmap.recycle();
+    }
+
+    private static int uploadAtlas(Bitmap atlas)
+    {
+        final int[] textureHandle = new int[1];
+        GLES30.glGenTextures(1, textureHandle, 0);
+        if (textureHandle[0] == 0)
+        {
+            throw new RuntimeException("Error creating texture.");
+        }
+
+        GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, textureHandle[0]);
+        GLES30.glTexParameteri(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_WRAP_S, GLES30.GL_CLAMP_TO_EDGE);
+        GLES30.glTexParameteri(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_WRAP_T, GLES30.GL_CLAMP_TO_EDGE);
+        GLES30.glTexParameteri(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_MIN_FILTER, GLES30.GL_LINEAR);
+        GLES30.glTexParameteri(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_MAG_FILTER, GLES30.GL_LINEAR);
+        // Premultiplied, like the bitmap
+        GLUtils.texImage2D(GLES30.GL_TEXTURE_2D, 0, atlas, 0);
+        GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, 0);
+        return textureHandle[0];
+    }
+
+    /**
+     * Draws the overlays of the frame presented at the given time over the framebuffer.
+     */
+    void draw(long presentationTimeUs, int framebuffer)
+    {
+        if (mLayout == null)
+            return;
+        GLES30.glBindBuffer(GLES30.GL_ARRAY_BUFFER, mBuffers[1]);
+        if (mLayout.update(presentationTimeUs))
+        {
+            // Only the timecodes at the tail of the instances change
+            int start = mLayout.getDynamicStart()*OverlayLayout.FLOATS_PER_INSTANCE;
+            float[] instances = mLayout.getInstances();
+            mInstances.position(start);
+            mInstances.put(instances, start, instances.length - start);
+            mInstances.position(start);
+            GLES30.glBufferSubData(GLES30.GL_ARRAY_BUFFER, start*SIZEOF_FLOAT,
+                    (instances.length - start)*SIZEOF_FLOAT, mInstances);
+            mInstances.position(0);
+        }
+
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, framebuffer);
+        GLES30.glViewport(0, 0, mWidth, mHeight);
+        GLES30.glUseProgram(mProgram);
+        FilterPass.bindTexture(0, GLES30.GL_TEXTURE_2D, mAtlasTexture, mAtlasLoc);
+        GLES30.glUniform1f(mWhiteLoc, mWhite);
+
+        int stride = OverlayLayout.FLOATS_PER_INSTANCE*SIZEOF_FLOAT;
+        GLES30.glVertexAttribPointer(mRectParam, 4, GLES30.GL_FLOAT, false, stride, 0);
+        GLES30.glVertexAttribPointer(mTexRectParam, 4, GLES30.GL_FLOAT, false, stride, 4*SIZEOF_FLOAT);
+        GLES30.glVertexAttribDivisor(mRectParam, 1);
+        GLES30.glVertexAttribDivisor(mTexRectParam, 1);
+        GLES30.glBindBuffer(GLES30.GL_ARRAY_BUFFER, mBuffers[0]);
+        GLES30.glVertexAttribPointer(mCornerParam, 2, GLES30.GL_FLOAT, false, 2*SIZEOF_FLOAT, 0);
+        GLES30.glEnableVertexAttribArray(mCornerParam);
+        GLES30.glEnableVertexAttribArray(mRectParam);
+        GLES30.glEnableVertexAttribArray(mTexRectParam);
+
+        // The alpha of the frame is left alone
+        GLES30.glEnable(GLES30.GL_BLEND);
+        GLES30.glBlendFuncSeparate(GLES30.GL_ONE, GLES30.GL_ONE_MINUS_SRC_ALPHA, GLES30.GL_ZERO, GLES30.GL_ONE);
+        GLES30.glDrawArraysInstanced(GLES30.GL_TRIANGLE_STRIP, 0, CORNERS.length/2, mLayout.getInstanceCount());
+        GLES30.glDisable(GLES30.GL_BLEND);
+
+        // The attribute locations are shared with the other programs, which are not instanced
+        GLES30.glDisableVertexAttribArray(mCornerParam);
+        GLES30.glDisableVertexAttribArray(mRectParam);
+        GLES30.glDisableVertexAttribArray(mTexRectParam);
+        GLES30.glVertexAttribDivisor(mRectParam, 0);
+        GLES30.glVertexAttribDivisor(mTexRectParam, 0);
+        GLES30.glBindBuffer(GLES30.GL_ARRAY_BUFFER, 0);
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, 0);
+        ShaderHelper.checkGLError(TAG, "draw");
+    }
+
+    void cleanup()
+    {
+        if (mProgram != 0)
+            mShareGroup.releaseProgram(mProgram);
+        mProgram = 0;
+        if (mAtlasTexture != 0)
+            GLES30.glDeleteTextures(1, new int[]{mAtlasTexture}, 0);
+        mAtlasTexture = 0;
+        if (mBuffers[0] != 0)
+            GLES30.glDeleteBuffers(mBuffers.length, mBuffers, 0);
+        mBuffers[0] = 0;
+        mBuffers[1] = 0;
+        mLayout = null;
+    }
+}
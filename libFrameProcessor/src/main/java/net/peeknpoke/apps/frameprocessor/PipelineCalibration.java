@@ -0,0 +1,234 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.RequiresApi;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds the {@link PipelineProfile} of the device by processing a short synthetic clip with
+ * several configurations, chosen by a {@link TuningSearch}, and measuring the frame rate and the
+ * memory each one takes. The profile is stored for the build of the system, and jobs started
+ * afterwards use it unless their settings set one. After a system update the device has no
+ * profile until it is calibrated again.
+ */
+@RequiresApi(api = Build.VERSION_CODES.Q)
+public final class PipelineCalibration {
+    private static final String TAG = PipelineCalibration.class.getSimpleName();
+    private static final String PROFILE_DIRECTORY = "pipeline_profile";
+    private static final String CLIP_NAME = "calibration_clip.mp4";
+    private static final int CLIP_WIDTH = 1920;
+    private static final int CLIP_HEIGHT = 1080;
+    private static final int CLIP_FRAMES = 90;
+    /** Frame rate a configuration has to keep up with, that of the clips phones record */
+    private static final float TARGET_FRAMES_PER_SECOND = 30;
+    private static final List<Integer> IN_FLIGHT_FRAMES = Arrays.asList(1, 2, 3);
+    private static final List<String> MIME_TYPES = Arrays.asList(TranscodePlanner.MIME_AVC, TranscodePlanner.MIME_HEVC);
+    private static final List<Integer> SHORT_SIDES = Arrays.asList(CLIP_HEIGHT, 720, 540);
+    /** A configuration may take up to this part of the memory available when the calibration starts */
+    private static final int MEMORY_BUDGET_DIVISOR = 4;
+    private static final long TRIAL_TIMEOUT_MS = 60000;
+    private static final long MEMORY_SAMPLE_INTERVAL_MS = 50;
+
+    private PipelineCalibration()
+    {
+    }
+
+    /**
+     * Calibrates the device and stores the profile found. Takes a few seconds per configuration
+     * tried, and must not be called on the main thread, which the jobs report to.
+     * @param appName name of the folder the outputs of the trials are written to; they are
+     *                deleted after each trial
+     * @return the profile, or null if none of the configurations could be processed
+     */
+    public static PipelineProfile calibrate(Context context, final String appName)
+            throws IOException, InterruptedException {
+        if (Looper.myLooper() == Looper.getMainLooper())
+            throw new IllegalStateException("Calibration cannot run on the main thread");
+        final Context appContext = context.getApplicationContext();
+        File clip = new File(appContext.getCacheDir(), CLIP_NAME);
+        if (!clip.exists())
+            CalibrationClip.write(clip, CLIP_WIDTH, CLIP_HEIGHT, CLIP_FRAMES);
+        final Uri uri = Uri.fromFile(clip);
+
+        TuningSearch search = new TuningSearch(IN_FLIGHT_FRAMES, getEncodableMimeTypes(appContext), SHORT_SIDES,
+                TARGET_FRAMES_PER_SECOND, getMemoryBudget(appContext));
+        PipelineProfile profile = search.search(new TuningSearch.Runner() {
+            @Override
+            public TuningSearch.Measurement run(PipelineProfile candidate) throws InterruptedException {
+                return runTrial(appContext, uri, appName, candidate);
+            }
+        });
+        for (Map.Entry<PipelineProfile, TuningSearch.Measurement> trial : search.getTrials().entrySet())
+            Log.d(TAG, trial.getKey() + ": " + trial.getValue());
+        Log.d(TAG, "Profile: " + profile);
+        if (profile!=null)
+            getStore(appContext).save(Build.FINGERPRINT, profile);
+        return profile;
+    }
+
+    /**
+     * @return the profile stored by the last calibration of the device, or null if it has not
+     * been calibrated since the last system update
+     */
+    public static PipelineProfile getDeviceProfile(Context context) {
+        try {
+            return getStore(context).load(Build.FINGERPRINT);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not read the pipeline profile - " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Forgets the profile of the device, so that jobs use the defaults again.
+     */
+    public static void clearDeviceProfile(Context context) {
+        getStore(context).delete();
+    }
+
+    private static PipelineProfileStore getStore(Context context)
+    {
+        return new PipelineProfileStore(new File(context.getFilesDir(), PROFILE_DIRECTORY));
+    }
+
+    private static List<String> getEncodableMimeTypes(Context context)
+    {
+        List<CodecDescriptor> codecs = CodecSelector.getCodecs(context);
+        List<String> mimeTypes = new ArrayList<>();
+        for (String mimeType : MIME_TYPES)
+        {
+            if (CodecRanker.select(codecs, mimeType, true, CLIP_WIDTH, CLIP_HEIGHT)!=null)
+                mimeTypes.add(mimeType);
+        }
+        if (mimeTypes.isEmpty())
+            mimeTypes.add(TranscodePlanner.MIME_AVC);
+        return mimeTypes;
+    }
+
+    private static long getMemoryBudget(Context context)
+    {
+        ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+        context.getSystemService(ActivityManager.class).getMemoryInfo(memoryInfo);
+        return memoryInfo.availMem/MEMORY_BUDGET_DIVISOR;
+    }
+
+    /**
+     * Processes the clip with the parameters of the candidate, timing it from the start of the
+     * job to the end of the encode.
+     */
+    private static TuningSearch.Measurement runTrial(Context context, Uri clip, String appName,
+                                                     PipelineProfile candidate) throws InterruptedException
+    {
+        FrameProcessorSettings settings = new FrameProcessorSettings();
+        settings.setPublishToMediaStore(false);
+        settings.setPipelineProfile(candidate);
+        // The trials measure what the configuration can do, not what the device sustains
+        settings.setAdaptiveThroughput(false);
+        final CountDownLatch done = new CountDownLatch(1);
+        FrameProcessorObserver observer = new FrameProcessorObserver() {
+            @Override
+            public void doneProcessing() {
+                done.countDown();
+            }
+        };
+
+        MemorySampler sampler = new MemorySampler();
+        sampler.start();
+        long start = System.nanoTime();
+        FrameProcessor frameProcessor;
+        try {
+            frameProcessor = new FrameProcessor(context, clip, appName, settings);
+        } catch (IOException e) {
+            sampler.finish();
+            Log.e(TAG, "Could not start the trial " + candidate + " - " + e.getMessage());
+            return TuningSearch.Measurement.failed();
+        }
+        frameProcessor.registerObserver(observer);
+        boolean finished;
+        long elapsedNanos;
+        long peakMemoryBytes;
+        try {
+            finished = done.await(TRIAL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } finally {
+            elapsedNanos = System.nanoTime() - start;
+            peakMemoryBytes = sampler.finish();
+            release(context, frameProcessor, observer);
+            for (File file : frameProcessor.getOutputFiles())
+                file.delete();
+        }
+        TranscodeReport report = frameProcessor.getTranscodeReport();
+        if (!finished || report==null || report.getFrameCount()==0 || frameProcessor.isOutputFailed())
+            return TuningSearch.Measurement.failed();
+        return new TuningSearch.Measurement(report.getFrameCount()*1e9/elapsedNanos, peakMemoryBytes);
+    }
+
+    /**
+     * Releases the job on the main thread, as {@link FrameProcessorService} does.
+     */
+    private static void release(Context context, final FrameProcessor frameProcessor,
+                                final FrameProcessorObserver observer) throws InterruptedException
+    {
+        final CountDownLatch released = new CountDownLatch(1);
+        new Handler(context.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                frameProcessor.removeObserver(observer);
+                frameProcessor.release();
+                released.countDown();
+            }
+        });
+        released.await();
+    }
+
+    /**
+     * Samples the proportional set size of the process, which covers the native and graphics
+     * memory of the codecs as well as the heap, and keeps the largest growth over the start.
+     */
+    private static final class MemorySampler extends Thread {
+        private final long mBaselineBytes = Debug.getPss()*1024;
+        private volatile boolean mFinished;
+        private volatile long mPeakBytes;
+
+        MemorySampler()
+        {
+            super("MemorySampler");
+        }
+
+        @Override
+        public void run() {
+            while (!mFinished)
+            {
+                mPeakBytes = Math.max(mPeakBytes, Debug.getPss()*1024 - mBaselineBytes);
+                try {
+                    Thread.sleep(MEMORY_SAMPLE_INTERVAL_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        long finish() throws InterruptedException
+        {
+            mFinished = true;
+            interrupt();
+            join();
+            return mPeakBytes;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Pipeline parameters that suit a device, as found by {@link PipelineCalibration}: how many frames
+ * are rendered ahead of the encoder, the output codec and the largest output size the device
+ * processes in real time.
+ */
+public final class PipelineProfile {
+    public static final int NO_SIZE_LIMIT = 0;
+
+    private static final String KEY_IN_FLIGHT_FRAMES = "inFlightFrames";
+    private static final String KEY_MIME_TYPE = "mimeType";
+    private static final String KEY_MAX_SHORT_SIDE = "maxShortSide";
+    private static final String KEY_FRAMES_PER_SECOND = "framesPerSecond";
+    private static final String KEY_PEAK_MEMORY_BYTES = "peakMemoryBytes";
+
+    private final int mInFlightFrames;
+    private final String mMimeType;
+    private final int mMaxShortSide;
+    private final float mFramesPerSecond;
+    private final long mPeakMemoryBytes;
+
+    /**
+     * @param inFlightFrames  frames rendered ahead of the encoder output, at least 1
+     * @param mimeType        output codec for jobs that do not set one, or null to keep the codec
+     *                        of the input
+     * @param maxShortSide    largest short side of the output of jobs without renditions, or
+     *                        {@link #NO_SIZE_LIMIT}
+     * @param framesPerSecond throughput measured with these parameters, 0 if not measured
+     * @param peakMemoryBytes memory the measurement took, 0 if not measured
+     */
+    public PipelineProfile(int inFlightFrames, String mimeType, int maxShortSide, float framesPerSecond,
+                           long peakMemoryBytes)
+    {
+        if (inFlightFrames < 1 || maxShortSide < 0)
+            throw new IllegalArgumentException("Invalid profile " + inFlightFrames + " frames in flight, "
+                    + maxShortSide + "p");
+        mInFlightFrames = inFlightFrames;
+        mMimeType = mimeType;
+        mMaxShortSide = maxShortSide;
+        mFramesPerSecond = framesPerSecond;
+        mPeakMemoryBytes = peakMemoryBytes;
+    }
+
+    public int getInFlightFrames() {
+        return mInFlightFrames;
+    }
+
+    public String getMimeType() {
+        return mMimeType;
+    }
+
+    public int getMaxShortSide() {
+        return mMaxShortSide;
+    }
+
+    public float getFramesPerSecond() {
+        return mFramesPerSecond;
+    }
+
+    public long getPeakMemoryBytes() {
+        return mPeakMemoryBytes;
+    }
+
+    void write(Properties properties, String prefix)
+    {
+        properties.setProperty(prefix + KEY_IN_FLIGHT_FRAMES, Integer.toString(mInFlightFrames));
+        if (mMimeType != null)
+            properties.setProperty(prefix + KEY_MIME_TYPE, mMimeType);
+        properties.setProperty(prefix + KEY_MAX_SHORT_SIDE, Integer.toString(mMaxShortSide));
+        properties.setProperty(prefix + KEY_FRAMES_PER_SECOND, Float.toString(mFramesPerSecond));
+        properties.setProperty(prefix + KEY_PEAK_MEMORY_BYTES, Long.toString(mPeakMemoryBytes));
+    }
+
+    /**
+     * @return the profile written with the prefix, or null if there is none
+     * @throws IllegalArgumentException if the profile is incomplete or invalid
+     */
+    static PipelineProfile read(Properties properties, String prefix)
+    {
+        String inFlightFrames = properties.getProperty(prefix + KEY_IN_FLIGHT_FRAMES);
+        if (inFlightFrames == null)
+            return null;
+        return new PipelineProfile(Integer.parseInt(inFlightFrames),
+                properties.getProperty(prefix + KEY_MIME_TYPE),
+                Integer.parseInt(getString(properties, prefix + KEY_MAX_SHORT_SIDE)),
+                Float.parseFloat(getString(properties, prefix + KEY_FRAMES_PER_SECOND)),
+                Long.parseLong(getString(properties, prefix + KEY_PEAK_MEMORY_BYTES)));
+    }
+
+    private static String getString(Properties properties, String key)
+    {
+        String value = properties.getProperty(key);
+        if (value == null)
+            throw new IllegalArgumentException("Profile has no " + key);
+        return value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof PipelineProfile))
+            return false;
+        PipelineProfile other = (PipelineProfile) o;
+        // Only the parameters, not what was measured with them
+        return mInFlightFrames == other.mInFlightFrames && mMaxShortSide == other.mMaxShortSide
+                && (mMimeType == null ? other.mMimeType == null : mMimeType.equals(other.mMimeType));
+    }
+
+    @Override
+    public int hashCode() {
+        return 31*(31*mInFlightFrames + mMaxShortSide) + (mMimeType != null ? mMimeType.hashCode() : 0);
+    }
+
+    @Override
+    public String toString() {
+        String parameters = mInFlightFrames + " in flight, " + (mMimeType != null ? mMimeType : "input codec")
+                + ", " + (mMaxShortSide == NO_SIZE_LIMIT ? "any size" : "up to " + mMaxShortSide + "p");
+        if (mFramesPerSecond <= 0)
+            return parameters;
+        return String.format(Locale.US, "%s, %.1f fps, %d KB", parameters, mFramesPerSecond, mPeakMemoryBytes/1024);
+    }
+}
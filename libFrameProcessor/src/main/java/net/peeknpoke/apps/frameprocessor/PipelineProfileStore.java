@@ -0,0 +1,75 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * The {@link PipelineProfile} of the device in a private directory, keyed by the build
+ * fingerprint: an update of the system can change the codecs and drivers, so a profile found on
+ * another build is not used. Saving the profile of a build drops the profiles of earlier builds.
+ */
+final class PipelineProfileStore {
+    private static final String FILE_NAME = "profile.properties";
+    private static final String TEMPORARY_EXTENSION = ".tmp";
+    private static final String KEY_FINGERPRINT = "fingerprint";
+    private static final String PROFILE = "profile.";
+
+    private final File mDirectory;
+
+    PipelineProfileStore(File directory)
+    {
+        mDirectory = directory;
+    }
+
+    synchronized void save(String fingerprint, PipelineProfile profile) throws IOException
+    {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs())
+            throw new IOException("Could not create " + mDirectory);
+        Properties properties = new Properties();
+        properties.setProperty(KEY_FINGERPRINT, fingerprint);
+        profile.write(properties, PROFILE);
+        File temporary = new File(mDirectory, FILE_NAME + TEMPORARY_EXTENSION);
+        FileOutputStream output = new FileOutputStream(temporary);
+        try {
+            properties.store(output, "Pipeline profile");
+        } finally {
+            output.close();
+        }
+        if (!temporary.renameTo(new File(mDirectory, FILE_NAME)))
+            throw new IOException("Could not replace the pipeline profile");
+    }
+
+    /**
+     * @return the profile of the build, or null if it has none
+     * @throws IOException if the profile cannot be read
+     */
+    synchronized PipelineProfile load(String fingerprint) throws IOException
+    {
+        File file = new File(mDirectory, FILE_NAME);
+        if (!file.exists())
+            return null;
+        Properties properties = new Properties();
+        InputStream input = new FileInputStream(file);
+        try {
+            properties.load(input);
+        } finally {
+            input.close();
+        }
+        if (!fingerprint.equals(properties.getProperty(KEY_FINGERPRINT)))
+            return null;
+        try {
+            return PipelineProfile.read(properties, PROFILE);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid pipeline profile - " + e.getMessage());
+        }
+    }
+
+    synchronized void delete()
+    {
+        new File(mDirectory, FILE_NAME).delete();
+    }
+}
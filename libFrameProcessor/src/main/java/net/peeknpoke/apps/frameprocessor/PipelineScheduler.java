@@ -0,0 +1,138 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Schedules the decoder: copies the samples read ahead into decoder input buffers, and hands the
+ * decoded frames to the renderer one at a time through the {@link FrameHandshake}. Has no
+ * platform dependencies beyond the {@link Codec} interface, so the same code runs against the
+ * simulated codecs of the JVM tests.
+ * <p>
+ * Decoder input callbacks must arrive on the thread that the input executor runs on, since that
+ * thread is the consumer of the {@link DemuxQueue}.
+ */
+final class PipelineScheduler implements Codec.Callback, DemuxQueue.Listener {
+    interface Listener {
+        /**
+         * Called on the decoder callback thread when the last frame has been decoded and there
+         * is no encoder to end the job.
+         */
+        void onDecoderFinished();
+    }
+
+    private final Codec mDecoder;
+    private final List<? extends Codec> mEncoders;
+    private final DemuxQueue mQueue;
+    private final FrameHandshake mHandshake;
+    private final StillFrameSelector mStillSelector;
+    private final Executor mInputExecutor;
+    private final Listener mListener;
+    private final ArrayDeque<Integer> mPendingInputBuffers = new ArrayDeque<>();
+    private final Runnable mFillInputBuffers = new Runnable() {
+        @Override
+        public void run() {
+            fillInputBuffers();
+        }
+    };
+    private volatile boolean mStopped;
+    private long mSkipUntilUs = Long.MIN_VALUE;
+
+    /**
+     * @param encoders      encoders fed from the rendered frames, one per rendition, or none if no
+     *                      video is encoded
+     * @param stillSelector selects the frames to capture as stills, or null
+     * @param inputExecutor runs on the thread of the decoder input callbacks
+     */
+    PipelineScheduler(Codec decoder, List<? extends Codec> encoders, DemuxQueue queue, FrameHandshake handshake,
+                      StillFrameSelector stillSelector, Executor inputExecutor, Listener listener)
+    {
+        mDecoder = decoder;
+        mEncoders = encoders;
+        mQueue = queue;
+        mHandshake = handshake;
+        mStillSelector = stillSelector;
+        mInputExecutor = inputExecutor;
+        mListener = listener;
+        mQueue.setListener(this);
+    }
+
+    /**
+     * Frames before the given time are decoded but not rendered, e.g. from the sync sample before
+     * the point a resumed job continues at. Must be set before the decoder starts.
+     */
+    void setSkipUntilUs(long skipUntilUs)
+    {
+        mSkipUntilUs = skipUntilUs;
+    }
+
+    /**
+     * Stops feeding the decoder. Must be called before the decoder is stopped.
+     */
+    void stop()
+    {
+        mStopped = true;
+    }
+
+    @Override
+    public void onSampleAvailable() {
+        mInputExecutor.execute(mFillInputBuffers);
+    }
+
+    @Override
+    public void onInputBufferAvailable(int index) {
+        mPendingInputBuffers.add(index);
+        fillInputBuffers();
+    }
+
+    private void fillInputBuffers()
+    {
+        DemuxQueue.Sample sample;
+        while (!mStopped && !mPendingInputBuffers.isEmpty() && (sample = mQueue.peek()) != null)
+        {
+            int index = mPendingInputBuffers.poll();
+            if (sample.endOfStream)
+            {
+                mDecoder.queueInputBuffer(index, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            }
+            else
+            {
+                if (mStillSelector!=null)
+                    mStillSelector.onSampleRead(sample.presentationTimeUs,
+                            (sample.flags & MediaExtractor.SAMPLE_FLAG_SYNC) != 0);
+                ByteBuffer inputBuffer = mDecoder.getInputBuffer(index);
+                inputBuffer.clear();
+                inputBuffer.put(sample.data);
+                mDecoder.queueInputBuffer(index, sample.size, sample.presentationTimeUs, 0);
+            }
+            mQueue.release();
+        }
+    }
+
+    @Override
+    public void onOutputBufferAvailable(int index, long presentationTimeUs, int size, int flags) {
+        boolean endOfStream = (flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+        if (endOfStream)
+        {
+            for (Codec encoder : mEncoders)
+                encoder.signalEndOfInputStream();
+        }
+
+        boolean skipped = presentationTimeUs < mSkipUntilUs;
+        boolean still = size != 0 && !skipped && mStillSelector != null && mStillSelector.select(presentationTimeUs);
+        // Without an encoder only the frames that become stills need to be rendered
+        boolean render = size != 0 && !skipped && (!mEncoders.isEmpty() || still);
+        mHandshake.frameReleased(presentationTimeUs, still);
+        mDecoder.releaseOutputBuffer(index, render);
+        if (render)
+            mHandshake.awaitRendered();
+
+        if (endOfStream && mEncoders.isEmpty())
+            mListener.onDecoderFinished();
+    }
+}
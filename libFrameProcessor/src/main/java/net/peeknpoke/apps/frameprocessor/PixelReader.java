@@ -0,0 +1,156 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.opengl.GLES30;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Asynchronous RGBA readback through a ring of pixel pack buffers. glReadPixels only queues a
+ * copy into a PBO; the buffer is mapped a few frames later once its fence has signalled, so the
+ * render thread never waits for the GPU. When every PBO is still in flight the request is
+ * dropped rather than stalling.
+ */
+class PixelReader {
+    private static final String TAG = PixelReader.class.getSimpleName();
+
+    interface Consumer {
+        /**
+         * @param pixels mapped PBO contents, only valid for the duration of the call
+         */
+        void onPixels(long tag, long presentationTimeUs, ByteBuffer pixels);
+    }
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mByteCount;
+    private final int[] mBuffers;
+    private final long[] mFences;
+    private final long[] mTags;
+    private final long[] mTimestamps;
+    private int mHead;      // Oldest request in flight
+    private int mPending;
+    private int mDropped;
+
+    PixelReader(int width, int height, int depth)
+    {
+        mWidth = width;
+        mHeight = height;
+        mByteCount = width*height*4;
+        mBuffers = new int[depth];
+        mFences = new long[depth];
+        mTags = new long[depth];
+        mTimestamps = new long[depth];
+
+        GLES30.glGenBuffers(depth, mBuffers, 0);
+        for (int buffer : mBuffers)
+        {
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, buffer);
+            GLES30.glBufferData(GLES30.GL_PIXEL_PACK_BUFFER, mByteCount, null, GLES30.GL_STREAM_READ);
+        }
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+    }
+
+    int getWidth() {
+        return mWidth;
+    }
+
+    int getHeight() {
+        return mHeight;
+    }
+
+    int getDropped() {
+        return mDropped;
+    }
+
+    /**
+     * Queues a readback of the currently bound read framebuffer.
+     * @return false if all buffers are in flight and the request was dropped
+     */
+    boolean requestReadback(long tag, long presentationTimeUs)
+    {
+        if (mPending == mBuffers.length)
+        {
+            mDropped++;
+            return false;
+        }
+
+        int slot = (mHead + mPending) % mBuffers.length;
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mBuffers[slot]);
+        GLES30.glReadPixels(0, 0, mWidth, mHeight, GLES30.GL_RGBA, GLES30.GL_UNSIGNED_BYTE, 0);
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        mFences[slot] = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        mTags[slot] = tag;
+        mTimestamps[slot] = presentationTimeUs;
+        mPending++;
+        ShaderHelper.checkGLError(TAG, "readback");
+        return true;
+    }
+
+    /**
+     * Hands over every completed readback, oldest first, without blocking.
+     */
+    void poll(Consumer consumer)
+    {
+        deliver(consumer, 0);
+    }
+
+    /**
+     * Waits for and hands over every readback still in flight.
+     */
+    void flush(Consumer consumer)
+    {
+        deliver(consumer, GLES30.GL_TIMEOUT_IGNORED);
+    }
+
+    /**
+     * Waits for and hands over the oldest readback in flight, freeing one buffer.
+     */
+    void waitOldest(Consumer consumer)
+    {
+        deliver(consumer, GLES30.GL_TIMEOUT_IGNORED, 1);
+    }
+
+    private void deliver(Consumer consumer, long timeout)
+    {
+        deliver(consumer, timeout, mBuffers.length);
+    }
+
+    private void deliver(Consumer consumer, long timeout, int maxCount)
+    {
+        for (int count = 0; mPending > 0 && count < maxCount; count++)
+        {
+            int slot = mHead;
+            int status = GLES30.glClientWaitSync(mFences[slot],
+                    timeout == 0 ? 0 : GLES30.GL_SYNC_FLUSH_COMMANDS_BIT, timeout);
+            if (status == GLES30.GL_TIMEOUT_EXPIRED || status == GLES30.GL_WAIT_FAILED)
+                return;
+
+            GLES30.glDeleteSync(mFences[slot]);
+            mFences[slot] = 0;
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mBuffers[slot]);
+            ByteBuffer pixels = (ByteBuffer) GLES30.glMapBufferRange(GLES30.GL_PIXEL_PACK_BUFFER, 0,
+                    mByteCount, GLES30.GL_MAP_READ_BIT);
+            if (pixels != null)
+            {
+                consumer.onPixels(mTags[slot], mTimestamps[slot], pixels);
+                GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+            }
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+
+            mHead = (mHead + 1) % mBuffers.length;
+            mPending--;
+        }
+    }
+
+    void cleanup()
+    {
+        for (int i = 0; i < mFences.length; i++)
+        {
+            if (mFences[i] != 0)
+                GLES30.glDeleteSync(mFences[i]);
+            mFences[i] = 0;
+        }
+        GLES30.glDeleteBuffers(mBuffers.length, mBuffers, 0);
+        mPending = 0;
+    }
+}
@@ -0,0 +1,70 @@
+package net.peeknpoke.apps.frameprocessor;
+
+/**
+ * Decides which rendered frames are shown on the preview surface. The pipeline renders as fast
+ * as the encoders allow, usually faster than the display refreshes, so frames arriving within a
+ * refresh period of the last one shown are dropped instead of queued. The preview never holds up
+ * the encode.
+ */
+final class PreviewPacer {
+    private final long mPeriodNanos;
+    private long mNextPresentNanos = Long.MIN_VALUE;
+    private int mPresentedFrames;
+    private int mDroppedFrames;
+
+    /**
+     * @param refreshRate refresh rate of the display showing the preview, in Hz
+     */
+    PreviewPacer(float refreshRate)
+    {
+        mPeriodNanos = refreshRate > 0 ? (long) (1e9/refreshRate) : 0;
+    }
+
+    /**
+     * @return true if the frame rendered at nowNanos is to be shown
+     */
+    boolean shouldPresent(long nowNanos)
+    {
+        // A frame up to a quarter period early is still shown, so that rendering jitter around
+        // the refresh rate does not drop every other frame. The schedule keeps its cadence then,
+        // so the frames shown do not outpace the display
+        if (mNextPresentNanos != Long.MIN_VALUE && nowNanos < mNextPresentNanos - mPeriodNanos/4)
+        {
+            mDroppedFrames++;
+            return false;
+        }
+        mNextPresentNanos = Math.max(mNextPresentNanos, nowNanos) + mPeriodNanos;
+        mPresentedFrames++;
+        return true;
+    }
+
+    int getPresentedFrames()
+    {
+        return mPresentedFrames;
+    }
+
+    int getDroppedFrames()
+    {
+        return mDroppedFrames;
+    }
+
+    /**
+     * @return x, y, width and height of the largest viewport of the surface with the aspect ratio
+     * of the frame, centered
+     */
+    static int[] fitViewport(int frameWidth, int frameHeight, int surfaceWidth, int surfaceHeight)
+    {
+        if ((long) frameWidth*surfaceHeight > (long) surfaceWidth*frameHeight)
+        {
+            int height = (int) ((long) surfaceWidth*frameHeight/frameWidth);
+            return new int[]{0, (surfaceHeight - height)/2, surfaceWidth, height};
+        }
+        int width = (int) ((long) surfaceHeight*frameWidth/frameHeight);
+        return new int[]{(surfaceWidth - width)/2, 0, width, surfaceHeight};
+    }
+
+    @Override
+    public String toString() {
+        return mPresentedFrames + " presented, " + mDroppedFrames + " dropped";
+    }
+}
@@ -0,0 +1,81 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.util.Locale;
+
+/**
+ * Latency of the reads the extractor made from a memory mapped input. A read that has to wait
+ * for storage shows up as a page fault inside the copy, so slow reads mean the read-ahead did
+ * not keep up.
+ */
+public final class ReadLatencyMetrics {
+    static final int BUCKETS = 40;
+
+    private final long mReadCount;
+    private final long mBytesRead;
+    private final long mTotalNanos;
+    private final long mMaxNanos;
+    private final long[] mHistogram;
+
+    ReadLatencyMetrics(long readCount, long bytesRead, long totalNanos, long maxNanos, long[] histogram)
+    {
+        mReadCount = readCount;
+        mBytesRead = bytesRead;
+        mTotalNanos = totalNanos;
+        mMaxNanos = maxNanos;
+        mHistogram = histogram;
+    }
+
+    /**
+     * @return the histogram bucket of a latency; bucket i holds latencies below 2^i ns
+     */
+    static int bucketOf(long nanos)
+    {
+        int bucket = 64 - Long.numberOfLeadingZeros(Math.max(nanos, 0));
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    public long getReadCount() {
+        return mReadCount;
+    }
+
+    public long getBytesRead() {
+        return mBytesRead;
+    }
+
+    public long getTotalNanos() {
+        return mTotalNanos;
+    }
+
+    public long getAverageNanos() {
+        return mReadCount > 0 ? mTotalNanos/mReadCount : 0;
+    }
+
+    public long getMaxNanos() {
+        return mMaxNanos;
+    }
+
+    /**
+     * @param fraction e.g. 0.99
+     * @return an upper bound of the given latency percentile, within a factor of two
+     */
+    public long getPercentileNanos(double fraction) {
+        if (mReadCount == 0)
+            return 0;
+        long rank = (long) Math.ceil(fraction*mReadCount);
+        long count = 0;
+        for (int i = 0; i < mHistogram.length; i++)
+        {
+            count += mHistogram[i];
+            if (count >= rank)
+                return Math.min(1L << i, mMaxNanos);
+        }
+        return mMaxNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%d reads, %.1f MB, avg %.1f us, p99 %.1f us, max %.1f us",
+                mReadCount, mBytesRead/1e6, getAverageNanos()/1e3, getPercentileNanos(0.99)/1e3,
+                mMaxNanos/1e3);
+    }
+}
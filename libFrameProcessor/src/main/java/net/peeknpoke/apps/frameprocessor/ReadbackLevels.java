@@ -0,0 +1,96 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.content.Context;
+import android.opengl.GLES30;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Measures levels without compute shaders. Each frame is drawn by a fragment pass into a small
+ * framebuffer and read back asynchronously through a {@link PixelReader}; the histograms and
+ * levels of every completed readback are computed by {@link HistogramLevels} and uploaded into
+ * the uniform buffer. The readbacks never stall the render thread, so the levels lag the frames
+ * by one or two more frames than with {@link ComputeLevels}.
+ */
+class ReadbackLevels implements LevelsSource, PixelReader.Consumer {
+    private static final String TAG = ReadbackLevels.class.getSimpleName();
+    private static final String FRAGMENT_SHADER_NAME = "identity2d.frag";
+    private static final int READBACK_DEPTH = 3;
+    private static final int SIZEOF_FLOAT = 4;
+
+    private final FrameBufferPool mPool;
+    private final FrameBuffer mFrameBuffer;
+    private final PixelReader mPixelReader;
+    private final FilterPass mPass;
+    private final int mTextureLoc;
+    private final float mClip;
+    private final boolean mPerChannel;
+    private final int[] mHistograms = new int[HistogramLevels.CHANNELS*HistogramLevels.BINS];
+    private final float[] mLevels = HistogramLevels.identity();
+    private final FloatBuffer mUpload;
+    private final int[] mBuffer = new int[1];
+    private long mFrame;
+
+    ReadbackLevels(Context context, FrameBufferPool pool, int width, int height, float clip, boolean perChannel)
+    {
+        mPool = pool;
+        mClip = clip;
+        mPerChannel = perChannel;
+        int sampledWidth = Math.min(AnalysisTap.ANALYSIS_WIDTH, width);
+        int sampledHeight = Math.max(1, Math.round((float) sampledWidth*height/width));
+        mFrameBuffer = pool.acquire(sampledWidth, sampledHeight);
+        mPixelReader = new PixelReader(sampledWidth, sampledHeight, READBACK_DEPTH);
+        mPass = new FilterPass(context, FRAGMENT_SHADER_NAME);
+        mTextureLoc = mPass.getUniformLocation("sTexture");
+
+        mUpload = ByteBuffer.allocateDirect(HistogramLevels.LEVELS_FLOATS*SIZEOF_FLOAT)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        mUpload.put(mLevels).position(0);
+        GLES30.glGenBuffers(1, mBuffer, 0);
+        GLES30.glBindBuffer(GLES30.GL_UNIFORM_BUFFER, mBuffer[0]);
+        GLES30.glBufferData(GLES30.GL_UNIFORM_BUFFER, HistogramLevels.LEVELS_FLOATS*SIZEOF_FLOAT, mUpload,
+                GLES30.GL_DYNAMIC_DRAW);
+        GLES30.glBindBuffer(GLES30.GL_UNIFORM_BUFFER, 0);
+        ShaderHelper.checkGLError(TAG, "buffer");
+    }
+
+    @Override
+    public int getLevelsBuffer() {
+        return mBuffer[0];
+    }
+
+    @Override
+    public void measure(int inputTexture) {
+        mPass.use();
+        FilterPass.bindTexture(0, GLES30.GL_TEXTURE_2D, inputTexture, mTextureLoc);
+        mPass.draw(mFrameBuffer.getFramebuffer(), mFrameBuffer.getWidth(), mFrameBuffer.getHeight());
+
+        GLES30.glBindFramebuffer(GLES30.GL_READ_FRAMEBUFFER, mFrameBuffer.getFramebuffer());
+        mPixelReader.requestReadback(mFrame++, 0);
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, 0);
+
+        mPixelReader.poll(this);
+    }
+
+    @Override
+    public void onPixels(long tag, long presentationTimeUs, ByteBuffer pixels) {
+        int count = HistogramLevels.histograms(pixels, mPixelReader.getWidth(), mPixelReader.getHeight(), 1,
+                mHistograms);
+        HistogramLevels.levels(mHistograms, HistogramLevels.clipThreshold(mClip, count), mPerChannel,
+                mLevels, mLevels);
+        mUpload.put(mLevels).position(0);
+        GLES30.glBindBuffer(GLES30.GL_UNIFORM_BUFFER, mBuffer[0]);
+        GLES30.glBufferSubData(GLES30.GL_UNIFORM_BUFFER, 0, HistogramLevels.LEVELS_FLOATS*SIZEOF_FLOAT, mUpload);
+        GLES30.glBindBuffer(GLES30.GL_UNIFORM_BUFFER, 0);
+    }
+
+    @Override
+    public void cleanup() {
+        mPixelReader.cleanup();
+        mPass.cleanup();
+        mPool.release(mFrameBuffer);
+        GLES30.glDeleteBuffers(1, mBuffer, 0);
+    }
+}
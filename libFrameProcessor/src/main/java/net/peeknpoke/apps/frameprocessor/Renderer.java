@@ -3,12 +3,7 @@ package net.peeknpoke.apps.frameprocessor;
 import android.content.Context;
 import android.opengl.GLES11Ext;
 import android.opengl.GLES30;
-import android.util.Log;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
@@ -16,7 +11,6 @@ import java.nio.FloatBuffer;
 class Renderer {
     private static final String TAG = Renderer.class.getSimpleName();
     private static final String VERTEX_SHADER_NAME = "shader.vert";
-    private static final String FRAGMENT_SHADER_NAME = "negative.frag";
 
     private static final int SIZEOF_FLOAT = 4;
 
@@ -38,6 +32,7 @@ class Renderer {
     private FloatBuffer mVertexBuffer;
 
     // OpenGL handles
+    private final ShareGroup mShareGroup;
     private int mProgram;
 
     private int quadPositionParam;
@@ -48,27 +43,27 @@ class Renderer {
 
     private int muTexMatrixLoc;
 
-    Renderer(Context context)
+    Renderer(Context context, String fragmentShaderName)
     {
         super();
-        parseShaders(context);
+        mShareGroup = ShareGroup.current();
+        parseShaders(context, fragmentShaderName);
         createProgram();
         createTextureVertexBuffer();
         createVertexBuffer();
     }
 
-    private void parseShaders(Context context)
+    private void parseShaders(Context context, String fragmentShaderName)
     {
-        String vertexShaderFile, fragmentShaderFile;
-        vertexShaderFile = VERTEX_SHADER_NAME;
-        fragmentShaderFile = FRAGMENT_SHADER_NAME;
-        mVertexShader = loadShaderFile(context, vertexShaderFile);
-        mFragmentShader = loadShaderFile(context, fragmentShaderFile);
+        mVertexShader = ShaderHelper.loadShaderFile(context, VERTEX_SHADER_NAME);
+        mFragmentShader = ShaderHelper.loadShaderFile(context, fragmentShaderName);
     }
 
     void cleanup()
     {
-        GLES30.glDeleteProgram(mProgram);
+        if (mProgram != 0)
+            mShareGroup.releaseProgram(mProgram);
+        mProgram = 0;
     }
 
     void onDrawFrame(float[] transformMatrix, int texture, int viewPortWidth, int viewPortHeight)
@@ -114,18 +109,12 @@ class Renderer {
         GLES30.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, 0);
 
         GLES30.glUseProgram(0);
-        checkGLError(TAG, "Draw");
+        ShaderHelper.checkGLError(TAG, "Draw");
     }
 
     private void createProgram()
     {
-        int vertexShader = loadGLShader(mVertexShader, GLES30.GL_VERTEX_SHADER);
-        int fragmentShader = loadGLShader(mFragmentShader, GLES30.GL_FRAGMENT_SHADER);
-
-        mProgram = GLES30.glCreateProgram();
-        GLES30.glAttachShader(mProgram, vertexShader);
-        GLES30.glAttachShader(mProgram, fragmentShader);
-        GLES30.glLinkProgram(mProgram);
+        mProgram = mShareGroup.acquireProgram(mVertexShader, mFragmentShader);
         GLES30.glUseProgram(mProgram);
 
         quadPositionParam = GLES30.glGetAttribLocation(mProgram, "a_Position");
@@ -133,48 +122,6 @@ class Renderer {
         muTexMatrixLoc = GLES30.glGetUniformLocation(mProgram, "uTexMatrix");
     }
 
-    private static String loadShaderFile(Context context, String filename)
-    {
-        try
-        {
-            InputStream inputStream = context.getAssets().open(filename);
-            BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-            StringBuilder shaderText = new StringBuilder();
-            String inputLine = reader.readLine();
-            while (inputLine != null) {
-                shaderText.append(inputLine).append("\n");
-                inputLine = reader.readLine();
-            }
-            return shaderText.toString();
-        }
-        catch (IOException e)
-        {
-            Log.e(TAG, "Shader not found");
-        }
-
-        return null;
-    }
-
-    private static int loadGLShader(String shaderCode, int type)
-    {
-        int shader = GLES30.glCreateShader(type);
-        GLES30.glShaderSource(shader, shaderCode);
-        GLES30.glCompileShader(shader);
-
-        // If shader could not be compiled throw runtime exceptions
-        final int[] result = new int[1];
-        GLES30.glGetShaderiv(shader, GLES30.GL_COMPILE_STATUS, result, 0);
-
-        // If the compilation failed, delete the shader.
-        if (result[0] == 0) {
-            Log.e(TAG, "Error compiling shader: " + GLES30.glGetShaderInfoLog(shader));
-            GLES30.glDeleteShader(shader);
-            throw new RuntimeException("Error creating shader.");
-        }
-
-        return shader;
-    }
-
     private void createTextureVertexBuffer()
     {
         // initialize vertex byte buffer for shape coordinates
@@ -196,17 +143,4 @@ class Renderer {
         mVertexBuffer.put(QUAD_COORDS);
         mVertexBuffer.position(0);
     }
-
-    private static void checkGLError(String tag, String label) {
-        int lastError = GLES30.GL_NO_ERROR;
-        // Drain the queue of all errors.
-        int error;
-        while ((error = GLES30.glGetError()) != GLES30.GL_NO_ERROR) {
-            Log.e(tag, label + ": glError " + error);
-            lastError = error;
-        }
-        if (lastError != GLES30.GL_NO_ERROR) {
-            throw new RuntimeException(label + ": glError " + lastError);
-        }
-    }
 }
@@ -0,0 +1,51 @@
+package net.peeknpoke.apps.frameprocessor;
+
+/**
+ * One output of a multi-rendition job, e.g. the 720p rung of an adaptive bit rate ladder.
+ */
+public final class Rendition {
+    private final int mShortSide;
+    private final int mBitRate;
+
+    /**
+     * @param shortSide length of the shorter side of the frame, e.g. 720 for 720p. Renditions
+     *                  larger than the input are encoded at the input size.
+     * @param bitRate   bit rate of AVC output, scaled for other codecs like
+     *                  {@link FrameProcessorSettings#setBitRate(int)}
+     */
+    public Rendition(int shortSide, int bitRate)
+    {
+        if (shortSide <= 0 || bitRate <= 0)
+            throw new IllegalArgumentException("Invalid rendition " + shortSide + "p at " + bitRate + " bps");
+        mShortSide = shortSide;
+        mBitRate = bitRate;
+    }
+
+    public int getShortSide() {
+        return mShortSide;
+    }
+
+    public int getBitRate() {
+        return mBitRate;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof Rendition))
+            return false;
+        Rendition other = (Rendition) o;
+        return mShortSide == other.mShortSide && mBitRate == other.mBitRate;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31*mShortSide + mBitRate;
+    }
+
+    @Override
+    public String toString() {
+        return mShortSide + "p@" + mBitRate;
+    }
+}
@@ -0,0 +1,122 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Resolves the {@link Rendition}s of a job into frame sizes. The filter chain is rendered once at
+ * the size of the largest rung and every rung, the largest included, is downsampled from that
+ * frame into the input surface of its encoder.
+ */
+final class RenditionLadder {
+    static final class Rung {
+        final int width;
+        final int height;
+        final int bitRate;
+        /** Suffix of the output file name, e.g. "720p", or null for the only output of a job */
+        final String label;
+
+        Rung(int width, int height, int bitRate, String label)
+        {
+            this.width = width;
+            this.height = height;
+            this.bitRate = bitRate;
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return width + "x" + height + "@" + bitRate;
+        }
+    }
+
+    private RenditionLadder()
+    {
+    }
+
+    /**
+     * @param avcBitRate bit rate of the output when there are no renditions
+     * @return the rungs, largest first, or a single rung of the input size without a label when
+     * there are no renditions
+     */
+    static List<Rung> plan(int inputWidth, int inputHeight, List<Rendition> renditions, int avcBitRate)
+    {
+        return plan(inputWidth, inputHeight, renditions, avcBitRate, PipelineProfile.NO_SIZE_LIMIT);
+    }
+
+    /**
+     * @param maxShortSide largest short side of the single rung when there are no renditions, or
+     *                     {@link PipelineProfile#NO_SIZE_LIMIT}; renditions are not limited
+     */
+    static List<Rung> plan(int inputWidth, int inputHeight, List<Rendition> renditions, int avcBitRate,
+                           int maxShortSide)
+    {
+        List<Rung> rungs = new ArrayList<>();
+        int inputShortSide = Math.min(inputWidth, inputHeight);
+        if (renditions.isEmpty())
+        {
+            if (maxShortSide != PipelineProfile.NO_SIZE_LIMIT && inputShortSide > maxShortSide)
+                rungs.add(new Rung(scale(inputWidth, maxShortSide, inputShortSide),
+                        scale(inputHeight, maxShortSide, inputShortSide), avcBitRate, null));
+            else
+                rungs.add(new Rung(inputWidth, inputHeight, avcBitRate, null));
+            return rungs;
+        }
+        for (Rendition rendition : renditions)
+        {
+            int shortSide = Math.min(rendition.getShortSide(), inputShortSide);
+            int width = scale(inputWidth, shortSide, inputShortSide);
+            int height = scale(inputHeight, shortSide, inputShortSide);
+            rungs.add(new Rung(width, height, rendition.getBitRate(), Math.min(width, height) + "p"));
+        }
+        Collections.sort(rungs, new Comparator<Rung>() {
+            @Override
+            public int compare(Rung a, Rung b) {
+                long areaA = (long) a.width*a.height;
+                long areaB = (long) b.width*b.height;
+                if (areaA != areaB)
+                    return areaA > areaB ? -1 : 1;
+                return Integer.compare(b.bitRate, a.bitRate);
+            }
+        });
+        // Rungs of the same size get distinct file names
+        List<Rung> labelled = new ArrayList<>();
+        for (Rung rung : rungs)
+        {
+            int sameSize = 0;
+            for (Rung other : rungs)
+            {
+                if (other.label.equals(rung.label))
+                    sameSize++;
+            }
+            labelled.add(sameSize == 1 ? rung :
+                    new Rung(rung.width, rung.height, rung.bitRate, rung.label + "_" + rung.bitRate/1000 + "k"));
+        }
+        return labelled;
+    }
+
+    /**
+     * Scales a side of the input, rounded to an even length as encoders require for 4:2:0.
+     */
+    private static int scale(int side, int shortSide, int inputShortSide)
+    {
+        int scaled = (int) Math.round((double) side*shortSide/inputShortSide);
+        return Math.max(2, scaled & ~1);
+    }
+
+    /**
+     * Offset of the four bilinear taps of downsample.frag, in input texels, for a downsampling
+     * factor. At factors of 2 and more each tap averages a 2x2 block and the taps cover the whole
+     * block of input texels; below 2 the taps move in so that a factor of 1 is an exact copy.
+     */
+    static float downsampleOffset(float factor)
+    {
+        if (factor <= 1.0f)
+            return 0.0f;
+        if (factor < 2.0f)
+            return (factor - 1.0f)/2.0f;
+        return factor/4.0f;
+    }
+}
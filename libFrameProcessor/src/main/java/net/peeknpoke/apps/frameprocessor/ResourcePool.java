@@ -0,0 +1,231 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Reference counted pool of resources keyed by size and format. Released resources stay idle for
+ * reuse by a later request with the same key; idle resources are destroyed least recently used
+ * first whenever the pool is over its byte budget. Resources in use are never evicted, so the
+ * budget can be exceeded while they are all held. Creation and destruction go through an
+ * {@link Allocator}, which keeps the accounting free of GL calls. Not thread safe.
+ */
+class ResourcePool<R> {
+    interface Allocator<R> {
+        R create(Key key);
+        void destroy(R resource);
+        long sizeOf(Key key);
+    }
+
+    static final class Key {
+        final int width;
+        final int height;
+        final int format;
+
+        Key(int width, int height, int format)
+        {
+            this.width = width;
+            this.height = height;
+            this.format = format;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key key = (Key) o;
+            return width == key.width && height == key.height && format == key.format;
+        }
+
+        @Override
+        public int hashCode() {
+            return (width*31 + height)*31 + format;
+        }
+
+        @Override
+        public String toString() {
+            return width + "x" + height + "/0x" + Integer.toHexString(format);
+        }
+    }
+
+    private static final class Entry<R> {
+        final R resource;
+        final Key key;
+        final long bytes;
+        int references;
+
+        Entry(R resource, Key key, long bytes)
+        {
+            this.resource = resource;
+            this.key = key;
+            this.bytes = bytes;
+        }
+    }
+
+    private final Allocator<R> mAllocator;
+    private long mBudgetBytes;
+    private final IdentityHashMap<R, Entry<R>> mEntries = new IdentityHashMap<>();
+    // Idle entries per key, most recently released last
+    private final HashMap<Key, ArrayDeque<Entry<R>>> mIdleByKey = new HashMap<>();
+    // All idle entries, least recently released first
+    private final LinkedHashSet<Entry<R>> mIdle = new LinkedHashSet<>();
+    private long mAllocatedBytes;
+    private long mIdleBytes;
+    private int mHits;
+    private int mMisses;
+    private int mEvictions;
+
+    ResourcePool(Allocator<R> allocator, long budgetBytes)
+    {
+        mAllocator = allocator;
+        mBudgetBytes = budgetBytes;
+    }
+
+    /**
+     * @return a resource for the key with one reference, reused if an idle one is available
+     */
+    R acquire(Key key)
+    {
+        ArrayDeque<Entry<R>> idle = mIdleByKey.get(key);
+        if (idle != null && !idle.isEmpty())
+        {
+            Entry<R> entry = idle.pollLast();
+            mIdle.remove(entry);
+            mIdleBytes -= entry.bytes;
+            entry.references = 1;
+            mHits++;
+            return entry.resource;
+        }
+
+        long bytes = mAllocator.sizeOf(key);
+        evict(mBudgetBytes - bytes);
+        R resource = mAllocator.create(key);
+        Entry<R> entry = new Entry<>(resource, key, bytes);
+        entry.references = 1;
+        mEntries.put(resource, entry);
+        mAllocatedBytes += bytes;
+        mMisses++;
+        return resource;
+    }
+
+    void retain(R resource)
+    {
+        Entry<R> entry = entryOf(resource);
+        if (entry.references == 0)
+            throw new IllegalStateException("Resource is not in use");
+        entry.references++;
+    }
+
+    /**
+     * Drops a reference; the resource becomes idle when the last one is gone.
+     */
+    void release(R resource)
+    {
+        Entry<R> entry = entryOf(resource);
+        if (entry.references == 0)
+            throw new IllegalStateException("Resource released too often");
+        if (--entry.references > 0)
+            return;
+
+        ArrayDeque<Entry<R>> idle = mIdleByKey.get(entry.key);
+        if (idle == null)
+        {
+            idle = new ArrayDeque<>();
+            mIdleByKey.put(entry.key, idle);
+        }
+        idle.addLast(entry);
+        mIdle.add(entry);
+        mIdleBytes += entry.bytes;
+        evict(mBudgetBytes);
+    }
+
+    private Entry<R> entryOf(R resource)
+    {
+        Entry<R> entry = mEntries.get(resource);
+        if (entry == null)
+            throw new IllegalArgumentException("Resource does not belong to this pool");
+        return entry;
+    }
+
+    /**
+     * Destroys idle resources, oldest first, until the allocated bytes are within the limit.
+     */
+    private void evict(long limitBytes)
+    {
+        Iterator<Entry<R>> iterator = mIdle.iterator();
+        while (mAllocatedBytes > limitBytes && iterator.hasNext())
+        {
+            Entry<R> entry = iterator.next();
+            iterator.remove();
+            mIdleByKey.get(entry.key).remove(entry);
+            destroy(entry);
+            mEvictions++;
+        }
+    }
+
+    private void destroy(Entry<R> entry)
+    {
+        mEntries.remove(entry.resource);
+        mAllocatedBytes -= entry.bytes;
+        mIdleBytes -= entry.bytes;
+        mAllocator.destroy(entry.resource);
+    }
+
+    void setBudgetBytes(long budgetBytes)
+    {
+        mBudgetBytes = budgetBytes;
+        evict(mBudgetBytes);
+    }
+
+    /**
+     * Destroys all idle resources.
+     */
+    void trim()
+    {
+        evict(-1);
+    }
+
+    long getBudgetBytes()
+    {
+        return mBudgetBytes;
+    }
+
+    long getAllocatedBytes()
+    {
+        return mAllocatedBytes;
+    }
+
+    long getIdleBytes()
+    {
+        return mIdleBytes;
+    }
+
+    int getInUseCount()
+    {
+        return mEntries.size() - mIdle.size();
+    }
+
+    int getHits()
+    {
+        return mHits;
+    }
+
+    int getMisses()
+    {
+        return mMisses;
+    }
+
+    int getEvictions()
+    {
+        return mEvictions;
+    }
+
+    @Override
+    public String toString() {
+        return "allocated " + mAllocatedBytes/1024 + " KB (" + mIdleBytes/1024 + " KB idle), "
+                + mHits + " hits, " + mMisses + " misses, " + mEvictions + " evictions";
+    }
+}
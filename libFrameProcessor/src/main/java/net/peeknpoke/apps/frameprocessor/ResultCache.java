@@ -0,0 +1,311 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Copies of the outputs of finished jobs, by {@link ResultKey}, so that a job that was already
+ * run gets the previous output instead of being transcoded again. The cache is bounded by the
+ * bytes of the copies and drops the least recently used results first.
+ * <p>
+ * The index is a text file read in one pass when the cache is opened. The first line identifies
+ * the format; each following line holds one result, least recently used first: the key, then the
+ * name suffix and length of each output. Outputs are stored as key_index files next to it. The
+ * index is written to a temporary file and renamed over the previous one, and files it does not
+ * list are deleted on open, so a kill while storing leaves no orphans behind.
+ */
+final class ResultCache {
+    static final String INDEX_NAME = "index";
+    private static final String HEADER = "results-v1";
+    private static final String TEMPORARY_EXTENSION = ".tmp";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final class Result {
+        final String key;
+        /**
+         * Appended to the name of the job to name each output, e.g. ".mp4" and "_720p.mp4"
+         */
+        final List<String> suffixes;
+        final long[] lengths;
+
+        Result(String key, List<String> suffixes, long[] lengths)
+        {
+            this.key = key;
+            this.suffixes = suffixes;
+            this.lengths = lengths;
+        }
+
+        long getBytes()
+        {
+            long bytes = 0;
+            for (long length : lengths)
+                bytes += length;
+            return bytes;
+        }
+    }
+
+    private final File mDirectory;
+    // Access order: the eldest entry is the least recently used
+    private final LinkedHashMap<String, Result> mResults = new LinkedHashMap<>(16, 0.75f, true);
+    private long mBytes;
+
+    /**
+     * Opens the cache in a directory, which is created when the first result is stored.
+     */
+    ResultCache(File directory)
+    {
+        mDirectory = directory;
+        try {
+            readIndex();
+        } catch (IOException | RuntimeException e) {
+            // A damaged index loses the results, the copies are deleted below
+            mResults.clear();
+            mBytes = 0;
+        }
+        deleteOrphans();
+    }
+
+    private void readIndex() throws IOException
+    {
+        File index = new File(mDirectory, INDEX_NAME);
+        if (!index.exists())
+            return;
+        BufferedReader lines = new BufferedReader(new InputStreamReader(new FileInputStream(index), UTF_8));
+        try {
+            String header = lines.readLine();
+            if (header == null || !header.equals(HEADER))
+                return;
+            String line;
+            while ((line = lines.readLine()) != null)
+            {
+                String[] fields = line.split("\t", -1);
+                if (fields.length < 3 || fields.length % 2 != 1)
+                    throw new IOException("Invalid result " + line);
+                List<String> suffixes = new ArrayList<>();
+                long[] lengths = new long[fields.length/2];
+                for (int i = 0; i < lengths.length; i++)
+                {
+                    suffixes.add(fields[1 + 2*i]);
+                    lengths[i] = Long.parseLong(fields[2 + 2*i]);
+                }
+                Result result = new Result(fields[0], suffixes, lengths);
+                mResults.put(result.key, result);
+                mBytes += result.getBytes();
+            }
+        } finally {
+            lines.close();
+        }
+    }
+
+    private void deleteOrphans()
+    {
+        File[] files = mDirectory.listFiles();
+        if (files == null)
+            return;
+        Set<String> names = new HashSet<>();
+        names.add(INDEX_NAME);
+        for (Result result : mResults.values())
+        {
+            for (int i = 0; i < result.lengths.length; i++)
+                names.add(fileName(result.key, i));
+        }
+        for (File file : files)
+        {
+            if (!names.contains(file.getName()))
+                file.delete();
+        }
+    }
+
+    /**
+     * @return the part of the name of an output after the name of the first output of its job
+     * without its extension: ".mp4" for the first output itself, e.g. "_720p.mp4" for a rendition
+     */
+    static String suffixOf(String firstOutputName, String outputName)
+    {
+        int dot = firstOutputName.lastIndexOf('.');
+        String base = dot > 0 ? firstOutputName.substring(0, dot) : firstOutputName;
+        if (outputName.startsWith(base))
+            return outputName.substring(base.length());
+        int extension = outputName.lastIndexOf('.');
+        return extension >= 0 ? outputName.substring(extension) : "";
+    }
+
+    private static String fileName(String key, int index)
+    {
+        return key + "_" + index;
+    }
+
+    /**
+     * @return the copy of an output of a result
+     */
+    File getFile(Result result, int index)
+    {
+        return new File(mDirectory, fileName(result.key, index));
+    }
+
+    /**
+     * Marks the result as the most recently used.
+     * @return the result, or null if there is none or its copies are gone or damaged
+     */
+    synchronized Result lookup(String key) throws IOException
+    {
+        Result result = mResults.get(key);
+        if (result == null)
+            return null;
+        for (int i = 0; i < result.lengths.length; i++)
+        {
+            File file = getFile(result, i);
+            if (file.length() != result.lengths[i])
+            {
+                remove(result);
+                writeIndex();
+                return null;
+            }
+        }
+        writeIndex();
+        return result;
+    }
+
+    /**
+     * Copies the outputs of a job into the cache, then drops the least recently used results
+     * until the cache is within its budget again. A result larger than the budget is not kept.
+     * @param suffixes the name suffix of every output, see {@link Result#suffixes}
+     * @param outputs  the outputs, read to their end; closing them is up to the caller
+     * @return true if the result was kept
+     */
+    synchronized boolean store(String key, List<String> suffixes, List<? extends InputStream> outputs,
+                               long budgetBytes) throws IOException
+    {
+        if (suffixes.size() != outputs.size())
+            throw new IllegalArgumentException(suffixes.size() + " suffixes for " + outputs.size() + " outputs");
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs())
+            throw new IOException("Could not create " + mDirectory);
+        Result previous = mResults.get(key);
+        if (previous != null)
+            remove(previous);
+
+        long[] lengths = new long[outputs.size()];
+        Result result = new Result(key, new ArrayList<>(suffixes), lengths);
+        try {
+            for (int i = 0; i < lengths.length; i++)
+                lengths[i] = copy(outputs.get(i), getFile(result, i), budgetBytes);
+        } catch (IOException e) {
+            deleteFiles(result);
+            writeIndex();
+            throw e;
+        }
+        if (result.getBytes() > budgetBytes)
+        {
+            deleteFiles(result);
+            writeIndex();
+            return false;
+        }
+
+        mResults.put(key, result);
+        mBytes += result.getBytes();
+        trim(budgetBytes);
+        writeIndex();
+        return true;
+    }
+
+    /**
+     * @return the length of the copy, which is abandoned once it exceeds the limit
+     */
+    private static long copy(InputStream input, File file, long limit) throws IOException
+    {
+        FileOutputStream output = new FileOutputStream(file);
+        long length = 0;
+        try {
+            byte[] buffer = new byte[256*1024];
+            int read;
+            while (length <= limit && (read = input.read(buffer)) > 0)
+            {
+                output.write(buffer, 0, read);
+                length += read;
+            }
+        } finally {
+            output.close();
+        }
+        return length;
+    }
+
+    /**
+     * Drops the least recently used results until the cache holds no more than the budget.
+     */
+    synchronized void trim(long budgetBytes)
+    {
+        Iterator<Result> eldest = mResults.values().iterator();
+        while (mBytes > budgetBytes && eldest.hasNext())
+        {
+            Result result = eldest.next();
+            eldest.remove();
+            mBytes -= result.getBytes();
+            deleteFiles(result);
+        }
+    }
+
+    private void remove(Result result)
+    {
+        mResults.remove(result.key);
+        mBytes -= result.getBytes();
+        deleteFiles(result);
+    }
+
+    private void deleteFiles(Result result)
+    {
+        for (int i = 0; i < result.lengths.length; i++)
+            getFile(result, i).delete();
+    }
+
+    private void writeIndex() throws IOException
+    {
+        File temporary = new File(mDirectory, INDEX_NAME + TEMPORARY_EXTENSION);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(temporary), UTF_8);
+        try {
+            writer.write(HEADER + "\n");
+            for (Result result : mResults.values())
+            {
+                StringBuilder line = new StringBuilder(result.key);
+                for (int i = 0; i < result.lengths.length; i++)
+                    line.append('\t').append(result.suffixes.get(i)).append('\t').append(result.lengths[i]);
+                writer.write(line.append('\n').toString());
+            }
+        } finally {
+            writer.close();
+        }
+        if (!temporary.renameTo(new File(mDirectory, INDEX_NAME)))
+            throw new IOException("Could not replace the index of " + mDirectory);
+    }
+
+    synchronized int getResultCount()
+    {
+        return mResults.size();
+    }
+
+    synchronized long getBytes()
+    {
+        return mBytes;
+    }
+
+    /**
+     * @return the keys, least recently used first
+     */
+    synchronized List<String> getKeys()
+    {
+        return new ArrayList<>(mResults.keySet());
+    }
+}
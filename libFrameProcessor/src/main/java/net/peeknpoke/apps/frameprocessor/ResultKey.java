@@ -0,0 +1,138 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Keys of the {@link ResultCache}: a hash of the input and of a canonical description of the
+ * settings that shape the output. The input is identified by its size, its modification time and
+ * a few blocks sampled across it, so that hashing a long clip reads about a megabyte of it.
+ * Settings that only change how fast or where the job runs, such as buffer sizes, are left out.
+ */
+final class ResultKey {
+    // Bump when a change of the pipeline changes the output of the same settings
+    private static final int VERSION = 1;
+    static final int BLOCK_BYTES = 64*1024;
+    static final int SAMPLED_BLOCKS = 16;
+
+    private ResultKey()
+    {
+    }
+
+    /**
+     * @return true if the whole result of a job with these settings is its video outputs, with
+     * no stills or sidecar files that the cache would have to keep as well
+     */
+    static boolean isCacheable(FrameProcessorSettings settings)
+    {
+        return settings.getResultCacheBytes() > 0
+                && settings.getOutputMode() == FrameProcessorSettings.OutputMode.VIDEO
+                && !settings.isAnalysisEnabled() && !settings.isSceneCutKeyframes();
+    }
+
+    /**
+     * @param channel        the input, read with positional reads only
+     * @param modifiedMillis modification time of the input
+     */
+    static String fingerprintInput(FileChannel channel, long size, long modifiedMillis) throws IOException
+    {
+        MessageDigest digest = sha256();
+        ByteBuffer header = ByteBuffer.allocate(16);
+        header.putLong(size).putLong(modifiedMillis);
+        digest.update(header.array());
+
+        ByteBuffer block = ByteBuffer.allocate(BLOCK_BYTES);
+        int blocks = size <= (long) BLOCK_BYTES*SAMPLED_BLOCKS ? (int) ((size + BLOCK_BYTES - 1)/BLOCK_BYTES)
+                : SAMPLED_BLOCKS;
+        for (int i = 0; i < blocks; i++)
+        {
+            // Contiguous for small inputs, otherwise spread from the first block to the last
+            long position = blocks < SAMPLED_BLOCKS ? (long) i*BLOCK_BYTES
+                    : (size - BLOCK_BYTES)*i/(SAMPLED_BLOCKS - 1);
+            block.clear();
+            while (block.hasRemaining())
+            {
+                if (channel.read(block, position + block.position()) < 0)
+                    break;
+            }
+            digest.update(block.array(), 0, block.position());
+        }
+        return hex(digest.digest());
+    }
+
+    /**
+     * @param profile the profile the job runs with, or null
+     * @return the settings that shape the output, one per line
+     */
+    static String describe(FrameProcessorSettings settings, PipelineProfile profile)
+    {
+        StringBuilder description = new StringBuilder();
+        String mimeType = settings.getOutputMimeType()!=null || profile==null ? settings.getOutputMimeType()
+                : profile.getMimeType();
+        description.append("outputMimeType=").append(mimeType).append('\n');
+        description.append("bitRate=").append(settings.getBitRate()).append('\n');
+        description.append("preserveHdr=").append(settings.isPreserveHdr()).append('\n');
+        description.append("container=").append(settings.getContainer()).append('\n');
+        if (settings.getContainer() == FrameProcessorSettings.Container.FRAGMENTED_MP4)
+            description.append("fragmentDuration=").append(settings.getFragmentDurationSeconds()).append('\n');
+        if (settings.getRenditions().isEmpty())
+            description.append("maxShortSide=").append(profile!=null ? profile.getMaxShortSide()
+                    : PipelineProfile.NO_SIZE_LIMIT).append('\n');
+        else
+            description.append("renditions=").append(settings.getRenditions()).append('\n');
+        for (FilterSpec filter : settings.getFilterChain().getFilters())
+        {
+            description.append("filter=").append(filter);
+            if (filter.getString(FilterSpec.PARAM_PATH) != null)
+                appendFile(description, filter.getString(FilterSpec.PARAM_PATH));
+            description.append('\n');
+        }
+        for (Overlay overlay : settings.getOverlays())
+        {
+            description.append("overlay=").append(overlay);
+            if (overlay.getType() == Overlay.Type.IMAGE)
+                appendFile(description, overlay.getValue());
+            description.append('\n');
+        }
+        return description.toString();
+    }
+
+    /**
+     * Files such as LUTs are identified by their size and modification time, so that editing one
+     * changes the key.
+     */
+    private static void appendFile(StringBuilder description, String path)
+    {
+        File file = new File(path);
+        description.append('@').append(file.length()).append(':').append(file.lastModified());
+    }
+
+    static String of(String inputFingerprint, String description)
+    {
+        MessageDigest digest = sha256();
+        String canonical = VERSION + "\n" + inputFingerprint + "\n" + description;
+        return hex(digest.digest(canonical.getBytes(Charset.forName("UTF-8"))));
+    }
+
+    private static MessageDigest sha256()
+    {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes)
+    {
+        StringBuilder hex = new StringBuilder(2*bytes.length);
+        for (byte b : bytes)
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        return hex.toString();
+    }
+}
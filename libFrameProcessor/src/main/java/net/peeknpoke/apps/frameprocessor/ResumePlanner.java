@@ -0,0 +1,89 @@
+package net.peeknpoke.apps.frameprocessor;
+
+/**
+ * Decides how a job continues from its {@link JobCheckpoint}. A job resumes when at least one
+ * fragment is on disk and the output still holds all of it: the output is cut back to the end of
+ * the last fragment, the extractor seeks to the sync sample at or before the time the next
+ * fragment starts, and the frames decoded before that time are dropped instead of rendered. The
+ * first frame the new encoder sees is then the keyframe the next fragment starts with.
+ */
+final class ResumePlanner {
+    static final class Plan {
+        final boolean resume;
+        final long seekTimeUs;
+        final long skipUntilUs;
+        final long truncateToBytes;
+        final int lastSequenceNumber;
+        final String reason;
+
+        private Plan(boolean resume, long seekTimeUs, long skipUntilUs, long truncateToBytes,
+                     int lastSequenceNumber, String reason)
+        {
+            this.resume = resume;
+            this.seekTimeUs = seekTimeUs;
+            this.skipUntilUs = skipUntilUs;
+            this.truncateToBytes = truncateToBytes;
+            this.lastSequenceNumber = lastSequenceNumber;
+            this.reason = reason;
+        }
+
+        static Plan restart(String reason)
+        {
+            return new Plan(false, 0, 0, 0, 0, reason);
+        }
+
+        @Override
+        public String toString() {
+            if (!resume)
+                return "restart: " + reason;
+            return "resume after fragment " + lastSequenceNumber + " at " + skipUntilUs + " us, "
+                    + truncateToBytes + " bytes kept";
+        }
+    }
+
+    private ResumePlanner()
+    {
+    }
+
+    /**
+     * @return true if the output of a job with these settings can be continued once it was
+     * interrupted, so that its partial output is worth keeping
+     */
+    static boolean canResume(FrameProcessorSettings settings)
+    {
+        return whyNotResumable(settings) == null;
+    }
+
+    private static String whyNotResumable(FrameProcessorSettings settings)
+    {
+        if (!settings.isResumable())
+            return "job is not resumable";
+        if (settings.getContainer() != FrameProcessorSettings.Container.FRAGMENTED_MP4
+                || settings.getOutputMode() != FrameProcessorSettings.OutputMode.VIDEO)
+            return "only fragmented video output can be appended to";
+        if (settings.getRenditions().size() > 1)
+            return "renditions of a ladder cannot be continued together";
+        return null;
+    }
+
+    /**
+     * @param outputLength current length of the output, or -1 if it no longer exists
+     */
+    static Plan plan(JobCheckpoint checkpoint, long outputLength)
+    {
+        String reason = whyNotResumable(checkpoint.settings);
+        if (reason != null)
+            return Plan.restart(reason);
+        if (checkpoint.getOutputCount() == 0 || checkpoint.getFragments() == 0)
+            return Plan.restart("no fragment written");
+        if (checkpoint.getEncoderName() == null)
+            return Plan.restart("encoder unknown");
+        if (outputLength < 0)
+            return Plan.restart("output is gone");
+        if (outputLength < checkpoint.getOutputBytes())
+            return Plan.restart("output is shorter than the checkpoint");
+        long resumeTimeUs = checkpoint.getResumeTimeUs();
+        return new Plan(true, resumeTimeUs, resumeTimeUs, checkpoint.getOutputBytes(),
+                checkpoint.getFragments(), null);
+    }
+}
@@ -0,0 +1,122 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed off-heap byte budget for encoded samples waiting to be written. Regions are handed out
+ * from a ring over a single direct buffer and must be freed in allocation order, which matches
+ * the strictly ordered mux queue. {@link #allocate} blocks while the budget is used up, pushing
+ * back on the producer instead of growing.
+ */
+final class SampleArena {
+    private final ByteBuffer mMemory;
+    private final int mCapacity;
+    private int mHead;
+    private int mTail;
+    // Bytes in use, including the unused end of the ring skipped by a wrapped allocation
+    private int mUsed;
+    private int mPeakUsed;
+    private long mBlockedNanos;
+
+    SampleArena(int capacity)
+    {
+        mCapacity = capacity;
+        mMemory = ByteBuffer.allocateDirect(capacity);
+    }
+
+    int getCapacity()
+    {
+        return mCapacity;
+    }
+
+    /**
+     * @return a new view of the arena memory, to be positioned on allocated regions
+     */
+    ByteBuffer newView()
+    {
+        return mMemory.duplicate();
+    }
+
+    /**
+     * @return the offset of a region of the given size
+     */
+    synchronized int allocate(int size) throws InterruptedException
+    {
+        if (size > mCapacity)
+            throw new IllegalArgumentException("Sample of " + size + " bytes exceeds the arena");
+        long blockedSince = 0;
+        while (true)
+        {
+            if (mUsed == 0)
+            {
+                mHead = 0;
+                mTail = 0;
+            }
+            int offset = -1;
+            if (mUsed < mCapacity)
+            {
+                if (mHead >= mTail)
+                {
+                    if (mCapacity - mHead >= size)
+                    {
+                        offset = mHead;
+                    }
+                    else if (mTail >= size)
+                    {
+                        // Skip the end of the ring; it is given back when this region is freed
+                        mUsed += mCapacity - mHead;
+                        offset = 0;
+                    }
+                }
+                else if (mTail - mHead >= size)
+                {
+                    offset = mHead;
+                }
+            }
+
+            if (offset >= 0)
+            {
+                mHead = offset + size;
+                mUsed += size;
+                mPeakUsed = Math.max(mPeakUsed, mUsed);
+                if (blockedSince != 0)
+                    mBlockedNanos += System.nanoTime() - blockedSince;
+                return offset;
+            }
+            if (blockedSince == 0)
+                blockedSince = System.nanoTime();
+            wait();
+        }
+    }
+
+    synchronized void free(int offset, int size)
+    {
+        if (offset != mTail)
+        {
+            if (offset != 0)
+                throw new IllegalStateException("Regions must be freed in allocation order");
+            mUsed -= mCapacity - mTail;
+        }
+        mTail = offset + size;
+        mUsed -= size;
+        notifyAll();
+    }
+
+    synchronized int getUsed()
+    {
+        return mUsed;
+    }
+
+    synchronized int getPeakUsed()
+    {
+        return mPeakUsed;
+    }
+
+    /**
+     * @return total time producers spent waiting for space
+     */
+    synchronized long getBlockedNanos()
+    {
+        return mBlockedNanos;
+    }
+}
@@ -0,0 +1,25 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The MediaExtractor calls used by the {@link DemuxThread}, for a selected track.
+ */
+interface SampleSource {
+    /**
+     * @return the size of the current sample, or -1 if unknown
+     */
+    long getSampleSize();
+
+    /**
+     * @return the sample size, or -1 at the end of the stream
+     * @throws IllegalArgumentException if the buffer is too small
+     */
+    int readSampleData(ByteBuffer buffer, int offset);
+
+    long getSampleTime();
+
+    int getSampleFlags();
+
+    boolean advance();
+}
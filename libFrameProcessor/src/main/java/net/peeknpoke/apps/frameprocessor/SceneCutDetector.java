@@ -0,0 +1,89 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Detects hard cuts from consecutive luma histograms. A cut is reported when the histogram
+ * distance reaches the cut threshold; the detector then stays disarmed until the distance drops
+ * below the lower re-arm threshold, so flashes and fast pans that keep the distance high yield a
+ * single cut. Cuts closer than the minimum shot length to the previous one are ignored.
+ */
+final class SceneCutDetector {
+    static final float DEFAULT_CUT_THRESHOLD = 0.35f;
+    static final float DEFAULT_REARM_THRESHOLD = 0.15f;
+    static final long DEFAULT_MIN_SHOT_US = 500000;
+
+    private final float mCutThreshold;
+    private final float mRearmThreshold;
+    private final long mMinShotUs;
+    private final int[] mPreviousHistogram = new int[FrameStatistics.HISTOGRAM_BINS];
+    private int mPreviousPixelCount;
+    private boolean mArmed = true;
+    private long mShotStartUs;
+    private float mLastDistance;
+    private final List<Long> mCuts = new ArrayList<>();
+
+    SceneCutDetector()
+    {
+        this(DEFAULT_CUT_THRESHOLD, DEFAULT_REARM_THRESHOLD, DEFAULT_MIN_SHOT_US);
+    }
+
+    SceneCutDetector(float cutThreshold, float rearmThreshold, long minShotUs)
+    {
+        if (rearmThreshold > cutThreshold)
+            throw new IllegalArgumentException("Re-arm threshold above cut threshold");
+        mCutThreshold = cutThreshold;
+        mRearmThreshold = rearmThreshold;
+        mMinShotUs = minShotUs;
+    }
+
+    /**
+     * @return true if this frame starts a new shot
+     */
+    boolean onFrame(long presentationTimeUs, int[] histogram, int pixelCount)
+    {
+        if (mPreviousPixelCount == 0)
+        {
+            remember(histogram, pixelCount);
+            mShotStartUs = presentationTimeUs;
+            return false;
+        }
+
+        mLastDistance = StatisticsCalculator.histogramDistance(mPreviousHistogram, mPreviousPixelCount,
+                histogram, pixelCount);
+        remember(histogram, pixelCount);
+
+        if (!mArmed)
+        {
+            if (mLastDistance < mRearmThreshold)
+                mArmed = true;
+            return false;
+        }
+
+        if (mLastDistance >= mCutThreshold && presentationTimeUs - mShotStartUs >= mMinShotUs)
+        {
+            mCuts.add(presentationTimeUs);
+            mShotStartUs = presentationTimeUs;
+            mArmed = false;
+            return true;
+        }
+        return false;
+    }
+
+    private void remember(int[] histogram, int pixelCount)
+    {
+        System.arraycopy(histogram, 0, mPreviousHistogram, 0, mPreviousHistogram.length);
+        mPreviousPixelCount = pixelCount;
+    }
+
+    float getLastDistance() {
+        return mLastDistance;
+    }
+
+    List<Long> getCuts()
+    {
+        return Collections.unmodifiableList(mCuts);
+    }
+}
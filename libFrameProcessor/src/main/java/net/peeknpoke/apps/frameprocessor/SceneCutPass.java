@@ -0,0 +1,63 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.opengl.GLES30;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Runs the {@link SceneCutDetector} on a tiny copy of every rendered frame. The readback is
+ * synchronous on purpose: the sync frame request has to reach the encoder before the frame is
+ * swapped into it, and at 64x36 the copy is a few kilobytes.
+ */
+class SceneCutPass {
+    private static final int WIDTH = 64;
+
+    private final int mSourceWidth;
+    private final int mSourceHeight;
+    private final FrameBufferPool mPool;
+    private final FrameBuffer mFrameBuffer;
+    private final ByteBuffer mPixels;
+    private final int[] mHistogram = new int[FrameStatistics.HISTOGRAM_BINS];
+    private final SceneCutDetector mDetector = new SceneCutDetector();
+
+    SceneCutPass(FrameBufferPool pool, int sourceWidth, int sourceHeight)
+    {
+        mPool = pool;
+        mSourceWidth = sourceWidth;
+        mSourceHeight = sourceHeight;
+        int width = Math.min(WIDTH, sourceWidth);
+        int height = Math.max(1, Math.round((float) width*sourceHeight/sourceWidth));
+        mFrameBuffer = pool.acquire(width, height);
+        mPixels = ByteBuffer.allocateDirect(width*height*4).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * @return true if the frame just rendered into the default framebuffer starts a new shot
+     */
+    boolean detect(long presentationTimeUs)
+    {
+        int width = mFrameBuffer.getWidth();
+        int height = mFrameBuffer.getHeight();
+        GLES30.glBindFramebuffer(GLES30.GL_READ_FRAMEBUFFER, 0);
+        GLES30.glBindFramebuffer(GLES30.GL_DRAW_FRAMEBUFFER, mFrameBuffer.getFramebuffer());
+        GLES30.glBlitFramebuffer(0, 0, mSourceWidth, mSourceHeight, 0, 0, width, height,
+                GLES30.GL_COLOR_BUFFER_BIT, GLES30.GL_LINEAR);
+        GLES30.glBindFramebuffer(GLES30.GL_READ_FRAMEBUFFER, mFrameBuffer.getFramebuffer());
+        mPixels.clear();
+        GLES30.glReadPixels(0, 0, width, height, GLES30.GL_RGBA, GLES30.GL_UNSIGNED_BYTE, mPixels);
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, 0);
+
+        StatisticsCalculator.lumaHistogram(mPixels, width*height, mHistogram);
+        return mDetector.onFrame(presentationTimeUs, mHistogram, width*height);
+    }
+
+    SceneCutDetector getDetector() {
+        return mDetector;
+    }
+
+    void cleanup()
+    {
+        mPool.release(mFrameBuffer);
+    }
+}
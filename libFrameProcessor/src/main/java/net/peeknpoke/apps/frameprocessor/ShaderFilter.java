@@ -0,0 +1,42 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.content.Context;
+import android.opengl.GLES30;
+
+/**
+ * Single pass filter whose fragment shader only needs the input texture.
+ */
+class ShaderFilter implements Filter {
+    private final String mFragmentShaderName;
+    private FilterPass mPass;
+    private int mTextureLoc;
+    private int mWidth;
+    private int mHeight;
+
+    ShaderFilter(String fragmentShaderName)
+    {
+        mFragmentShaderName = fragmentShaderName;
+    }
+
+    @Override
+    public void setup(Context context, FrameBufferPool pool, int width, int height, int internalFormat) {
+        mWidth = width;
+        mHeight = height;
+        mPass = new FilterPass(context, mFragmentShaderName);
+        mTextureLoc = mPass.getUniformLocation("sTexture");
+    }
+
+    @Override
+    public void draw(int inputTexture, int outputFramebuffer) {
+        mPass.use();
+        FilterPass.bindTexture(0, GLES30.GL_TEXTURE_2D, inputTexture, mTextureLoc);
+        mPass.draw(outputFramebuffer, mWidth, mHeight);
+    }
+
+    @Override
+    public void cleanup() {
+        if (mPass!=null)
+            mPass.cleanup();
+        mPass = null;
+    }
+}
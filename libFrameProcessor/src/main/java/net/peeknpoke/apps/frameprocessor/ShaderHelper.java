@@ -0,0 +1,120 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.content.Context;
+import android.opengl.GLES30;
+import android.opengl.GLES31;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+class ShaderHelper {
+    private static final String TAG = ShaderHelper.class.getSimpleName();
+
+    private ShaderHelper()
+    {
+    }
+
+    static String loadShaderFile(Context context, String filename)
+    {
+        try
+        {
+            InputStream inputStream = context.getAssets().open(filename);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+            StringBuilder shaderText = new StringBuilder();
+            String inputLine = reader.readLine();
+            while (inputLine != null) {
+                shaderText.append(inputLine).append("\n");
+                inputLine = reader.readLine();
+            }
+            reader.close();
+            return shaderText.toString();
+        }
+        catch (IOException e)
+        {
+            Log.e(TAG, "Shader not found: " + filename);
+        }
+
+        return null;
+    }
+
+    static int createProgram(String vertexShaderCode, String fragmentShaderCode)
+    {
+        int vertexShader = loadGLShader(vertexShaderCode, GLES30.GL_VERTEX_SHADER);
+        int fragmentShader = loadGLShader(fragmentShaderCode, GLES30.GL_FRAGMENT_SHADER);
+
+        int program = GLES30.glCreateProgram();
+        GLES30.glAttachShader(program, vertexShader);
+        GLES30.glAttachShader(program, fragmentShader);
+        GLES30.glLinkProgram(program);
+
+        // The shaders are flagged for deletion and go away together with the program
+        GLES30.glDeleteShader(vertexShader);
+        GLES30.glDeleteShader(fragmentShader);
+
+        checkLinkStatus(program);
+        return program;
+    }
+
+    /**
+     * Needs an OpenGL ES 3.1 context.
+     */
+    static int createComputeProgram(String computeShaderCode)
+    {
+        int computeShader = loadGLShader(computeShaderCode, GLES31.GL_COMPUTE_SHADER);
+
+        int program = GLES30.glCreateProgram();
+        GLES30.glAttachShader(program, computeShader);
+        GLES30.glLinkProgram(program);
+        GLES30.glDeleteShader(computeShader);
+
+        checkLinkStatus(program);
+        return program;
+    }
+
+    private static void checkLinkStatus(int program)
+    {
+        final int[] result = new int[1];
+        GLES30.glGetProgramiv(program, GLES30.GL_LINK_STATUS, result, 0);
+        if (result[0] == 0) {
+            Log.e(TAG, "Error linking program: " + GLES30.glGetProgramInfoLog(program));
+            GLES30.glDeleteProgram(program);
+            throw new RuntimeException("Error creating program.");
+        }
+    }
+
+    static int loadGLShader(String shaderCode, int type)
+    {
+        int shader = GLES30.glCreateShader(type);
+        GLES30.glShaderSource(shader, shaderCode);
+        GLES30.glCompileShader(shader);
+
+        // If shader could not be compiled throw runtime exceptions
+        final int[] result = new int[1];
+        GLES30.glGetShaderiv(shader, GLES30.GL_COMPILE_STATUS, result, 0);
+
+        // If the compilation failed, delete the shader.
+        if (result[0] == 0) {
+            Log.e(TAG, "Error compiling shader: " + GLES30.glGetShaderInfoLog(shader));
+            GLES30.glDeleteShader(shader);
+            throw new RuntimeException("Error creating shader.");
+        }
+
+        return shader;
+    }
+
+    static void checkGLError(String tag, String label) {
+        int lastError = GLES30.GL_NO_ERROR;
+        // Drain the queue of all errors.
+        int error;
+        while ((error = GLES30.glGetError()) != GLES30.GL_NO_ERROR) {
+            Log.e(tag, label + ": glError " + error);
+            lastError = error;
+        }
+        if (lastError != GLES30.GL_NO_ERROR) {
+            throw new RuntimeException(label + ": glError " + lastError);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.opengl.GLES30;
+
+/**
+ * The GL objects shared by all contexts created from one root context: compiled programs, static
+ * textures such as LUTs, and a pool of the textures that intermediate frames are rendered into.
+ * Framebuffer objects are not shared between contexts and stay in each worker's
+ * {@link FrameBufferPool}, around textures of the pool, which outlive the worker so that the
+ * next job reuses them. Like GL itself, the share group in use is a property of the calling
+ * thread, set when a worker context is made current.
+ */
+final class ShareGroup {
+    private static final ThreadLocal<ShareGroup> sCurrent = new ThreadLocal<>();
+
+    /**
+     * A texture of the pool, with a fence after the last commands of the context that released it.
+     */
+    static final class PooledTexture {
+        final int name;
+        long fence;
+
+        PooledTexture(int name)
+        {
+            this.name = name;
+        }
+    }
+
+    private static final ResourcePool.Allocator<PooledTexture> TEXTURE_ALLOCATOR =
+            new ResourcePool.Allocator<PooledTexture>() {
+        @Override
+        public PooledTexture create(ResourcePool.Key key) {
+            return new PooledTexture(FrameBuffer.createTexture(key.width, key.height, key.format));
+        }
+
+        @Override
+        public void destroy(PooledTexture texture) {
+            if (texture.fence != 0)
+                GLES30.glDeleteSync(texture.fence);
+            GLES30.glDeleteTextures(1, new int[]{texture.name}, 0);
+        }
+
+        @Override
+        public long sizeOf(ResourcePool.Key key) {
+            return FrameBufferPool.sizeOf(key);
+        }
+    };
+
+    private static final class ProgramSource {
+        // Null for a compute program, whose shader is then the only one
+        final String vertexShader;
+        final String shader;
+
+        ProgramSource(String vertexShader, String shader)
+        {
+            this.vertexShader = vertexShader;
+            this.shader = shader;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ProgramSource))
+                return false;
+            ProgramSource source = (ProgramSource) o;
+            return (vertexShader == null ? source.vertexShader == null : vertexShader.equals(source.vertexShader))
+                    && shader.equals(source.shader);
+        }
+
+        @Override
+        public int hashCode() {
+            return (vertexShader == null ? 0 : vertexShader.hashCode())*31 + shader.hashCode();
+        }
+    }
+
+    private static final SharedObjects.Creator<ProgramSource> PROGRAM_CREATOR =
+            new SharedObjects.Creator<ProgramSource>() {
+        @Override
+        public int create(ProgramSource source) {
+            int program = source.vertexShader == null ? ShaderHelper.createComputeProgram(source.shader)
+                    : ShaderHelper.createProgram(source.vertexShader, source.shader);
+            // Other contexts may only use the program once its creation has completed
+            GLES30.glFinish();
+            return program;
+        }
+    };
+
+    private final SharedObjects<ProgramSource> mPrograms = new SharedObjects<>(new SharedObjects.Deleter() {
+        @Override
+        public void delete(int name) {
+            GLES30.glDeleteProgram(name);
+        }
+    });
+
+    private final SharedObjects<Object> mTextures = new SharedObjects<>(new SharedObjects.Deleter() {
+        @Override
+        public void delete(int name) {
+            GLES30.glDeleteTextures(1, new int[]{name}, 0);
+        }
+    });
+
+    private final ResourcePool<PooledTexture> mTexturePool = new ResourcePool<>(TEXTURE_ALLOCATOR,
+            FrameBufferPool.DEFAULT_BUDGET_BYTES);
+
+    /**
+     * @return the share group of the worker context current on this thread
+     * @throws IllegalStateException if there is none
+     */
+    static ShareGroup current()
+    {
+        ShareGroup group = sCurrent.get();
+        if (group == null)
+            throw new IllegalStateException("No worker context is current on " + Thread.currentThread().getName());
+        return group;
+    }
+
+    static void setCurrent(ShareGroup group)
+    {
+        if (group != null)
+            sCurrent.set(group);
+        else
+            sCurrent.remove();
+    }
+
+    int acquireProgram(String vertexShader, String fragmentShader)
+    {
+        return mPrograms.acquire(new ProgramSource(vertexShader, fragmentShader), PROGRAM_CREATOR);
+    }
+
+    /**
+     * Needs an OpenGL ES 3.1 context. Released with {@link #releaseProgram}.
+     */
+    int acquireComputeProgram(String computeShader)
+    {
+        return mPrograms.acquire(new ProgramSource(null, computeShader), PROGRAM_CREATOR);
+    }
+
+    void releaseProgram(int program)
+    {
+        mPrograms.release(program);
+    }
+
+    /**
+     * @param key identifies the texture contents, e.g. the {@link CubeLut} it was uploaded from
+     */
+    <K> int acquireTexture(K key, final SharedObjects.Creator<K> creator)
+    {
+        return mTextures.acquire(key, new SharedObjects.Creator<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public int create(Object key) {
+                int texture = creator.create((K) key);
+                GLES30.glFinish();
+                return texture;
+            }
+        });
+    }
+
+    void releaseTexture(int texture)
+    {
+        mTextures.release(texture);
+    }
+
+    /**
+     * @return a texture to render into, reused from a job before if an idle one has the same size
+     * and format. Released with {@link #releasePooledTexture}.
+     */
+    synchronized PooledTexture acquirePooledTexture(int width, int height, int internalFormat)
+    {
+        PooledTexture texture = mTexturePool.acquire(new ResourcePool.Key(width, height, internalFormat));
+        if (texture.fence != 0)
+        {
+            // The context that used the texture before may still be rendering into it
+            GLES30.glWaitSync(texture.fence, 0, GLES30.GL_TIMEOUT_IGNORED);
+            GLES30.glDeleteSync(texture.fence);
+            texture.fence = 0;
+        }
+        return texture;
+    }
+
+    synchronized void releasePooledTexture(PooledTexture texture)
+    {
+        texture.fence = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        // Another context can only wait for a fence that has been flushed
+        GLES30.glFlush();
+        mTexturePool.release(texture);
+    }
+
+    /**
+     * Deletes the idle textures of the pool.
+     */
+    synchronized void trimTextures()
+    {
+        mTexturePool.trim();
+    }
+
+    synchronized String describeTexturePool()
+    {
+        return mTexturePool.toString();
+    }
+
+    int getProgramCount()
+    {
+        return mPrograms.size();
+    }
+
+    int getTextureCount()
+    {
+        return mTextures.size();
+    }
+}
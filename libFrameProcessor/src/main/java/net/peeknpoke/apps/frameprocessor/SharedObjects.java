@@ -0,0 +1,80 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.util.HashMap;
+
+/**
+ * Reference counted GL object names shared by the contexts of a share group, so that each
+ * program or static texture exists once however many workers use it. An object is created by the
+ * first worker asking for its key and deleted when the last one lets go, on that worker's thread
+ * with its context current.
+ */
+final class SharedObjects<K> {
+    interface Creator<K> {
+        int create(K key);
+    }
+
+    interface Deleter {
+        void delete(int name);
+    }
+
+    private static final class Entry<K> {
+        final K key;
+        final int name;
+        int references;
+
+        Entry(K key, int name)
+        {
+            this.key = key;
+            this.name = name;
+        }
+    }
+
+    private final Deleter mDeleter;
+    private final HashMap<K, Entry<K>> mByKey = new HashMap<>();
+    private final HashMap<Integer, Entry<K>> mByName = new HashMap<>();
+    private int mCreated;
+
+    SharedObjects(Deleter deleter)
+    {
+        mDeleter = deleter;
+    }
+
+    synchronized int acquire(K key, Creator<K> creator)
+    {
+        Entry<K> entry = mByKey.get(key);
+        if (entry == null)
+        {
+            entry = new Entry<>(key, creator.create(key));
+            mByKey.put(key, entry);
+            mByName.put(entry.name, entry);
+            mCreated++;
+        }
+        entry.references++;
+        return entry.name;
+    }
+
+    synchronized void release(int name)
+    {
+        Entry<K> entry = mByName.get(name);
+        if (entry == null)
+            throw new IllegalArgumentException("Object " + name + " is not shared here");
+        if (--entry.references > 0)
+            return;
+        mByKey.remove(entry.key);
+        mByName.remove(name);
+        mDeleter.delete(name);
+    }
+
+    synchronized int size()
+    {
+        return mByKey.size();
+    }
+
+    /**
+     * @return the number of objects created so far
+     */
+    synchronized int getCreated()
+    {
+        return mCreated;
+    }
+}
@@ -0,0 +1,47 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.nio.ByteBuffer;
+
+final class StatisticsCalculator {
+    private StatisticsCalculator()
+    {
+    }
+
+    /**
+     * Fills the luma histogram of tightly packed RGBA pixels and returns the average luma.
+     * Uses the integer BT.601 approximation (77 R + 150 G + 29 B) / 256.
+     */
+    static float lumaHistogram(ByteBuffer rgba, int pixelCount, int[] histogram)
+    {
+        for (int i = 0; i < histogram.length; i++)
+            histogram[i] = 0;
+
+        long sum = 0;
+        int base = rgba.position();
+        for (int i = 0; i < pixelCount; i++)
+        {
+            int offset = base + 4*i;
+            int r = rgba.get(offset) & 0xff;
+            int g = rgba.get(offset + 1) & 0xff;
+            int b = rgba.get(offset + 2) & 0xff;
+            int luma = (77*r + 150*g + 29*b) >> 8;
+            histogram[luma]++;
+            sum += luma;
+        }
+        return pixelCount == 0 ? 0.0f : (float) sum/pixelCount;
+    }
+
+    /**
+     * Half of the L1 distance between two normalized histograms, in [0, 1].
+     */
+    static float histogramDistance(int[] previous, int previousCount, int[] current, int currentCount)
+    {
+        if (previousCount == 0 || currentCount == 0)
+            return 0.0f;
+
+        double distance = 0;
+        for (int i = 0; i < current.length; i++)
+            distance += Math.abs((double) previous[i]/previousCount - (double) current[i]/currentCount);
+        return (float) (distance/2);
+    }
+}
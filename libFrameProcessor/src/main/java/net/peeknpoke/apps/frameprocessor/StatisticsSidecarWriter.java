@@ -0,0 +1,62 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.util.Log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes one CSV line of {@link FrameStatistics} per analysed frame next to the output video.
+ */
+class StatisticsSidecarWriter {
+    private static final String TAG = StatisticsSidecarWriter.class.getSimpleName();
+    static final String EXTENSION = ".stats.csv";
+
+    private final File mFile;
+    private Writer mWriter;
+
+    StatisticsSidecarWriter(File videoFile) throws IOException
+    {
+        mFile = FileOperations.createSidecarFile(videoFile, EXTENSION);
+        mWriter = new BufferedWriter(new FileWriter(mFile));
+        mWriter.write("frame,pts_us,average_luma,scene_change\n");
+    }
+
+    File getFile() {
+        return mFile;
+    }
+
+    synchronized void write(FrameStatistics statistics)
+    {
+        if (mWriter == null)
+            return;
+        try {
+            mWriter.write(Long.toString(statistics.getFrameIndex()));
+            mWriter.write(',');
+            mWriter.write(Long.toString(statistics.getPresentationTimeUs()));
+            mWriter.write(',');
+            mWriter.write(Float.toString(statistics.getAverageLuma()));
+            mWriter.write(',');
+            mWriter.write(Float.toString(statistics.getSceneChangeScore()));
+            mWriter.write('\n');
+        } catch (IOException e) {
+            Log.e(TAG, "Could not write statistics - " + e.getMessage());
+            close();
+        }
+    }
+
+    synchronized void close()
+    {
+        if (mWriter == null)
+            return;
+        try {
+            mWriter.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not close statistics - " + e.getMessage());
+        }
+        mWriter = null;
+    }
+}
@@ -0,0 +1,73 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.opengl.GLES30;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads selected frames back at full resolution through a {@link PixelReader} and hands them to
+ * a {@link StillEncoder}. Unlike the analysis tap, stills are never dropped: when both PBOs are
+ * in flight the oldest is waited for.
+ */
+class StillCapture implements PixelReader.Consumer {
+    private static final int READBACK_DEPTH = 2;
+    private static final int WORKERS = 2;
+    private static final int BUFFERS = 3;
+
+    private final int mWidth;
+    private final PixelReader mPixelReader;
+    private final StillEncoder mEncoder;
+
+    StillCapture(int width, int height, StillEncoder.Destination destination, int quality,
+                 StillEncoder.Listener listener)
+    {
+        mWidth = width;
+        mPixelReader = new PixelReader(width, height, READBACK_DEPTH);
+        mEncoder = new StillEncoder(width, height, destination, quality, WORKERS, BUFFERS, listener);
+    }
+
+    /**
+     * Queues the readback of the frame just rendered into the default framebuffer.
+     */
+    void capture(long frameIndex, long presentationTimeUs)
+    {
+        GLES30.glBindFramebuffer(GLES30.GL_READ_FRAMEBUFFER, 0);
+        mPixelReader.poll(this);
+        while (!mPixelReader.requestReadback(frameIndex, presentationTimeUs))
+            mPixelReader.waitOldest(this);
+    }
+
+    /**
+     * Hands over any completed readback without blocking.
+     */
+    void poll()
+    {
+        mPixelReader.poll(this);
+    }
+
+    @Override
+    public void onPixels(long tag, long presentationTimeUs, ByteBuffer pixels) {
+        StillEncoder.Job job = mEncoder.acquire();
+        if (job == null)
+            return;
+        StillEncoder.copyFlipped(pixels, job.getPixels(), mWidth*4, mPixelReader.getHeight());
+        mEncoder.submit(job, presentationTimeUs);
+    }
+
+    int getWritten()
+    {
+        return mEncoder.getWritten();
+    }
+
+    void finish()
+    {
+        mPixelReader.flush(this);
+        mEncoder.finish();
+    }
+
+    void cleanup()
+    {
+        mEncoder.release();
+        mPixelReader.cleanup();
+    }
+}
@@ -0,0 +1,233 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compresses RGBA frames to JPEG outputs on a bounded worker pool. Each of the pooled buffers owns
+ * a bitmap that is reused for every still; when all of them are busy {@link #acquire()} blocks,
+ * which pushes back on the rendering thread instead of dropping stills.
+ */
+class StillEncoder {
+    private static final String TAG = StillEncoder.class.getSimpleName();
+
+    interface Listener {
+        /**
+         * @param location path of the file written, or the URI of its MediaStore entry
+         */
+        void onStillWritten(String location, long presentationTimeUs);
+    }
+
+    /**
+     * Where the stills go, e.g. files in the app's media folder or MediaStore entries.
+     */
+    interface Destination {
+        /**
+         * Called on a worker thread.
+         * @param name of the still, without extension
+         */
+        OutputSink open(String name) throws IOException;
+    }
+
+    final class Job implements Runnable {
+        final ByteBuffer mPixels;
+        final Bitmap mBitmap;
+        long mPresentationTimeUs;
+
+        Job()
+        {
+            mPixels = ByteBuffer.allocateDirect(mWidth*mHeight*4).order(ByteOrder.nativeOrder());
+            mBitmap = Bitmap.createBitmap(mWidth, mHeight, Bitmap.Config.ARGB_8888);
+        }
+
+        ByteBuffer getPixels() {
+            return mPixels;
+        }
+
+        @Override
+        public void run() {
+            try {
+                write(this);
+            } finally {
+                release(this);
+            }
+        }
+    }
+
+    private final int mWidth;
+    private final int mHeight;
+    private final Destination mDestination;
+    private final int mQuality;
+    private final Listener mListener;
+    private final ArrayBlockingQueue<Job> mFreeJobs;
+    private final ThreadPoolExecutor mExecutor;
+    private final int mJobCount;
+    private int mWritten;
+    private boolean mReleased;
+
+    StillEncoder(int width, int height, Destination destination, int quality, int workers, int buffers,
+                 Listener listener)
+    {
+        mWidth = width;
+        mHeight = height;
+        mDestination = destination;
+        mQuality = quality;
+        mListener = listener;
+        mJobCount = buffers;
+        mFreeJobs = new ArrayBlockingQueue<>(buffers);
+        for (int i = 0; i < buffers; i++)
+            mFreeJobs.add(new Job());
+
+        mExecutor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(buffers), new ThreadFactory() {
+            private int mCount;
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "StillEncoder-" + mCount++);
+            }
+        });
+    }
+
+    /**
+     * Blocks until a buffer is free.
+     */
+    Job acquire()
+    {
+        try {
+            return mFreeJobs.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    void submit(Job job, long presentationTimeUs)
+    {
+        job.mPresentationTimeUs = presentationTimeUs;
+        mExecutor.execute(job);
+    }
+
+    private void write(Job job)
+    {
+        job.mPixels.position(0);
+        job.mBitmap.copyPixelsFromBuffer(job.mPixels);
+
+        String name = "still_" + job.mPresentationTimeUs/1000;
+        OutputSink sink;
+        try {
+            sink = mDestination.open(name);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not open still " + name + " - " + e.getMessage());
+            return;
+        }
+        try {
+            // Not closed, the sink owns the channel
+            OutputStream output = new BufferedOutputStream(Channels.newOutputStream(sink.getChannel()));
+            job.mBitmap.compress(Bitmap.CompressFormat.JPEG, mQuality, output);
+            output.flush();
+            sink.commit();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not write still " + name + " - " + e.getMessage());
+            sink.abort();
+            return;
+        }
+        synchronized (this)
+        {
+            mWritten++;
+        }
+        mListener.onStillWritten(getLocation(sink), job.mPresentationTimeUs);
+    }
+
+    private static String getLocation(OutputSink sink)
+    {
+        if (sink instanceof MediaStoreOutputSink)
+            return ((MediaStoreOutputSink) sink).getUri().toString();
+        return ((FileOutputSink) sink).getFile().getPath();
+    }
+
+    private void release(Job job)
+    {
+        synchronized (this)
+        {
+            mFreeJobs.add(job);
+            // A still that was being written when the encoder was released frees its own bitmap
+            if (mReleased)
+                job.mBitmap.recycle();
+            notifyAll();
+        }
+    }
+
+    synchronized int getWritten() {
+        return mWritten;
+    }
+
+    /**
+     * Waits for the stills in flight, then stops the workers and frees the bitmaps.
+     */
+    void finish()
+    {
+        synchronized (this)
+        {
+            try {
+                while (mFreeJobs.size() < mJobCount)
+                    wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        mExecutor.shutdown();
+        for (Job job : mFreeJobs)
+            job.mBitmap.recycle();
+    }
+
+    /**
+     * Stops the workers without waiting for the stills in flight, e.g. when a job is cancelled,
+     * and frees the bitmaps. Stills that were not started are dropped.
+     */
+    void release()
+    {
+        List<Runnable> pending = mExecutor.shutdownNow();
+        synchronized (this)
+        {
+            mReleased = true;
+            for (Runnable job : pending)
+                mFreeJobs.add((Job) job);
+            for (Job job : mFreeJobs)
+                job.mBitmap.recycle();
+            notifyAll();
+        }
+    }
+
+    /**
+     * Copies bottom-up GL rows into top-down bitmap order.
+     */
+    static void copyFlipped(ByteBuffer source, ByteBuffer destination, int rowBytes, int rows)
+    {
+        int sourceBase = source.position();
+        int limit = source.limit();
+        destination.clear();
+        for (int row = rows - 1; row >= 0; row--)
+        {
+            int start = sourceBase + row*rowBytes;
+            source.limit(start + rowBytes);
+            source.position(start);
+            destination.put(source);
+        }
+        source.limit(limit);
+        source.position(sourceBase);
+        destination.flip();
+    }
+}
@@ -0,0 +1,60 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.util.TreeSet;
+
+/**
+ * Decides which decoded frames become stills: either every interval of presentation time or every
+ * sync frame. Decoder output does not carry the sync flag reliably, so sync samples are recorded
+ * when they are read from the extractor and looked up by timestamp on output.
+ */
+final class StillFrameSelector {
+    private final long mIntervalUs;
+    private final TreeSet<Long> mSyncSamples = new TreeSet<>();
+    private long mNextStillUs = Long.MIN_VALUE;
+
+    /**
+     * @param intervalUs time between stills, 0 to select sync frames
+     */
+    StillFrameSelector(long intervalUs)
+    {
+        mIntervalUs = intervalUs;
+    }
+
+    boolean isSyncFrameMode()
+    {
+        return mIntervalUs <= 0;
+    }
+
+    /**
+     * Records a sample read from the extractor.
+     */
+    synchronized void onSampleRead(long presentationTimeUs, boolean sync)
+    {
+        if (sync && isSyncFrameMode())
+            mSyncSamples.add(presentationTimeUs);
+    }
+
+    /**
+     * @return true if the decoded frame with this timestamp should be written as a still
+     */
+    synchronized boolean select(long presentationTimeUs)
+    {
+        if (isSyncFrameMode())
+        {
+            // Frames come out in presentation order, so older entries can never match any more
+            while (!mSyncSamples.isEmpty() && mSyncSamples.first() < presentationTimeUs)
+                mSyncSamples.pollFirst();
+            return mSyncSamples.remove(presentationTimeUs);
+        }
+
+        if (mNextStillUs == Long.MIN_VALUE)
+            mNextStillUs = presentationTimeUs;
+        if (presentationTimeUs < mNextStillUs)
+            return false;
+
+        // Skip over gaps longer than the interval instead of writing a burst of stills
+        long elapsed = presentationTimeUs - mNextStillUs;
+        mNextStillUs += (elapsed/mIntervalUs + 1)*mIntervalUs;
+        return true;
+    }
+}
@@ -0,0 +1,131 @@
+package net.peeknpoke.apps.frameprocessor;
+
+/**
+ * Weights of temporal_denoise.frag, a CPU reference of the shader, and the ring the history
+ * frames are kept in. Each history pixel is averaged into the current one with a weight that
+ * falls off with the difference of their luma: where nothing moves the difference is noise and
+ * the pixel is averaged over the whole history, where something moves the difference is large
+ * and the current frame is kept as it is, so moving edges do not leave trails.
+ */
+final class TemporalDenoise {
+    static final int MAX_HISTORY = 4;       // Must match temporal_denoise.frag
+    private static final float LUMA_R = 0.2126f;
+    private static final float LUMA_G = 0.7152f;
+    private static final float LUMA_B = 0.0722f;
+
+    /**
+     * Slots of the last frames in a fixed array of history textures, reused oldest first, so
+     * keeping the history allocates nothing per frame.
+     */
+    static final class Ring {
+        private final int mCapacity;
+        private int mNewest = -1;
+        private int mSize;
+
+        Ring(int capacity)
+        {
+            if (capacity < 1)
+                throw new IllegalArgumentException("Invalid capacity " + capacity);
+            mCapacity = capacity;
+        }
+
+        int getCapacity()
+        {
+            return mCapacity;
+        }
+
+        /**
+         * @return number of frames in the history, up to the capacity
+         */
+        int size()
+        {
+            return mSize;
+        }
+
+        /**
+         * @param age 0 for the last frame stored, 1 for the one before it
+         * @return the slot of the frame
+         */
+        int slotOf(int age)
+        {
+            if (age < 0 || age >= mSize)
+                throw new IndexOutOfBoundsException("Age " + age + " of " + mSize + " frames");
+            return (mNewest - age + mCapacity) % mCapacity;
+        }
+
+        /**
+         * @return the slot to store the next frame in, which holds the oldest frame once the
+         * history is full
+         */
+        int advance()
+        {
+            mNewest = (mNewest + 1) % mCapacity;
+            mSize = Math.min(mSize + 1, mCapacity);
+            return mNewest;
+        }
+
+        /**
+         * Forgets the history, e.g. at a discontinuity of the input.
+         */
+        void clear()
+        {
+            mNewest = -1;
+            mSize = 0;
+        }
+    }
+
+    private TemporalDenoise()
+    {
+    }
+
+    /**
+     * @param lumaDifference difference of the luma of a history pixel and the current one
+     * @param sigma          standard deviation of the noise, in code values from 0 to 1
+     * @return weight of the history pixel relative to the current one, which has weight 1
+     */
+    static float weight(float lumaDifference, float sigma)
+    {
+        if (sigma <= 0)
+            return 0.0f;
+        return (float) Math.exp(-lumaDifference*lumaDifference/(2.0*sigma*sigma));
+    }
+
+    static float luma(float r, float g, float b)
+    {
+        return LUMA_R*r + LUMA_G*g + LUMA_B*b;
+    }
+
+    /**
+     * What temporal_denoise.frag computes for every pixel of a frame.
+     * @param current interleaved RGB of the current frame
+     * @param history interleaved RGB of the previous frames, newest first
+     * @param count   number of history frames to use
+     * @param output  interleaved RGB of the denoised frame, the same length as current
+     */
+    static void blend(float[] current, float[][] history, int count, float sigma, float[] output)
+    {
+        for (int i = 0; i + 2 < current.length; i += 3)
+        {
+            float r = current[i];
+            float g = current[i + 1];
+            float b = current[i + 2];
+            float y = luma(r, g, b);
+            float sumR = r;
+            float sumG = g;
+            float sumB = b;
+            float total = 1.0f;
+            for (int age = 0; age < count; age++)
+            {
+                float[] frame = history[age];
+                float w = weight(luma(frame[i], frame[i + 1], frame[i + 2]) - y, sigma);
+                sumR += w*frame[i];
+                sumG += w*frame[i + 1];
+                sumB += w*frame[i + 2];
+                total += w;
+            }
+            output[i] = sumR/total;
+            output[i + 1] = sumG/total;
+            output[i + 2] = sumB/total;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.content.Context;
+import android.opengl.GLES30;
+
+/**
+ * Averages every frame with the last few input frames, with the motion-adaptive weights of
+ * {@link TemporalDenoise}. The history is a fixed ring of framebuffers acquired at setup; each
+ * frame is copied into the slot of the oldest one after it has been filtered.
+ */
+class TemporalDenoiseFilter implements Filter {
+    private final float mSigma;
+    private final TemporalDenoise.Ring mRing;
+    private final FrameBuffer[] mHistory;
+    private final int[] mHistoryLocs = new int[TemporalDenoise.MAX_HISTORY];
+    private FrameBufferPool mPool;
+    private FilterPass mPass;
+    private FilterPass mCopyPass;
+    private int mTextureLoc;
+    private int mHistoryCountLoc;
+    private int mInvTwoSigmaSquaredLoc;
+    private int mCopyTextureLoc;
+    private int mWidth;
+    private int mHeight;
+
+    /**
+     * @param frames number of previous frames averaged in, up to {@link TemporalDenoise#MAX_HISTORY}
+     * @param sigma  standard deviation of the noise, in code values from 0 to 1
+     */
+    TemporalDenoiseFilter(int frames, float sigma)
+    {
+        mSigma = sigma;
+        mRing = new TemporalDenoise.Ring(Math.max(1, Math.min(frames, TemporalDenoise.MAX_HISTORY)));
+        mHistory = new FrameBuffer[mRing.getCapacity()];
+    }
+
+    @Override
+    public void setup(Context context, FrameBufferPool pool, int width, int height, int internalFormat) {
+        mPool = pool;
+        mWidth = width;
+        mHeight = height;
+        mPass = new FilterPass(context, "temporal_denoise.frag");
+        mTextureLoc = mPass.getUniformLocation("sTexture");
+        for (int i = 0; i < mHistoryLocs.length; i++)
+            mHistoryLocs[i] = mPass.getUniformLocation("sHistory" + i);
+        mHistoryCountLoc = mPass.getUniformLocation("uHistoryCount");
+        mInvTwoSigmaSquaredLoc = mPass.getUniformLocation("uInvTwoSigmaSquared");
+        mCopyPass = new FilterPass(context, "identity2d.frag");
+        mCopyTextureLoc = mCopyPass.getUniformLocation("sTexture");
+        // 10 bits, so that HDR signals keep their precision in the history as well
+        for (int i = 0; i < mHistory.length; i++)
+            mHistory[i] = pool.acquire(width, height, GLES30.GL_RGB10_A2);
+    }
+
+    @Override
+    public void draw(int inputTexture, int outputFramebuffer) {
+        mPass.use();
+        FilterPass.bindTexture(0, GLES30.GL_TEXTURE_2D, inputTexture, mTextureLoc);
+        for (int age = 0; age < mHistoryLocs.length; age++)
+        {
+            // Unused samplers still need a complete texture
+            int texture = age < mRing.size() ? mHistory[mRing.slotOf(age)].getTexture() : inputTexture;
+            FilterPass.bindTexture(age + 1, GLES30.GL_TEXTURE_2D, texture, mHistoryLocs[age]);
+        }
+        GLES30.glUniform1i(mHistoryCountLoc, mSigma > 0 ? mRing.size() : 0);
+        GLES30.glUniform1f(mInvTwoSigmaSquaredLoc, mSigma > 0 ? 1.0f/(2.0f*mSigma*mSigma) : 0.0f);
+        mPass.draw(outputFramebuffer, mWidth, mHeight);
+
+        // The input, not the output, is kept so that the average does not recurse into itself
+        mCopyPass.use();
+        FilterPass.bindTexture(0, GLES30.GL_TEXTURE_2D, inputTexture, mCopyTextureLoc);
+        mCopyPass.draw(mHistory[mRing.advance()].getFramebuffer(), mWidth, mHeight);
+        GLES30.glActiveTexture(GLES30.GL_TEXTURE0);
+    }
+
+    @Override
+    public void cleanup() {
+        if (mPass != null)
+            mPass.cleanup();
+        mPass = null;
+        if (mCopyPass != null)
+            mCopyPass.cleanup();
+        mCopyPass = null;
+        for (int i = 0; i < mHistory.length; i++)
+        {
+            if (mHistory[i] != null)
+                mPool.release(mHistory[i]);
+            mHistory[i] = null;
+        }
+        mRing.clear();
+    }
+}
@@ -0,0 +1,219 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.util.Locale;
+
+/**
+ * Keeps the throughput of long jobs sustainable instead of letting them run flat out into thermal
+ * throttling, after which the GPU and encoder slow down far below what a slightly slower steady
+ * pace would get. Every few seconds the frame rate of the last interval is compared with the
+ * thermal status of the device:
+ * <ul>
+ * <li>when the device starts to throttle moderately, the frame rate is capped a step below what
+ * it was, and held there while it stays at that status; the temperature lags minutes behind the
+ * load, so cutting again while it settles would overshoot</li>
+ * <li>severe throttling, or a collapse of the frame rate while the device is warm, cuts deeper,
+ * and again every little while as long as it lasts</li>
+ * <li>while the device is warm, the cap is held</li>
+ * <li>once the device has been cool for a while, the cap is raised a step at a time until it is
+ * lifted</li>
+ * </ul>
+ * The encoder is told the capped frame rate as its operating rate, so it can clock down, and
+ * while throttling or in battery saver only one frame is in flight. The clock and the sensors are
+ * injected, so the control loop runs against a simulated device in the tests.
+ */
+final class ThroughputGovernor {
+    // Same values as PowerManager.THERMAL_STATUS_*
+    static final int THERMAL_STATUS_NONE = 0;
+    static final int THERMAL_STATUS_LIGHT = 1;
+    static final int THERMAL_STATUS_MODERATE = 2;
+    static final int THERMAL_STATUS_SEVERE = 3;
+    static final int THERMAL_STATUS_CRITICAL = 4;
+
+    static final long INTERVAL_NANOS = 2000000000L;
+    /** Time the device has to stay cool after the last cut before the cap is raised */
+    static final long COOL_DOWN_NANOS = 30000000000L;
+    /** Time between cuts while severe throttling or a collapse lasts */
+    static final long SETTLE_NANOS = 20000000000L;
+    static final float MODERATE_FACTOR = 0.75f;
+    static final float SEVERE_FACTOR = 0.6f;
+    static final float CRITICAL_FACTOR = 0.5f;
+    /** Part of the peak frame rate the cap rises by per interval */
+    static final float RAISE_STEP = 0.05f;
+    /** Part of the peak frame rate the cap is held at in battery saver */
+    static final float POWER_SAVE_FRACTION = 0.6f;
+    /** Frame rate below this part of the cap or of the peak counts as a collapse */
+    static final float COLLAPSE_FRACTION = 0.5f;
+    /** Frame rate above this part of the cap means the cap is what holds the job back */
+    static final float CAPPED_FRACTION = 0.95f;
+    static final float MIN_FRAME_RATE = 5.0f;
+    static final float NO_CAP = 0.0f;
+
+    interface Clock {
+        long nanoTime();
+    }
+
+    static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    interface Sensors {
+        /**
+         * @return one of the THERMAL_STATUS_ values
+         */
+        int getThermalStatus();
+
+        boolean isPowerSaveMode();
+    }
+
+    interface Listener {
+        /**
+         * Called on the thread rendering the frames when the frames in flight or the operating
+         * rate of the encoder change.
+         */
+        void onGovernorChanged(ThroughputGovernor governor);
+    }
+
+    private final Clock mClock;
+    private final Sensors mSensors;
+    private final int mMaxInFlightFrames;
+    private final Listener mListener;
+    private long mWindowStartNanos = -1;
+    private int mWindowFrames;
+    private long mNextFrameNanos;
+    private long mLastCutNanos;
+    private float mPeakFrameRate;
+    private float mFrameRate;
+    private float mFrameRateCap = NO_CAP;
+    private int mInFlightFrames;
+    private int mThermalStatus;
+    private int mCuts;
+
+    /**
+     * @param maxInFlightFrames frames in flight while the device is not throttling
+     */
+    ThroughputGovernor(Clock clock, Sensors sensors, int maxInFlightFrames, Listener listener)
+    {
+        mClock = clock;
+        mSensors = sensors;
+        mMaxInFlightFrames = Math.max(1, maxInFlightFrames);
+        mInFlightFrames = mMaxInFlightFrames;
+        mListener = listener;
+    }
+
+    /**
+     * Called by the renderer before every frame.
+     * @return how long to wait before rendering the frame, to keep to the cap
+     */
+    long beforeFrame()
+    {
+        long now = mClock.nanoTime();
+        if (mWindowStartNanos < 0)
+            mWindowStartNanos = now;
+        else if (now - mWindowStartNanos >= INTERVAL_NANOS)
+            evaluate(now);
+        mWindowFrames++;
+
+        if (mFrameRateCap == NO_CAP)
+        {
+            mNextFrameNanos = now;
+            return 0;
+        }
+        long start = Math.max(now, mNextFrameNanos);
+        mNextFrameNanos = start + (long) (1e9/mFrameRateCap);
+        return start - now;
+    }
+
+    private void evaluate(long now)
+    {
+        mFrameRate = (float) (mWindowFrames*1e9/(now - mWindowStartNanos));
+        mWindowStartNanos = now;
+        mWindowFrames = 0;
+        if (mFrameRateCap == NO_CAP)
+            mPeakFrameRate = Math.max(mPeakFrameRate, mFrameRate);
+
+        int status = mSensors.getThermalStatus();
+        boolean escalated = status > mThermalStatus;
+        mThermalStatus = status;
+        boolean powerSave = mSensors.isPowerSaveMode();
+        float reference = mFrameRateCap != NO_CAP ? mFrameRateCap : mPeakFrameRate;
+        boolean collapsed = status >= THERMAL_STATUS_LIGHT && mFrameRate < reference*COLLAPSE_FRACTION;
+        boolean settled = mCuts == 0 || now - mLastCutNanos >= SETTLE_NANOS;
+        float cap = mFrameRateCap;
+        if (status >= THERMAL_STATUS_CRITICAL && (escalated || settled))
+            cap = cut(CRITICAL_FACTOR, now);
+        else if (status >= THERMAL_STATUS_SEVERE && (escalated || settled))
+            cap = cut(SEVERE_FACTOR, now);
+        else if (status == THERMAL_STATUS_MODERATE && escalated)
+            cap = cut(MODERATE_FACTOR, now);
+        else if (collapsed && settled)
+            cap = cut(SEVERE_FACTOR, now);
+        else if (powerSave)
+        {
+            float powerSaveCap = Math.max(MIN_FRAME_RATE, mPeakFrameRate*POWER_SAVE_FRACTION);
+            cap = cap == NO_CAP ? powerSaveCap : Math.min(cap, powerSaveCap);
+        }
+        else if (status == THERMAL_STATUS_NONE && cap != NO_CAP && (mCuts == 0 || now - mLastCutNanos >= COOL_DOWN_NANOS)
+                && mFrameRate >= cap*CAPPED_FRACTION)
+            cap = cap + mPeakFrameRate*RAISE_STEP >= mPeakFrameRate ? NO_CAP : cap + mPeakFrameRate*RAISE_STEP;
+
+        int inFlightFrames = mThermalStatus >= THERMAL_STATUS_MODERATE || powerSave ? 1 : mMaxInFlightFrames;
+        boolean changed = cap != mFrameRateCap || inFlightFrames != mInFlightFrames;
+        mFrameRateCap = cap;
+        mInFlightFrames = inFlightFrames;
+        if (changed && mListener != null)
+            mListener.onGovernorChanged(this);
+    }
+
+    /**
+     * @return the cap a factor below the frame rate reached, or below the current cap
+     */
+    private float cut(float factor, long now)
+    {
+        mLastCutNanos = now;
+        mCuts++;
+        float base = mFrameRateCap == NO_CAP ? mFrameRate : Math.min(mFrameRateCap, mFrameRate);
+        return Math.max(MIN_FRAME_RATE, base*factor);
+    }
+
+    int getInFlightFrames()
+    {
+        return mInFlightFrames;
+    }
+
+    /**
+     * @return the frame rate the encoder should expect, or {@link #NO_CAP} to run as fast as
+     * it can
+     */
+    float getFrameRateCap()
+    {
+        return mFrameRateCap;
+    }
+
+    /**
+     * @return frame rate of the last interval
+     */
+    float getFrameRate()
+    {
+        return mFrameRate;
+    }
+
+    int getThermalStatus()
+    {
+        return mThermalStatus;
+    }
+
+    int getCuts()
+    {
+        return mCuts;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%.1f fps, cap %s, %d in flight, thermal status %d, %d cuts", mFrameRate,
+                mFrameRateCap == NO_CAP ? "none" : String.format(Locale.US, "%.1f", mFrameRateCap),
+                mInFlightFrames, mThermalStatus, mCuts);
+    }
+}
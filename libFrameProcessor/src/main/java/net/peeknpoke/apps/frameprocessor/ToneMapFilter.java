@@ -0,0 +1,52 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.content.Context;
+import android.opengl.GLES30;
+
+/**
+ * Converts BT.2020 PQ or HLG frames into SDR BT.709 for encoders without 10-bit support.
+ */
+class ToneMapFilter implements Filter {
+    private static final String SHADER_NAME = "tonemap.frag";
+
+    private final boolean mHlg;
+    private final float mSourcePeakNits;
+    private FilterPass mPass;
+    private int mTextureLoc;
+    private int mHlgLoc;
+    private int mSourcePeakLoc;
+    private int mWidth;
+    private int mHeight;
+
+    ToneMapFilter(boolean hlg, float sourcePeakNits)
+    {
+        mHlg = hlg;
+        mSourcePeakNits = sourcePeakNits;
+    }
+
+    @Override
+    public void setup(Context context, FrameBufferPool pool, int width, int height, int internalFormat) {
+        mWidth = width;
+        mHeight = height;
+        mPass = new FilterPass(context, SHADER_NAME);
+        mTextureLoc = mPass.getUniformLocation("sTexture");
+        mHlgLoc = mPass.getUniformLocation("uHlg");
+        mSourcePeakLoc = mPass.getUniformLocation("uSourcePeakNits");
+    }
+
+    @Override
+    public void draw(int inputTexture, int outputFramebuffer) {
+        mPass.use();
+        FilterPass.bindTexture(0, GLES30.GL_TEXTURE_2D, inputTexture, mTextureLoc);
+        GLES30.glUniform1i(mHlgLoc, mHlg ? 1 : 0);
+        GLES30.glUniform1f(mSourcePeakLoc, mSourcePeakNits);
+        mPass.draw(outputFramebuffer, mWidth, mHeight);
+    }
+
+    @Override
+    public void cleanup() {
+        if (mPass!=null)
+            mPass.cleanup();
+        mPass = null;
+    }
+}
@@ -0,0 +1,95 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Chooses the output codec of a job: the requested target if an encoder for it can handle the
+ * frame size and the container accepts it, otherwise the input codec, otherwise AVC. The bit rate
+ * is scaled by the compression efficiency of the chosen codec relative to AVC, so that an HEVC
+ * output gets half the bits of the equivalent AVC output.
+ */
+final class TranscodePlanner {
+    static final String MIME_AVC = "video/avc";
+    static final String MIME_HEVC = "video/hevc";
+    static final String MIME_AV1 = "video/av01";
+    static final String MIME_VP9 = "video/x-vnd.on2.vp9";
+
+    static final class Plan {
+        final String mimeType;
+        final String codecName;
+        final int bitRate;
+        final boolean fellBack;
+
+        Plan(String mimeType, String codecName, int bitRate, boolean fellBack)
+        {
+            this.mimeType = mimeType;
+            this.codecName = codecName;
+            this.bitRate = bitRate;
+            this.fellBack = fellBack;
+        }
+    }
+
+    private TranscodePlanner()
+    {
+    }
+
+    /**
+     * @return expected output size for a stream at the given bit rate, with some headroom for
+     * rate control overshoot and the container
+     */
+    static long estimateOutputBytes(int bitRate, long durationUs)
+    {
+        if (bitRate <= 0 || durationUs <= 0)
+            return 0;
+        return (long) (bitRate/8.0*durationUs/1000000*1.1) + 64*1024;
+    }
+
+    /**
+     * Bit rate needed for the same quality as AVC.
+     */
+    static float relativeBitRate(String mimeType)
+    {
+        if (MIME_HEVC.equalsIgnoreCase(mimeType))
+            return 0.5f;
+        if (MIME_AV1.equalsIgnoreCase(mimeType))
+            return 0.4f;
+        if (MIME_VP9.equalsIgnoreCase(mimeType))
+            return 0.6f;
+        return 1.0f;
+    }
+
+    static List<String> candidates(String targetMimeType, String inputMimeType)
+    {
+        List<String> candidates = new ArrayList<>();
+        for (String mimeType : new String[]{targetMimeType, inputMimeType, MIME_AVC})
+        {
+            if (mimeType != null && !candidates.contains(mimeType))
+                candidates.add(mimeType);
+        }
+        return candidates;
+    }
+
+    /**
+     * @param targetMimeType  requested output codec, or null to keep the input codec
+     * @param avcBitRate      bit rate for AVC output, scaled for other codecs
+     * @param containerMimeTypes video codecs the muxer accepts
+     * @return the plan, or null if no candidate codec can be encoded
+     */
+    static Plan plan(List<CodecDescriptor> codecs, String targetMimeType, String inputMimeType,
+                     int width, int height, int avcBitRate, List<String> containerMimeTypes)
+    {
+        String preferred = targetMimeType != null ? targetMimeType : inputMimeType;
+        for (String mimeType : candidates(targetMimeType, inputMimeType))
+        {
+            if (!containerMimeTypes.contains(mimeType))
+                continue;
+            String codecName = CodecRanker.select(codecs, mimeType, true, width, height);
+            if (codecName == null)
+                continue;
+            int bitRate = Math.round(avcBitRate*relativeBitRate(mimeType));
+            return new Plan(mimeType, codecName, bitRate, !mimeType.equalsIgnoreCase(preferred));
+        }
+        return null;
+    }
+}
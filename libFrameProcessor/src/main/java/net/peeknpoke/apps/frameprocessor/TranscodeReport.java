@@ -0,0 +1,110 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.util.Locale;
+
+/**
+ * Storage report of a finished job, one per rendition.
+ */
+public final class TranscodeReport {
+    private final String mInputMimeType;
+    private final String mOutputMimeType;
+    private final String mEncoderName;
+    private final int mWidth;
+    private final int mHeight;
+    private final long mInputBytes;
+    private final long mOutputBytes;
+    private final long mDurationUs;
+    private final int mTargetBitRate;
+    private final int mFrameCount;
+    private final long mEncoderStallUs;
+
+    TranscodeReport(String inputMimeType, String outputMimeType, String encoderName, int width, int height,
+                    long inputBytes, long outputBytes, long durationUs, int targetBitRate, int frameCount,
+                    long encoderStallUs)
+    {
+        mInputMimeType = inputMimeType;
+        mOutputMimeType = outputMimeType;
+        mEncoderName = encoderName;
+        mWidth = width;
+        mHeight = height;
+        mInputBytes = inputBytes;
+        mOutputBytes = outputBytes;
+        mDurationUs = durationUs;
+        mTargetBitRate = targetBitRate;
+        mFrameCount = frameCount;
+        mEncoderStallUs = encoderStallUs;
+    }
+
+    public String getInputMimeType() {
+        return mInputMimeType;
+    }
+
+    public String getOutputMimeType() {
+        return mOutputMimeType;
+    }
+
+    public String getEncoderName() {
+        return mEncoderName;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return size of the input file, or -1 if the input is not a file with a known size
+     */
+    public long getInputBytes() {
+        return mInputBytes;
+    }
+
+    public long getOutputBytes() {
+        return mOutputBytes;
+    }
+
+    public long getDurationUs() {
+        return mDurationUs;
+    }
+
+    public int getTargetBitRate() {
+        return mTargetBitRate;
+    }
+
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * @return time the renderer waited for this encoder after the encoders of the other
+     * renditions were ready. The rendition with the largest stall is the one holding up the job.
+     */
+    public long getEncoderStallUs() {
+        return mEncoderStallUs;
+    }
+
+    /**
+     * @return the bit rate actually produced, including container overhead
+     */
+    public long getAverageBitRate() {
+        return mDurationUs <= 0 ? 0 : mOutputBytes*8*1000000/mDurationUs;
+    }
+
+    /**
+     * @return output size relative to the input, or -1 if the input size is unknown
+     */
+    public float getSizeRatio() {
+        return mInputBytes <= 0 ? -1.0f : (float) mOutputBytes/mInputBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s -> %s %dx%d (%s): %d -> %d bytes (%.2f), %d frames, %.2f s, %d/%d bps, %.1f ms stalled",
+                mInputMimeType, mOutputMimeType, mWidth, mHeight, mEncoderName, mInputBytes, mOutputBytes,
+                getSizeRatio(), mFrameCount, mDurationUs/1e6, getAverageBitRate(), mTargetBitRate,
+                mEncoderStallUs/1e3);
+    }
+}
@@ -0,0 +1,173 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Finds the {@link PipelineProfile} of a device from trial runs, one parameter at a time rather
+ * than over every combination, so a calibration takes a handful of runs:
+ * <ol>
+ * <li>the number of frames in flight, at the first codec and the largest size: deeper pipelines
+ * are only taken when they are clearly faster, as every frame in flight costs memory</li>
+ * <li>the codec, at that depth: the most efficient one that keeps up with the target frame rate,
+ * or the fastest one if none does</li>
+ * <li>the output size, with that depth and codec: the largest that keeps up with the target</li>
+ * </ol>
+ * Runs that fail or take more memory than the budget do not count. Each combination is run once,
+ * however many steps it takes part in.
+ */
+final class TuningSearch {
+    /** Gain in frames per second a deeper pipeline has to bring to be worth its memory */
+    static final double MIN_GAIN = 0.05;
+
+    static final class Measurement {
+        final double framesPerSecond;
+        final long peakMemoryBytes;
+
+        Measurement(double framesPerSecond, long peakMemoryBytes)
+        {
+            this.framesPerSecond = framesPerSecond;
+            this.peakMemoryBytes = peakMemoryBytes;
+        }
+
+        static Measurement failed()
+        {
+            return new Measurement(0, 0);
+        }
+
+        @Override
+        public String toString() {
+            return framesPerSecond > 0 ? String.format(Locale.US, "%.1f fps, %d KB",
+                    framesPerSecond, peakMemoryBytes/1024) : "failed";
+        }
+    }
+
+    interface Runner {
+        /**
+         * Processes the calibration clip with the parameters of the candidate.
+         * @return what was measured, or {@link Measurement#failed()}
+         */
+        Measurement run(PipelineProfile candidate) throws InterruptedException;
+    }
+
+    private final List<Integer> mInFlightFrames;
+    private final List<String> mMimeTypes;
+    private final List<Integer> mShortSides;
+    private final double mTargetFramesPerSecond;
+    private final long mMemoryBudgetBytes;
+    private final Map<PipelineProfile, Measurement> mTrials = new LinkedHashMap<>();
+
+    /**
+     * @param inFlightFrames depths to try, shallowest first
+     * @param mimeTypes      codecs to try, the default first
+     * @param shortSides     output sizes to try, largest first; the first is the size of the
+     *                       calibration clip and is not a limit
+     */
+    TuningSearch(List<Integer> inFlightFrames, List<String> mimeTypes, List<Integer> shortSides,
+                 double targetFramesPerSecond, long memoryBudgetBytes)
+    {
+        if (inFlightFrames.isEmpty() || mimeTypes.isEmpty() || shortSides.isEmpty())
+            throw new IllegalArgumentException("Nothing to search");
+        mInFlightFrames = new ArrayList<>(inFlightFrames);
+        mMimeTypes = new ArrayList<>(mimeTypes);
+        mShortSides = new ArrayList<>(shortSides);
+        mTargetFramesPerSecond = targetFramesPerSecond;
+        mMemoryBudgetBytes = memoryBudgetBytes;
+    }
+
+    /**
+     * @return the best profile, or null if every run failed
+     */
+    PipelineProfile search(Runner runner) throws InterruptedException
+    {
+        int largest = mShortSides.get(0);
+        int inFlightFrames = searchInFlightFrames(runner, mMimeTypes.get(0), largest);
+        String mimeType = searchMimeType(runner, inFlightFrames, largest);
+        int shortSide = searchShortSide(runner, inFlightFrames, mimeType);
+        Measurement measurement = measure(runner, inFlightFrames, mimeType, shortSide);
+        if (!isUsable(measurement))
+            return null;
+        return new PipelineProfile(inFlightFrames, mimeType,
+                shortSide == largest ? PipelineProfile.NO_SIZE_LIMIT : shortSide,
+                (float) measurement.framesPerSecond, measurement.peakMemoryBytes);
+    }
+
+    /**
+     * @return every combination run so far, in the order it was run
+     */
+    Map<PipelineProfile, Measurement> getTrials()
+    {
+        return mTrials;
+    }
+
+    private int searchInFlightFrames(Runner runner, String mimeType, int shortSide) throws InterruptedException
+    {
+        int best = mInFlightFrames.get(0);
+        double bestFramesPerSecond = 0;
+        for (int inFlightFrames : mInFlightFrames)
+        {
+            Measurement measurement = measure(runner, inFlightFrames, mimeType, shortSide);
+            if (isUsable(measurement) && measurement.framesPerSecond > bestFramesPerSecond*(1 + MIN_GAIN))
+            {
+                best = inFlightFrames;
+                bestFramesPerSecond = measurement.framesPerSecond;
+            }
+        }
+        return best;
+    }
+
+    private String searchMimeType(Runner runner, int inFlightFrames, int shortSide) throws InterruptedException
+    {
+        String efficient = null;
+        String fastest = mMimeTypes.get(0);
+        double fastestFramesPerSecond = 0;
+        for (String mimeType : mMimeTypes)
+        {
+            Measurement measurement = measure(runner, inFlightFrames, mimeType, shortSide);
+            if (!isUsable(measurement))
+                continue;
+            if (measurement.framesPerSecond > fastestFramesPerSecond)
+            {
+                fastest = mimeType;
+                fastestFramesPerSecond = measurement.framesPerSecond;
+            }
+            if (measurement.framesPerSecond >= mTargetFramesPerSecond && (efficient == null
+                    || TranscodePlanner.relativeBitRate(mimeType) < TranscodePlanner.relativeBitRate(efficient)))
+                efficient = mimeType;
+        }
+        return efficient != null ? efficient : fastest;
+    }
+
+    private int searchShortSide(Runner runner, int inFlightFrames, String mimeType) throws InterruptedException
+    {
+        for (int shortSide : mShortSides)
+        {
+            Measurement measurement = measure(runner, inFlightFrames, mimeType, shortSide);
+            if (isUsable(measurement) && measurement.framesPerSecond >= mTargetFramesPerSecond)
+                return shortSide;
+        }
+        // Nothing keeps up, the smallest size comes closest
+        return mShortSides.get(mShortSides.size() - 1);
+    }
+
+    private Measurement measure(Runner runner, int inFlightFrames, String mimeType, int shortSide)
+            throws InterruptedException
+    {
+        PipelineProfile candidate = new PipelineProfile(inFlightFrames, mimeType, shortSide, 0, 0);
+        Measurement measurement = mTrials.get(candidate);
+        if (measurement == null)
+        {
+            measurement = runner.run(candidate);
+            mTrials.put(candidate, measurement);
+        }
+        return measurement;
+    }
+
+    private boolean isUsable(Measurement measurement)
+    {
+        return measurement.framesPerSecond > 0 && measurement.peakMemoryBytes <= mMemoryBudgetBytes;
+    }
+}
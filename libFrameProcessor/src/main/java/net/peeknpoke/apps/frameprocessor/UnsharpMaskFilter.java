@@ -0,0 +1,57 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.content.Context;
+import android.opengl.GLES30;
+
+/**
+ * Sharpens by adding back the difference between the image and its Gaussian blur.
+ */
+class UnsharpMaskFilter implements Filter {
+    private final float mSigma;
+    private final float mAmount;
+    private GaussianBlur mBlur;
+    private FilterPass mPass;
+    private int mTextureLoc;
+    private int mBlurredLoc;
+    private int mAmountLoc;
+    private int mWidth;
+    private int mHeight;
+
+    UnsharpMaskFilter(float sigma, float amount)
+    {
+        mSigma = sigma;
+        mAmount = amount;
+    }
+
+    @Override
+    public void setup(Context context, FrameBufferPool pool, int width, int height, int internalFormat) {
+        mWidth = width;
+        mHeight = height;
+        mBlur = new GaussianBlur(context, pool, mSigma, width, height, internalFormat);
+        mPass = new FilterPass(context, "unsharp.frag");
+        mTextureLoc = mPass.getUniformLocation("sTexture");
+        mBlurredLoc = mPass.getUniformLocation("sBlurred");
+        mAmountLoc = mPass.getUniformLocation("uAmount");
+    }
+
+    @Override
+    public void draw(int inputTexture, int outputFramebuffer) {
+        int blurred = mBlur.blur(inputTexture);
+        mPass.use();
+        FilterPass.bindTexture(0, GLES30.GL_TEXTURE_2D, inputTexture, mTextureLoc);
+        FilterPass.bindTexture(1, GLES30.GL_TEXTURE_2D, blurred, mBlurredLoc);
+        GLES30.glUniform1f(mAmountLoc, mAmount);
+        mPass.draw(outputFramebuffer, mWidth, mHeight);
+        GLES30.glActiveTexture(GLES30.GL_TEXTURE0);
+    }
+
+    @Override
+    public void cleanup() {
+        if (mBlur != null)
+            mBlur.cleanup();
+        mBlur = null;
+        if (mPass != null)
+            mPass.cleanup();
+        mPass = null;
+    }
+}
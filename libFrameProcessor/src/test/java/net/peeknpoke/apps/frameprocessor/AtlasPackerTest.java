@@ -0,0 +1,72 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AtlasPackerTest {
+    private static void assertPacked(int[] widths, int[] heights, int padding, AtlasPacker.Layout layout)
+    {
+        for (int i = 0; i < widths.length; i++)
+        {
+            // Inside the atlas, with the padding around the edges
+            assertTrue(layout.x[i] >= padding && layout.y[i] >= padding);
+            assertTrue(layout.x[i] + widths[i] + padding <= layout.width);
+            assertTrue(layout.y[i] + heights[i] + padding <= layout.height);
+            for (int j = 0; j < i; j++)
+            {
+                boolean apart = layout.x[i] + widths[i] + padding <= layout.x[j]
+                        || layout.x[j] + widths[j] + padding <= layout.x[i]
+                        || layout.y[i] + heights[i] + padding <= layout.y[j]
+                        || layout.y[j] + heights[j] + padding <= layout.y[i];
+                assertTrue("Rectangles " + i + " and " + j + " overlap", apart);
+            }
+        }
+    }
+
+    @Test
+    public void packsGlyphsAndImagesApart() {
+        Random random = new Random(7);
+        int[] widths = new int[60];
+        int[] heights = new int[60];
+        for (int i = 0; i < widths.length; i++)
+        {
+            widths[i] = 8 + random.nextInt(40);
+            heights[i] = i < 3 ? 60 + random.nextInt(100) : 48;
+        }
+        AtlasPacker.Layout layout = AtlasPacker.pack(widths, heights, 2, 4096);
+        assertNotNull(layout);
+        assertPacked(widths, heights, 2, layout);
+        assertEquals(0, Integer.bitCount(layout.width) - 1);
+    }
+
+    @Test
+    public void choosesASmallAtlas() {
+        // 64 squares of 30 pixels fill a 256 wide atlas without waste
+        int[] sizes = new int[64];
+        Arrays.fill(sizes, 30);
+        AtlasPacker.Layout layout = AtlasPacker.pack(sizes, sizes, 2, 4096);
+        assertPacked(sizes, sizes, 2, layout);
+        long used = 64L*32*32;
+        assertTrue((long) layout.width*layout.height < 2*used);
+    }
+
+    @Test
+    public void failsWhenTooLarge() {
+        assertNull(AtlasPacker.pack(new int[]{100, 100}, new int[]{300, 300}, 1, 256));
+        assertNull(AtlasPacker.pack(new int[]{300}, new int[]{10}, 0, 256));
+        AtlasPacker.Layout layout = AtlasPacker.pack(new int[]{100, 100}, new int[]{120, 120}, 1, 256);
+        assertNotNull(layout);
+        assertTrue(layout.width <= 256 && layout.height <= 256);
+    }
+
+    @Test
+    public void packsNothing() {
+        AtlasPacker.Layout layout = AtlasPacker.pack(new int[0], new int[0], 2, 256);
+        assertNotNull(layout);
+        assertEquals(0, layout.x.length);
+    }
+}
@@ -0,0 +1,147 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BufferedSampleWriterTest {
+    private static ByteBuffer sample(int size, int seed)
+    {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size + 8);
+        buffer.position(8);
+        for (int i = 0; i < size; i++)
+            buffer.put((byte) (seed + i));
+        buffer.position(8);
+        return buffer;
+    }
+
+    private static class RecordingSink implements BufferedSampleWriter.Sink {
+        final List<Long> times = new ArrayList<>();
+        final List<byte[]> data = new ArrayList<>();
+
+        @Override
+        public synchronized void writeSample(ByteBuffer sample, long presentationTimeUs, int flags) {
+            byte[] bytes = new byte[sample.remaining()];
+            sample.get(bytes);
+            times.add(presentationTimeUs);
+            data.add(bytes);
+        }
+    }
+
+    @Test
+    public void arenaWrapsAndReusesSpace() throws InterruptedException {
+        SampleArena arena = new SampleArena(100);
+        assertEquals(0, arena.allocate(40));
+        assertEquals(40, arena.allocate(40));
+        arena.free(0, 40);
+        // 20 bytes left at the end are too few, the region wraps to the start
+        assertEquals(0, arena.allocate(30));
+        assertEquals(90, arena.getUsed());
+        arena.free(40, 40);
+        // The skipped end of the ring is only given back with the wrapped region
+        assertEquals(50, arena.getUsed());
+        arena.free(0, 30);
+        assertEquals(0, arena.getUsed());
+        assertEquals(90, arena.getPeakUsed());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void arenaRejectsOutOfOrderFree() throws InterruptedException {
+        SampleArena arena = new SampleArena(100);
+        arena.allocate(10);
+        int second = arena.allocate(10);
+        arena.free(second, 10);
+    }
+
+    @Test
+    public void arenaBlocksUntilSpaceIsFreed() throws InterruptedException {
+        final SampleArena arena = new SampleArena(64);
+        arena.allocate(64);
+        final CountDownLatch allocated = new CountDownLatch(1);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    arena.allocate(16);
+                    allocated.countDown();
+                } catch (InterruptedException ignored) {
+                }
+            }
+        });
+        producer.start();
+        assertFalse(allocated.await(50, TimeUnit.MILLISECONDS));
+        arena.free(0, 64);
+        assertTrue(allocated.await(5, TimeUnit.SECONDS));
+        producer.join();
+        assertTrue(arena.getBlockedNanos() > 0);
+    }
+
+    @Test
+    public void writesCopiesInOrder() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        BufferedSampleWriter writer = new BufferedSampleWriter(sink, 1000, 4);
+        for (int i = 0; i < 200; i++)
+        {
+            ByteBuffer buffer = sample(10 + i%300, i);
+            writer.submit(buffer, i*1000L, 0);
+            // The source is untouched and can be reused right away
+            assertEquals(8, buffer.position());
+            buffer.put(8, (byte) 0x7f);
+        }
+        writer.finish();
+
+        assertEquals(200, sink.times.size());
+        for (int i = 0; i < 200; i++)
+        {
+            assertEquals(i*1000L, (long) sink.times.get(i));
+            byte[] bytes = sink.data.get(i);
+            assertEquals(10 + i%300, bytes.length);
+            assertEquals((byte) i, bytes[0]);
+            assertEquals((byte) (i + bytes.length - 1), bytes[bytes.length - 1]);
+        }
+        assertTrue(writer.getArena().getPeakUsed() <= 1000);
+        assertEquals(0, writer.getArena().getUsed());
+    }
+
+    @Test
+    public void oversizedSampleIsWrittenAfterTheQueue() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        BufferedSampleWriter writer = new BufferedSampleWriter(sink, 100, 4);
+        writer.submit(sample(60, 1), 1, 0);
+        writer.submit(sample(500, 2), 2, 0);
+        writer.submit(sample(60, 3), 3, 0);
+        writer.finish();
+        assertEquals(3, sink.times.size());
+        assertEquals(500, sink.data.get(1).length);
+        assertEquals(3L, (long) sink.times.get(2));
+    }
+
+    @Test
+    public void writeErrorIsReported() throws Exception {
+        BufferedSampleWriter writer = new BufferedSampleWriter(new BufferedSampleWriter.Sink() {
+            @Override
+            public void writeSample(ByteBuffer data, long presentationTimeUs, int flags) throws IOException {
+                throw new IOException("disk full");
+            }
+        }, 100, 2);
+        // Failed samples are still recycled, so the producer does not stall
+        try {
+            for (int i = 0; i < 50; i++)
+                writer.submit(sample(40, i), i, 0);
+        } catch (IOException expected) {
+        }
+        try {
+            writer.finish();
+            fail();
+        } catch (IOException e) {
+            assertEquals("disk full", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CodecRankerTest {
+    private static final String SNAPDRAGON = "fixture/snapdragon/android11:11/RQ1A/1:user/release-keys";
+    private static final String EXYNOS = "fixture/exynos/android9:9/PPR1/1:user/release-keys";
+
+    private static List<CodecDescriptor> fixture(String name, String fingerprint) throws IOException
+    {
+        InputStream input = CodecRankerTest.class.getResourceAsStream("/codecs/" + name);
+        assertNotNull(name, input);
+        try {
+            List<CodecDescriptor> codecs = CodecCapabilityCache.read(
+                    new InputStreamReader(input, Charset.forName("UTF-8")), fingerprint);
+            assertNotNull(codecs);
+            return codecs;
+        } finally {
+            input.close();
+        }
+    }
+
+    private static CodecDescriptor codec(String name, boolean hardware, int maxWidth, int maxHeight, float fps1080)
+    {
+        return new CodecDescriptor(name, "video/avc", false, hardware, !hardware, 2, maxWidth, 2, maxHeight,
+                2, 2, new float[]{-1.0f, fps1080, -1.0f});
+    }
+
+    @Test
+    public void prefersHardwareOverSoftwareListedFirst() throws IOException {
+        List<CodecDescriptor> codecs = fixture("snapdragon_android11.txt", SNAPDRAGON);
+        assertEquals("c2.android.avc.decoder", codecs.get(0).name);
+        assertEquals("c2.qti.avc.decoder", CodecRanker.select(codecs, "video/avc", false, 1920, 1080));
+        assertEquals("c2.qti.avc.encoder", CodecRanker.select(codecs, "video/avc", true, 1920, 1080));
+        assertEquals("c2.qti.hevc.encoder", CodecRanker.select(codecs, "video/hevc", true, 1280, 720));
+    }
+
+    @Test
+    public void softwareIsRankedLast() throws IOException {
+        List<CodecDescriptor> ranked = CodecRanker.rank(fixture("snapdragon_android11.txt", SNAPDRAGON),
+                "video/avc", false, 1280, 720);
+        assertEquals(3, ranked.size());
+        assertEquals("c2.android.avc.decoder", ranked.get(2).name);
+    }
+
+    @Test
+    public void filtersBySize() throws IOException {
+        List<CodecDescriptor> codecs = fixture("snapdragon_android11.txt", SNAPDRAGON);
+        // The low latency decoder tops out at 1920
+        List<CodecDescriptor> ranked = CodecRanker.rank(codecs, "video/avc", false, 3840, 2160);
+        assertEquals(2, ranked.size());
+        assertEquals("c2.qti.avc.decoder", ranked.get(0).name);
+        // Only the software HEVC encoder is too small for 4K
+        assertEquals("c2.qti.hevc.encoder", CodecRanker.select(codecs, "video/hevc", true, 3840, 2160));
+        assertNull(CodecRanker.select(codecs, "video/av01", true, 1280, 720));
+    }
+
+    @Test
+    public void portraitSizesMatchRotatedLimits() throws IOException {
+        List<CodecDescriptor> codecs = fixture("exynos_android9.txt", EXYNOS);
+        assertEquals("OMX.Exynos.avc.enc", CodecRanker.select(codecs, "video/avc", true, 1088, 1920));
+    }
+
+    @Test
+    public void respectsAlignment() throws IOException {
+        List<CodecDescriptor> codecs = fixture("exynos_android9.txt", EXYNOS);
+        // 1080 is not a multiple of the 16 pixel alignment of the hardware encoder
+        assertEquals("OMX.google.h264.encoder", CodecRanker.select(codecs, "video/avc", true, 1920, 1080));
+    }
+
+    @Test
+    public void fasterCodecWinsWithinTier() {
+        List<CodecDescriptor> codecs = Arrays.asList(
+                codec("slow", true, 4096, 4096, 60.0f),
+                codec("fast", true, 4096, 4096, 240.0f),
+                codec("unmeasured", true, 4096, 4096, -1.0f));
+        List<CodecDescriptor> ranked = CodecRanker.rank(codecs, "video/avc", false, 1920, 1080);
+        assertEquals("fast", ranked.get(0).name);
+        assertEquals("slow", ranked.get(1).name);
+        assertEquals("unmeasured", ranked.get(2).name);
+    }
+
+    @Test
+    public void tiesKeepPlatformOrder() {
+        List<CodecDescriptor> codecs = Arrays.asList(
+                codec("first", true, 4096, 4096, -1.0f),
+                codec("second", true, 4096, 4096, -1.0f));
+        assertEquals("first", CodecRanker.select(codecs, "video/avc", false, 1920, 1080));
+    }
+
+    @Test
+    public void estimatesFrameRateByPixelCount() {
+        CodecDescriptor codec = codec("c", true, 4096, 4096, 120.0f);
+        assertEquals(120.0f, codec.estimateFrameRate(1920, 1080), 1e-3f);
+        assertEquals(240.0f, codec.estimateFrameRate(1920, 540), 1e-3f);
+        assertEquals(-1.0f, codec("c", true, 4096, 4096, -1.0f).estimateFrameRate(1920, 1080), 0.0f);
+    }
+
+    @Test
+    public void cacheRoundTrip() throws IOException {
+        List<CodecDescriptor> codecs = fixture("snapdragon_android11.txt", SNAPDRAGON);
+        StringWriter writer = new StringWriter();
+        CodecCapabilityCache.write(writer, SNAPDRAGON, codecs);
+        List<CodecDescriptor> read = CodecCapabilityCache.read(new StringReader(writer.toString()), SNAPDRAGON);
+        assertNotNull(read);
+        assertEquals(codecs.size(), read.size());
+        for (int i = 0; i < codecs.size(); i++)
+            assertEquals(codecs.get(i).toString(), read.get(i).toString());
+    }
+
+    @Test
+    public void cacheFromAnotherBuildIsIgnored() throws IOException {
+        InputStream input = CodecRankerTest.class.getResourceAsStream("/codecs/snapdragon_android11.txt");
+        try {
+            assertNull(CodecCapabilityCache.read(new InputStreamReader(input, Charset.forName("UTF-8")), EXYNOS));
+        } finally {
+            input.close();
+        }
+        assertNull(CodecCapabilityCache.read(new StringReader("codecs-v1\t" + EXYNOS + "\nbroken\tline\n"), EXYNOS));
+    }
+
+    @Test
+    public void classifiesSoftwareNames() {
+        assertTrue(CodecRanker.isSoftwareName("OMX.google.h264.decoder"));
+        assertTrue(CodecRanker.isSoftwareName("c2.android.avc.encoder"));
+        assertFalse(CodecRanker.isSoftwareName("OMX.qcom.video.decoder.avc"));
+        assertFalse(CodecRanker.isSoftwareName("c2.exynos.h264.decoder"));
+    }
+}
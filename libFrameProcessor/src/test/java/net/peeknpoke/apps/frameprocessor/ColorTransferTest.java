@@ -0,0 +1,120 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ColorTransferTest {
+    private static final float SOURCE_PEAK = 1000.0f;
+
+    @Test
+    public void pqReferencePoints() {
+        assertEquals(0.0f, ColorTransfer.pqEotf(0.0f), 1e-7f);
+        assertEquals(1.0f, ColorTransfer.pqEotf(1.0f), 1e-5f);
+        // 100 nits and 1000 nits, BT.2100 table values
+        assertEquals(0.5081f, ColorTransfer.pqInverseEotf(100.0f/10000.0f), 1e-3f);
+        assertEquals(0.7518f, ColorTransfer.pqInverseEotf(1000.0f/10000.0f), 1e-3f);
+    }
+
+    @Test
+    public void pqRoundTrip() {
+        for (int i = 0; i <= 100; i++)
+        {
+            float signal = i/100.0f;
+            assertEquals(signal, ColorTransfer.pqInverseEotf(ColorTransfer.pqEotf(signal)), 1e-4f);
+        }
+    }
+
+    @Test
+    public void hlgReferencePoints() {
+        assertEquals(0.0f, ColorTransfer.hlgOetf(0.0f), 1e-7f);
+        assertEquals(0.5f, ColorTransfer.hlgOetf(1.0f/12.0f), 1e-6f);
+        assertEquals(1.0f, ColorTransfer.hlgOetf(1.0f), 1e-5f);
+        assertEquals(1.2f, ColorTransfer.hlgSystemGamma(1000.0f), 1e-6f);
+    }
+
+    @Test
+    public void hlgRoundTripAndContinuity() {
+        for (int i = 0; i <= 100; i++)
+        {
+            float signal = i/100.0f;
+            assertEquals(signal, ColorTransfer.hlgOetf(ColorTransfer.hlgInverseOetf(signal)), 1e-5f);
+        }
+        float below = ColorTransfer.hlgOetf(1.0f/12.0f - 1e-6f);
+        float above = ColorTransfer.hlgOetf(1.0f/12.0f + 1e-6f);
+        assertEquals(below, above, 1e-4f);
+    }
+
+    @Test
+    public void hlgOotfMapsWhiteToPeak() {
+        float[] rgb = {1.0f, 1.0f, 1.0f};
+        ColorTransfer.hlgOotf(rgb, SOURCE_PEAK);
+        assertEquals(SOURCE_PEAK, rgb[0], 1e-2f);
+        assertEquals(SOURCE_PEAK, rgb[2], 1e-2f);
+    }
+
+    @Test
+    public void eetfKeepsValuesBelowKneeAndMapsPeak() {
+        float source = ColorTransfer.pqInverseEotf(SOURCE_PEAK/10000.0f);
+        float target = ColorTransfer.pqInverseEotf(100.0f/10000.0f);
+        assertEquals(0.1f, ColorTransfer.eetf(0.1f, source, target), 1e-6f);
+        assertEquals(target, ColorTransfer.eetf(source, source, target), 1e-5f);
+        // Content brighter than the mastering peak is clipped to the target
+        assertEquals(target, ColorTransfer.eetf(1.0f, source, target), 1e-5f);
+        // No-op when the target is brighter than the source
+        assertEquals(0.7f, ColorTransfer.eetf(0.7f, target, source), 0.0f);
+    }
+
+    @Test
+    public void eetfIsMonotonic() {
+        float source = ColorTransfer.pqInverseEotf(SOURCE_PEAK/10000.0f);
+        float target = ColorTransfer.pqInverseEotf(100.0f/10000.0f);
+        float previous = -1.0f;
+        for (int i = 0; i <= 1000; i++)
+        {
+            float value = ColorTransfer.eetf(source*i/1000.0f, source, target);
+            assertTrue(value >= previous);
+            assertTrue(value <= target + 1e-6f);
+            previous = value;
+        }
+    }
+
+    @Test
+    public void toneMappedPeakWhiteIsSdrWhite() {
+        float peak = ColorTransfer.pqInverseEotf(SOURCE_PEAK/10000.0f);
+        float[] rgb = {peak, peak, peak};
+        ColorTransfer.toneMapToSdr(rgb, false, SOURCE_PEAK);
+        for (float channel : rgb)
+            assertEquals(1.0f, channel, 1e-3f);
+
+        float[] hlg = {1.0f, 1.0f, 1.0f};
+        ColorTransfer.toneMapToSdr(hlg, true, SOURCE_PEAK);
+        for (float channel : hlg)
+            assertEquals(1.0f, channel, 1e-3f);
+    }
+
+    @Test
+    public void toneMapKeepsBlackAndNeutrals() {
+        float[] black = {0.0f, 0.0f, 0.0f};
+        ColorTransfer.toneMapToSdr(black, false, SOURCE_PEAK);
+        assertArrayEquals(new float[]{0.0f, 0.0f, 0.0f}, black, 0.0f);
+
+        float gray = ColorTransfer.pqInverseEotf(20.0f/10000.0f);
+        float[] rgb = {gray, gray, gray};
+        ColorTransfer.toneMapToSdr(rgb, false, SOURCE_PEAK);
+        assertEquals(rgb[0], rgb[1], 1e-3f);
+        assertEquals(rgb[1], rgb[2], 1e-3f);
+        // Dark tones are below the knee and keep their absolute luminance: 20 nits of 100
+        assertEquals(ColorTransfer.bt1886InverseEotf(0.2f), rgb[0], 2e-3f);
+    }
+
+    @Test
+    public void gamutMatrixPreservesWhite() {
+        for (int row = 0; row < 3; row++)
+        {
+            float sum = ColorTransfer.BT2020_TO_BT709[3*row] + ColorTransfer.BT2020_TO_BT709[3*row + 1]
+                    + ColorTransfer.BT2020_TO_BT709[3*row + 2];
+            assertEquals(1.0f, sum, 1e-3f);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+public class CubeLutParserTest {
+    private static CubeLut parse(String text) throws IOException
+    {
+        return CubeLutParser.parse(new ByteArrayInputStream(text.getBytes(Charset.forName("US-ASCII"))));
+    }
+
+    private static String cube(int size, String header)
+    {
+        StringBuilder builder = new StringBuilder(header);
+        builder.append("LUT_3D_SIZE ").append(size).append('\n');
+        for (int b = 0; b < size; b++)
+            for (int g = 0; g < size; g++)
+                for (int r = 0; r < size; r++)
+                {
+                    // Swap red and blue so that the lookup is not the identity
+                    builder.append(b/(size - 1.0f)).append(' ')
+                            .append(g/(size - 1.0f)).append(' ')
+                            .append(r/(size - 1.0f)).append('\n');
+                }
+        return builder.toString();
+    }
+
+    @Test
+    public void parsesHeaderAndEntries() throws IOException {
+        CubeLut lut = parse(cube(17, "# comment\nTITLE \"Swap\"\n\nDOMAIN_MIN 0 0 0\nDOMAIN_MAX 1 1 1\n"));
+        assertEquals("Swap", lut.getTitle());
+        assertEquals(17, lut.getSize());
+        assertEquals(17*17*17*3*2, lut.getByteCount());
+        assertArrayEquals(new float[]{0, 0, 0}, lut.getDomainMin(), 0.0f);
+        assertArrayEquals(new float[]{1, 1, 1}, lut.getDomainMax(), 0.0f);
+    }
+
+    @Test
+    public void parsesNumberFormats() throws IOException {
+        String text = "LUT_3D_SIZE 2\n" +
+                "0 0 0\n" +
+                "1.0e0 -0 +0.\n" +
+                "0 .5 0 # trailing comment\r\n" +
+                "1 1E-1 0\n" +
+                "0\t0 1\n" +
+                "1 0 1\n" +
+                "0 1 1\n" +
+                "1 1 1";
+        CubeLut lut = parse(text);
+        float[] out = new float[3];
+        lut.sample(1, 1, 0, out);
+        assertArrayEquals(new float[]{1, 0.1f, 0}, out, 1e-3f);
+        lut.sample(0, 1, 0, out);
+        assertArrayEquals(new float[]{0, 0.5f, 0}, out, 1e-3f);
+    }
+
+    @Test
+    public void sampleMatchesEntriesAndInterpolates() throws IOException {
+        CubeLut lut = parse(cube(33, ""));
+        float[] out = new float[3];
+        lut.sample(0.25f, 0.5f, 0.75f, out);
+        assertArrayEquals(new float[]{0.75f, 0.5f, 0.25f}, out, 1e-3f);
+        // Between lattice points the swap is still linear, so trilinear interpolation is exact
+        lut.sample(0.1f, 0.2f, 0.3f, out);
+        assertArrayEquals(new float[]{0.3f, 0.2f, 0.1f}, out, 1e-3f);
+        // Out of domain values are clamped
+        lut.sample(-1.0f, 2.0f, 0.0f, out);
+        assertArrayEquals(new float[]{0.0f, 1.0f, 0.0f}, out, 1e-3f);
+    }
+
+    @Test
+    public void sampleHonoursDomain() throws IOException {
+        CubeLut lut = parse("DOMAIN_MIN 0 0 0\nDOMAIN_MAX 2 2 2\n" + cube(2, ""));
+        float[] out = new float[3];
+        lut.sample(1.0f, 0.5f, 2.0f, out);
+        assertArrayEquals(new float[]{1.0f, 0.25f, 0.5f}, out, 1e-3f);
+    }
+
+    @Test
+    public void identityLut() {
+        CubeLut lut = CubeLut.identity(2);
+        float[] out = new float[3];
+        lut.sample(0.3f, 0.6f, 0.9f, out);
+        assertArrayEquals(new float[]{0.3f, 0.6f, 0.9f}, out, 1e-3f);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsMissingEntries() throws IOException {
+        parse("LUT_3D_SIZE 2\n0 0 0\n");
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsDataBeforeSize() throws IOException {
+        parse("0 0 0\nLUT_3D_SIZE 2\n");
+    }
+
+    @Test(expected = IOException.class)
+    public void rejects1dLut() throws IOException {
+        parse("LUT_1D_SIZE 1024\n");
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsGarbage() throws IOException {
+        parse("LUT_3D_SIZE 2\n0 0 x\n");
+    }
+
+    @Test
+    public void halfFloatRoundTrip() {
+        float[] values = {0.0f, 1.0f, -2.5f, 0.333f, 65504.0f, 6.1e-5f, 1e-7f};
+        for (float value : values)
+        {
+            float converted = HalfFloat.toFloat(HalfFloat.toHalf(value));
+            assertEquals(value, converted, Math.abs(value)*1e-3f + 1e-7f);
+        }
+        assertTrue(Float.isInfinite(HalfFloat.toFloat(HalfFloat.toHalf(1e6f))));
+        assertTrue(Float.isNaN(HalfFloat.toFloat(HalfFloat.toHalf(Float.NaN))));
+    }
+}
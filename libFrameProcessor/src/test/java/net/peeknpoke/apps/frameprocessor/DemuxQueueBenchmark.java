@@ -0,0 +1,92 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Throughput of handing samples from a producer thread to a consumer through {@link DemuxQueue},
+ * compared with an {@link ArrayBlockingQueue} of freshly allocated buffers. Not part of the unit
+ * tests; run the main method directly.
+ */
+public class DemuxQueueBenchmark {
+    private static final int SAMPLES = 500000;
+    private static final int SAMPLE_SIZE = 4096;
+    private static final int ROUNDS = 5;
+
+    private static long demuxQueue() throws InterruptedException
+    {
+        final DemuxQueue queue = new DemuxQueue(64, 4*1024*1024, SAMPLE_SIZE);
+        final ByteBuffer source = ByteBuffer.allocateDirect(SAMPLE_SIZE);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < SAMPLES; i++)
+                {
+                    DemuxQueue.Sample sample = queue.claim(SAMPLE_SIZE);
+                    sample.data.put(source.duplicate()).flip();
+                    sample.presentationTimeUs = i;
+                    queue.publish(sample);
+                }
+            }
+        });
+        ByteBuffer destination = ByteBuffer.allocateDirect(SAMPLE_SIZE);
+        long start = System.nanoTime();
+        producer.start();
+        int received = 0;
+        while (received < SAMPLES)
+        {
+            DemuxQueue.Sample sample = queue.peek();
+            if (sample == null)
+            {
+                Thread.yield();
+                continue;
+            }
+            destination.clear();
+            destination.put(sample.data);
+            queue.release();
+            received++;
+        }
+        producer.join();
+        return System.nanoTime() - start;
+    }
+
+    private static long blockingQueue() throws InterruptedException
+    {
+        final ArrayBlockingQueue<ByteBuffer> queue = new ArrayBlockingQueue<>(64);
+        final ByteBuffer source = ByteBuffer.allocateDirect(SAMPLE_SIZE);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < SAMPLES; i++)
+                    {
+                        ByteBuffer sample = ByteBuffer.allocateDirect(SAMPLE_SIZE);
+                        sample.put(source.duplicate()).flip();
+                        queue.put(sample);
+                    }
+                } catch (InterruptedException ignored) {
+                }
+            }
+        });
+        ByteBuffer destination = ByteBuffer.allocateDirect(SAMPLE_SIZE);
+        long start = System.nanoTime();
+        producer.start();
+        for (int i = 0; i < SAMPLES; i++)
+        {
+            destination.clear();
+            destination.put(queue.take());
+        }
+        producer.join();
+        return System.nanoTime() - start;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        for (int round = 0; round < ROUNDS; round++)
+        {
+            long demux = demuxQueue();
+            long blocking = blockingQueue();
+            System.out.printf("round %d: DemuxQueue %.0f ns/sample, ArrayBlockingQueue %.0f ns/sample%n",
+                    round, (double) demux/SAMPLES, (double) blocking/SAMPLES);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class DemuxQueueTest {
+    private static void fill(DemuxQueue.Sample sample, int size, long presentationTimeUs)
+    {
+        for (int i = 0; i < size; i++)
+            sample.data.put((byte) (presentationTimeUs + i));
+        sample.data.flip();
+        sample.presentationTimeUs = presentationTimeUs;
+    }
+
+    private static void check(DemuxQueue.Sample sample, int size, long presentationTimeUs)
+    {
+        assertEquals(presentationTimeUs, sample.presentationTimeUs);
+        assertEquals(size, sample.size);
+        assertEquals(size, sample.data.remaining());
+        for (int i = 0; i < size; i++)
+            assertEquals((byte) (presentationTimeUs + i), sample.data.get(sample.data.position() + i));
+    }
+
+    @Test
+    public void roundsSlotsToPowerOfTwo() {
+        assertEquals(2, new DemuxQueue(1, 100, 16).getSlotCount());
+        assertEquals(2, new DemuxQueue(2, 100, 16).getSlotCount());
+        assertEquals(64, new DemuxQueue(64, 100, 16).getSlotCount());
+        assertEquals(128, new DemuxQueue(65, 100, 16).getSlotCount());
+    }
+
+    @Test
+    public void deliversInOrderAndReusesSlots() {
+        DemuxQueue queue = new DemuxQueue(4, 1 << 20, 16);
+        assertNull(queue.peek());
+        for (int round = 0; round < 10; round++)
+        {
+            for (int i = 0; i < 3; i++)
+            {
+                DemuxQueue.Sample sample = queue.claim(100);
+                fill(sample, 10 + i*40, round*10 + i);
+                assertTrue(queue.publish(sample));
+            }
+            assertEquals(3, queue.size());
+            assertEquals(10 + 50 + 90, queue.getQueuedBytes());
+            for (int i = 0; i < 3; i++)
+            {
+                check(queue.peek(), 10 + i*40, round*10 + i);
+                queue.release();
+            }
+            assertNull(queue.peek());
+            assertEquals(0, queue.getQueuedBytes());
+        }
+    }
+
+    @Test
+    public void notifiesConsumerThatFoundQueueEmpty() {
+        final AtomicInteger notifications = new AtomicInteger();
+        DemuxQueue queue = new DemuxQueue(4, 1 << 20, 16);
+        queue.setListener(new DemuxQueue.Listener() {
+            @Override
+            public void onSampleAvailable() {
+                notifications.incrementAndGet();
+            }
+        });
+        DemuxQueue.Sample sample = queue.claim(8);
+        fill(sample, 8, 1);
+        queue.publish(sample);
+        // Nobody was waiting
+        assertEquals(0, notifications.get());
+
+        queue.peek();
+        queue.release();
+        assertNull(queue.peek());
+        sample = queue.claim(8);
+        fill(sample, 8, 2);
+        queue.publish(sample);
+        assertEquals(1, notifications.get());
+    }
+
+    @Test
+    public void producerWaitsForByteBudget() throws InterruptedException {
+        final DemuxQueue queue = new DemuxQueue(8, 100, 16);
+        DemuxQueue.Sample first = queue.claim(80);
+        fill(first, 80, 1);
+        queue.publish(first);
+
+        final CountDownLatch published = new CountDownLatch(1);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                DemuxQueue.Sample sample = queue.claim(40);
+                fill(sample, 40, 2);
+                if (queue.publish(sample))
+                    published.countDown();
+            }
+        });
+        producer.start();
+        assertFalse(published.await(50, TimeUnit.MILLISECONDS));
+        queue.peek();
+        queue.release();
+        assertTrue(published.await(5, TimeUnit.SECONDS));
+        producer.join();
+        check(queue.peek(), 40, 2);
+    }
+
+    @Test
+    public void acceptsOversizedSampleIntoEmptyQueue() {
+        DemuxQueue queue = new DemuxQueue(4, 100, 16);
+        DemuxQueue.Sample sample = queue.claim(1000);
+        fill(sample, 1000, 1);
+        assertTrue(queue.publish(sample));
+        check(queue.peek(), 1000, 1);
+    }
+
+    @Test
+    public void closeReleasesWaitingProducer() throws InterruptedException {
+        final DemuxQueue queue = new DemuxQueue(2, 1 << 20, 16);
+        for (int i = 0; i < 2; i++)
+        {
+            DemuxQueue.Sample sample = queue.claim(4);
+            fill(sample, 4, i);
+            queue.publish(sample);
+        }
+        final AtomicReference<DemuxQueue.Sample> claimed = new AtomicReference<>(new DemuxQueue.Sample());
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                claimed.set(queue.claim(4));
+            }
+        });
+        producer.start();
+        Thread.sleep(20);
+        queue.close();
+        producer.join(5000);
+        assertFalse(producer.isAlive());
+        assertNull(claimed.get());
+    }
+
+    @Test
+    public void stress() throws InterruptedException {
+        final int count = 200000;
+        final DemuxQueue queue = new DemuxQueue(16, 4096, 64);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < count; i++)
+                {
+                    int size = 1 + (i*7919)%700;
+                    DemuxQueue.Sample sample = queue.claim(size);
+                    fill(sample, size, i);
+                    if (i == count - 1)
+                        sample.endOfStream = true;
+                    queue.publish(sample);
+                }
+            }
+        });
+        producer.start();
+
+        int expected = 0;
+        long deadline = System.currentTimeMillis() + 60000;
+        while (expected < count && System.currentTimeMillis() < deadline)
+        {
+            DemuxQueue.Sample sample = queue.peek();
+            if (sample == null)
+            {
+                Thread.yield();
+                continue;
+            }
+            if (sample.endOfStream)
+            {
+                assertEquals(count - 1, expected);
+                assertEquals(0, sample.size);
+            }
+            else
+            {
+                check(sample, 1 + (expected*7919)%700, expected);
+            }
+            assertTrue(queue.getQueuedBytes() <= 4096);
+            // Consuming moves the data position, the queue must not depend on it
+            sample.data.position(sample.data.limit());
+            queue.release();
+            expected++;
+        }
+        producer.join();
+        assertEquals(count, expected);
+        assertEquals(0, queue.getQueuedBytes());
+    }
+}
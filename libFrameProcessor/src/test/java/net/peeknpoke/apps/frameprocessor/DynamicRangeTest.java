@@ -0,0 +1,64 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class DynamicRangeTest {
+    private static ByteBuffer staticInfo(int maxMastering, int maxCll)
+    {
+        ByteBuffer info = ByteBuffer.allocate(25).order(ByteOrder.LITTLE_ENDIAN);
+        info.put((byte) 0);
+        for (int i = 0; i < 8; i++)
+            info.putShort((short) 1000);
+        info.putShort((short) maxMastering);
+        info.putShort((short) 50);
+        info.putShort((short) maxCll);
+        info.putShort((short) 400);
+        info.flip();
+        return info;
+    }
+
+    @Test
+    public void transfers() {
+        assertEquals(DynamicRange.Transfer.PQ, DynamicRange.transferOf(MediaFormat.COLOR_TRANSFER_ST2084));
+        assertEquals(DynamicRange.Transfer.HLG, DynamicRange.transferOf(MediaFormat.COLOR_TRANSFER_HLG));
+        assertEquals(DynamicRange.Transfer.SDR, DynamicRange.transferOf(MediaFormat.COLOR_TRANSFER_SDR_VIDEO));
+        for (DynamicRange.Transfer transfer : DynamicRange.Transfer.values())
+            assertEquals(transfer, DynamicRange.transferOf(DynamicRange.colorTransferOf(transfer)));
+    }
+
+    @Test
+    public void tenBitProfiles() {
+        assertEquals(MediaCodecInfo.CodecProfileLevel.HEVCProfileMain10HDR10,
+                DynamicRange.tenBitProfile(TranscodePlanner.MIME_HEVC, DynamicRange.Transfer.PQ));
+        assertEquals(MediaCodecInfo.CodecProfileLevel.HEVCProfileMain10,
+                DynamicRange.tenBitProfile(TranscodePlanner.MIME_HEVC, DynamicRange.Transfer.HLG));
+        assertEquals(-1, DynamicRange.tenBitProfile(TranscodePlanner.MIME_AVC, DynamicRange.Transfer.PQ));
+    }
+
+    @Test
+    public void sdrInputNeverProducesHdr() {
+        DynamicRange range = new DynamicRange(DynamicRange.Transfer.SDR, true, 100.0f);
+        assertFalse(range.hdrOutput);
+        assertFalse(range.needsToneMapping());
+        assertTrue(new DynamicRange(DynamicRange.Transfer.PQ, false, 1000.0f).needsToneMapping());
+        assertFalse(new DynamicRange(DynamicRange.Transfer.HLG, true, 1000.0f).needsToneMapping());
+    }
+
+    @Test
+    public void peakFromStaticInfo() {
+        assertEquals(1000.0f, DynamicRange.peakFromStaticInfo(staticInfo(1000, 0), 500.0f), 0.0f);
+        // Content light level below the mastering peak
+        assertEquals(800.0f, DynamicRange.peakFromStaticInfo(staticInfo(4000, 800), 500.0f), 0.0f);
+        assertEquals(500.0f, DynamicRange.peakFromStaticInfo(staticInfo(0, 0), 500.0f), 0.0f);
+        assertEquals(500.0f, DynamicRange.peakFromStaticInfo(null, 500.0f), 0.0f);
+        assertEquals(500.0f, DynamicRange.peakFromStaticInfo(ByteBuffer.allocate(4), 500.0f), 0.0f);
+    }
+}
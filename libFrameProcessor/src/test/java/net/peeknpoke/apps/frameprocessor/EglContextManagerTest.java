@@ -0,0 +1,344 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class EglContextManagerTest {
+    private static final Object CONFIG = new Object();
+    private static final Object SURFACE = new Object();
+
+    private static class FakeContext {
+        final FakeContext share;
+        Thread thread;
+        boolean destroyed;
+
+        FakeContext(FakeContext share)
+        {
+            this.share = share;
+        }
+    }
+
+    /**
+     * Follows the EGL rules the manager relies on: a context can be current on one thread only
+     * and destroyed contexts cannot be used.
+     */
+    private static class FakeEgl implements EglApi {
+        final Object display = new Object();
+        final List<FakeContext> contexts = new ArrayList<>();
+        final ThreadLocal<FakeContext> current = new ThreadLocal<>();
+        boolean refuseSharing;
+        int initialized;
+        int terminated;
+
+        @Override
+        public Object initialize() {
+            initialized++;
+            return display;
+        }
+
+        @Override
+        public void terminate(Object display) {
+            terminated++;
+        }
+
+        @Override
+        public Object chooseConfig(Object display, int[] attributes) {
+            return CONFIG;
+        }
+
+        @Override
+        public synchronized Object createContext(Object display, Object config, Object shareContext) {
+            if (shareContext != null && refuseSharing)
+                return null;
+            FakeContext share = (FakeContext) shareContext;
+            if (share != null && share.destroyed)
+                return null;
+            FakeContext context = new FakeContext(share);
+            contexts.add(context);
+            return context;
+        }
+
+        @Override
+        public synchronized void destroyContext(Object display, Object context) {
+            FakeContext fake = (FakeContext) context;
+            assertFalse("destroyed twice", fake.destroyed);
+            assertNull("destroyed while current", fake.thread);
+            fake.destroyed = true;
+        }
+
+        @Override
+        public synchronized boolean makeCurrent(Object display, Object drawSurface, Object readSurface, Object context) {
+            FakeContext fake = (FakeContext) context;
+            if (fake != null && (fake.destroyed || (fake.thread != null && fake.thread != Thread.currentThread())))
+                return false;
+            FakeContext previous = current.get();
+            if (previous != null)
+                previous.thread = null;
+            if (fake != null)
+                fake.thread = Thread.currentThread();
+            current.set(fake);
+            return true;
+        }
+
+        @Override
+        public void releaseThread() {
+        }
+    }
+
+    private static Throwable runOnOtherThread(final Runnable runnable) throws InterruptedException
+    {
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runnable.run();
+                } catch (Throwable t) {
+                    error.set(t);
+                }
+            }
+        });
+        thread.start();
+        thread.join();
+        return error.get();
+    }
+
+    @Test
+    public void workersShareTheRootContext() {
+        FakeEgl egl = new FakeEgl();
+        EglContextManager manager = new EglContextManager(egl);
+        EglContextManager.Worker a = manager.createWorker(CONFIG);
+        EglContextManager.Worker b = manager.createWorker(CONFIG);
+
+        assertEquals(1, egl.initialized);
+        assertEquals(3, egl.contexts.size());
+        FakeContext root = egl.contexts.get(0);
+        assertNull(root.share);
+        assertSame(root, egl.contexts.get(1).share);
+        assertSame(root, egl.contexts.get(2).share);
+        assertTrue(a.isShared());
+        assertSame(a.getShareGroup(), b.getShareGroup());
+        assertEquals(2, manager.getWorkerCount());
+    }
+
+    @Test
+    public void fallsBackToAnUnsharedContext() {
+        FakeEgl egl = new FakeEgl();
+        EglContextManager manager = new EglContextManager(egl);
+        EglContextManager.Worker a = manager.createWorker(CONFIG);
+        egl.refuseSharing = true;
+        EglContextManager.Worker b = manager.createWorker(CONFIG);
+
+        assertFalse(b.isShared());
+        assertNull(egl.contexts.get(2).share);
+        assertNotSame(a.getShareGroup(), b.getShareGroup());
+    }
+
+    @Test
+    public void makeCurrentSetsTheShareGroupOfTheThread() {
+        EglContextManager manager = new EglContextManager(new FakeEgl());
+        EglContextManager.Worker worker = manager.createWorker(CONFIG);
+        worker.makeCurrent(SURFACE, SURFACE);
+        try {
+            assertSame(worker, manager.getCurrentWorker());
+            assertSame(worker.getShareGroup(), ShareGroup.current());
+            assertTrue(worker.isCurrent());
+        } finally {
+            worker.release();
+        }
+        assertNull(manager.getCurrentWorker());
+        try {
+            ShareGroup.current();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void contextIsBoundToOneThread() throws InterruptedException {
+        EglContextManager manager = new EglContextManager(new FakeEgl());
+        final EglContextManager.Worker worker = manager.createWorker(CONFIG);
+        worker.makeCurrent(SURFACE, SURFACE);
+
+        Throwable error = runOnOtherThread(new Runnable() {
+            @Override
+            public void run() {
+                worker.makeCurrent(SURFACE, SURFACE);
+            }
+        });
+        assertTrue(error instanceof IllegalStateException);
+
+        error = runOnOtherThread(new Runnable() {
+            @Override
+            public void run() {
+                worker.release();
+            }
+        });
+        assertTrue(error instanceof IllegalStateException);
+        assertTrue(worker.isCurrent());
+
+        worker.makeNotCurrent();
+        assertNull(runOnOtherThread(new Runnable() {
+            @Override
+            public void run() {
+                worker.makeCurrent(SURFACE, SURFACE);
+                worker.release();
+            }
+        }));
+        assertEquals(0, manager.getWorkerCount());
+    }
+
+    @Test
+    public void makingAnotherWorkerCurrentUnbindsThePreviousOne() throws InterruptedException {
+        EglContextManager manager = new EglContextManager(new FakeEgl());
+        final EglContextManager.Worker a = manager.createWorker(CONFIG);
+        EglContextManager.Worker b = manager.createWorker(CONFIG);
+        a.makeCurrent(SURFACE, SURFACE);
+        b.makeCurrent(SURFACE, SURFACE);
+
+        assertFalse(a.isCurrent());
+        assertSame(b, manager.getCurrentWorker());
+        assertNull(runOnOtherThread(new Runnable() {
+            @Override
+            public void run() {
+                a.makeCurrent(SURFACE, SURFACE);
+                a.release();
+            }
+        }));
+        b.release();
+    }
+
+    @Test
+    public void workerIsReleasedOnItsOwnerFromAnotherThread() throws Exception {
+        EglContextManager manager = new EglContextManager(new FakeEgl());
+        final EglContextManager.Worker worker = manager.createWorker(CONFIG);
+        ExecutorService owner = Executors.newSingleThreadExecutor();
+        try {
+            owner.submit(new Runnable() {
+                @Override
+                public void run() {
+                    worker.makeCurrent(SURFACE, SURFACE);
+                }
+            }).get();
+
+            // Like a job ended on the main thread while the rendering thread owns the context
+            final AtomicReference<Thread> releasedOn = new AtomicReference<>();
+            worker.runOnOwner(owner, new Runnable() {
+                @Override
+                public void run() {
+                    releasedOn.set(Thread.currentThread());
+                    worker.release();
+                }
+            });
+            assertNotNull(releasedOn.get());
+            assertNotSame(Thread.currentThread(), releasedOn.get());
+            assertEquals(0, manager.getWorkerCount());
+        } finally {
+            owner.shutdown();
+        }
+    }
+
+    @Test
+    public void workerThatIsNotCurrentIsReleasedOnTheCallingThread() {
+        EglContextManager manager = new EglContextManager(new FakeEgl());
+        final EglContextManager.Worker worker = manager.createWorker(CONFIG);
+        final AtomicReference<Thread> releasedOn = new AtomicReference<>();
+        worker.runOnOwner(new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                fail();
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                releasedOn.set(Thread.currentThread());
+                worker.release();
+            }
+        });
+        assertSame(Thread.currentThread(), releasedOn.get());
+        assertEquals(0, manager.getWorkerCount());
+    }
+
+    @Test
+    public void releasedWorkerCannotBeUsed() {
+        EglContextManager manager = new EglContextManager(new FakeEgl());
+        EglContextManager.Worker worker = manager.createWorker(CONFIG);
+        worker.release();
+        worker.release();
+        assertEquals(0, manager.getWorkerCount());
+        try {
+            worker.makeCurrent(SURFACE, SURFACE);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void releasingWorkersKeepsTheDisplay() {
+        FakeEgl egl = new FakeEgl();
+        EglContextManager manager = new EglContextManager(egl);
+        EglContextManager.Worker a = manager.createWorker(CONFIG);
+        a.makeCurrent(SURFACE, SURFACE);
+        a.release();
+        EglContextManager.Worker b = manager.createWorker(CONFIG);
+
+        assertEquals(0, egl.terminated);
+        assertEquals(1, egl.initialized);
+        assertSame(egl.contexts.get(0), egl.contexts.get(2).share);
+        try {
+            manager.shutdown();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+
+        b.release();
+        manager.shutdown();
+        assertEquals(1, egl.terminated);
+        assertTrue(egl.contexts.get(0).destroyed);
+    }
+
+    @Test
+    public void sharedObjectsAreCreatedOncePerKey() {
+        final List<Integer> deleted = new ArrayList<>();
+        SharedObjects<String> objects = new SharedObjects<>(new SharedObjects.Deleter() {
+            @Override
+            public void delete(int name) {
+                deleted.add(name);
+            }
+        });
+        SharedObjects.Creator<String> creator = new SharedObjects.Creator<String>() {
+            int mNext = 1;
+
+            @Override
+            public int create(String key) {
+                return mNext++;
+            }
+        };
+
+        int a = objects.acquire("blur", creator);
+        assertEquals(a, objects.acquire("blur", creator));
+        int b = objects.acquire("lut", creator);
+        assertNotEquals(a, b);
+        assertEquals(2, objects.getCreated());
+
+        objects.release(a);
+        assertTrue(deleted.isEmpty());
+        objects.release(a);
+        assertEquals(1, deleted.size());
+        assertEquals(a, (int) deleted.get(0));
+        assertEquals(1, objects.size());
+        try {
+            objects.release(a);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
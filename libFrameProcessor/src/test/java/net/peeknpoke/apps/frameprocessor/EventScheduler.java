@@ -0,0 +1,322 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * Discrete-event scheduler on a virtual clock. Every simulated thread is a Java thread, but only
+ * one of them runs at a time: it runs until it sleeps for simulated time, waits for a condition
+ * or ends, and the scheduler then resumes the next one. Threads whose condition is met run before
+ * time advances to the earliest wake-up, in the order they were started, so a run interleaves the
+ * same way every time and takes no longer than its handoffs. When no thread can run and none is
+ * sleeping, the run is deadlocked.
+ */
+final class EventScheduler implements ThroughputGovernor.Clock {
+    interface Ready {
+        boolean isReady();
+    }
+
+    /**
+     * Unwinds the simulated threads once the scheduler has stopped.
+     */
+    private static final class Stopped extends Error {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private enum Step {
+        RUNNING,
+        WAITING,
+        SLEEPING
+    }
+
+    private static final Ready ALWAYS = new Ready() {
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+    };
+
+    private final class SimulatedThread extends Thread {
+        private final Runnable mBody;
+        private Step mStep = Step.WAITING;
+        private Ready mReady = ALWAYS;
+
+        SimulatedThread(String name, Runnable body)
+        {
+            super(name);
+            mBody = body;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                awaitTurn(this);
+                mBody.run();
+            } catch (Stopped e) {
+                // Stopped
+            } catch (Throwable e) {
+                synchronized (mLock)
+                {
+                    if (!mStopped && mFailure == null)
+                        mFailure = e;
+                }
+            } finally {
+                synchronized (mLock)
+                {
+                    mThreads.remove(this);
+                    if (mRunning == this)
+                        mRunning = null;
+                    mLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    private static final class Wakeup implements Comparable<Wakeup> {
+        final long timeNanos;
+        final long sequence;
+        final SimulatedThread thread;
+
+        Wakeup(long timeNanos, long sequence, SimulatedThread thread)
+        {
+            this.timeNanos = timeNanos;
+            this.sequence = sequence;
+            this.thread = thread;
+        }
+
+        @Override
+        public int compareTo(Wakeup other) {
+            if (timeNanos != other.timeNanos)
+                return timeNanos < other.timeNanos ? -1 : 1;
+            return sequence < other.sequence ? -1 : sequence == other.sequence ? 0 : 1;
+        }
+    }
+
+    private final Object mLock = new Object();
+    // Started and not ended, in the order they were started
+    private final List<SimulatedThread> mThreads = new ArrayList<>();
+    private final List<SimulatedThread> mStarted = new ArrayList<>();
+    private final PriorityQueue<Wakeup> mWakeups = new PriorityQueue<>();
+    private long mNowNanos;
+    private long mSequence;
+    private SimulatedThread mRunning;
+    private boolean mStopped;
+    private Throwable mFailure;
+
+    /**
+     * @return the simulated time
+     */
+    @Override
+    public long nanoTime() {
+        return mNowNanos;
+    }
+
+    /**
+     * Starts a simulated thread, which first runs once the scheduler does.
+     */
+    void start(String name, Runnable body)
+    {
+        SimulatedThread thread = new SimulatedThread(name, body);
+        synchronized (mLock)
+        {
+            mThreads.add(thread);
+            mStarted.add(thread);
+        }
+        thread.start();
+    }
+
+    /**
+     * @return an executor that runs its tasks in order on a simulated thread of its own
+     */
+    Executor newExecutor(String name)
+    {
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        final Ready hasTask = new Ready() {
+            @Override
+            public boolean isReady() {
+                return !tasks.isEmpty();
+            }
+        };
+        start(name, new Runnable() {
+            @Override
+            public void run() {
+                while (true)
+                {
+                    await(hasTask);
+                    tasks.poll().run();
+                }
+            }
+        });
+        return new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                tasks.add(task);
+            }
+        };
+    }
+
+    /**
+     * Called on a simulated thread: lets the others run for the given simulated time.
+     */
+    void sleep(long nanos)
+    {
+        SimulatedThread thread = current();
+        thread.mStep = Step.SLEEPING;
+        mWakeups.add(new Wakeup(mNowNanos + Math.max(0, nanos), mSequence++, thread));
+        handOff(thread);
+    }
+
+    /**
+     * Called on a simulated thread: lets the others run until the condition is met.
+     */
+    void await(Ready ready)
+    {
+        if (ready.isReady())
+            return;
+        SimulatedThread thread = current();
+        thread.mStep = Step.WAITING;
+        thread.mReady = ready;
+        handOff(thread);
+    }
+
+    /**
+     * Runs the simulated threads until the given condition is met, or until none of them can run.
+     * @return false if the run deadlocked
+     * @throws AssertionError if a simulated thread threw
+     */
+    boolean run(Ready finished) throws InterruptedException
+    {
+        while (!finished.isReady())
+        {
+            SimulatedThread next = nextReady();
+            if (next == null)
+            {
+                Wakeup wakeup = mWakeups.poll();
+                if (wakeup == null)
+                    return false;
+                mNowNanos = wakeup.timeNanos;
+                next = wakeup.thread;
+            }
+            resume(next);
+        }
+        return true;
+    }
+
+    /**
+     * Unwinds and ends the simulated threads.
+     */
+    void stop() throws InterruptedException
+    {
+        List<SimulatedThread> threads;
+        synchronized (mLock)
+        {
+            mStopped = true;
+            mLock.notifyAll();
+            threads = new ArrayList<>(mStarted);
+        }
+        for (SimulatedThread thread : threads)
+            thread.join();
+    }
+
+    /**
+     * @return the simulated threads that wait for a condition, with the innermost pipeline method
+     * they wait in
+     */
+    String describeWaitingThreads()
+    {
+        StringBuilder description = new StringBuilder();
+        synchronized (mLock)
+        {
+            for (SimulatedThread thread : mThreads)
+            {
+                if (thread.mStep != Step.WAITING)
+                    continue;
+                String location = null;
+                for (StackTraceElement element : thread.getStackTrace())
+                {
+                    String className = element.getClassName();
+                    if (className.startsWith(EventScheduler.class.getPackage().getName())
+                            && !className.startsWith(EventScheduler.class.getName())
+                            && !className.startsWith(SimulatedLock.class.getName()))
+                    {
+                        location = className.substring(className.lastIndexOf('.') + 1) + "."
+                                + element.getMethodName();
+                        break;
+                    }
+                }
+                // Idle executors wait in the scheduler only
+                if (location == null)
+                    continue;
+                if (description.length() > 0)
+                    description.append(", ");
+                description.append(thread.getName()).append(" in ").append(location);
+            }
+        }
+        return description.toString();
+    }
+
+    private SimulatedThread nextReady()
+    {
+        synchronized (mLock)
+        {
+            for (SimulatedThread thread : mThreads)
+            {
+                if (thread.mStep == Step.WAITING && thread.mReady.isReady())
+                    return thread;
+            }
+        }
+        return null;
+    }
+
+    private SimulatedThread current()
+    {
+        SimulatedThread running = mRunning;
+        if (running != Thread.currentThread())
+            throw new IllegalStateException("Not on the running simulated thread");
+        return running;
+    }
+
+    private void resume(SimulatedThread thread) throws InterruptedException
+    {
+        synchronized (mLock)
+        {
+            thread.mStep = Step.RUNNING;
+            thread.mReady = ALWAYS;
+            mRunning = thread;
+            mLock.notifyAll();
+            while (mRunning != null)
+                mLock.wait();
+            if (mFailure != null)
+                throw new AssertionError(mFailure);
+        }
+    }
+
+    private void handOff(SimulatedThread thread)
+    {
+        synchronized (mLock)
+        {
+            mRunning = null;
+            mLock.notifyAll();
+        }
+        awaitTurn(thread);
+    }
+
+    private void awaitTurn(SimulatedThread thread)
+    {
+        synchronized (mLock)
+        {
+            try {
+                while (mRunning != thread && !mStopped)
+                    mLock.wait();
+            } catch (InterruptedException e) {
+                throw new Stopped();
+            }
+            if (mStopped)
+                throw new Stopped();
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FilterPassTest {
+    // Bottom left, bottom right, top left, top right
+    private static final float[] UPRIGHT = {0, 0, 1, 0, 0, 1, 1, 1};
+
+    @Test
+    public void keepsTexCoordsWithoutRotation() {
+        assertArrayEquals(UPRIGHT, FilterPass.rotatedTexCoords(0), 0.0f);
+        assertArrayEquals(UPRIGHT, FilterPass.rotatedTexCoords(360), 0.0f);
+    }
+
+    @Test
+    public void rotatesClockwise() {
+        // The bottom left of the screen shows the bottom right of the frame
+        assertArrayEquals(new float[]{1, 0, 1, 1, 0, 0, 0, 1}, FilterPass.rotatedTexCoords(90), 0.0f);
+        assertArrayEquals(new float[]{1, 1, 0, 1, 1, 0, 0, 0}, FilterPass.rotatedTexCoords(180), 0.0f);
+        assertArrayEquals(new float[]{0, 1, 0, 0, 1, 1, 1, 0}, FilterPass.rotatedTexCoords(270), 0.0f);
+        assertArrayEquals(FilterPass.rotatedTexCoords(270), FilterPass.rotatedTexCoords(-90), 0.0f);
+    }
+}
@@ -0,0 +1,423 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FragmentedMp4WriterTest {
+    private static final byte[] AVC_SPS = {0x67, 0x42, (byte) 0xc0, 0x1f, (byte) 0xda, 0x01, 0x40, 0x16, (byte) 0xe8};
+    private static final byte[] AVC_PPS = {0x68, (byte) 0xce, 0x0f, (byte) 0xc8};
+    // Main profile, level 3.1; the profile_tier_level contains emulation prevention bytes
+    private static final byte[] HEVC_VPS = {0x40, 0x01, 0x0c, 0x01, (byte) 0xff, (byte) 0xff};
+    private static final byte[] HEVC_SPS = {0x42, 0x01, 0x01, 0x01, 0x60, 0x00, 0x00, 0x03, 0x00, (byte) 0x90,
+            0x00, 0x00, 0x03, 0x00, 0x00, 0x03, 0x00, 0x5d, (byte) 0xa0, 0x02, (byte) 0x80};
+    private static final byte[] HEVC_PPS = {0x44, 0x01, (byte) 0xc1, 0x72};
+    private static final long FRAME_US = 40000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static final class Box {
+        final String type;
+        final int offset;
+        final int size;
+        final ByteBuffer data;
+
+        Box(ByteBuffer data, int offset)
+        {
+            this.data = data;
+            this.offset = offset;
+            size = data.getInt(offset);
+            byte[] fourCc = new byte[4];
+            for (int i = 0; i < 4; i++)
+                fourCc[i] = data.get(offset + 4 + i);
+            type = new String(fourCc);
+        }
+
+        int payload()
+        {
+            return offset + 8;
+        }
+
+        List<Box> children(int headerBytes)
+        {
+            return parse(data, payload() + headerBytes, offset + size);
+        }
+
+        Box child(String type)
+        {
+            for (Box box : children(0))
+                if (box.type.equals(type))
+                    return box;
+            throw new AssertionError("No " + type + " in " + this.type);
+        }
+    }
+
+    private static List<Box> parse(ByteBuffer data, int start, int end)
+    {
+        List<Box> boxes = new ArrayList<>();
+        int offset = start;
+        while (offset < end)
+        {
+            Box box = new Box(data, offset);
+            assertTrue("Box " + box.type + " overruns its parent", box.size >= 8 && offset + box.size <= end);
+            boxes.add(box);
+            offset += box.size;
+        }
+        assertEquals(end, offset);
+        return boxes;
+    }
+
+    private static final class Fragment {
+        final int sequence;
+        final long offset;
+        final long length;
+        final long startUs;
+        final long durationUs;
+
+        Fragment(int sequence, long offset, long length, long startUs, long durationUs)
+        {
+            this.sequence = sequence;
+            this.offset = offset;
+            this.length = length;
+            this.startUs = startUs;
+            this.durationUs = durationUs;
+        }
+    }
+
+    private final List<Fragment> mFragments = new ArrayList<>();
+    private final FragmentedMp4Writer.Listener mListener = new FragmentedMp4Writer.Listener() {
+        @Override
+        public void onFragmentWritten(int sequenceNumber, long offset, long length, long startTimeUs, long durationUs) {
+            mFragments.add(new Fragment(sequenceNumber, offset, length, startTimeUs, durationUs));
+        }
+    };
+
+    private static ByteBuffer annexB(byte[]... units)
+    {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (byte[] unit : units)
+        {
+            stream.write(0);
+            stream.write(0);
+            stream.write(0);
+            stream.write(1);
+            stream.write(unit, 0, unit.length);
+        }
+        return ByteBuffer.wrap(stream.toByteArray());
+    }
+
+    private static byte[] slice(int type, int size, int fill)
+    {
+        byte[] slice = new byte[size];
+        Arrays.fill(slice, (byte) fill);
+        slice[0] = (byte) type;
+        return slice;
+    }
+
+    private static Mp4TrackFormat avcFormat()
+    {
+        return new Mp4TrackFormat(Mp4TrackFormat.Codec.AVC, 640, 360, 90, annexB(AVC_SPS), annexB(AVC_PPS));
+    }
+
+    /**
+     * Writes GOPs of I P B B (decode order) and returns the whole output.
+     */
+    private ByteBuffer writeGops(FragmentedMp4Writer writer, ByteArrayOutputStream output, int gops) throws IOException
+    {
+        writer.start();
+        for (int gop = 0; gop < gops; gop++)
+        {
+            long base = gop*4*FRAME_US;
+            writer.writeSample(annexB(slice(0x65, 100 + gop, gop)), base, true);
+            writer.writeSample(annexB(slice(0x41, 50, gop)), base + 3*FRAME_US, false);
+            writer.writeSample(annexB(slice(0x01, 20, gop)), base + FRAME_US, false);
+            writer.writeSample(annexB(slice(0x01, 21, gop)), base + 2*FRAME_US, false);
+        }
+        writer.finish();
+        return ByteBuffer.wrap(output.toByteArray());
+    }
+
+    @Test
+    public void writesInitSegmentAndOneFragmentPerGop() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        FragmentedMp4Writer writer = new FragmentedMp4Writer(Channels.newChannel(output), avcFormat(), 0, mListener);
+        ByteBuffer file = writeGops(writer, output, 3);
+
+        List<Box> boxes = parse(file, 0, file.limit());
+        String[] expected = {"ftyp", "moov", "moof", "mdat", "moof", "mdat", "moof", "mdat"};
+        assertEquals(expected.length, boxes.size());
+        for (int i = 0; i < expected.length; i++)
+            assertEquals(expected[i], boxes.get(i).type);
+        assertEquals(file.limit(), writer.getBytesWritten());
+
+        Box moov = boxes.get(1);
+        Box stsd = moov.child("trak").child("mdia").child("minf").child("stbl").child("stsd");
+        Box avc1 = stsd.children(8).get(0);
+        assertEquals("avc1", avc1.type);
+        assertEquals(640, avc1.data.getShort(avc1.payload() + 24));
+        assertEquals(360, avc1.data.getShort(avc1.payload() + 26));
+        Box avcC = avc1.children(78).get(0);
+        assertEquals("avcC", avcC.type);
+        int p = avcC.payload();
+        assertEquals(1, file.get(p));
+        assertEquals(AVC_SPS[1], file.get(p + 1));
+        assertEquals(AVC_SPS[3], file.get(p + 3));
+        assertEquals(0xff, file.get(p + 4) & 0xff);
+        assertEquals(0xe1, file.get(p + 5) & 0xff);
+        assertEquals(AVC_SPS.length, file.getShort(p + 6));
+        assertEquals(AVC_SPS[4], file.get(p + 8 + 4));
+        assertEquals(1, file.get(p + 8 + AVC_SPS.length));
+        assertEquals(AVC_PPS.length, file.getShort(p + 9 + AVC_SPS.length));
+
+        Box tkhd = moov.child("trak").child("tkhd");
+        // 90 degree rotation matrix, then the 16.16 size
+        assertEquals(0x00010000, file.getInt(tkhd.payload() + 44));
+        assertEquals(640 << 16, file.getInt(tkhd.payload() + 76));
+        assertEquals("trex", moov.child("mvex").children(0).get(0).type);
+    }
+
+    @Test
+    public void fragmentTimingAndSampleTables() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        FragmentedMp4Writer writer = new FragmentedMp4Writer(Channels.newChannel(output), avcFormat(), 0, mListener);
+        ByteBuffer file = writeGops(writer, output, 2);
+        List<Box> boxes = parse(file, 0, file.limit());
+        long frameTicks = FragmentedMp4Writer.toTicks(FRAME_US);
+
+        for (int fragment = 0; fragment < 2; fragment++)
+        {
+            Box moof = boxes.get(2 + 2*fragment);
+            Box mdat = boxes.get(3 + 2*fragment);
+            assertEquals(fragment + 1, file.getInt(moof.child("mfhd").payload() + 4));
+            Box traf = moof.child("traf");
+            Box tfdt = traf.child("tfdt");
+            assertEquals(1, file.get(tfdt.payload()));
+            assertEquals(fragment*4*frameTicks, file.getLong(tfdt.payload() + 4));
+
+            Box trun = traf.child("trun");
+            int t = trun.payload();
+            assertEquals(1, file.get(t));
+            assertEquals(4, file.getInt(t + 4));
+            int dataOffset = file.getInt(t + 8);
+            assertEquals(mdat.payload(), moof.offset + dataOffset);
+
+            long[] presentation = {0, 3, 1, 2};
+            int sampleOffset = mdat.payload();
+            long decodeTicks = fragment*4*frameTicks;
+            for (int i = 0; i < 4; i++)
+            {
+                int entry = t + 12 + 16*i;
+                int duration = file.getInt(entry);
+                int size = file.getInt(entry + 4);
+                int flags = file.getInt(entry + 8);
+                int compositionOffset = file.getInt(entry + 12);
+                assertEquals(frameTicks, duration);
+                assertEquals((fragment*4 + presentation[i])*frameTicks, decodeTicks + compositionOffset);
+                assertEquals(i == 0, (flags & 0x00010000) == 0);
+
+                // Length prefixed sample with the original NAL
+                assertEquals(size - 4, file.getInt(sampleOffset));
+                assertEquals(i == 0 ? 0x65 : (i == 1 ? 0x41 : 0x01), file.get(sampleOffset + 4));
+                sampleOffset += size;
+                decodeTicks += duration;
+            }
+            assertEquals(mdat.offset + mdat.size, sampleOffset);
+        }
+
+        assertEquals(2, mFragments.size());
+        for (int i = 0; i < 2; i++)
+        {
+            Fragment fragment = mFragments.get(i);
+            assertEquals(i + 1, fragment.sequence);
+            assertEquals(boxes.get(2 + 2*i).offset, fragment.offset);
+            assertEquals(boxes.get(2 + 2*i).size + boxes.get(3 + 2*i).size, fragment.length);
+            assertEquals(i*4*FRAME_US, fragment.startUs);
+            assertEquals(4*FRAME_US, fragment.durationUs);
+        }
+    }
+
+    @Test
+    public void fragmentsSpanSeveralGopsUpToTheDuration() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        FragmentedMp4Writer writer = new FragmentedMp4Writer(Channels.newChannel(output), avcFormat(),
+                8*FRAME_US, mListener);
+        writeGops(writer, output, 5);
+        assertEquals(3, mFragments.size());
+        assertEquals(8*FRAME_US, mFragments.get(0).durationUs);
+        assertEquals(8*FRAME_US, mFragments.get(1).startUs);
+        assertEquals(4*FRAME_US, mFragments.get(2).durationUs);
+    }
+
+    @Test
+    public void convertsMixedStartCodesAndKeepsLengthPrefixedSamples() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        FragmentedMp4Writer writer = new FragmentedMp4Writer(Channels.newChannel(output), avcFormat(), 0, mListener);
+        writer.start();
+        int initSize = output.size();
+        // A 3 byte and a 4 byte start code
+        byte[] sample = {0, 0, 1, 0x06, 0x05, 0, 0, 0, 1, 0x65, 0x11, 0x22};
+        writer.writeSample(ByteBuffer.wrap(sample), 0, true);
+        byte[] prefixed = {0, 0, 0, 2, 0x41, 0x33};
+        writer.writeSample(ByteBuffer.wrap(prefixed), FRAME_US, false);
+        writer.finish();
+
+        ByteBuffer file = ByteBuffer.wrap(output.toByteArray());
+        List<Box> boxes = parse(file, initSize, file.limit());
+        Box mdat = boxes.get(1);
+        ByteBuffer expected = ByteBuffer.wrap(new byte[]{0, 0, 0, 2, 0x06, 0x05, 0, 0, 0, 3, 0x65, 0x11, 0x22,
+                0, 0, 0, 2, 0x41, 0x33});
+        assertEquals(expected.limit() + 8, mdat.size);
+        ByteBuffer payload = file.duplicate();
+        payload.position(mdat.payload());
+        payload.limit(mdat.offset + mdat.size);
+        assertEquals(expected, payload);
+    }
+
+    @Test
+    public void hevcSampleEntry() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Mp4TrackFormat format = new Mp4TrackFormat(Mp4TrackFormat.Codec.HEVC, 1920, 1080, 0,
+                annexB(HEVC_VPS, HEVC_SPS, HEVC_PPS));
+        FragmentedMp4Writer writer = new FragmentedMp4Writer(Channels.newChannel(output), format, 0, mListener);
+        writer.start();
+        writer.finish();
+
+        ByteBuffer file = ByteBuffer.wrap(output.toByteArray());
+        List<Box> boxes = parse(file, 0, file.limit());
+        Box stsd = boxes.get(1).child("trak").child("mdia").child("minf").child("stbl").child("stsd");
+        Box hvc1 = stsd.children(8).get(0);
+        assertEquals("hvc1", hvc1.type);
+        Box hvcC = hvc1.children(78).get(0);
+        assertEquals("hvcC", hvcC.type);
+        int p = hvcC.payload();
+        assertEquals(1, file.get(p));
+        // Main profile, compatibility flags and constraint flags without emulation prevention
+        assertEquals(1, file.get(p + 1));
+        assertEquals(0x60, file.get(p + 2));
+        assertEquals(0, file.getShort(p + 4));
+        assertEquals((byte) 0x90, file.get(p + 6));
+        assertEquals(0x5d, file.get(p + 12));
+        assertEquals(0x0f, file.get(p + 21));
+        assertEquals(3, file.get(p + 22));
+        int array = p + 23;
+        int[] types = {32, 33, 34};
+        byte[][] units = {HEVC_VPS, HEVC_SPS, HEVC_PPS};
+        for (int i = 0; i < 3; i++)
+        {
+            assertEquals(0x80 | types[i], file.get(array) & 0xff);
+            assertEquals(1, file.getShort(array + 1));
+            assertEquals(units[i].length, file.getShort(array + 3));
+            array += 5 + units[i].length;
+        }
+        assertEquals(hvcC.offset + hvcC.size, array);
+    }
+
+    @Test
+    public void writesThroughFileChannel() throws IOException {
+        File file = mFolder.newFile("out.mp4");
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        FileChannel channel = randomAccessFile.getChannel();
+        FragmentedMp4Writer writer = new FragmentedMp4Writer(channel, avcFormat(), 0, mListener);
+        writer.start();
+        for (int i = 0; i < 3; i++)
+        {
+            writer.writeSample(annexB(slice(0x65, 2000, i)), i*FRAME_US, true);
+            // A fragment is on disk as soon as it is reported
+            if (i > 0)
+            {
+                Fragment fragment = mFragments.get(i - 1);
+                assertEquals(fragment.offset + fragment.length, channel.size());
+            }
+        }
+        writer.finish();
+        channel.close();
+        randomAccessFile.close();
+        assertEquals(writer.getBytesWritten(), file.length());
+        assertEquals(3, mFragments.size());
+    }
+
+    @Test
+    public void resumedOutputMatchesUninterruptedOutput() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        FragmentedMp4Writer writer = new FragmentedMp4Writer(Channels.newChannel(output), avcFormat(), 0, mListener);
+        byte[] uninterrupted = writeGops(writer, output, 3).array();
+        Fragment last = mFragments.get(1);
+        int kept = (int) (last.offset + last.length);
+        mFragments.clear();
+
+        // The output as left by a killed job, cut back to the end of the second fragment
+        ByteArrayOutputStream resumedOutput = new ByteArrayOutputStream();
+        resumedOutput.write(uninterrupted, 0, kept);
+        FragmentedMp4Writer resumed = new FragmentedMp4Writer(Channels.newChannel(resumedOutput), avcFormat(), 0,
+                mListener);
+        resumed.resume(last.sequence, kept);
+        long base = 2*4*FRAME_US;
+        resumed.writeSample(annexB(slice(0x65, 102, 2)), base, true);
+        resumed.writeSample(annexB(slice(0x41, 50, 2)), base + 3*FRAME_US, false);
+        resumed.writeSample(annexB(slice(0x01, 20, 2)), base + FRAME_US, false);
+        resumed.writeSample(annexB(slice(0x01, 21, 2)), base + 2*FRAME_US, false);
+        resumed.finish();
+
+        assertArrayEquals(uninterrupted, resumedOutput.toByteArray());
+        assertEquals(uninterrupted.length, resumed.getBytesWritten());
+        assertEquals(1, mFragments.size());
+        assertEquals(3, mFragments.get(0).sequence);
+        assertEquals(kept, mFragments.get(0).offset);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void firstSampleMustBeSync() throws IOException {
+        FragmentedMp4Writer writer = new FragmentedMp4Writer(Channels.newChannel(new ByteArrayOutputStream()),
+                avcFormat(), 0, null);
+        writer.start();
+        writer.writeSample(annexB(slice(0x41, 10, 0)), 0, false);
+    }
+
+    @Test
+    public void splitsTheCodecConfigBufferOfAnAvcEncoder() {
+        // Codec config buffer of a hardware AVC encoder at 1280x720: SPS and PPS, both with 4
+        // byte start codes, in one buffer
+        byte[] recorded = {0x00, 0x00, 0x00, 0x01, 0x67, 0x42, (byte) 0x80, 0x1f, (byte) 0xda, 0x01, 0x40,
+                0x16, (byte) 0xe8, 0x06, (byte) 0xd0, (byte) 0xa1, 0x35, 0x00, 0x00, 0x00, 0x01, 0x68,
+                (byte) 0xce, 0x06, (byte) 0xe2};
+        ByteBuffer config = ByteBuffer.wrap(recorded);
+        config.position(0);
+        ByteBuffer[] csd = Mp4TrackFormat.codecSpecificData(Mp4TrackFormat.Codec.AVC, config);
+
+        assertEquals(2, csd.length);
+        assertEquals(ByteBuffer.wrap(recorded, 0, 17), csd[0]);
+        assertEquals(ByteBuffer.wrap(recorded, 17, 8), csd[1]);
+        assertEquals(0, config.position());
+        // Split like this, they still describe the track
+        Mp4TrackFormat format = new Mp4TrackFormat(Mp4TrackFormat.Codec.AVC, 1280, 720, 0, csd);
+        assertEquals(1, format.sps.size());
+        assertEquals(1, format.pps.size());
+    }
+
+    @Test
+    public void keepsHevcParameterSetsTogether() {
+        ByteBuffer config = annexB(HEVC_VPS, HEVC_SPS, HEVC_PPS);
+        ByteBuffer[] csd = Mp4TrackFormat.codecSpecificData(Mp4TrackFormat.Codec.HEVC, config);
+        assertEquals(1, csd.length);
+        assertEquals(config, csd[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void requiresParameterSets() {
+        new Mp4TrackFormat(Mp4TrackFormat.Codec.AVC, 640, 360, 0, annexB(AVC_SPS));
+    }
+}
@@ -0,0 +1,131 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class FrameAnalyzerTest {
+    private static final int WIDTH = 16;
+    private static final int HEIGHT = 8;
+
+    private static ByteBuffer solidFrame(int r, int g, int b)
+    {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(WIDTH*HEIGHT*4);
+        for (int i = 0; i < WIDTH*HEIGHT; i++)
+            buffer.put((byte) r).put((byte) g).put((byte) b).put((byte) 255);
+        buffer.flip();
+        return buffer;
+    }
+
+    @Test
+    public void lumaHistogramOfSolidColor() {
+        int[] histogram = new int[FrameStatistics.HISTOGRAM_BINS];
+        float luma = StatisticsCalculator.lumaHistogram(solidFrame(255, 255, 255), WIDTH*HEIGHT, histogram);
+        assertEquals(255.0f, luma, 0.0f);
+        assertEquals(WIDTH*HEIGHT, histogram[255]);
+
+        luma = StatisticsCalculator.lumaHistogram(solidFrame(0, 255, 0), WIDTH*HEIGHT, histogram);
+        assertEquals(149.0f, luma, 0.0f);
+        assertEquals(0, histogram[255]);
+        assertEquals(WIDTH*HEIGHT, histogram[149]);
+    }
+
+    @Test
+    public void histogramDistance() {
+        int[] a = new int[FrameStatistics.HISTOGRAM_BINS];
+        int[] b = new int[FrameStatistics.HISTOGRAM_BINS];
+        a[10] = 100;
+        b[10] = 50;
+        b[200] = 50;
+        assertEquals(0.0f, StatisticsCalculator.histogramDistance(a, 100, a, 100), 0.0f);
+        assertEquals(0.5f, StatisticsCalculator.histogramDistance(a, 100, b, 100), 1e-6f);
+        assertEquals(0.0f, StatisticsCalculator.histogramDistance(a, 0, b, 100), 0.0f);
+    }
+
+    @Test
+    public void deliversInOrderWithSceneChangeScores() {
+        final List<Long> frames = new ArrayList<>();
+        final List<Float> scores = new ArrayList<>();
+        final List<Float> lumas = new ArrayList<>();
+        FrameAnalyzer analyzer = new FrameAnalyzer(WIDTH, HEIGHT, 4, 64, new FrameAnalyzer.Listener() {
+            @Override
+            public void onFrameStatistics(FrameStatistics statistics) {
+                frames.add(statistics.getFrameIndex());
+                scores.add(statistics.getSceneChangeScore());
+                lumas.add(statistics.getAverageLuma());
+            }
+        });
+
+        ByteBuffer dark = solidFrame(0, 0, 0);
+        ByteBuffer bright = solidFrame(255, 255, 255);
+        for (int i = 0; i < 40; i++)
+        {
+            ByteBuffer frame = i < 20 ? dark : bright;
+            frame.position(0);
+            assertTrue(analyzer.submit(i, i*33333L, frame));
+        }
+        analyzer.finish();
+
+        assertEquals(40, frames.size());
+        for (int i = 0; i < 40; i++)
+        {
+            assertEquals(i, (long) frames.get(i));
+            assertEquals(i < 20 ? 0.0f : 255.0f, lumas.get(i), 0.0f);
+            // Only the cut between frame 19 and 20 changes the histogram
+            assertEquals(i == 20 ? 1.0f : 0.0f, scores.get(i), 1e-6f);
+        }
+        assertEquals(0, analyzer.getDropped());
+    }
+
+    @Test
+    public void dropsFramesInsteadOfBlockingWhenBuffersAreBusy() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        FrameAnalyzer analyzer = new FrameAnalyzer(WIDTH, HEIGHT, 1, 2, new FrameAnalyzer.Listener() {
+            @Override
+            public void onFrameStatistics(FrameStatistics statistics) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        ByteBuffer frame = solidFrame(10, 20, 30);
+        assertTrue(analyzer.submit(0, 0, frame.duplicate()));
+        assertTrue(analyzer.submit(1, 0, frame.duplicate()));
+        assertFalse(analyzer.submit(2, 0, frame.duplicate()));
+        assertEquals(1, analyzer.getDropped());
+
+        release.countDown();
+        analyzer.finish();
+        assertEquals(2, analyzer.getDelivered());
+    }
+
+    @Test
+    public void releaseStopsTheWorkersOfAnUnfinishedJob() throws InterruptedException {
+        final CountDownLatch never = new CountDownLatch(1);
+        FrameAnalyzer analyzer = new FrameAnalyzer(WIDTH, HEIGHT, 2, 4, new FrameAnalyzer.Listener() {
+            @Override
+            public void onFrameStatistics(FrameStatistics statistics) {
+                try {
+                    never.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        ByteBuffer frame = solidFrame(10, 20, 30);
+        for (int i = 0; i < 4; i++)
+            analyzer.submit(i, 0, frame.duplicate());
+
+        analyzer.release();
+        assertTrue(analyzer.awaitTermination(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,157 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class GaussianKernelTest {
+    /**
+     * Direct convolution with the discrete kernel, clamping at the edges.
+     */
+    private static float[] referenceConvolution(float[] signal, float[] discrete)
+    {
+        int radius = discrete.length - 1;
+        float[] out = new float[signal.length];
+        for (int x = 0; x < signal.length; x++)
+        {
+            double sum = 0;
+            for (int k = -radius; k <= radius; k++)
+                sum += discrete[Math.abs(k)]*signal[clamp(x + k, signal.length)];
+            out[x] = (float) sum;
+        }
+        return out;
+    }
+
+    /**
+     * What blur.frag computes: linearly interpolated fetches at the merged offsets.
+     */
+    private static float[] linearSampledConvolution(float[] signal, GaussianKernel kernel)
+    {
+        float[] offsets = kernel.getOffsets();
+        float[] weights = kernel.getWeights();
+        float[] out = new float[signal.length];
+        for (int x = 0; x < signal.length; x++)
+        {
+            double sum = weights[0]*signal[x];
+            for (int tap = 1; tap < kernel.getTapCount(); tap++)
+                sum += weights[tap]*(fetch(signal, x + offsets[tap]) + fetch(signal, x - offsets[tap]));
+            out[x] = (float) sum;
+        }
+        return out;
+    }
+
+    private static float fetch(float[] signal, float position)
+    {
+        int left = (int) Math.floor(position);
+        float t = position - left;
+        return signal[clamp(left, signal.length)]*(1 - t) + signal[clamp(left + 1, signal.length)]*t;
+    }
+
+    private static int clamp(int x, int length)
+    {
+        return Math.max(0, Math.min(length - 1, x));
+    }
+
+    private static float[] randomSignal(int length)
+    {
+        Random random = new Random(42);
+        float[] signal = new float[length];
+        for (int i = 0; i < length; i++)
+            signal[i] = random.nextFloat();
+        return signal;
+    }
+
+    @Test
+    public void weightsAreNormalized() {
+        float[] weights = GaussianKernel.discreteWeights(2.0f, 6);
+        double sum = weights[0];
+        for (int i = 1; i < weights.length; i++)
+            sum += 2*weights[i];
+        assertEquals(1.0, sum, 1e-6);
+
+        GaussianKernel kernel = GaussianKernel.create(2.0f);
+        float[] linearWeights = kernel.getWeights();
+        sum = linearWeights[0];
+        for (int i = 1; i < linearWeights.length; i++)
+            sum += 2*linearWeights[i];
+        assertEquals(1.0, sum, 1e-6);
+    }
+
+    @Test
+    public void linearSamplingHalvesTheTaps() {
+        GaussianKernel kernel = GaussianKernel.create(2.0f);
+        assertEquals(1, kernel.getDownsampleFactor());
+        assertEquals(6, GaussianKernel.radius(2.0f));
+        // 13 discrete taps become a center tap plus 3 pairs of bilinear fetches
+        assertEquals(4, kernel.getTapCount());
+    }
+
+    @Test
+    public void linearSamplingMatchesReferenceConvolution() {
+        float[] signal = randomSignal(256);
+        for (float sigma : new float[]{0.5f, 1.0f, 1.7f, 3.0f})
+        {
+            GaussianKernel kernel = GaussianKernel.create(sigma);
+            float[] discrete = GaussianKernel.discreteWeights(sigma, GaussianKernel.radius(sigma));
+            float[] expected = referenceConvolution(signal, discrete);
+            float[] actual = linearSampledConvolution(signal, kernel);
+            assertArrayEquals("sigma " + sigma, expected, actual, 1e-5f);
+        }
+    }
+
+    @Test
+    public void separablePassesMatchTwoDimensionalConvolution() {
+        int size = 24;
+        float sigma = 1.5f;
+        float[] image = randomSignal(size*size);
+        GaussianKernel kernel = GaussianKernel.create(sigma);
+        float[] discrete = GaussianKernel.discreteWeights(sigma, GaussianKernel.radius(sigma));
+        int radius = discrete.length - 1;
+
+        // Horizontal then vertical linear sampled passes
+        float[] horizontal = new float[size*size];
+        float[] row = new float[size];
+        for (int y = 0; y < size; y++)
+        {
+            System.arraycopy(image, y*size, row, 0, size);
+            System.arraycopy(linearSampledConvolution(row, kernel), 0, horizontal, y*size, size);
+        }
+        float[] separable = new float[size*size];
+        float[] column = new float[size];
+        for (int x = 0; x < size; x++)
+        {
+            for (int y = 0; y < size; y++)
+                column[y] = horizontal[y*size + x];
+            float[] blurred = linearSampledConvolution(column, kernel);
+            for (int y = 0; y < size; y++)
+                separable[y*size + x] = blurred[y];
+        }
+
+        for (int y = 0; y < size; y++)
+            for (int x = 0; x < size; x++)
+            {
+                double sum = 0;
+                for (int dy = -radius; dy <= radius; dy++)
+                    for (int dx = -radius; dx <= radius; dx++)
+                        sum += discrete[Math.abs(dx)]*discrete[Math.abs(dy)]*
+                                image[clamp(y + dy, size)*size + clamp(x + dx, size)];
+                assertEquals(sum, separable[y*size + x], 1e-5);
+            }
+    }
+
+    @Test
+    public void largeSigmasAreDownsampled() {
+        assertEquals(1, GaussianKernel.downsampleFactor(3.0f));
+        assertEquals(2, GaussianKernel.downsampleFactor(5.0f));
+        assertEquals(4, GaussianKernel.downsampleFactor(10.0f));
+        assertEquals(8, GaussianKernel.downsampleFactor(1000.0f));
+
+        GaussianKernel kernel = GaussianKernel.create(1000.0f);
+        assertEquals(GaussianKernel.MAX_SIGMA, kernel.getSigma(), 0.0f);
+        assertTrue(kernel.getTapCount() <= GaussianKernel.MAX_TAPS);
+        for (float sigma = 0.1f; sigma < GaussianKernel.MAX_SIGMA; sigma += 0.7f)
+            assertTrue(GaussianKernel.create(sigma).getTapCount() <= GaussianKernel.MAX_TAPS);
+    }
+}
@@ -0,0 +1,136 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class HistogramLevelsTest {
+    private static ByteBuffer frame(int width, int height, int[] rgb)
+    {
+        ByteBuffer rgba = ByteBuffer.allocate(width*height*4);
+        for (int i = 0; i < width*height; i++)
+        {
+            int pixel = rgb[i % rgb.length];
+            rgba.put((byte) (pixel >> 16)).put((byte) (pixel >> 8)).put((byte) pixel).put((byte) 0xff);
+        }
+        rgba.position(0);
+        return rgba;
+    }
+
+    private static int gray(int value)
+    {
+        return value << 16 | value << 8 | value;
+    }
+
+    private static float[] converge(int[] histograms, int threshold, boolean perChannel)
+    {
+        float[] levels = HistogramLevels.identity();
+        for (int i = 0; i < 100; i++)
+            HistogramLevels.levels(histograms, threshold, perChannel, levels, levels);
+        return levels;
+    }
+
+    @Test
+    public void lumaMatchesTheAnalysisHistogram() {
+        int[] colors = {0x102030, 0xff8000, 0x00ff7f, 0x404040, 0xfefefe};
+        ByteBuffer rgba = frame(16, 8, colors);
+        int[] histograms = new int[HistogramLevels.CHANNELS*HistogramLevels.BINS];
+        assertEquals(128, HistogramLevels.histograms(rgba, 16, 8, 1, histograms));
+
+        int[] luma = new int[FrameStatistics.HISTOGRAM_BINS];
+        StatisticsCalculator.lumaHistogram(rgba, 128, luma);
+        for (int i = 0; i < HistogramLevels.BINS; i++)
+            assertEquals(luma[i], histograms[HistogramLevels.LUMA*HistogramLevels.BINS + i]);
+        assertEquals(26, histograms[0x10]);
+        assertEquals(26, histograms[HistogramLevels.BINS + 0x80]);
+    }
+
+    @Test
+    public void samplesEveryStepthPixel() {
+        assertEquals(1, HistogramLevels.sampleStep(480, 270));
+        assertEquals(8, HistogramLevels.sampleStep(3840, 2160));
+        assertEquals(4, HistogramLevels.sampleStep(1080, 1920));
+        assertEquals(270, HistogramLevels.sampledCount(2160, 8));
+        assertEquals(2, HistogramLevels.sampledCount(9, 8));
+
+        // Only the first pixel of every other one is dark
+        int[] histograms = new int[HistogramLevels.CHANNELS*HistogramLevels.BINS];
+        int count = HistogramLevels.histograms(frame(9, 3, new int[]{gray(10), gray(200)}), 9, 3, 2, histograms);
+        assertEquals(HistogramLevels.sampledCount(9, 2)*HistogramLevels.sampledCount(3, 2), count);
+        assertEquals(count, histograms[10]);
+    }
+
+    @Test
+    public void stretchesTheRangeBetweenTheClippedEnds() {
+        int[] histograms = new int[HistogramLevels.CHANNELS*HistogramLevels.BINS];
+        int[] colors = new int[128];
+        for (int i = 0; i < colors.length; i++)
+            colors[i] = gray(64 + i);
+        // Two outliers at either end fall within the clipped pixels
+        colors[0] = gray(0);
+        colors[127] = gray(255);
+        int count = HistogramLevels.histograms(frame(128, 1, colors), 128, 1, 1, histograms);
+        float[] levels = converge(histograms, HistogramLevels.clipThreshold(0.01f, count), false);
+
+        assertEquals(65/255.0f, levels[0], 1e-4f);
+        assertEquals(255.0f/(190 - 65), levels[4], 1e-4f);
+        assertEquals(0, HistogramLevels.apply(levels, 1, 65));
+        assertEquals(255, HistogramLevels.apply(levels, 2, 190));
+        assertEquals(126, HistogramLevels.apply(levels, 0, 127));
+
+        levels = converge(histograms, 0, false);
+        assertEquals(0.0f, levels[0], 1e-4f);
+        assertEquals(1.0f, levels[4], 1e-4f);
+    }
+
+    @Test
+    public void limitsTheGainOfFlatFrames() {
+        int[] histograms = new int[HistogramLevels.CHANNELS*HistogramLevels.BINS];
+        HistogramLevels.histograms(frame(4, 4, new int[]{gray(100), gray(110)}), 4, 4, 1, histograms);
+        assertEquals(HistogramLevels.MAX_GAIN, converge(histograms, 0, false)[4], 1e-4f);
+
+        HistogramLevels.histograms(frame(4, 4, new int[]{gray(100)}), 4, 4, 1, histograms);
+        float[] levels = converge(histograms, 0, false);
+        assertArrayEquals(HistogramLevels.identity(), levels, 1e-4f);
+    }
+
+    @Test
+    public void perChannelLevelsRemoveAColorCast() {
+        int[] histograms = new int[HistogramLevels.CHANNELS*HistogramLevels.BINS];
+        // Blue never gets brighter than 200
+        HistogramLevels.histograms(frame(2, 1, new int[]{0x000000, 0xffffc8}), 2, 1, 1, histograms);
+
+        float[] levels = converge(histograms, 0, true);
+        assertEquals(255, HistogramLevels.apply(levels, 0, 255));
+        assertEquals(255, HistogramLevels.apply(levels, 2, 200));
+
+        levels = converge(histograms, 0, false);
+        assertEquals(HistogramLevels.apply(levels, 0, 200), HistogramLevels.apply(levels, 2, 200));
+        assertTrue(HistogramLevels.apply(levels, 2, 200) < 255);
+    }
+
+    @Test
+    public void levelsAdaptGradually() {
+        int[] histograms = new int[HistogramLevels.CHANNELS*HistogramLevels.BINS];
+        HistogramLevels.histograms(frame(2, 1, new int[]{gray(51), gray(204)}), 2, 1, 1, histograms);
+        float[] previous = HistogramLevels.identity();
+        float[] levels = new float[HistogramLevels.LEVELS_FLOATS];
+        HistogramLevels.levels(histograms, 0, false, previous, levels);
+
+        assertEquals(HistogramLevels.ADAPTATION*51/255.0f, levels[0], 1e-6f);
+        assertEquals(1.0f + HistogramLevels.ADAPTATION*(255.0f/153 - 1.0f), levels[4], 1e-6f);
+        assertArrayEquals(HistogramLevels.identity(), previous, 0.0f);
+        assertEquals(0.0f, levels[3], 0.0f);
+        assertEquals(1.0f, levels[7], 0.0f);
+    }
+
+    @Test
+    public void clipThresholdIsAFractionOfThePixels() {
+        assertEquals(0, HistogramLevels.clipThreshold(0.0f, 1000));
+        assertEquals(5, HistogramLevels.clipThreshold(0.005f, 1000));
+        assertEquals(500, HistogramLevels.clipThreshold(2.0f, 1000));
+        assertEquals(0, HistogramLevels.clipThreshold(-1.0f, 1000));
+    }
+}
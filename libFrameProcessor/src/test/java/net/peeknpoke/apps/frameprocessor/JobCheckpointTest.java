@@ -0,0 +1,189 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class JobCheckpointTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static JobCheckpoint checkpoint(String jobId)
+    {
+        FrameProcessorSettings settings = new FrameProcessorSettings();
+        settings.setFilterChain(new FilterChain(FilterSpec.lut("/sdcard/looks/teal orange.cube"),
+                FilterSpec.unsharpMask(1.5f, 0.8f)));
+        settings.setContainer(FrameProcessorSettings.Container.FRAGMENTED_MP4);
+        settings.setOutputMimeType(TranscodePlanner.MIME_HEVC);
+        settings.setBitRate(6000000);
+        settings.setFragmentDurationSeconds(4.0f);
+        settings.setResumable(true);
+        settings.setResultCacheBytes(512L*1024*1024);
+        return new JobCheckpoint(jobId, "content://media/external/video/media/42", "VideoFilter", settings);
+    }
+
+    private static JobCheckpoint roundTrip(JobCheckpoint checkpoint) throws IOException
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        checkpoint.write(output);
+        return JobCheckpoint.read(new ByteArrayInputStream(output.toByteArray()));
+    }
+
+    @Test
+    public void roundTripsSettingsAndProgress() throws IOException {
+        JobCheckpoint checkpoint = checkpoint("job");
+        checkpoint.startOutput("/storage/Movies/out.mp4", "content://media/external/video/media/43");
+        checkpoint.encoderStarted("c2.qti.hevc.encoder", TranscodePlanner.MIME_HEVC, 3000000, 0xcafef00dL);
+        checkpoint.fragmentWritten(7, 123456789012L, 28000000);
+
+        JobCheckpoint read = roundTrip(checkpoint);
+        assertEquals("job", read.jobId);
+        assertEquals(checkpoint.inputUri, read.inputUri);
+        assertEquals("VideoFilter", read.appName);
+        assertEquals(1, read.getOutputCount());
+        assertEquals("/storage/Movies/out.mp4", read.getOutputPath(0));
+        assertEquals("content://media/external/video/media/43", read.getOutputUri(0));
+        assertEquals("c2.qti.hevc.encoder", read.getEncoderName());
+        assertEquals(TranscodePlanner.MIME_HEVC, read.getEncoderMimeType());
+        assertEquals(3000000, read.getEncoderBitRate());
+        assertEquals(0xcafef00dL, read.getEncoderConfigCrc());
+        assertEquals(7, read.getFragments());
+        assertEquals(123456789012L, read.getOutputBytes());
+        assertEquals(28000000, read.getResumeTimeUs());
+
+        FrameProcessorSettings settings = read.settings;
+        assertEquals(checkpoint.settings.getFilterChain().getFilters(), settings.getFilterChain().getFilters());
+        assertEquals(FrameProcessorSettings.Container.FRAGMENTED_MP4, settings.getContainer());
+        assertEquals(TranscodePlanner.MIME_HEVC, settings.getOutputMimeType());
+        assertEquals(6000000, settings.getBitRate());
+        assertEquals(4.0f, settings.getFragmentDurationSeconds(), 0.0f);
+        assertTrue(settings.isResumable());
+        assertEquals(512L*1024*1024, settings.getResultCacheBytes());
+        assertFalse(settings.isAnalysisEnabled());
+        assertTrue(settings.getRenditions().isEmpty());
+    }
+
+    @Test
+    public void roundTripsRenditionsAndTheirOutputs() throws IOException {
+        JobCheckpoint checkpoint = checkpoint("job");
+        checkpoint.settings.setRenditions(Arrays.asList(new Rendition(1080, 6000000), new Rendition(480, 1000000)));
+        checkpoint.startOutput("/out_1080p.mp4", null);
+        checkpoint.addOutput("/out_480p.mp4", "content://media/external/video/media/44");
+
+        JobCheckpoint read = roundTrip(checkpoint);
+        assertEquals(Arrays.asList(new Rendition(1080, 6000000), new Rendition(480, 1000000)),
+                read.settings.getRenditions());
+        assertEquals(2, read.getOutputCount());
+        assertEquals("/out_1080p.mp4", read.getOutputPath(0));
+        assertNull(read.getOutputUri(0));
+        assertEquals("/out_480p.mp4", read.getOutputPath(1));
+        assertEquals("content://media/external/video/media/44", read.getOutputUri(1));
+    }
+
+    @Test
+    public void roundTripsPipelineProfile() throws IOException {
+        JobCheckpoint read = roundTrip(checkpoint("job"));
+        assertTrue(read.settings.isDeviceProfile());
+        assertNull(read.settings.getPipelineProfile());
+
+        JobCheckpoint checkpoint = checkpoint("job");
+        checkpoint.settings.setPipelineProfile(null);
+        read = roundTrip(checkpoint);
+        assertFalse(read.settings.isDeviceProfile());
+        assertNull(read.settings.getPipelineProfile());
+
+        PipelineProfile profile = new PipelineProfile(2, null, 720, 41.5f, 64*1024*1024);
+        checkpoint.settings.setPipelineProfile(profile);
+        read = roundTrip(checkpoint);
+        assertFalse(read.settings.isDeviceProfile());
+        assertEquals(profile, read.settings.getPipelineProfile());
+        assertNull(read.settings.getPipelineProfile().getMimeType());
+        assertEquals(41.5f, read.settings.getPipelineProfile().getFramesPerSecond(), 0.0f);
+    }
+
+    @Test
+    public void roundTripsOverlays() throws IOException {
+        assertTrue(roundTrip(checkpoint("job")).settings.getOverlays().isEmpty());
+
+        JobCheckpoint checkpoint = checkpoint("job");
+        checkpoint.settings.setOverlays(Arrays.asList(
+                Overlay.image("/sdcard/logo.png", Overlay.Anchor.TOP_RIGHT, 0.1f),
+                Overlay.text("Take 3: exterior", Overlay.Anchor.BOTTOM_LEFT, 0.05f),
+                Overlay.timecode(Overlay.Anchor.BOTTOM_LEFT, 0.05f, 29.97f)));
+        assertEquals(checkpoint.settings.getOverlays(), roundTrip(checkpoint).settings.getOverlays());
+    }
+
+    @Test
+    public void roundTripsFreshJob() throws IOException {
+        JobCheckpoint read = roundTrip(checkpoint("job"));
+        assertEquals(0, read.getOutputCount());
+        assertNull(read.getEncoderName());
+        assertEquals(TranscodePlanner.MIME_HEVC, read.settings.getOutputMimeType());
+        assertEquals(0, read.getFragments());
+    }
+
+    @Test
+    public void startOutputDiscardsProgress() {
+        JobCheckpoint checkpoint = checkpoint("job");
+        checkpoint.startOutput("/a.mp4", null);
+        checkpoint.addOutput("/a_480p.mp4", null);
+        checkpoint.encoderStarted("encoder", TranscodePlanner.MIME_AVC, 1000, 1);
+        checkpoint.fragmentWritten(3, 1000, 6000000);
+        checkpoint.startOutput("/b.mp4", null);
+        assertEquals(1, checkpoint.getOutputCount());
+        assertEquals("/b.mp4", checkpoint.getOutputPath(0));
+        assertNull(checkpoint.getEncoderName());
+        assertEquals(0, checkpoint.getFragments());
+        assertEquals(0, checkpoint.getOutputBytes());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherVersions() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        checkpoint("job").write(output);
+        String text = new String(output.toByteArray(), Charset.forName("ISO-8859-1"))
+                .replace("version=" + JobCheckpoint.VERSION, "version=" + (JobCheckpoint.VERSION + 1));
+        JobCheckpoint.read(new ByteArrayInputStream(text.getBytes(Charset.forName("ISO-8859-1"))));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedCheckpoints() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        checkpoint("job").write(output);
+        byte[] bytes = output.toByteArray();
+        JobCheckpoint.read(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length/2)));
+    }
+
+    @Test
+    public void storeSavesListsAndDeletes() throws IOException {
+        CheckpointStore store = new CheckpointStore(mFolder.getRoot().toPath().resolve("checkpoints").toFile());
+        assertTrue(store.list().isEmpty());
+        assertNull(store.load("missing"));
+
+        JobCheckpoint first = checkpoint("first");
+        store.save(first);
+        store.save(checkpoint("second"));
+        assertEquals(2, store.list().size());
+        assertTrue(store.list().containsAll(Arrays.asList("first", "second")));
+
+        first.startOutput("/out.mp4", null);
+        first.fragmentWritten(2, 5000, 4000000);
+        store.save(first);
+        JobCheckpoint loaded = store.load("first");
+        assertEquals(2, loaded.getFragments());
+        assertEquals(5000, loaded.getOutputBytes());
+        assertEquals(2, store.list().size());
+
+        store.delete("first");
+        assertNull(store.load("first"));
+        assertEquals(Arrays.asList("second"), store.list());
+    }
+}
@@ -0,0 +1,66 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simulated time a stage takes per item. Each stage draws from its own seeded random generator,
+ * so the latencies of a run do not depend on the order the stages run in.
+ */
+abstract class LatencyDistribution {
+    abstract long nextNanos(Random random);
+
+    static LatencyDistribution fixed(final double milliseconds)
+    {
+        return new LatencyDistribution() {
+            @Override
+            long nextNanos(Random random) {
+                return toNanos(milliseconds);
+            }
+
+            @Override
+            public String toString() {
+                return milliseconds + " ms";
+            }
+        };
+    }
+
+    static LatencyDistribution uniform(final double minMilliseconds, final double maxMilliseconds)
+    {
+        return new LatencyDistribution() {
+            @Override
+            long nextNanos(Random random) {
+                return toNanos(minMilliseconds + random.nextDouble()*(maxMilliseconds - minMilliseconds));
+            }
+
+            @Override
+            public String toString() {
+                return minMilliseconds + "-" + maxMilliseconds + " ms";
+            }
+        };
+    }
+
+    /**
+     * Mostly the base latency, with occasional stalls, like storage reads or thermal throttling.
+     */
+    static LatencyDistribution spiky(final double milliseconds, final double spikeProbability,
+                                     final double spikeMilliseconds)
+    {
+        return new LatencyDistribution() {
+            @Override
+            long nextNanos(Random random) {
+                return toNanos(random.nextDouble() < spikeProbability ? spikeMilliseconds : milliseconds);
+            }
+
+            @Override
+            public String toString() {
+                return milliseconds + " ms, " + spikeMilliseconds + " ms at p=" + spikeProbability;
+            }
+        };
+    }
+
+    private static long toNanos(double milliseconds)
+    {
+        return (long) (milliseconds*TimeUnit.MILLISECONDS.toNanos(1));
+    }
+}
@@ -0,0 +1,77 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class LutCacheTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File writeIdentityCube(String name, int size) throws IOException
+    {
+        StringBuilder builder = new StringBuilder("LUT_3D_SIZE ").append(size).append('\n');
+        for (int b = 0; b < size; b++)
+            for (int g = 0; g < size; g++)
+                for (int r = 0; r < size; r++)
+                    builder.append(r).append(' ').append(g).append(' ').append(b).append('\n');
+        File file = mFolder.newFile(name);
+        FileOutputStream output = new FileOutputStream(file);
+        output.write(builder.toString().getBytes("US-ASCII"));
+        output.close();
+        return file;
+    }
+
+    @Test
+    public void sameContentIsParsedOnce() throws IOException {
+        LutCache cache = new LutCache(1024*1024);
+        File first = writeIdentityCube("a.cube", 3);
+        File copy = writeIdentityCube("b.cube", 3);
+
+        CubeLut lut = cache.get(first);
+        assertSame(lut, cache.get(copy));
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+        assertEquals(lut.getByteCount(), cache.getBytes());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedWhenOverBudget() throws IOException {
+        int lutBytes = 3*3*3*3*2;
+        LutCache cache = new LutCache(2*lutBytes);
+        File a = writeIdentityCube("a.cube", 3);
+        File b = writeIdentityCube("b.cube", 3);
+        File c = writeIdentityCube("c.cube", 3);
+        // Make the contents differ so that the hashes differ
+        FileOutputStream append = new FileOutputStream(b, true);
+        append.write("# b\n".getBytes("US-ASCII"));
+        append.close();
+        append = new FileOutputStream(c, true);
+        append.write("# c\n".getBytes("US-ASCII"));
+        append.close();
+
+        cache.get(a);
+        cache.get(b);
+        cache.get(a);
+        cache.get(c);
+
+        assertEquals(2*lutBytes, cache.getBytes());
+        assertTrue(cache.contains(LutCache.hash(a)));
+        assertFalse(cache.contains(LutCache.hash(b)));
+        assertTrue(cache.contains(LutCache.hash(c)));
+    }
+
+    @Test
+    public void entriesLargerThanTheBudgetAreNotCached() throws IOException {
+        LutCache cache = new LutCache(16);
+        File a = writeIdentityCube("a.cube", 2);
+        assertNotNull(cache.get(a));
+        assertEquals(0, cache.getBytes());
+    }
+}
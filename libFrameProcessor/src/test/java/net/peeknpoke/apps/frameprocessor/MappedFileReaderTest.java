@@ -0,0 +1,128 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MappedFileReaderTest {
+    private static final int WINDOW = 4096;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private byte[] mContent;
+
+    private MappedFileReader open(int length) throws IOException
+    {
+        mContent = new byte[length];
+        new Random(length).nextBytes(mContent);
+        File file = mFolder.newFile();
+        FileOutputStream output = new FileOutputStream(file);
+        output.write(mContent);
+        output.close();
+        return new MappedFileReader(new FileInputStream(file).getChannel(), WINDOW);
+    }
+
+    private void assertReads(MappedFileReader reader, long position, int size) throws IOException
+    {
+        byte[] buffer = new byte[size + 2];
+        int count = reader.readAt(position, buffer, 1, size);
+        assertEquals(Math.min(size, mContent.length - position), count);
+        for (int i = 0; i < count; i++)
+            assertEquals(mContent[(int) position + i], buffer[1 + i]);
+    }
+
+    @Test
+    public void readsAcrossWindows() throws IOException {
+        MappedFileReader reader = open(5*WINDOW + 123);
+        assertEquals(5*WINDOW + 123, reader.getSize());
+        assertReads(reader, 0, 100);
+        assertReads(reader, WINDOW - 10, 20);
+        // Spans three windows
+        assertReads(reader, WINDOW + 1, 2*WINDOW + 7);
+        assertReads(reader, 5*WINDOW, 1000);
+        reader.close();
+    }
+
+    @Test
+    public void endOfFile() throws IOException {
+        MappedFileReader reader = open(1000);
+        assertReads(reader, 990, 100);
+        assertEquals(-1, reader.readAt(1000, new byte[10], 0, 10));
+        assertEquals(-1, reader.readAt(5000, new byte[10], 0, 10));
+        reader.close();
+    }
+
+    @Test
+    public void randomReads() throws IOException {
+        MappedFileReader reader = open(20*WINDOW);
+        Random random = new Random(7);
+        for (int i = 0; i < 500; i++)
+            assertReads(reader, random.nextInt(20*WINDOW), 1 + random.nextInt(3*WINDOW));
+        reader.close();
+    }
+
+    @Test
+    public void prefetchesNextWindow() throws Exception {
+        MappedFileReader reader = open(4*WINDOW);
+        assertReads(reader, 0, 100);
+        assertFalse(reader.isMapped(1));
+        // Past the middle of the first window
+        assertReads(reader, WINDOW/2, 100);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!reader.isMapped(1) && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+        assertTrue(reader.isMapped(1));
+        reader.close();
+    }
+
+    @Test
+    public void keepsFewWindowsMapped() throws IOException {
+        MappedFileReader reader = open(10*WINDOW);
+        for (int window = 0; window < 10; window++)
+            assertReads(reader, (long) window*WINDOW, 10);
+        int mapped = 0;
+        for (int window = 0; window < 10; window++)
+            mapped += reader.isMapped(window) ? 1 : 0;
+        assertTrue(mapped <= MappedFileReader.MAX_MAPPED_WINDOWS);
+        assertTrue(reader.isMapped(9));
+        reader.close();
+    }
+
+    @Test
+    public void recordsMetrics() throws IOException {
+        MappedFileReader reader = open(3*WINDOW);
+        for (int i = 0; i < 10; i++)
+            assertReads(reader, i*100, 100);
+        ReadLatencyMetrics metrics = reader.getMetrics();
+        assertEquals(10, metrics.getReadCount());
+        assertEquals(1000, metrics.getBytesRead());
+        assertTrue(metrics.getMaxNanos() >= metrics.getAverageNanos());
+        assertTrue(metrics.getPercentileNanos(0.99) <= metrics.getMaxNanos());
+        reader.close();
+    }
+
+    @Test
+    public void latencyBuckets() {
+        assertEquals(0, ReadLatencyMetrics.bucketOf(0));
+        assertEquals(1, ReadLatencyMetrics.bucketOf(1));
+        assertEquals(10, ReadLatencyMetrics.bucketOf(1023));
+        assertEquals(11, ReadLatencyMetrics.bucketOf(1024));
+        assertEquals(ReadLatencyMetrics.BUCKETS - 1, ReadLatencyMetrics.bucketOf(Long.MAX_VALUE));
+
+        long[] histogram = new long[ReadLatencyMetrics.BUCKETS];
+        histogram[10] = 98;
+        histogram[20] = 2;
+        ReadLatencyMetrics metrics = new ReadLatencyMetrics(100, 0, 0, 1 << 20, histogram);
+        assertEquals(1 << 10, metrics.getPercentileNanos(0.5));
+        assertEquals(1 << 20, metrics.getPercentileNanos(0.99));
+    }
+}
@@ -0,0 +1,140 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static org.junit.Assert.*;
+
+public class OutputSinkTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    /**
+     * Reserves space by writing the last byte, which behaves like fallocate for the sink.
+     */
+    private static class TestFileOutputSink extends FileOutputSink {
+        TestFileOutputSink(File file) throws IOException
+        {
+            super(file);
+        }
+
+        @Override
+        void reserve(FileDescriptor fileDescriptor, long bytes) throws IOException {
+            new FileOutputStream(fileDescriptor).getChannel().write(ByteBuffer.wrap(new byte[1]), bytes - 1);
+        }
+    }
+
+    private static ByteBuffer boxes(int... payloadSizes)
+    {
+        Mp4BoxWriter writer = new Mp4BoxWriter(256);
+        for (int payloadSize : payloadSizes)
+        {
+            writer.startBox("free");
+            writer.putZeros(payloadSize);
+            writer.endBox();
+        }
+        return writer.getBytes();
+    }
+
+    @Test
+    public void commitTrimsUnusedPreallocation() throws IOException {
+        File file = mFolder.newFile("out.mp4");
+        OutputSink sink = new TestFileOutputSink(file);
+        sink.preallocate(100000);
+        assertEquals(100000, file.length());
+
+        ByteBuffer data = boxes(100, 2000, 0);
+        int expected = data.remaining();
+        sink.getChannel().write(data);
+        assertEquals(expected, sink.commit());
+        assertEquals(expected, file.length());
+    }
+
+    @Test
+    public void commitKeepsOutputWithoutPreallocation() throws IOException {
+        File file = mFolder.newFile("out.mp4");
+        OutputSink sink = new FileOutputSink(file);
+        // Not MP4 data, but nothing was reserved so nothing is trimmed
+        sink.getChannel().write(ByteBuffer.wrap(new byte[]{1, 2, 3}));
+        assertEquals(3, sink.commit());
+        assertEquals(3, file.length());
+    }
+
+    @Test
+    public void abortDeletesFile() throws IOException {
+        File file = mFolder.newFile("out.mp4");
+        OutputSink sink = new FileOutputSink(file);
+        sink.getChannel().write(boxes(10));
+        sink.abort();
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void closeKeepsTheUnfinishedOutput() throws IOException {
+        File file = mFolder.newFile("out.mp4");
+        OutputSink sink = new FileOutputSink(file);
+        sink.getChannel().write(boxes(10));
+        sink.close();
+        assertTrue(file.exists());
+        assertFalse(sink.getChannel().isOpen());
+    }
+
+    @Test
+    public void measuresTopLevelBoxes() throws IOException {
+        File file = mFolder.newFile("boxes.mp4");
+        RandomAccessFile output = new RandomAccessFile(file, "rw");
+        FileChannel channel = output.getChannel();
+        ByteBuffer data = boxes(8, 16);
+        int length = data.remaining();
+        channel.write(data);
+
+        // A box with a 64-bit size
+        ByteBuffer large = ByteBuffer.allocate(40);
+        large.putInt(1).put("mdat".getBytes("US-ASCII")).putLong(40);
+        large.clear();
+        channel.write(large);
+        length += 40;
+        assertEquals(length, FileOutputSink.measureBoxes(channel));
+
+        // Zeros of unused preallocated space
+        output.setLength(length + 5000);
+        assertEquals(length, FileOutputSink.measureBoxes(channel));
+
+        // A box running past the end of the file is incomplete
+        ByteBuffer partial = ByteBuffer.allocate(8);
+        partial.putInt(100000).put("mdat".getBytes("US-ASCII")).flip();
+        channel.write(partial, length);
+        assertEquals(length, FileOutputSink.measureBoxes(channel));
+        output.close();
+    }
+
+    @Test
+    public void memorySinkCollectsOutput() throws IOException {
+        MemoryOutputSink sink = new MemoryOutputSink();
+        sink.preallocate(10);
+        ByteBuffer data = ByteBuffer.allocate(200000);
+        data.put(199999, (byte) 7);
+        sink.getChannel().write(data);
+        sink.getChannel().write(ByteBuffer.wrap(new byte[]{9}));
+        assertEquals(200001, sink.commit());
+        byte[] bytes = sink.toByteArray();
+        assertEquals(200001, bytes.length);
+        assertEquals(7, bytes[199999]);
+        assertEquals(9, bytes[200000]);
+        assertFalse(sink.getChannel().isOpen());
+    }
+
+    @Test(expected = IOException.class)
+    public void memorySinkHasNoFileDescriptor() throws IOException {
+        new MemoryOutputSink().getFileDescriptor();
+    }
+}
@@ -0,0 +1,155 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class OverlayLayoutTest {
+    private static final int FRAME_WIDTH = 1000;
+    private static final int FRAME_HEIGHT = 500;
+    private static final int ATLAS_SIZE = 256;
+    private static final int GLYPH_HEIGHT = 20;
+
+    /**
+     * Cells of 10 pixels for digits, 4 for the colon and 8 for anything else, in one row.
+     */
+    private static Map<Character, OverlayLayout.Sprite> glyphs(String characters)
+    {
+        Map<Character, OverlayLayout.Sprite> glyphs = new HashMap<>();
+        int x = 0;
+        for (char character : characters.toCharArray())
+        {
+            int width = Character.isDigit(character) ? 10 : character == ':' ? 4 : 8;
+            glyphs.put(character, new OverlayLayout.Sprite(x, 100, width, GLYPH_HEIGHT));
+            x += width;
+        }
+        return glyphs;
+    }
+
+    private static OverlayLayout layout(List<Overlay> overlays, List<OverlayLayout.Sprite> images)
+    {
+        return new OverlayLayout(overlays, images, glyphs(OverlayLayout.characters(overlays)),
+                ATLAS_SIZE, ATLAS_SIZE, FRAME_WIDTH, FRAME_HEIGHT);
+    }
+
+    /**
+     * @return left, top, width and height of the instance on the frame, in pixels
+     */
+    private static float[] pixels(OverlayLayout layout, int instance)
+    {
+        float[] instances = layout.getInstances();
+        int offset = instance*OverlayLayout.FLOATS_PER_INSTANCE;
+        float width = instances[offset + 2]*FRAME_WIDTH/2;
+        float height = instances[offset + 3]*FRAME_HEIGHT/2;
+        float left = (instances[offset] + 1.0f)*FRAME_WIDTH/2;
+        float top = (1.0f - instances[offset + 1])*FRAME_HEIGHT/2 - height;
+        return new float[]{left, top, width, height};
+    }
+
+    @Test
+    public void formatsTimecodes() {
+        assertEquals("00:00:00:00", OverlayLayout.formatTimecode(0, 25));
+        assertEquals("01:01:01:12", OverlayLayout.formatTimecode(3661480000L, 25));
+        // Frame 1800 at 29.97 is counted as a minute at 30 without dropping frame numbers
+        assertEquals("00:01:00:00", OverlayLayout.formatTimecode(1800L*1001000/30, 29.97f));
+        assertEquals("00:00:59:29", OverlayLayout.formatTimecode(1799L*1001000/30, 29.97f));
+        assertEquals("00:00:00:00", OverlayLayout.formatTimecode(100L*3600*1000000, 25));
+        assertEquals("00:00:00:00", OverlayLayout.formatTimecode(-40000, 25));
+    }
+
+    @Test
+    public void collectsTheCharactersOfTheTexts() {
+        List<Overlay> overlays = Arrays.asList(
+                Overlay.text("ab a", Overlay.Anchor.TOP_LEFT, 0.04f),
+                Overlay.image("/logo.png", Overlay.Anchor.TOP_RIGHT, 0.1f),
+                Overlay.timecode(Overlay.Anchor.BOTTOM_LEFT, 0.04f, 25));
+        assertEquals(" 0123456789:ab", OverlayLayout.characters(overlays));
+        assertEquals("", OverlayLayout.characters(overlays.subList(1, 2)));
+        assertEquals(Math.round(0.04f*FRAME_HEIGHT), OverlayLayout.glyphHeight(overlays, FRAME_HEIGHT));
+    }
+
+    @Test
+    public void anchorsImagesToCornersAtTheirAspectRatio() {
+        OverlayLayout.Sprite logo = new OverlayLayout.Sprite(2, 2, 100, 50);
+        OverlayLayout layout = layout(Collections.singletonList(
+                Overlay.image("/logo.png", Overlay.Anchor.TOP_RIGHT, 0.2f)), Collections.singletonList(logo));
+        assertEquals(1, layout.getInstanceCount());
+        assertEquals(1, layout.getDynamicStart());
+        int margin = Math.round(Overlay.MARGIN*FRAME_HEIGHT);
+        assertArrayEquals(new float[]{FRAME_WIDTH - margin - 200, margin, 200, 100}, pixels(layout, 0), 0.01f);
+        float[] instances = layout.getInstances();
+        assertArrayEquals(new float[]{2.0f/ATLAS_SIZE, 2.0f/ATLAS_SIZE, 100.0f/ATLAS_SIZE, 50.0f/ATLAS_SIZE},
+                Arrays.copyOfRange(instances, 4, 8), 1e-6f);
+    }
+
+    @Test
+    public void stacksOverlaysAtTheSameCorner() {
+        OverlayLayout layout = layout(Arrays.asList(
+                Overlay.text("ab", Overlay.Anchor.BOTTOM_LEFT, 0.04f),
+                Overlay.text("ba", Overlay.Anchor.BOTTOM_LEFT, 0.04f)),
+                Collections.<OverlayLayout.Sprite>emptyList());
+        int margin = Math.round(Overlay.MARGIN*FRAME_HEIGHT);
+        assertEquals(4, layout.getInstanceCount());
+        assertArrayEquals(new float[]{margin, FRAME_HEIGHT - margin - GLYPH_HEIGHT, 8, GLYPH_HEIGHT},
+                pixels(layout, 0), 0.01f);
+        assertArrayEquals(new float[]{margin + 8, FRAME_HEIGHT - margin - GLYPH_HEIGHT, 8, GLYPH_HEIGHT},
+                pixels(layout, 1), 0.01f);
+        // Above the first, half a margin apart
+        float top = FRAME_HEIGHT - margin - GLYPH_HEIGHT - margin/2 - GLYPH_HEIGHT;
+        assertArrayEquals(new float[]{margin, top, 8, GLYPH_HEIGHT}, pixels(layout, 2), 0.01f);
+    }
+
+    @Test
+    public void scalesTextToItsHeight() {
+        OverlayLayout layout = layout(Arrays.asList(
+                Overlay.text("a", Overlay.Anchor.TOP_LEFT, 0.08f),
+                Overlay.text("a", Overlay.Anchor.TOP_RIGHT, 0.04f)),
+                Collections.<OverlayLayout.Sprite>emptyList());
+        // The glyphs are rasterized for the tallest text and scaled down for the other
+        assertEquals(40, OverlayLayout.glyphHeight(Arrays.asList(
+                Overlay.text("a", Overlay.Anchor.TOP_LEFT, 0.08f)), FRAME_HEIGHT));
+        assertArrayEquals(new float[]{20, 20, 8, 20}, pixels(layout, 0), 0.01f);
+        assertArrayEquals(new float[]{FRAME_WIDTH - 20 - 4, 20, 4, 10}, pixels(layout, 1), 0.01f);
+    }
+
+    @Test
+    public void updatesOnlyTheTimecodes() {
+        List<Overlay> overlays = Arrays.asList(
+                Overlay.timecode(Overlay.Anchor.BOTTOM_RIGHT, 0.04f, 25),
+                Overlay.text("cam a", Overlay.Anchor.BOTTOM_RIGHT, 0.04f));
+        OverlayLayout layout = layout(overlays, Collections.<OverlayLayout.Sprite>emptyList());
+        assertEquals(5, layout.getDynamicStart());
+        assertEquals(5 + OverlayLayout.TIMECODE_LENGTH, layout.getInstanceCount());
+        float[] before = layout.getInstances().clone();
+        float right = pixels(layout, layout.getInstanceCount() - 1)[0] + pixels(layout, layout.getInstanceCount() - 1)[2];
+
+        assertFalse(layout.update(10000));
+        assertTrue(layout.update(3661480000L));
+        float[] after = layout.getInstances();
+        int dynamic = layout.getDynamicStart()*OverlayLayout.FLOATS_PER_INSTANCE;
+        assertArrayEquals(Arrays.copyOf(before, dynamic), Arrays.copyOf(after, dynamic), 0.0f);
+        assertFalse(Arrays.equals(before, after));
+        // The digits are equally wide, so the timecode keeps its place
+        float[] last = pixels(layout, layout.getInstanceCount() - 1);
+        assertEquals(right, last[0] + last[2], 0.01f);
+        // The frame digits now show the '2' of "12"
+        float[] instances = layout.getInstances();
+        int offset = (layout.getInstanceCount() - 1)*OverlayLayout.FLOATS_PER_INSTANCE;
+        OverlayLayout.Sprite two = glyphs(OverlayLayout.characters(overlays)).get('2');
+        assertEquals((float) two.x/ATLAS_SIZE, instances[offset + 4], 0.0f);
+        assertFalse(layout.update(3661480000L + 1000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMissingGlyphs() {
+        new OverlayLayout(Collections.singletonList(Overlay.text("x", Overlay.Anchor.TOP_LEFT, 0.04f)),
+                Collections.<OverlayLayout.Sprite>emptyList(), glyphs("y"),
+                ATLAS_SIZE, ATLAS_SIZE, FRAME_WIDTH, FRAME_HEIGHT);
+    }
+}
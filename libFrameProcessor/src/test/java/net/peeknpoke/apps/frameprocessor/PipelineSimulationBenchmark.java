@@ -0,0 +1,57 @@
+package net.peeknpoke.apps.frameprocessor;
+
+/**
+ * Compares pipeline configurations on the simulated pipeline. Latencies are drawn from seeded
+ * generators and pass in simulated time, so every configuration sees the same sequence of stage
+ * latencies and the frame rates do not depend on the machine running the benchmark.
+ */
+public class PipelineSimulationBenchmark {
+    public static void main(String[] args) throws InterruptedException {
+        run("baseline", base());
+
+        PipelineSimulator.Config config = base();
+        config.readLatency = LatencyDistribution.spiky(0.2, 0.05, 30);
+        run("storage stalls, 4 MB read ahead", config);
+        config = base();
+        config.readLatency = LatencyDistribution.spiky(0.2, 0.05, 30);
+        config.demuxQueueBytes = 1;
+        run("storage stalls, 1 sample read ahead", config);
+
+        config = base();
+        config.muxLatency = LatencyDistribution.spiky(0.1, 0.05, 30);
+        run("slow muxer", config);
+
+        config = base();
+        config.encodeLatency = LatencyDistribution.uniform(2, 6);
+        run("slow encoder", config);
+        config = base();
+        config.encodeLatency = LatencyDistribution.uniform(2, 6);
+        config.encoderInputBuffers = 1;
+        run("slow encoder, 1 input buffer", config);
+
+        config = base();
+        config.encode = false;
+        config.stillIntervalUs = 1000000;
+        run("stills every second", config);
+
+        config = base();
+        config.encoderCallbacks = PipelineSimulator.EncoderCallbacks.DECODER_THREAD;
+        run("encoder callbacks on the decoder thread", config);
+    }
+
+    private static PipelineSimulator.Config base()
+    {
+        PipelineSimulator.Config config = new PipelineSimulator.Config();
+        config.frames = 300;
+        config.decodeLatency = LatencyDistribution.uniform(1, 3);
+        config.renderLatency = LatencyDistribution.uniform(1, 2);
+        config.encodeLatency = LatencyDistribution.uniform(1, 3);
+        return config;
+    }
+
+    private static void run(String name, PipelineSimulator.Config config) throws InterruptedException
+    {
+        PipelineSimulator.Result result = new PipelineSimulator(config).run();
+        System.out.println(name + ": " + result);
+    }
+}
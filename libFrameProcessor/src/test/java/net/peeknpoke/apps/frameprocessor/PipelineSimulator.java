@@ -0,0 +1,280 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.media.MediaCodec;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the pipeline scheduling of {@link FrameProcessor} - the {@link DemuxQueue},
+ * {@link PipelineScheduler} and {@link FrameHandshake} - against simulated codecs and a simulated
+ * renderer, with the same thread layout as on a device. The threads are simulated by an
+ * {@link EventScheduler}, so every latency passes in simulated time and a run with the same
+ * config and seed always ends the same way. A run that stops with no thread able to run is
+ * reported as a deadlock, together with where each pipeline thread was waiting.
+ */
+class PipelineSimulator {
+    enum EncoderCallbacks {
+        /** On an encoder thread of their own, as in {@link FrameProcessor} */
+        SEPARATE_THREAD,
+        /** On the thread of the decoder callbacks */
+        DECODER_THREAD
+    }
+
+    static class Config {
+        int frames = 120;
+        long frameDurationUs = 33333;
+        int sampleSize = 4096;
+        int gopSize = 30;
+        int demuxSlots = 64;
+        int demuxQueueBytes = 4*1024*1024;
+        int decoderInputBuffers = 4;
+        int decoderOutputBuffers = 4;
+        int encoderInputBuffers = 3;
+        int encoderOutputBuffers = 4;
+        /** Frames the renderer may be ahead of the encoders, as set by a {@link PipelineProfile} */
+        int inFlightFrames = 1;
+        LatencyDistribution readLatency = LatencyDistribution.fixed(0.1);
+        LatencyDistribution decodeLatency = LatencyDistribution.fixed(1);
+        LatencyDistribution renderLatency = LatencyDistribution.fixed(1);
+        LatencyDistribution encodeLatency = LatencyDistribution.fixed(1);
+        /** Encode latency of each rendition of a ladder, or null for a single encoder */
+        LatencyDistribution[] renditionEncodeLatencies;
+        LatencyDistribution muxLatency = LatencyDistribution.fixed(0.1);
+        boolean encode = true;
+        /** Time between stills, 0 for sync frames, negative for no stills */
+        long stillIntervalUs = -1;
+        EncoderCallbacks encoderCallbacks = EncoderCallbacks.SEPARATE_THREAD;
+        long seed = 1;
+    }
+
+    static class Result {
+        boolean deadlocked;
+        int decoded;
+        int rendered;
+        int encoded;
+        /** Frames encoded and simulated time the renderer waited, per encoder */
+        int[] renditionEncoded = new int[0];
+        long[] renditionStallNanos = new long[0];
+        int dropped;
+        int outOfOrder;
+        /** Simulated time until the last encoder output, or until the deadlock */
+        long elapsedNanos;
+        /** Where the pipeline threads were waiting when the deadlock was detected */
+        String stalledThreads = "";
+
+        double getFramesPerSecond()
+        {
+            return elapsedNanos > 0 ? decoded*1e9/elapsedNanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s decoded=%d rendered=%d encoded=%d dropped=%d %.1f fps%s",
+                    deadlocked ? "DEADLOCK" : "completed", decoded, rendered, encoded, dropped,
+                    getFramesPerSecond(), deadlocked ? " [" + stalledThreads + "]" : "");
+        }
+    }
+
+    private final Config mConfig;
+
+    PipelineSimulator(Config config)
+    {
+        mConfig = config;
+    }
+
+    Result run() throws InterruptedException
+    {
+        final Config config = mConfig;
+        final Result result = new Result();
+        final EventScheduler threads = new EventScheduler();
+        final AtomicInteger decoded = new AtomicInteger();
+        final AtomicInteger rendered = new AtomicInteger();
+        final LatencyDistribution[] encodeLatencies = !config.encode ? new LatencyDistribution[0] :
+                config.renditionEncodeLatencies != null ? config.renditionEncodeLatencies :
+                        new LatencyDistribution[]{config.encodeLatency};
+        final int encoders = encodeLatencies.length;
+        final AtomicInteger[] encoded = new AtomicInteger[encoders];
+        final AtomicInteger outOfOrder = new AtomicInteger();
+        // Every encoder reaches the end of stream, or the decoder when nothing is encoded
+        final AtomicInteger finished = new AtomicInteger();
+        final int stages = Math.max(1, encoders);
+
+        Executor mainThread = threads.newExecutor("Main");
+        Executor renderingThread = threads.newExecutor("CustomContext");
+
+        final FrameHandshake handshake = new FrameHandshake(stages, config.inFlightFrames,
+                new SimulatedLock(threads), new SimulatedLock(threads), threads);
+        final DemuxQueue queue = new DemuxQueue(config.demuxSlots, config.demuxQueueBytes, config.sampleSize);
+        final PipelineScheduler[] scheduler = new PipelineScheduler[1];
+        final List<SimulatedCodec> encoder = new ArrayList<>();
+
+        SimulatedCodec decoder = new SimulatedCodec("DecoderCodec", threads, config.decoderInputBuffers,
+                config.decoderOutputBuffers, config.sampleSize, config.decodeLatency, config.seed + 1,
+                mainThread, new Codec.Callback() {
+            @Override
+            public void onInputBufferAvailable(int index) {
+                scheduler[0].onInputBufferAvailable(index);
+            }
+
+            @Override
+            public void onOutputBufferAvailable(int index, long presentationTimeUs, int size, int flags) {
+                if (size > 0)
+                    decoded.incrementAndGet();
+                scheduler[0].onOutputBufferAvailable(index, presentationTimeUs, size, flags);
+            }
+        });
+
+        for (int i = 0; i < encoders; i++)
+        {
+            final int rendition = i;
+            encoded[i] = new AtomicInteger();
+            Executor encoderThread = config.encoderCallbacks == EncoderCallbacks.SEPARATE_THREAD ?
+                    threads.newExecutor(i == 0 ? "Encoder" : "Encoder" + i) : mainThread;
+            // Mirrors the encoder callback of EncoderOutput, with the muxer as a latency
+            encoder.add(new SimulatedCodec(i == 0 ? "EncoderCodec" : "EncoderCodec" + i, threads,
+                    config.encoderInputBuffers, config.encoderOutputBuffers, 0, encodeLatencies[i],
+                    config.seed + 2 + 10*i, encoderThread, new Codec.Callback() {
+                private final Random mRandom = new Random(config.seed + 3 + 10*rendition);
+                private long mLastTimeUs = Long.MIN_VALUE;
+
+                @Override
+                public void onInputBufferAvailable(int index) {
+                }
+
+                @Override
+                public void onOutputBufferAvailable(int index, long presentationTimeUs, int size, int flags) {
+                    threads.sleep(config.muxLatency.nextNanos(mRandom));
+                    encoder.get(rendition).releaseOutputBuffer(index, false);
+                    handshake.frameEncoded(rendition);
+                    if (size > 0)
+                    {
+                        encoded[rendition].incrementAndGet();
+                        if (presentationTimeUs <= mLastTimeUs)
+                            outOfOrder.incrementAndGet();
+                        mLastTimeUs = presentationTimeUs;
+                    }
+                    if ((flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0)
+                        finished.incrementAndGet();
+                }
+            }));
+        }
+
+        // Mirrors CustomContext.onFrameAvailable
+        final Random renderRandom = new Random(config.seed + 4);
+        final SimulatedSurface surface = new SimulatedSurface(renderingThread, new SimulatedSurface.Listener() {
+            @Override
+            public void onFrameAvailable(SimulatedSurface surface) {
+                long presentationTimeUs = surface.latch();
+                if (presentationTimeUs < 0)
+                    return;
+                if (!encoder.isEmpty())
+                    handshake.awaitEncoded();
+                threads.sleep(config.renderLatency.nextNanos(renderRandom));
+                rendered.incrementAndGet();
+                for (SimulatedCodec rendition : encoder)
+                    rendition.queueSurfaceFrame(presentationTimeUs);
+                handshake.frameRendered();
+            }
+        });
+        decoder.setOutputSurface(surface);
+
+        StillFrameSelector stillSelector = config.stillIntervalUs >= 0 ?
+                new StillFrameSelector(config.stillIntervalUs) : null;
+        scheduler[0] = new PipelineScheduler(decoder, encoder, queue, handshake, stillSelector,
+                mainThread, new PipelineScheduler.Listener() {
+            @Override
+            public void onDecoderFinished() {
+                finished.incrementAndGet();
+            }
+        });
+        final SimulatedSampleSource source = new SimulatedSampleSource(config.frames, config.frameDurationUs,
+                config.sampleSize, config.gopSize, threads, config.readLatency, config.seed);
+
+        for (SimulatedCodec rendition : encoder)
+            rendition.start(false);
+        startDemux(threads, source, queue);
+        decoder.start(true);
+
+        result.deadlocked = !threads.run(new EventScheduler.Ready() {
+            @Override
+            public boolean isReady() {
+                return finished.get() >= stages;
+            }
+        });
+        result.elapsedNanos = threads.nanoTime();
+        if (result.deadlocked)
+            result.stalledThreads = threads.describeWaitingThreads();
+
+        result.decoded = decoded.get();
+        result.rendered = rendered.get();
+        result.renditionEncoded = new int[encoders];
+        result.renditionStallNanos = new long[encoders];
+        for (int i = 0; i < encoders; i++)
+        {
+            result.renditionEncoded[i] = encoded[i].get();
+            result.renditionStallNanos[i] = handshake.getStallNanos(i);
+        }
+        result.encoded = encoders > 0 ? result.renditionEncoded[0] : 0;
+        result.dropped = surface.getDropped();
+        result.outOfOrder = outOfOrder.get();
+
+        scheduler[0].stop();
+        threads.stop();
+        return result;
+    }
+
+    /**
+     * Mirrors {@link DemuxThread} on a simulated thread, which waits for room in the queue on the
+     * scheduler where the demux thread would park.
+     */
+    private static void startDemux(final EventScheduler threads, final SampleSource source, final DemuxQueue queue)
+    {
+        final EventScheduler.Ready canClaim = new EventScheduler.Ready() {
+            @Override
+            public boolean isReady() {
+                return queue.canClaim();
+            }
+        };
+        threads.start("Demux", new Runnable() {
+            @Override
+            public void run() {
+                while (true)
+                {
+                    threads.await(canClaim);
+                    DemuxQueue.Sample sample = queue.claim((int) Math.max(source.getSampleSize(), 0));
+                    int size = source.readSampleData(sample.data, 0);
+                    if (size < 0)
+                    {
+                        sample.endOfStream = true;
+                        sample.data.limit(0);
+                        publish(threads, queue, sample, 0);
+                        return;
+                    }
+                    sample.data.position(0);
+                    sample.data.limit(size);
+                    sample.presentationTimeUs = source.getSampleTime();
+                    sample.flags = source.getSampleFlags();
+                    source.advance();
+                    publish(threads, queue, sample, size);
+                }
+            }
+        });
+    }
+
+    private static void publish(EventScheduler threads, final DemuxQueue queue, DemuxQueue.Sample sample,
+                                final int size)
+    {
+        threads.await(new EventScheduler.Ready() {
+            @Override
+            public boolean isReady() {
+                return queue.canPublish(size);
+            }
+        });
+        queue.publish(sample);
+    }
+}
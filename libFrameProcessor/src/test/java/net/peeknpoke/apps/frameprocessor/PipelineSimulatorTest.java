@@ -0,0 +1,124 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PipelineSimulatorTest {
+    private static final long MILLISECOND_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static PipelineSimulator.Config config()
+    {
+        PipelineSimulator.Config config = new PipelineSimulator.Config();
+        config.frames = 60;
+        config.decodeLatency = LatencyDistribution.fixed(0.2);
+        config.renderLatency = LatencyDistribution.fixed(0.2);
+        config.encodeLatency = LatencyDistribution.fixed(0.2);
+        config.readLatency = LatencyDistribution.fixed(0.05);
+        config.muxLatency = LatencyDistribution.fixed(0.05);
+        return config;
+    }
+
+    @Test
+    public void encodesEveryFrameInOrder() throws InterruptedException {
+        PipelineSimulator.Result result = new PipelineSimulator(config()).run();
+        assertFalse(result.toString(), result.deadlocked);
+        assertEquals(60, result.decoded);
+        assertEquals(60, result.rendered);
+        assertEquals(60, result.encoded);
+        assertEquals(0, result.dropped);
+        assertEquals(0, result.outOfOrder);
+    }
+
+    @Test
+    public void survivesStallsOfEveryStage() throws InterruptedException {
+        PipelineSimulator.Config config = config();
+        config.readLatency = LatencyDistribution.spiky(0.05, 0.05, 20);
+        config.decodeLatency = LatencyDistribution.uniform(0.1, 2);
+        config.encodeLatency = LatencyDistribution.spiky(0.2, 0.05, 20);
+        config.muxLatency = LatencyDistribution.spiky(0.05, 0.05, 20);
+        config.demuxQueueBytes = 1;
+        PipelineSimulator.Result result = new PipelineSimulator(config).run();
+        assertFalse(result.toString(), result.deadlocked);
+        assertEquals(60, result.encoded);
+        assertEquals(0, result.dropped);
+    }
+
+    @Test
+    public void runsTheSameWayForTheSameSeed() throws InterruptedException {
+        PipelineSimulator.Config config = config();
+        config.readLatency = LatencyDistribution.spiky(0.05, 0.05, 20);
+        config.decodeLatency = LatencyDistribution.uniform(0.1, 2);
+        config.encodeLatency = LatencyDistribution.spiky(0.2, 0.05, 20);
+        PipelineSimulator.Result first = new PipelineSimulator(config).run();
+        PipelineSimulator.Result second = new PipelineSimulator(config).run();
+        assertEquals(first.elapsedNanos, second.elapsedNanos);
+        assertArrayEquals(first.renditionStallNanos, second.renditionStallNanos);
+        config.seed = 2;
+        PipelineSimulator.Result reseeded = new PipelineSimulator(config).run();
+        assertNotEquals(first.elapsedNanos, reseeded.elapsedNanos);
+    }
+
+    @Test
+    public void framesInFlightOverlapRenderingAndEncoding() throws InterruptedException {
+        PipelineSimulator.Config config = config();
+        config.renderLatency = LatencyDistribution.fixed(1);
+        config.encodeLatency = LatencyDistribution.fixed(1.5);
+        PipelineSimulator.Result lockstep = new PipelineSimulator(config).run();
+        config.inFlightFrames = 3;
+        PipelineSimulator.Result pipelined = new PipelineSimulator(config).run();
+        assertFalse(pipelined.toString(), pipelined.deadlocked);
+        assertEquals(60, pipelined.encoded);
+        assertEquals(0, pipelined.dropped);
+        assertEquals(0, pipelined.outOfOrder);
+        // In lockstep every frame is rendered and then encoded, in flight the encoder paces alone
+        assertTrue(lockstep.toString(), lockstep.elapsedNanos >= 60*2500*MILLISECOND_NANOS/1000);
+        assertTrue(pipelined.toString(), pipelined.elapsedNanos < 60*2000*MILLISECOND_NANOS/1000);
+        assertTrue(pipelined.toString(), pipelined.elapsedNanos >= 60*1500*MILLISECOND_NANOS/1000);
+    }
+
+    @Test
+    public void slowRenditionPacesTheLadder() throws InterruptedException {
+        PipelineSimulator.Config config = config();
+        config.renditionEncodeLatencies = new LatencyDistribution[]{
+                LatencyDistribution.fixed(0.2), LatencyDistribution.fixed(1.5), LatencyDistribution.fixed(0.1)};
+        PipelineSimulator.Result result = new PipelineSimulator(config).run();
+        assertFalse(result.toString(), result.deadlocked);
+        assertEquals(60, result.rendered);
+        assertEquals(0, result.dropped);
+        assertEquals(0, result.outOfOrder);
+        for (int encoded : result.renditionEncoded)
+            assertEquals(60, encoded);
+        assertTrue(result.toString(), result.elapsedNanos >= 60*1500*MILLISECOND_NANOS/1000);
+        assertTrue(result.renditionStallNanos[1] > result.renditionStallNanos[0]);
+        assertTrue(result.renditionStallNanos[1] > result.renditionStallNanos[2]);
+    }
+
+    @Test
+    public void rendersOnlyStillsWithoutEncoder() throws InterruptedException {
+        PipelineSimulator.Config config = config();
+        config.encode = false;
+        config.stillIntervalUs = 0;
+        config.gopSize = 10;
+        PipelineSimulator.Result result = new PipelineSimulator(config).run();
+        assertFalse(result.toString(), result.deadlocked);
+        assertEquals(60, result.decoded);
+        assertEquals(6, result.rendered);
+        assertEquals(0, result.encoded);
+    }
+
+    @Test
+    public void detectsDeadlockWithEncoderCallbacksOnTheDecoderThread() throws InterruptedException {
+        // The freeze described in the README: the decoder callback waits for a render that waits
+        // for an encoder callback queued behind it
+        PipelineSimulator.Config config = config();
+        config.encoderCallbacks = PipelineSimulator.EncoderCallbacks.DECODER_THREAD;
+        PipelineSimulator.Result result = new PipelineSimulator(config).run();
+        assertTrue(result.toString(), result.deadlocked);
+        assertTrue(result.encoded < 60);
+        assertTrue(result.stalledThreads, result.stalledThreads.contains("Main in FrameHandshake.awaitRendered"));
+        assertTrue(result.stalledThreads, result.stalledThreads.contains("CustomContext in FrameHandshake.awaitEncoded"));
+    }
+}
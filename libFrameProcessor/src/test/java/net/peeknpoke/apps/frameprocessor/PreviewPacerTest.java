@@ -0,0 +1,60 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PreviewPacerTest {
+    private static final long MS = 1000000;
+    private static final long US = 1000;
+
+    @Test
+    public void dropsFramesFasterThanTheDisplay() {
+        PreviewPacer pacer = new PreviewPacer(60);
+        int presented = 0;
+        // 240 fps of rendering for one second
+        for (int frame = 0; frame < 240; frame++)
+        {
+            if (pacer.shouldPresent(frame*1000L*MS/240))
+                presented++;
+        }
+        // One per refresh, and the first frame
+        assertTrue(presented + " presented", presented >= 60 && presented <= 61);
+        assertEquals(presented, pacer.getPresentedFrames());
+        assertEquals(240 - presented, pacer.getDroppedFrames());
+    }
+
+    @Test
+    public void showsEveryFrameSlowerThanTheDisplay() {
+        PreviewPacer pacer = new PreviewPacer(60);
+        for (int frame = 0; frame < 30; frame++)
+            assertTrue(pacer.shouldPresent(frame*33*MS));
+        assertEquals(0, pacer.getDroppedFrames());
+    }
+
+    @Test
+    public void toleratesJitterAroundTheRefreshRate() {
+        PreviewPacer pacer = new PreviewPacer(60);
+        long time = 0;
+        for (int frame = 0; frame < 60; frame++)
+        {
+            assertTrue(pacer.shouldPresent(time));
+            time += frame % 2 == 0 ? 15000*US : 18333*US;
+        }
+    }
+
+    @Test
+    public void letterboxesWideFrames() {
+        assertArrayEquals(new int[]{0, 420, 1080, 607}, PreviewPacer.fitViewport(1920, 1080, 1080, 1448));
+    }
+
+    @Test
+    public void pillarboxesTallFrames() {
+        assertArrayEquals(new int[]{656, 0, 607, 1080}, PreviewPacer.fitViewport(1080, 1920, 1920, 1080));
+    }
+
+    @Test
+    public void fillsSurfacesOfTheSameAspectRatio() {
+        assertArrayEquals(new int[]{0, 0, 1280, 720}, PreviewPacer.fitViewport(1920, 1080, 1280, 720));
+    }
+}
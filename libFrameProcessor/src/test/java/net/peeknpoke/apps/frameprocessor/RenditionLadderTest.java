@@ -0,0 +1,100 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RenditionLadderTest {
+    private static void assertRung(int width, int height, int bitRate, String label, RenditionLadder.Rung rung)
+    {
+        assertEquals(width, rung.width);
+        assertEquals(height, rung.height);
+        assertEquals(bitRate, rung.bitRate);
+        assertEquals(label, rung.label);
+    }
+
+    @Test
+    public void withoutRenditionsEncodesTheInputSize() {
+        List<RenditionLadder.Rung> rungs = RenditionLadder.plan(1920, 1080,
+                Collections.<Rendition>emptyList(), 2000000);
+        assertEquals(1, rungs.size());
+        assertRung(1920, 1080, 2000000, null, rungs.get(0));
+    }
+
+    @Test
+    public void profileLimitsTheSizeWithoutRenditions() {
+        List<RenditionLadder.Rung> rungs = RenditionLadder.plan(3840, 2160,
+                Collections.<Rendition>emptyList(), 2000000, 1080);
+        assertEquals(1, rungs.size());
+        assertRung(1920, 1080, 2000000, null, rungs.get(0));
+
+        rungs = RenditionLadder.plan(1280, 720, Collections.<Rendition>emptyList(), 2000000, 1080);
+        assertRung(1280, 720, 2000000, null, rungs.get(0));
+    }
+
+    @Test
+    public void profileDoesNotLimitRenditions() {
+        List<RenditionLadder.Rung> rungs = RenditionLadder.plan(3840, 2160,
+                Collections.singletonList(new Rendition(2160, 20000000)), 2000000, 1080);
+        assertRung(3840, 2160, 20000000, "2160p", rungs.get(0));
+    }
+
+    @Test
+    public void scalesByTheShortSideLargestFirst() {
+        List<RenditionLadder.Rung> rungs = RenditionLadder.plan(1920, 1080, Arrays.asList(
+                new Rendition(360, 800000), new Rendition(1080, 6000000), new Rendition(720, 3000000)), 2000000);
+        assertEquals(3, rungs.size());
+        assertRung(1920, 1080, 6000000, "1080p", rungs.get(0));
+        assertRung(1280, 720, 3000000, "720p", rungs.get(1));
+        assertRung(640, 360, 800000, "360p", rungs.get(2));
+    }
+
+    @Test
+    public void keepsPortraitOrientation() {
+        List<RenditionLadder.Rung> rungs = RenditionLadder.plan(1080, 1920,
+                Arrays.asList(new Rendition(720, 3000000)), 2000000);
+        assertRung(720, 1280, 3000000, "720p", rungs.get(0));
+    }
+
+    @Test
+    public void neverUpscales() {
+        List<RenditionLadder.Rung> rungs = RenditionLadder.plan(1280, 720,
+                Arrays.asList(new Rendition(2160, 16000000)), 2000000);
+        assertRung(1280, 720, 16000000, "720p", rungs.get(0));
+    }
+
+    @Test
+    public void roundsToEvenSizes() {
+        List<RenditionLadder.Rung> rungs = RenditionLadder.plan(1920, 1080,
+                Arrays.asList(new Rendition(241, 400000)), 2000000);
+        assertEquals(0, rungs.get(0).width % 2);
+        assertEquals(0, rungs.get(0).height % 2);
+        assertRung(428, 240, 400000, "240p", rungs.get(0));
+    }
+
+    @Test
+    public void distinguishesRungsOfTheSameSize() {
+        List<RenditionLadder.Rung> rungs = RenditionLadder.plan(1920, 1080, Arrays.asList(
+                new Rendition(720, 1500000), new Rendition(720, 3000000), new Rendition(360, 800000)), 2000000);
+        assertRung(1280, 720, 3000000, "720p_3000k", rungs.get(0));
+        assertRung(1280, 720, 1500000, "720p_1500k", rungs.get(1));
+        assertRung(640, 360, 800000, "360p", rungs.get(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyRenditions() {
+        new Rendition(0, 1000000);
+    }
+
+    @Test
+    public void downsampleOffsetCopiesAtFactorOne() {
+        assertEquals(0.0f, RenditionLadder.downsampleOffset(1.0f), 0.0f);
+        assertEquals(0.25f, RenditionLadder.downsampleOffset(1.5f), 1e-6f);
+        assertEquals(0.5f, RenditionLadder.downsampleOffset(2.0f), 1e-6f);
+        assertEquals(0.75f, RenditionLadder.downsampleOffset(3.0f), 1e-6f);
+    }
+}
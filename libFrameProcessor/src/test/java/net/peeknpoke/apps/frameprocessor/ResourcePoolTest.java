@@ -0,0 +1,221 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ResourcePoolTest {
+    private static final int FORMAT = 1;
+
+    private static class Resource {
+        final ResourcePool.Key key;
+        boolean destroyed;
+
+        Resource(ResourcePool.Key key)
+        {
+            this.key = key;
+        }
+    }
+
+    private static class TestAllocator implements ResourcePool.Allocator<Resource> {
+        final List<Resource> created = new ArrayList<>();
+        final List<Resource> destroyed = new ArrayList<>();
+
+        @Override
+        public Resource create(ResourcePool.Key key) {
+            Resource resource = new Resource(key);
+            created.add(resource);
+            return resource;
+        }
+
+        @Override
+        public void destroy(Resource resource) {
+            assertFalse(resource.destroyed);
+            resource.destroyed = true;
+            destroyed.add(resource);
+        }
+
+        @Override
+        public long sizeOf(ResourcePool.Key key) {
+            return (long) key.width*key.height*key.format;
+        }
+    }
+
+    private static ResourcePool.Key key(int width, int height)
+    {
+        return new ResourcePool.Key(width, height, FORMAT);
+    }
+
+    @Test
+    public void reusesReleasedResourcesWithTheSameKey() {
+        TestAllocator allocator = new TestAllocator();
+        ResourcePool<Resource> pool = new ResourcePool<>(allocator, 1000);
+        Resource a = pool.acquire(key(10, 10));
+        pool.release(a);
+        assertEquals(100, pool.getIdleBytes());
+
+        assertSame(a, pool.acquire(key(10, 10)));
+        Resource b = pool.acquire(key(10, 10));
+        assertNotSame(a, b);
+        Resource c = pool.acquire(new ResourcePool.Key(10, 10, 2));
+        assertNotSame(a, c);
+
+        assertEquals(3, allocator.created.size());
+        assertEquals(1, pool.getHits());
+        assertEquals(3, pool.getMisses());
+        assertEquals(3, pool.getInUseCount());
+        assertEquals(400, pool.getAllocatedBytes());
+        assertEquals(0, pool.getIdleBytes());
+    }
+
+    @Test
+    public void referenceCounting() {
+        TestAllocator allocator = new TestAllocator();
+        ResourcePool<Resource> pool = new ResourcePool<>(allocator, 1000);
+        Resource a = pool.acquire(key(10, 10));
+        pool.retain(a);
+        pool.release(a);
+        assertEquals(1, pool.getInUseCount());
+        pool.release(a);
+        assertEquals(0, pool.getInUseCount());
+        try {
+            pool.release(a);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            pool.retain(a);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsForeignResources() {
+        ResourcePool<Resource> pool = new ResourcePool<>(new TestAllocator(), 1000);
+        pool.release(new Resource(key(1, 1)));
+    }
+
+    @Test
+    public void evictsLeastRecentlyReleasedToMakeRoom() {
+        TestAllocator allocator = new TestAllocator();
+        ResourcePool<Resource> pool = new ResourcePool<>(allocator, 300);
+        Resource a = pool.acquire(key(10, 10));
+        Resource b = pool.acquire(key(10, 11));
+        Resource c = pool.acquire(key(10, 9));
+        pool.release(b);
+        pool.release(a);
+        pool.release(c);
+        assertEquals(300, pool.getIdleBytes());
+
+        // Needs 200 bytes: b and then a go, c stays
+        Resource d = pool.acquire(key(20, 10));
+        assertEquals(2, pool.getEvictions());
+        assertTrue(b.destroyed);
+        assertTrue(a.destroyed);
+        assertFalse(c.destroyed);
+        assertEquals(290, pool.getAllocatedBytes());
+        assertSame(c, pool.acquire(key(10, 9)));
+        assertFalse(d.destroyed);
+    }
+
+    @Test
+    public void inUseResourcesMayExceedTheBudget() {
+        TestAllocator allocator = new TestAllocator();
+        ResourcePool<Resource> pool = new ResourcePool<>(allocator, 150);
+        Resource a = pool.acquire(key(10, 10));
+        Resource b = pool.acquire(key(10, 10));
+        assertEquals(200, pool.getAllocatedBytes());
+        assertEquals(0, pool.getEvictions());
+
+        // Back under the budget once released
+        pool.release(a);
+        assertTrue(a.destroyed);
+        assertEquals(100, pool.getAllocatedBytes());
+        pool.release(b);
+        assertFalse(b.destroyed);
+        assertEquals(100, pool.getIdleBytes());
+    }
+
+    @Test
+    public void trimAndBudgetChanges() {
+        TestAllocator allocator = new TestAllocator();
+        ResourcePool<Resource> pool = new ResourcePool<>(allocator, 1000);
+        Resource a = pool.acquire(key(10, 10));
+        Resource b = pool.acquire(key(10, 20));
+        Resource c = pool.acquire(key(10, 30));
+        pool.release(a);
+        pool.release(b);
+
+        pool.setBudgetBytes(500);
+        assertTrue(a.destroyed);
+        assertFalse(b.destroyed);
+
+        pool.trim();
+        assertTrue(b.destroyed);
+        assertFalse(c.destroyed);
+        assertEquals(300, pool.getAllocatedBytes());
+        assertEquals(0, pool.getIdleBytes());
+        assertEquals(1, pool.getInUseCount());
+    }
+
+    @Test
+    public void steadyStateFramesDoNotAllocate() {
+        TestAllocator allocator = new TestAllocator();
+        ResourcePool<Resource> pool = new ResourcePool<>(allocator, 10000);
+        for (int frame = 0; frame < 100; frame++)
+        {
+            Resource ping = pool.acquire(key(16, 16));
+            Resource pong = pool.acquire(key(16, 16));
+            Resource small = pool.acquire(key(4, 4));
+            pool.release(small);
+            pool.release(pong);
+            pool.release(ping);
+        }
+        assertEquals(3, allocator.created.size());
+        assertEquals(297, pool.getHits());
+    }
+
+    @Test
+    public void laterJobsReuseTheTexturesOfAnEarlierOne() {
+        // Like the share group's textures under the framebuffer pool of each job's context
+        final TestAllocator textures = new TestAllocator();
+        final ResourcePool<Resource> shared = new ResourcePool<>(textures, 10000);
+        final List<Resource> framebuffers = new ArrayList<>();
+        ResourcePool.Allocator<Resource> framebufferAllocator = new ResourcePool.Allocator<Resource>() {
+            @Override
+            public Resource create(ResourcePool.Key key) {
+                framebuffers.add(shared.acquire(key));
+                return framebuffers.get(framebuffers.size() - 1);
+            }
+
+            @Override
+            public void destroy(Resource framebuffer) {
+                shared.release(framebuffer);
+            }
+
+            @Override
+            public long sizeOf(ResourcePool.Key key) {
+                return textures.sizeOf(key);
+            }
+        };
+
+        for (int job = 0; job < 3; job++)
+        {
+            ResourcePool<Resource> pool = new ResourcePool<>(framebufferAllocator, 10000);
+            Resource ping = pool.acquire(key(16, 16));
+            Resource pong = pool.acquire(key(16, 16));
+            pool.release(ping);
+            pool.release(pong);
+            pool.trim();
+            assertEquals(0, pool.getAllocatedBytes());
+        }
+        assertEquals(6, framebuffers.size());
+        assertEquals(2, textures.created.size());
+        assertEquals(4, shared.getHits());
+        assertEquals(512, shared.getIdleBytes());
+    }
+}
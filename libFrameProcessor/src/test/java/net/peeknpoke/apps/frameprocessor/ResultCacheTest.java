@@ -0,0 +1,131 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ResultCacheTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static List<ByteArrayInputStream> outputs(int... lengths)
+    {
+        ByteArrayInputStream[] outputs = new ByteArrayInputStream[lengths.length];
+        for (int i = 0; i < lengths.length; i++)
+            outputs[i] = new ByteArrayInputStream(new byte[lengths[i]]);
+        return Arrays.asList(outputs);
+    }
+
+    private static boolean store(ResultCache cache, String key, int length, long budget) throws IOException
+    {
+        return cache.store(key, Collections.singletonList(".mp4"), outputs(length), budget);
+    }
+
+    @Test
+    public void storesAndLooksUpResults() throws IOException {
+        ResultCache cache = new ResultCache(new File(mFolder.getRoot(), "results"));
+        assertNull(cache.lookup("a"));
+        assertTrue(cache.store("a", Arrays.asList(".mp4", "_720p.mp4"), outputs(1000, 400), 10000));
+
+        ResultCache.Result result = cache.lookup("a");
+        assertNotNull(result);
+        assertEquals(Arrays.asList(".mp4", "_720p.mp4"), result.suffixes);
+        assertEquals(1400, result.getBytes());
+        assertEquals(400, cache.getFile(result, 1).length());
+        assertEquals(1400, cache.getBytes());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedWhenOverBudget() throws IOException {
+        ResultCache cache = new ResultCache(mFolder.getRoot());
+        store(cache, "a", 1000, 3000);
+        store(cache, "b", 1000, 3000);
+        store(cache, "c", 1000, 3000);
+        assertNotNull(cache.lookup("a"));
+        store(cache, "d", 1000, 3000);
+
+        assertEquals(Arrays.asList("c", "a", "d"), cache.getKeys());
+        assertEquals(3000, cache.getBytes());
+        assertNull(cache.lookup("b"));
+        assertFalse(new File(mFolder.getRoot(), "b_0").exists());
+    }
+
+    @Test
+    public void doesNotKeepAResultLargerThanTheBudget() throws IOException {
+        ResultCache cache = new ResultCache(mFolder.getRoot());
+        store(cache, "a", 1000, 3000);
+        assertFalse(store(cache, "b", 4000, 3000));
+        assertEquals(Collections.singletonList("a"), cache.getKeys());
+        assertFalse(new File(mFolder.getRoot(), "b_0").exists());
+    }
+
+    @Test
+    public void reloadsTheIndexInUseOrder() throws IOException {
+        ResultCache cache = new ResultCache(mFolder.getRoot());
+        store(cache, "a", 1000, 10000);
+        store(cache, "b", 2000, 10000);
+        cache.lookup("a");
+
+        ResultCache reopened = new ResultCache(mFolder.getRoot());
+        assertEquals(Arrays.asList("b", "a"), reopened.getKeys());
+        assertEquals(3000, reopened.getBytes());
+        assertNotNull(reopened.lookup("b"));
+    }
+
+    @Test
+    public void dropsAResultWhoseCopyIsGone() throws IOException {
+        ResultCache cache = new ResultCache(mFolder.getRoot());
+        store(cache, "a", 1000, 10000);
+        assertTrue(new File(mFolder.getRoot(), "a_0").delete());
+        assertNull(cache.lookup("a"));
+        assertEquals(0, cache.getResultCount());
+        assertEquals(0, new ResultCache(mFolder.getRoot()).getResultCount());
+    }
+
+    @Test
+    public void deletesFilesTheIndexDoesNotList() throws IOException {
+        ResultCache cache = new ResultCache(mFolder.getRoot());
+        store(cache, "a", 1000, 10000);
+        File orphan = new File(mFolder.getRoot(), "b_0");
+        File temporary = new File(mFolder.getRoot(), ResultCache.INDEX_NAME + ".tmp");
+        assertTrue(orphan.createNewFile());
+        assertTrue(temporary.createNewFile());
+
+        new ResultCache(mFolder.getRoot());
+        assertFalse(orphan.exists());
+        assertFalse(temporary.exists());
+        assertTrue(new File(mFolder.getRoot(), "a_0").exists());
+    }
+
+    @Test
+    public void damagedIndexEmptiesTheCache() throws IOException {
+        ResultCache cache = new ResultCache(mFolder.getRoot());
+        store(cache, "a", 1000, 10000);
+        FileOutputStream index = new FileOutputStream(new File(mFolder.getRoot(), ResultCache.INDEX_NAME), true);
+        index.write("b\t.mp4\tlong\n".getBytes("UTF-8"));
+        index.close();
+
+        ResultCache reopened = new ResultCache(mFolder.getRoot());
+        assertEquals(0, reopened.getResultCount());
+        assertFalse(new File(mFolder.getRoot(), "a_0").exists());
+        assertTrue(store(reopened, "a", 1000, 10000));
+    }
+
+    @Test
+    public void suffixesNameOutputsAfterTheFirst() {
+        assertEquals(".mp4", ResultCache.suffixOf("20240101_120000_output.mp4", "20240101_120000_output.mp4"));
+        assertEquals("_720p.mp4", ResultCache.suffixOf("20240101_120000_output.mp4",
+                "20240101_120000_output_720p.mp4"));
+        assertEquals(".mp4", ResultCache.suffixOf("a.mp4", "other.mp4"));
+    }
+}
@@ -0,0 +1,126 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class ResultKeyTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File writeInput(String name, int length) throws IOException
+    {
+        File file = mFolder.newFile(name);
+        RandomAccessFile output = new RandomAccessFile(file, "rw");
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++)
+            bytes[i] = (byte) (i*31 + i/7);
+        output.write(bytes);
+        output.close();
+        return file;
+    }
+
+    private static void overwrite(File file, long position, int value) throws IOException
+    {
+        RandomAccessFile output = new RandomAccessFile(file, "rw");
+        output.seek(position);
+        output.write(value);
+        output.close();
+    }
+
+    private static String fingerprint(File file, long modifiedMillis) throws IOException
+    {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            return ResultKey.fingerprintInput(input.getChannel(), file.length(), modifiedMillis);
+        } finally {
+            input.close();
+        }
+    }
+
+    private static FrameProcessorSettings settings()
+    {
+        FrameProcessorSettings settings = new FrameProcessorSettings();
+        settings.setFilterChain(new FilterChain(FilterSpec.unsharpMask(1.5f, 0.8f)));
+        settings.setResultCacheBytes(1 << 30);
+        return settings;
+    }
+
+    @Test
+    public void fingerprintFollowsSampledContentTimeAndSize() throws IOException {
+        int length = 4*ResultKey.BLOCK_BYTES*ResultKey.SAMPLED_BLOCKS;
+        File input = writeInput("input.mp4", length);
+        String fingerprint = fingerprint(input, 1000);
+        assertEquals(fingerprint, fingerprint(input, 1000));
+        assertNotEquals(fingerprint, fingerprint(input, 2000));
+
+        // The first and the last block are always sampled
+        overwrite(input, length - 1, 0x55);
+        String edited = fingerprint(input, 1000);
+        assertNotEquals(fingerprint, edited);
+
+        overwrite(input, length, 0);
+        assertNotEquals(edited, fingerprint(input, 1000));
+    }
+
+    @Test
+    public void fingerprintReadsAllOfASmallInput() throws IOException {
+        File input = writeInput("input.mp4", 3*ResultKey.BLOCK_BYTES + 100);
+        String fingerprint = fingerprint(input, 1000);
+        overwrite(input, 2*ResultKey.BLOCK_BYTES + 12345, 0x55);
+        assertNotEquals(fingerprint, fingerprint(input, 1000));
+    }
+
+    @Test
+    public void descriptionLeavesOutHowTheJobRuns() {
+        FrameProcessorSettings settings = settings();
+        String description = ResultKey.describe(settings, null);
+        settings.setMuxBufferBytes(8*1024*1024);
+        settings.setDemuxQueueBytes(1024*1024);
+        settings.setPublishToMediaStore(!settings.isPublishToMediaStore());
+        settings.setResultCacheBytes(1 << 20);
+        assertEquals(description, ResultKey.describe(settings, null));
+
+        settings.setFilterChain(new FilterChain(FilterSpec.unsharpMask(1.5f, 0.9f)));
+        assertNotEquals(description, ResultKey.describe(settings, null));
+    }
+
+    @Test
+    public void descriptionFollowsTheProfile() {
+        FrameProcessorSettings settings = settings();
+        String description = ResultKey.describe(settings, null);
+        PipelineProfile profile = new PipelineProfile(2, null, 720, 30.0f, 64*1024*1024);
+        assertNotEquals(description, ResultKey.describe(settings, profile));
+    }
+
+    @Test
+    public void editingALutChangesTheKey() throws IOException {
+        File lut = writeInput("look.cube", 1000);
+        assertTrue(lut.setLastModified(1000000));
+        FrameProcessorSettings settings = settings();
+        settings.setFilterChain(new FilterChain(FilterSpec.lut(lut.getPath())));
+        String key = ResultKey.of("input", ResultKey.describe(settings, null));
+        assertEquals(key, ResultKey.of("input", ResultKey.describe(settings, null)));
+        assertNotEquals(key, ResultKey.of("other", ResultKey.describe(settings, null)));
+
+        assertTrue(lut.setLastModified(2000000));
+        assertNotEquals(key, ResultKey.of("input", ResultKey.describe(settings, null)));
+    }
+
+    @Test
+    public void onlyVideoJobsWithACacheAreCacheable() {
+        FrameProcessorSettings settings = settings();
+        assertTrue(ResultKey.isCacheable(settings));
+        settings.setAnalysisEnabled(true);
+        assertFalse(ResultKey.isCacheable(settings));
+        settings = settings();
+        settings.setResultCacheBytes(0);
+        assertFalse(ResultKey.isCacheable(settings));
+    }
+}
@@ -0,0 +1,115 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ResumePlannerTest {
+    private static JobCheckpoint checkpoint(FrameProcessorSettings.Container container,
+                                            FrameProcessorSettings.OutputMode outputMode, boolean resumable)
+    {
+        FrameProcessorSettings settings = new FrameProcessorSettings();
+        settings.setContainer(container);
+        settings.setOutputMode(outputMode);
+        settings.setResumable(resumable);
+        return new JobCheckpoint("job", "content://input", "app", settings);
+    }
+
+    private static JobCheckpoint resumable()
+    {
+        return checkpoint(FrameProcessorSettings.Container.FRAGMENTED_MP4, FrameProcessorSettings.OutputMode.VIDEO,
+                true);
+    }
+
+    private static JobCheckpoint withProgress(JobCheckpoint checkpoint)
+    {
+        checkpoint.startOutput("/out.mp4", null);
+        checkpoint.encoderStarted("encoder", TranscodePlanner.MIME_AVC, 2000000, 1);
+        checkpoint.fragmentWritten(5, 100000, 10000000);
+        return checkpoint;
+    }
+
+    @Test
+    public void resumesAfterLastFragment() {
+        ResumePlanner.Plan plan = ResumePlanner.plan(withProgress(resumable()), 150000);
+        assertTrue(plan.resume);
+        assertEquals(10000000, plan.seekTimeUs);
+        assertEquals(10000000, plan.skipUntilUs);
+        assertEquals(100000, plan.truncateToBytes);
+        assertEquals(5, plan.lastSequenceNumber);
+    }
+
+    @Test
+    public void resumesWhenOutputEndsWithLastFragment() {
+        assertTrue(ResumePlanner.plan(withProgress(resumable()), 100000).resume);
+    }
+
+    @Test
+    public void restartsJobsThatAreNotResumable() {
+        JobCheckpoint checkpoint = withProgress(checkpoint(FrameProcessorSettings.Container.FRAGMENTED_MP4,
+                FrameProcessorSettings.OutputMode.VIDEO, false));
+        assertFalse(ResumePlanner.plan(checkpoint, 150000).resume);
+    }
+
+    @Test
+    public void onlyResumableOutputIsKept() {
+        assertTrue(ResumePlanner.canResume(resumable().settings));
+        assertFalse(ResumePlanner.canResume(checkpoint(FrameProcessorSettings.Container.MP4,
+                FrameProcessorSettings.OutputMode.VIDEO, true).settings));
+        assertFalse(ResumePlanner.canResume(checkpoint(FrameProcessorSettings.Container.FRAGMENTED_MP4,
+                FrameProcessorSettings.OutputMode.VIDEO, false).settings));
+    }
+
+    @Test
+    public void restartsOutputThatCannotBeAppendedTo() {
+        JobCheckpoint mp4 = withProgress(checkpoint(FrameProcessorSettings.Container.MP4,
+                FrameProcessorSettings.OutputMode.VIDEO, true));
+        assertFalse(ResumePlanner.plan(mp4, 150000).resume);
+        JobCheckpoint withStills = withProgress(checkpoint(FrameProcessorSettings.Container.FRAGMENTED_MP4,
+                FrameProcessorSettings.OutputMode.VIDEO_AND_STILLS, true));
+        assertFalse(ResumePlanner.plan(withStills, 150000).resume);
+    }
+
+    @Test
+    public void restartsLadders() {
+        JobCheckpoint ladder = resumable();
+        ladder.settings.setRenditions(Arrays.asList(new Rendition(720, 3000000), new Rendition(360, 800000)));
+        assertFalse(ResumePlanner.plan(withProgress(ladder), 150000).resume);
+        JobCheckpoint single = resumable();
+        single.settings.setRenditions(Arrays.asList(new Rendition(720, 3000000)));
+        assertTrue(ResumePlanner.plan(withProgress(single), 150000).resume);
+    }
+
+    @Test
+    public void restartsWithoutFragments() {
+        JobCheckpoint checkpoint = resumable();
+        assertFalse(ResumePlanner.plan(checkpoint, -1).resume);
+        checkpoint.startOutput("/out.mp4", null);
+        checkpoint.encoderStarted("encoder", TranscodePlanner.MIME_AVC, 2000000, 1);
+        assertFalse(ResumePlanner.plan(checkpoint, 2000).resume);
+    }
+
+    @Test
+    public void restartsWithUnknownEncoder() {
+        JobCheckpoint checkpoint = resumable();
+        checkpoint.startOutput("/out.mp4", null);
+        checkpoint.fragmentWritten(1, 5000, 2000000);
+        assertFalse(ResumePlanner.plan(checkpoint, 5000).resume);
+    }
+
+    @Test
+    public void restartsWhenOutputIsGoneOrShort() {
+        assertFalse(ResumePlanner.plan(withProgress(resumable()), -1).resume);
+        assertFalse(ResumePlanner.plan(withProgress(resumable()), 99999).resume);
+    }
+
+    @Test
+    public void discardedProgressRestarts() {
+        JobCheckpoint checkpoint = withProgress(resumable());
+        checkpoint.discardProgress();
+        assertEquals("/out.mp4", checkpoint.getOutputPath(0));
+        assertFalse(ResumePlanner.plan(checkpoint, 150000).resume);
+    }
+}
@@ -0,0 +1,97 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Compares an encoder loop handing samples to a sink that occasionally stalls, as storage does,
+ * with and without a {@link BufferedSampleWriter}. Not part of the unit tests; run the main
+ * method directly.
+ */
+public class SampleWriterBenchmark {
+    private static final int SAMPLES = 3000;
+    private static final long ENCODE_NS = 500000;
+    private static final int STALL_EVERY = 50;
+    private static final long STALL_MS = 15;
+
+    private static class StallingSink implements BufferedSampleWriter.Sink {
+        private final byte[] mScratch = new byte[1 << 20];
+        private int mCount;
+
+        @Override
+        public void writeSample(ByteBuffer data, long presentationTimeUs, int flags) throws IOException {
+            data.get(mScratch, 0, data.remaining());
+            if (++mCount%STALL_EVERY == 0)
+            {
+                try {
+                    Thread.sleep(STALL_MS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        }
+    }
+
+    private interface Target {
+        void write(ByteBuffer sample, long presentationTimeUs) throws Exception;
+    }
+
+    /**
+     * @return {total, worst single write} in nanoseconds
+     */
+    private static long[] run(ByteBuffer[] samples, Target target) throws Exception
+    {
+        long worst = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < samples.length; i++)
+        {
+            // Time the encoder spends producing the next sample
+            LockSupport.parkNanos(ENCODE_NS);
+            long write = System.nanoTime();
+            target.write(samples[i], i);
+            worst = Math.max(worst, System.nanoTime() - write);
+        }
+        return new long[]{System.nanoTime() - start, worst};
+    }
+
+    public static void main(String[] args) throws Exception {
+        // A large sync frame every second and smaller frames in between
+        Random random = new Random(1);
+        ByteBuffer[] samples = new ByteBuffer[SAMPLES];
+        long bytes = 0;
+        for (int i = 0; i < SAMPLES; i++)
+        {
+            int size = i%30 == 0 ? 200000 : 20000 + random.nextInt(20000);
+            samples[i] = ByteBuffer.allocateDirect(size);
+            bytes += size;
+        }
+
+        final StallingSink direct = new StallingSink();
+        long[] directTimes = run(samples, new Target() {
+            @Override
+            public void write(ByteBuffer sample, long presentationTimeUs) throws IOException {
+                direct.writeSample(sample.duplicate(), presentationTimeUs, 0);
+            }
+        });
+
+        final BufferedSampleWriter writer = new BufferedSampleWriter(new StallingSink(), 8*1024*1024,
+                BufferedMuxerBackend.MAX_QUEUED_SAMPLES);
+        long[] bufferedTimes = run(samples, new Target() {
+            @Override
+            public void write(ByteBuffer sample, long presentationTimeUs) throws Exception {
+                writer.submit(sample, presentationTimeUs, 0);
+            }
+        });
+        long finishStart = System.nanoTime();
+        writer.finish();
+        long finishNs = System.nanoTime() - finishStart;
+
+        System.out.printf("%d samples, %.1f MB%n", SAMPLES, bytes/1e6);
+        System.out.printf("direct:   %.0f ms, worst write %.2f ms%n", directTimes[0]/1e6, directTimes[1]/1e6);
+        System.out.printf("buffered: %.0f ms + %.0f ms drain, worst write %.2f ms, blocked %.1f ms, peak %d KB%n",
+                bufferedTimes[0]/1e6, finishNs/1e6, bufferedTimes[1]/1e6,
+                writer.getArena().getBlockedNanos()/1e6, writer.getArena().getPeakUsed()/1024);
+    }
+}
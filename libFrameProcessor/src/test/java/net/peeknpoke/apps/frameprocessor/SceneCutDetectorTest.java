@@ -0,0 +1,108 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class SceneCutDetectorTest {
+    private static final long FRAME_US = 33333;
+    private static final int PIXELS = 1000;
+
+    private static int[] flat(int luma)
+    {
+        int[] histogram = new int[FrameStatistics.HISTOGRAM_BINS];
+        histogram[luma] = PIXELS;
+        return histogram;
+    }
+
+    private static int[] mix(int lumaA, int lumaB, float fractionB)
+    {
+        int[] histogram = new int[FrameStatistics.HISTOGRAM_BINS];
+        int b = Math.round(PIXELS*fractionB);
+        histogram[lumaA] += PIXELS - b;
+        histogram[lumaB] += b;
+        return histogram;
+    }
+
+    @Test
+    public void steadyShotHasNoCuts() {
+        SceneCutDetector detector = new SceneCutDetector();
+        for (int frame = 0; frame < 100; frame++)
+            assertFalse(detector.onFrame(frame*FRAME_US, mix(40, 41, (frame%3)/10.0f), PIXELS));
+        assertTrue(detector.getCuts().isEmpty());
+    }
+
+    @Test
+    public void detectsHardCut() {
+        SceneCutDetector detector = new SceneCutDetector();
+        for (int frame = 0; frame < 30; frame++)
+            detector.onFrame(frame*FRAME_US, flat(40), PIXELS);
+        assertTrue(detector.onFrame(30*FRAME_US, flat(200), PIXELS));
+        assertEquals(1.0f, detector.getLastDistance(), 1e-6f);
+        for (int frame = 31; frame < 60; frame++)
+            assertFalse(detector.onFrame(frame*FRAME_US, flat(200), PIXELS));
+        assertEquals(Arrays.asList(30*FRAME_US), detector.getCuts());
+    }
+
+    @Test
+    public void firstFrameIsNotACut() {
+        SceneCutDetector detector = new SceneCutDetector();
+        assertFalse(detector.onFrame(0, flat(200), PIXELS));
+        assertTrue(detector.getCuts().isEmpty());
+    }
+
+    @Test
+    public void hysteresisSuppressesStrobing() {
+        SceneCutDetector detector = new SceneCutDetector(0.35f, 0.15f, 0);
+        for (int frame = 0; frame < 10; frame++)
+            detector.onFrame(frame*FRAME_US, flat(40), PIXELS);
+        // Alternating frames keep the distance high: one cut, not one per frame
+        for (int frame = 10; frame < 40; frame++)
+            detector.onFrame(frame*FRAME_US, flat(frame%2 == 0 ? 220 : 40), PIXELS);
+        assertEquals(1, detector.getCuts().size());
+
+        // Once the picture settles the detector is armed again
+        for (int frame = 40; frame < 45; frame++)
+            detector.onFrame(frame*FRAME_US, flat(40), PIXELS);
+        assertTrue(detector.onFrame(45*FRAME_US, flat(120), PIXELS));
+        assertEquals(2, detector.getCuts().size());
+    }
+
+    @Test
+    public void minimumShotLength() {
+        SceneCutDetector detector = new SceneCutDetector(0.35f, 0.15f, 1000000);
+        detector.onFrame(0, flat(40), PIXELS);
+        // Too close to the start of the shot
+        assertFalse(detector.onFrame(500000, flat(200), PIXELS));
+        detector.onFrame(600000, flat(200), PIXELS);
+        assertTrue(detector.onFrame(1100000, flat(40), PIXELS));
+        detector.onFrame(1200000, flat(40), PIXELS);
+        // Too close to the previous cut
+        assertFalse(detector.onFrame(1500000, flat(200), PIXELS));
+        assertEquals(Arrays.asList(1100000L), detector.getCuts());
+    }
+
+    @Test
+    public void gradualTransitionBelowThreshold() {
+        SceneCutDetector detector = new SceneCutDetector();
+        for (int frame = 0; frame <= 30; frame++)
+            assertFalse(detector.onFrame(frame*FRAME_US, mix(40, 200, frame/30.0f), PIXELS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvertedThresholds() {
+        new SceneCutDetector(0.1f, 0.2f, 0);
+    }
+
+    @Test
+    public void histogramsOfDifferentSizes() {
+        SceneCutDetector detector = new SceneCutDetector(0.35f, 0.15f, 0);
+        int[] small = new int[FrameStatistics.HISTOGRAM_BINS];
+        small[40] = 10;
+        detector.onFrame(0, small, 10);
+        assertFalse(detector.onFrame(FRAME_US, flat(40), PIXELS));
+        assertEquals(0.0f, detector.getLastDistance(), 1e-6f);
+    }
+}
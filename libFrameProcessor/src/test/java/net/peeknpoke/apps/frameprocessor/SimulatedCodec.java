@@ -0,0 +1,182 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.media.MediaCodec;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+/**
+ * An asynchronous codec that processes its input in order on a simulated thread of its own,
+ * taking a simulated time per frame. Like MediaCodec it has a fixed number of input and output
+ * buffers: it stalls while all output buffers are held by the client, and a surface input blocks
+ * the producer while all input buffers are queued. Callbacks are delivered on the given executor.
+ */
+class SimulatedCodec implements Codec {
+    private static final int OUTPUT_SIZE = 1;
+
+    private static final class Work {
+        final int inputIndex;
+        final long presentationTimeUs;
+        final int flags;
+
+        Work(int inputIndex, long presentationTimeUs, int flags)
+        {
+            this.inputIndex = inputIndex;
+            this.presentationTimeUs = presentationTimeUs;
+            this.flags = flags;
+        }
+    }
+
+    private final String mName;
+    private final EventScheduler mScheduler;
+    private final LatencyDistribution mLatency;
+    private final Random mRandom;
+    private final Executor mCallbackExecutor;
+    private final Codec.Callback mCallback;
+    private final ByteBuffer[] mInputBuffers;
+    private final long[] mOutputTimesUs;
+    private final ArrayDeque<Integer> mFreeOutputs = new ArrayDeque<>();
+    private final ArrayDeque<Work> mWork = new ArrayDeque<>();
+    private final EventScheduler.Ready mHasWork = new EventScheduler.Ready() {
+        @Override
+        public boolean isReady() {
+            return !mWork.isEmpty();
+        }
+    };
+    private final EventScheduler.Ready mHasFreeOutput = new EventScheduler.Ready() {
+        @Override
+        public boolean isReady() {
+            return !mFreeOutputs.isEmpty();
+        }
+    };
+    private final EventScheduler.Ready mHasSurfaceInput = new EventScheduler.Ready() {
+        @Override
+        public boolean isReady() {
+            return mSurfaceInputs > 0;
+        }
+    };
+    private int mSurfaceInputs;
+    private SimulatedSurface mOutputSurface;
+
+    SimulatedCodec(String name, EventScheduler scheduler, int inputBuffers, int outputBuffers, int inputBufferSize,
+                   LatencyDistribution latency, long seed, Executor callbackExecutor, Codec.Callback callback)
+    {
+        mName = name;
+        mScheduler = scheduler;
+        mLatency = latency;
+        mRandom = new Random(seed);
+        mCallbackExecutor = callbackExecutor;
+        mCallback = callback;
+        mInputBuffers = new ByteBuffer[inputBuffers];
+        for (int i = 0; i < inputBuffers; i++)
+            mInputBuffers[i] = ByteBuffer.allocate(inputBufferSize);
+        mSurfaceInputs = inputBuffers;
+        mOutputTimesUs = new long[outputBuffers];
+        for (int i = 0; i < outputBuffers; i++)
+            mFreeOutputs.add(i);
+    }
+
+    /**
+     * Frames released with render set are queued to this surface.
+     */
+    void setOutputSurface(SimulatedSurface surface)
+    {
+        mOutputSurface = surface;
+    }
+
+    /**
+     * @param bufferInput true to announce the input buffers, false when the input is a surface
+     */
+    void start(boolean bufferInput)
+    {
+        mScheduler.start(mName, new Runnable() {
+            @Override
+            public void run() {
+                process();
+            }
+        });
+        if (bufferInput)
+        {
+            for (int i = 0; i < mInputBuffers.length; i++)
+                inputAvailable(i);
+        }
+    }
+
+    /**
+     * Queues a frame rendered into the input surface, like eglSwapBuffers on it. Called on a
+     * simulated thread.
+     */
+    void queueSurfaceFrame(long presentationTimeUs)
+    {
+        mScheduler.await(mHasSurfaceInput);
+        mSurfaceInputs--;
+        mWork.add(new Work(-1, presentationTimeUs, 0));
+    }
+
+    @Override
+    public ByteBuffer getInputBuffer(int index) {
+        return mInputBuffers[index];
+    }
+
+    @Override
+    public void queueInputBuffer(int index, int size, long presentationTimeUs, int flags) {
+        mWork.add(new Work(index, presentationTimeUs, flags));
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index, boolean render) {
+        long presentationTimeUs = mOutputTimesUs[index];
+        mFreeOutputs.add(index);
+        if (render && mOutputSurface != null)
+            mOutputSurface.queue(presentationTimeUs);
+    }
+
+    @Override
+    public void signalEndOfInputStream() {
+        mWork.add(new Work(-1, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM));
+    }
+
+    private void process()
+    {
+        while (true)
+        {
+            mScheduler.await(mHasWork);
+            Work work = mWork.poll();
+            boolean endOfStream = (work.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+            if (work.inputIndex >= 0)
+                inputAvailable(work.inputIndex);
+            else if (!endOfStream)
+                mSurfaceInputs++;
+            if (!endOfStream)
+                mScheduler.sleep(mLatency.nextNanos(mRandom));
+            mScheduler.await(mHasFreeOutput);
+            int output = mFreeOutputs.poll();
+            mOutputTimesUs[output] = work.presentationTimeUs;
+            outputAvailable(output, work.presentationTimeUs, endOfStream ? 0 : OUTPUT_SIZE, work.flags);
+            if (endOfStream)
+                return;
+        }
+    }
+
+    private void inputAvailable(final int index)
+    {
+        mCallbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onInputBufferAvailable(index);
+            }
+        });
+    }
+
+    private void outputAvailable(final int index, final long presentationTimeUs, final int size, final int flags)
+    {
+        mCallbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onOutputBufferAvailable(index, presentationTimeUs, size, flags);
+            }
+        });
+    }
+}
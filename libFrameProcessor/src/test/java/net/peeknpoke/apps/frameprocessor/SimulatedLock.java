@@ -0,0 +1,130 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * A reentrant lock for code running on the simulated threads of an {@link EventScheduler}.
+ * Waiting for the lock or on one of its conditions lets the other simulated threads run, so the
+ * waits of the pipeline classes take simulated time only. Timed waits are not supported.
+ */
+final class SimulatedLock implements Lock {
+    private final EventScheduler mScheduler;
+    private final EventScheduler.Ready mFree = new EventScheduler.Ready() {
+        @Override
+        public boolean isReady() {
+            return mOwner == null;
+        }
+    };
+    private Thread mOwner;
+    private int mHolds;
+
+    private final class SimulatedCondition implements Condition {
+        // A flag per waiter, set when it is signalled
+        private final ArrayDeque<boolean[]> mWaiters = new ArrayDeque<>();
+
+        @Override
+        public void await() {
+            final boolean[] signalled = new boolean[1];
+            mWaiters.add(signalled);
+            Thread owner = mOwner;
+            int holds = mHolds;
+            mOwner = null;
+            mHolds = 0;
+            try {
+                mScheduler.await(new EventScheduler.Ready() {
+                    @Override
+                    public boolean isReady() {
+                        return signalled[0] && mOwner == null;
+                    }
+                });
+            } finally {
+                mOwner = owner;
+                mHolds = holds;
+            }
+        }
+
+        @Override
+        public void awaitUninterruptibly() {
+            await();
+        }
+
+        @Override
+        public long awaitNanos(long nanosTimeout) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean await(long time, TimeUnit unit) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean awaitUntil(Date deadline) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void signal() {
+            boolean[] signalled = mWaiters.poll();
+            if (signalled != null)
+                signalled[0] = true;
+        }
+
+        @Override
+        public void signalAll() {
+            while (!mWaiters.isEmpty())
+                signal();
+        }
+    }
+
+    SimulatedLock(EventScheduler scheduler)
+    {
+        mScheduler = scheduler;
+    }
+
+    @Override
+    public void lock() {
+        Thread thread = Thread.currentThread();
+        if (mOwner != thread)
+        {
+            mScheduler.await(mFree);
+            mOwner = thread;
+        }
+        mHolds++;
+    }
+
+    @Override
+    public void lockInterruptibly() {
+        lock();
+    }
+
+    @Override
+    public boolean tryLock() {
+        if (mOwner != null && mOwner != Thread.currentThread())
+            return false;
+        lock();
+        return true;
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void unlock() {
+        if (mOwner != Thread.currentThread())
+            throw new IllegalMonitorStateException();
+        if (--mHolds == 0)
+            mOwner = null;
+    }
+
+    @Override
+    public Condition newCondition() {
+        return new SimulatedCondition();
+    }
+}
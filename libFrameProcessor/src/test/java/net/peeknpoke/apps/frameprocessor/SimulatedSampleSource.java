@@ -0,0 +1,66 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import android.media.MediaExtractor;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * A video track of fixed size samples with a sync sample every GOP, read with a simulated
+ * storage latency on a simulated thread.
+ */
+class SimulatedSampleSource implements SampleSource {
+    private final int mFrames;
+    private final long mFrameDurationUs;
+    private final int mSampleSize;
+    private final int mGopSize;
+    private final EventScheduler mScheduler;
+    private final LatencyDistribution mReadLatency;
+    private final Random mRandom;
+    private int mFrame;
+
+    SimulatedSampleSource(int frames, long frameDurationUs, int sampleSize, int gopSize,
+                          EventScheduler scheduler, LatencyDistribution readLatency, long seed)
+    {
+        mFrames = frames;
+        mFrameDurationUs = frameDurationUs;
+        mSampleSize = sampleSize;
+        mGopSize = gopSize;
+        mScheduler = scheduler;
+        mReadLatency = readLatency;
+        mRandom = new Random(seed);
+    }
+
+    @Override
+    public long getSampleSize() {
+        return mFrame < mFrames ? mSampleSize : -1;
+    }
+
+    @Override
+    public int readSampleData(ByteBuffer buffer, int offset) {
+        if (mFrame >= mFrames)
+            return -1;
+        if (buffer.capacity() - offset < mSampleSize)
+            throw new IllegalArgumentException("Buffer too small");
+        mScheduler.sleep(mReadLatency.nextNanos(mRandom));
+        for (int i = 0; i < mSampleSize; i++)
+            buffer.put(offset + i, (byte) mFrame);
+        return mSampleSize;
+    }
+
+    @Override
+    public long getSampleTime() {
+        return mFrame*mFrameDurationUs;
+    }
+
+    @Override
+    public int getSampleFlags() {
+        return mFrame % mGopSize == 0 ? MediaExtractor.SAMPLE_FLAG_SYNC : 0;
+    }
+
+    @Override
+    public boolean advance() {
+        mFrame++;
+        return mFrame < mFrames;
+    }
+}
@@ -0,0 +1,60 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.util.concurrent.Executor;
+
+/**
+ * The decoder output surface, consumed like a SurfaceTexture: a frame queued before the previous
+ * one was latched replaces it, and is counted as dropped.
+ */
+class SimulatedSurface {
+    interface Listener {
+        void onFrameAvailable(SimulatedSurface surface);
+    }
+
+    private final Executor mConsumerExecutor;
+    private final Listener mListener;
+    private final Runnable mNotify = new Runnable() {
+        @Override
+        public void run() {
+            mListener.onFrameAvailable(SimulatedSurface.this);
+        }
+    };
+    private boolean mPending;
+    private long mPendingTimeUs;
+    private int mDropped;
+
+    SimulatedSurface(Executor consumerExecutor, Listener listener)
+    {
+        mConsumerExecutor = consumerExecutor;
+        mListener = listener;
+    }
+
+    void queue(long presentationTimeUs)
+    {
+        synchronized (this)
+        {
+            if (mPending)
+                mDropped++;
+            mPending = true;
+            mPendingTimeUs = presentationTimeUs;
+        }
+        mConsumerExecutor.execute(mNotify);
+    }
+
+    /**
+     * Like updateTexImage.
+     * @return the time of the latched frame, or -1 if there was none
+     */
+    synchronized long latch()
+    {
+        if (!mPending)
+            return -1;
+        mPending = false;
+        return mPendingTimeUs;
+    }
+
+    synchronized int getDropped()
+    {
+        return mDropped;
+    }
+}
@@ -0,0 +1,76 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class StillFrameSelectorTest {
+    private static final long FRAME_US = 33333;
+
+    @Test
+    public void selectsOneFramePerInterval() {
+        StillFrameSelector selector = new StillFrameSelector(1000000);
+        int selected = 0;
+        for (int frame = 0; frame < 300; frame++)
+        {
+            boolean still = selector.select(frame*FRAME_US);
+            if (still)
+            {
+                // The first frame at or after each whole second
+                assertTrue(frame*FRAME_US - selected*1000000L < FRAME_US);
+                selected++;
+            }
+        }
+        assertEquals(10, selected);
+    }
+
+    @Test
+    public void gapsDoNotProduceBursts() {
+        StillFrameSelector selector = new StillFrameSelector(1000000);
+        assertTrue(selector.select(0));
+        assertFalse(selector.select(500000));
+        assertTrue(selector.select(5200000));
+        assertFalse(selector.select(5900000));
+        assertTrue(selector.select(6000000));
+    }
+
+    @Test
+    public void selectsRecordedSyncFrames() {
+        StillFrameSelector selector = new StillFrameSelector(0);
+        assertTrue(selector.isSyncFrameMode());
+        // Decode order differs from presentation order with B frames
+        long[] decodeOrder = {0, 3*FRAME_US, FRAME_US, 2*FRAME_US, 60*FRAME_US, 63*FRAME_US};
+        boolean[] sync = {true, false, false, false, true, false};
+        for (int i = 0; i < decodeOrder.length; i++)
+            selector.onSampleRead(decodeOrder[i], sync[i]);
+
+        assertTrue(selector.select(0));
+        assertFalse(selector.select(FRAME_US));
+        assertFalse(selector.select(2*FRAME_US));
+        assertFalse(selector.select(3*FRAME_US));
+        assertTrue(selector.select(60*FRAME_US));
+        assertFalse(selector.select(60*FRAME_US));
+    }
+
+    @Test
+    public void copyFlippedReversesRows() {
+        int rowBytes = 8;
+        int rows = 3;
+        ByteBuffer source = ByteBuffer.allocate(rowBytes*rows);
+        for (int row = 0; row < rows; row++)
+            for (int i = 0; i < rowBytes; i++)
+                source.put((byte) row);
+        source.flip();
+        ByteBuffer destination = ByteBuffer.allocate(rowBytes*rows);
+
+        StillEncoder.copyFlipped(source, destination, rowBytes, rows);
+
+        assertEquals(rowBytes*rows, destination.remaining());
+        for (int row = 0; row < rows; row++)
+            assertEquals(rows - 1 - row, destination.get(row*rowBytes));
+        assertEquals(0, source.position());
+        assertEquals(rowBytes*rows, source.limit());
+    }
+}
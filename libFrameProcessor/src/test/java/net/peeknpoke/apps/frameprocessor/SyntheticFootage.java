@@ -0,0 +1,95 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+/**
+ * Low light footage for the denoise tests: a static gradient with a bright square moving across
+ * it, plus Gaussian sensor noise. Frames are interleaved RGB in code values from 0 to 1.
+ */
+final class SyntheticFootage {
+    private SyntheticFootage()
+    {
+    }
+
+    static List<float[]> generate(int width, int height, int frames, float noiseSigma, long seed)
+    {
+        Random random = new Random(seed);
+        List<float[]> sequence = new ArrayList<>();
+        int square = height/4;
+        for (int f = 0; f < frames; f++)
+        {
+            float[] frame = new float[width*height*3];
+            int left = (f*4)%(width - square);
+            for (int y = 0; y < height; y++)
+            {
+                for (int x = 0; x < width; x++)
+                {
+                    boolean inSquare = x >= left && x < left + square && y >= square && y < 2*square;
+                    float base = inSquare ? 0.8f : 0.1f + 0.2f*x/width;
+                    int i = (y*width + x)*3;
+                    for (int c = 0; c < 3; c++)
+                        frame[i + c] = base + (float) random.nextGaussian()*noiseSigma;
+                }
+            }
+            sequence.add(frame);
+        }
+        return sequence;
+    }
+
+    /**
+     * Denoises the sequence with {@link TemporalDenoise#blend}, keeping the last input frames in a
+     * {@link TemporalDenoise.Ring} the way TemporalDenoiseFilter does.
+     */
+    static List<float[]> denoise(List<float[]> sequence, int historyFrames, float sigma)
+    {
+        TemporalDenoise.Ring ring = new TemporalDenoise.Ring(historyFrames);
+        float[][] slots = new float[historyFrames][];
+        float[][] history = new float[historyFrames][];
+        List<float[]> output = new ArrayList<>();
+        for (float[] frame : sequence)
+        {
+            for (int age = 0; age < ring.size(); age++)
+                history[age] = slots[ring.slotOf(age)];
+            float[] denoised = new float[frame.length];
+            TemporalDenoise.blend(frame, history, ring.size(), sigma, denoised);
+            output.add(denoised);
+            slots[ring.advance()] = frame;
+        }
+        return output;
+    }
+
+    /**
+     * Rough stand-in for the size of an encoded stream: every frame is quantized to 8 bits, the
+     * previous frame is subtracted, as inter prediction without motion compensation would, and
+     * the residuals are deflated.
+     */
+    static long residualBytes(List<float[]> sequence)
+    {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        byte[] chunk = new byte[64*1024];
+        long total = 0;
+        int[] previous = null;
+        for (float[] frame : sequence)
+        {
+            int[] quantized = new int[frame.length];
+            byte[] residual = new byte[frame.length];
+            for (int i = 0; i < frame.length; i++)
+            {
+                quantized[i] = Math.max(0, Math.min(255, Math.round(frame[i]*255)));
+                residual[i] = (byte) (previous == null ? quantized[i] : quantized[i] - previous[i]);
+            }
+            deflater.setInput(residual);
+            while (!deflater.needsInput())
+                total += deflater.deflate(chunk, 0, chunk.length, Deflater.SYNC_FLUSH);
+            previous = quantized;
+        }
+        deflater.finish();
+        while (!deflater.finished())
+            total += deflater.deflate(chunk);
+        deflater.end();
+        return total;
+    }
+}
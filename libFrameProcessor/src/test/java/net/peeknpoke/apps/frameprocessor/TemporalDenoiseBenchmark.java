@@ -0,0 +1,32 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import java.util.List;
+
+/**
+ * Size reduction of the temporal denoise filter, estimated on synthetic low light footage with
+ * the deflated frame residuals of {@link SyntheticFootage#residualBytes} standing in for the
+ * encoded size. Not part of the unit tests; run the main method directly.
+ */
+public class TemporalDenoiseBenchmark {
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 180;
+    private static final int FRAMES = 60;
+
+    public static void main(String[] args) {
+        for (float noise : new float[]{0.01f, 0.02f, 0.04f})
+        {
+            List<float[]> noisy = SyntheticFootage.generate(WIDTH, HEIGHT, FRAMES, noise, 1);
+            long before = SyntheticFootage.residualBytes(noisy);
+            for (int frames = 1; frames <= TemporalDenoise.MAX_HISTORY; frames++)
+            {
+                long start = System.nanoTime();
+                List<float[]> denoised = SyntheticFootage.denoise(noisy, frames, 2*noise);
+                long elapsed = System.nanoTime() - start;
+                long after = SyntheticFootage.residualBytes(denoised);
+                System.out.printf("noise %.2f, %d frames: %d -> %d bytes (%.1f%% smaller), %.1f ms/frame on the CPU%n",
+                        noise, frames, before, after, 100.0*(before - after)/before,
+                        elapsed/1e6/FRAMES);
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TemporalDenoiseTest {
+    @Test
+    public void ringFillsThenReusesOldestSlot() {
+        TemporalDenoise.Ring ring = new TemporalDenoise.Ring(3);
+        assertEquals(0, ring.size());
+        assertEquals(0, ring.advance());
+        assertEquals(1, ring.advance());
+        assertEquals(2, ring.size());
+        assertEquals(1, ring.slotOf(0));
+        assertEquals(0, ring.slotOf(1));
+        assertEquals(2, ring.advance());
+        assertEquals(0, ring.advance());
+        assertEquals(3, ring.size());
+        assertEquals(0, ring.slotOf(0));
+        assertEquals(2, ring.slotOf(1));
+        assertEquals(1, ring.slotOf(2));
+    }
+
+    @Test
+    public void ringVisitsEverySlotOncePerCycle() {
+        TemporalDenoise.Ring ring = new TemporalDenoise.Ring(4);
+        for (int cycle = 0; cycle < 5; cycle++)
+        {
+            boolean[] written = new boolean[4];
+            for (int i = 0; i < 4; i++)
+            {
+                int slot = ring.advance();
+                assertFalse(written[slot]);
+                written[slot] = true;
+            }
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void ringRejectsAgesNotYetStored() {
+        TemporalDenoise.Ring ring = new TemporalDenoise.Ring(2);
+        ring.advance();
+        ring.slotOf(1);
+    }
+
+    @Test
+    public void clearEmptiesRing() {
+        TemporalDenoise.Ring ring = new TemporalDenoise.Ring(2);
+        ring.advance();
+        ring.advance();
+        ring.clear();
+        assertEquals(0, ring.size());
+        assertEquals(0, ring.advance());
+    }
+
+    @Test
+    public void weightFallsOffWithDifference() {
+        assertEquals(1.0f, TemporalDenoise.weight(0.0f, 0.02f), 1e-6f);
+        assertEquals((float) Math.exp(-0.5), TemporalDenoise.weight(0.02f, 0.02f), 1e-6f);
+        assertEquals(TemporalDenoise.weight(0.03f, 0.02f), TemporalDenoise.weight(-0.03f, 0.02f), 0.0f);
+        assertTrue(TemporalDenoise.weight(0.2f, 0.02f) < 1e-10f);
+        assertEquals(0.0f, TemporalDenoise.weight(0.0f, 0.0f), 0.0f);
+    }
+
+    @Test
+    public void blendAveragesStaticPixels() {
+        float[] current = {0.5f, 0.5f, 0.5f};
+        float[][] history = {{0.5f, 0.5f, 0.5f}, {0.5f, 0.5f, 0.5f}};
+        float[] output = new float[3];
+        TemporalDenoise.blend(current, history, 2, 0.02f, output);
+        assertArrayEquals(current, output, 1e-6f);
+
+        current = new float[]{0.51f, 0.51f, 0.51f};
+        history = new float[][]{{0.49f, 0.49f, 0.49f}};
+        TemporalDenoise.blend(current, history, 1, 1.0f, output);
+        assertEquals(0.5f, output[0], 1e-4f);
+    }
+
+    @Test
+    public void blendKeepsMovingPixels() {
+        float[] current = {0.9f, 0.9f, 0.9f};
+        float[][] history = {{0.1f, 0.1f, 0.1f}};
+        float[] output = new float[3];
+        TemporalDenoise.blend(current, history, 1, 0.02f, output);
+        assertArrayEquals(current, output, 1e-6f);
+    }
+
+    @Test
+    public void blendIgnoresHistoryBeyondCount() {
+        float[] current = {0.5f, 0.5f, 0.5f};
+        float[][] history = {{0.0f, 0.0f, 0.0f}};
+        float[] output = new float[3];
+        TemporalDenoise.blend(current, history, 0, 1.0f, output);
+        assertArrayEquals(current, output, 0.0f);
+    }
+
+    @Test
+    public void denoisingReducesResidualSize() {
+        List<float[]> noisy = SyntheticFootage.generate(64, 48, 30, 0.02f, 1);
+        List<float[]> denoised = SyntheticFootage.denoise(noisy, 4, 0.04f);
+        long before = SyntheticFootage.residualBytes(noisy);
+        long after = SyntheticFootage.residualBytes(denoised);
+        assertTrue(before + " -> " + after, after < before*0.9);
+    }
+
+    @Test
+    public void denoisingDoesNotSmearMotion() {
+        List<float[]> noisy = SyntheticFootage.generate(64, 48, 10, 0.0f, 1);
+        List<float[]> denoised = SyntheticFootage.denoise(noisy, 4, 0.04f);
+        for (int f = 0; f < noisy.size(); f++)
+            assertArrayEquals(noisy.get(f), denoised.get(f), 1e-6f);
+    }
+}
@@ -0,0 +1,271 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ThroughputGovernorTest {
+    private static final long SECOND = 1000000000L;
+
+    private static class FakeClock implements ThroughputGovernor.Clock {
+        long nanos;
+
+        @Override
+        public long nanoTime() {
+            return nanos;
+        }
+    }
+
+    private static class FakeSensors implements ThroughputGovernor.Sensors {
+        int thermalStatus = ThroughputGovernor.THERMAL_STATUS_NONE;
+        boolean powerSave;
+
+        @Override
+        public int getThermalStatus() {
+            return thermalStatus;
+        }
+
+        @Override
+        public boolean isPowerSaveMode() {
+            return powerSave;
+        }
+    }
+
+    private static class CountingListener implements ThroughputGovernor.Listener {
+        int changes;
+
+        @Override
+        public void onGovernorChanged(ThroughputGovernor governor) {
+            changes++;
+        }
+    }
+
+    /**
+     * Renders frames for a while at the rate of the device, or slower when the governor says so.
+     */
+    private static void render(ThroughputGovernor governor, FakeClock clock, float deviceFrameRate, long nanos)
+    {
+        long end = clock.nanos + nanos;
+        while (clock.nanos < end)
+        {
+            clock.nanos += governor.beforeFrame();
+            clock.nanos += (long) (SECOND/deviceFrameRate);
+        }
+    }
+
+    /**
+     * A device that heats up with the frames it processes and cools down towards the ambient
+     * temperature with a time constant of two minutes. Once it reaches the severe status it
+     * throttles to a third of its speed, and stays throttled until it has cooled down completely,
+     * like the hysteresis of a thermal driver.
+     */
+    private static class SimulatedThermalDevice implements ThroughputGovernor.Sensors {
+        static final double TIME_CONSTANT_SECONDS = 120;
+        final float fullFrameRate = 60;
+        double temperature;     // Above ambient; the frame rate it settles at when sustained
+        boolean throttled;
+        int maxStatus;
+
+        float getFrameRate()
+        {
+            return throttled ? fullFrameRate/3 : fullFrameRate;
+        }
+
+        void advance(double seconds, double frameRate)
+        {
+            temperature += (frameRate - temperature)*seconds/TIME_CONSTANT_SECONDS;
+            int status = getThermalStatus();
+            maxStatus = Math.max(maxStatus, status);
+            if (status >= ThroughputGovernor.THERMAL_STATUS_SEVERE)
+                throttled = true;
+            else if (status == ThroughputGovernor.THERMAL_STATUS_NONE)
+                throttled = false;
+        }
+
+        @Override
+        public int getThermalStatus() {
+            if (temperature >= 55)
+                return ThroughputGovernor.THERMAL_STATUS_CRITICAL;
+            if (temperature >= 48)
+                return ThroughputGovernor.THERMAL_STATUS_SEVERE;
+            if (temperature >= 40)
+                return ThroughputGovernor.THERMAL_STATUS_MODERATE;
+            if (temperature >= 25)
+                return ThroughputGovernor.THERMAL_STATUS_LIGHT;
+            return ThroughputGovernor.THERMAL_STATUS_NONE;
+        }
+
+        @Override
+        public boolean isPowerSaveMode() {
+            return false;
+        }
+
+        /**
+         * @return frames processed in the given time, with or without a governor
+         */
+        long run(ThroughputGovernor governor, FakeClock clock, long nanos)
+        {
+            long frames = 0;
+            long end = clock.nanos + nanos;
+            while (clock.nanos < end)
+            {
+                long start = clock.nanos;
+                if (governor != null)
+                    clock.nanos += governor.beforeFrame();
+                clock.nanos += (long) (SECOND/getFrameRate());
+                double seconds = (clock.nanos - start)/(double) SECOND;
+                advance(seconds, 1/seconds);
+                frames++;
+            }
+            return frames;
+        }
+    }
+
+    @Test
+    public void runsFreeWhileCool() {
+        FakeClock clock = new FakeClock();
+        CountingListener listener = new CountingListener();
+        ThroughputGovernor governor = new ThroughputGovernor(clock, new FakeSensors(), 3, listener);
+        render(governor, clock, 60, 60*SECOND);
+        assertEquals(ThroughputGovernor.NO_CAP, governor.getFrameRateCap(), 0.0f);
+        assertEquals(3, governor.getInFlightFrames());
+        assertEquals(60, governor.getFrameRate(), 0.5f);
+        assertEquals(0, listener.changes);
+    }
+
+    @Test
+    public void capsBelowTheFrameRateOnceThrottling() {
+        FakeClock clock = new FakeClock();
+        FakeSensors sensors = new FakeSensors();
+        CountingListener listener = new CountingListener();
+        ThroughputGovernor governor = new ThroughputGovernor(clock, sensors, 3, listener);
+        render(governor, clock, 60, 10*SECOND);
+        sensors.thermalStatus = ThroughputGovernor.THERMAL_STATUS_MODERATE;
+        render(governor, clock, 60, 2*SECOND + 1);
+        assertEquals(60*ThroughputGovernor.MODERATE_FACTOR, governor.getFrameRateCap(), 1.0f);
+        assertEquals(1, governor.getInFlightFrames());
+        assertEquals(1, listener.changes);
+
+        // Held while the temperature settles
+        render(governor, clock, 60, 60*SECOND);
+        assertEquals(60*ThroughputGovernor.MODERATE_FACTOR, governor.getFrameRateCap(), 1.0f);
+        assertEquals(governor.getFrameRateCap(), governor.getFrameRate(), 1.0f);
+        assertEquals(1, governor.getCuts());
+    }
+
+    @Test
+    public void lastingSevereThrottlingCutsAgain() {
+        FakeClock clock = new FakeClock();
+        FakeSensors sensors = new FakeSensors();
+        ThroughputGovernor governor = new ThroughputGovernor(clock, sensors, 1, null);
+        render(governor, clock, 60, 10*SECOND);
+        sensors.thermalStatus = ThroughputGovernor.THERMAL_STATUS_SEVERE;
+        render(governor, clock, 60, 2*SECOND + 1);
+        assertEquals(1, governor.getCuts());
+        render(governor, clock, 60, ThroughputGovernor.SETTLE_NANOS - 4*SECOND);
+        assertEquals(1, governor.getCuts());
+        render(governor, clock, 60, 4*SECOND);
+        assertEquals(2, governor.getCuts());
+        assertEquals(60*ThroughputGovernor.SEVERE_FACTOR*ThroughputGovernor.SEVERE_FACTOR,
+                governor.getFrameRateCap(), 1.0f);
+    }
+
+    @Test
+    public void severeAndCriticalCutDeeper() {
+        FakeClock clock = new FakeClock();
+        FakeSensors sensors = new FakeSensors();
+        ThroughputGovernor governor = new ThroughputGovernor(clock, sensors, 1, null);
+        render(governor, clock, 60, 10*SECOND);
+        sensors.thermalStatus = ThroughputGovernor.THERMAL_STATUS_SEVERE;
+        render(governor, clock, 60, 2*SECOND + 1);
+        assertEquals(60*ThroughputGovernor.SEVERE_FACTOR, governor.getFrameRateCap(), 1.0f);
+        sensors.thermalStatus = ThroughputGovernor.THERMAL_STATUS_CRITICAL;
+        render(governor, clock, 60, 2*SECOND);
+        // Escalating cuts at once
+        assertEquals(60*ThroughputGovernor.SEVERE_FACTOR*ThroughputGovernor.CRITICAL_FACTOR,
+                governor.getFrameRateCap(), 1.0f);
+        render(governor, clock, 60, 200*SECOND);
+        assertEquals(ThroughputGovernor.MIN_FRAME_RATE, governor.getFrameRateCap(), 0.0f);
+    }
+
+    @Test
+    public void collapseWhileWarmCountsAsThrottling() {
+        FakeClock clock = new FakeClock();
+        FakeSensors sensors = new FakeSensors();
+        ThroughputGovernor governor = new ThroughputGovernor(clock, sensors, 2, null);
+        render(governor, clock, 60, 10*SECOND);
+        sensors.thermalStatus = ThroughputGovernor.THERMAL_STATUS_LIGHT;
+        render(governor, clock, 20, 2*SECOND);
+        render(governor, clock, 20, 2*SECOND);
+        assertEquals(20*ThroughputGovernor.SEVERE_FACTOR, governor.getFrameRateCap(), 1.0f);
+        assertEquals(2, governor.getInFlightFrames());
+    }
+
+    @Test
+    public void holdsWhileWarmAndRaisesOnceCool() {
+        FakeClock clock = new FakeClock();
+        FakeSensors sensors = new FakeSensors();
+        ThroughputGovernor governor = new ThroughputGovernor(clock, sensors, 2, null);
+        render(governor, clock, 60, 10*SECOND);
+        sensors.thermalStatus = ThroughputGovernor.THERMAL_STATUS_MODERATE;
+        render(governor, clock, 60, 2*SECOND + 1);
+        float cap = governor.getFrameRateCap();
+
+        sensors.thermalStatus = ThroughputGovernor.THERMAL_STATUS_LIGHT;
+        render(governor, clock, 60, 60*SECOND);
+        assertEquals(cap, governor.getFrameRateCap(), 0.0f);
+        assertEquals(2, governor.getInFlightFrames());
+
+        sensors.thermalStatus = ThroughputGovernor.THERMAL_STATUS_NONE;
+        render(governor, clock, 60, 2*SECOND);
+        assertTrue(governor.getFrameRateCap() > cap);
+        render(governor, clock, 60, 30*SECOND);
+        assertEquals(ThroughputGovernor.NO_CAP, governor.getFrameRateCap(), 0.0f);
+    }
+
+    @Test
+    public void waitsForTheCoolDownBeforeRaising() {
+        FakeClock clock = new FakeClock();
+        FakeSensors sensors = new FakeSensors();
+        ThroughputGovernor governor = new ThroughputGovernor(clock, sensors, 1, null);
+        render(governor, clock, 60, 10*SECOND);
+        sensors.thermalStatus = ThroughputGovernor.THERMAL_STATUS_MODERATE;
+        render(governor, clock, 60, 2*SECOND + 1);
+        float cap = governor.getFrameRateCap();
+        sensors.thermalStatus = ThroughputGovernor.THERMAL_STATUS_NONE;
+        render(governor, clock, 60, ThroughputGovernor.COOL_DOWN_NANOS - 4*SECOND);
+        assertEquals(cap, governor.getFrameRateCap(), 0.0f);
+    }
+
+    @Test
+    public void powerSaveHoldsPartOfThePeak() {
+        FakeClock clock = new FakeClock();
+        FakeSensors sensors = new FakeSensors();
+        ThroughputGovernor governor = new ThroughputGovernor(clock, sensors, 3, null);
+        render(governor, clock, 60, 10*SECOND);
+        sensors.powerSave = true;
+        render(governor, clock, 60, 2*SECOND);
+        assertEquals(60*ThroughputGovernor.POWER_SAVE_FRACTION, governor.getFrameRateCap(), 1.0f);
+        assertEquals(1, governor.getInFlightFrames());
+        sensors.powerSave = false;
+        render(governor, clock, 60, 60*SECOND);
+        assertEquals(ThroughputGovernor.NO_CAP, governor.getFrameRateCap(), 0.0f);
+        assertEquals(3, governor.getInFlightFrames());
+    }
+
+    @Test
+    public void sustainsMoreThanRunningIntoThrottling() {
+        long duration = 30*60*SECOND;
+        SimulatedThermalDevice unmanaged = new SimulatedThermalDevice();
+        long unmanagedFrames = unmanaged.run(null, new FakeClock(), duration);
+
+        SimulatedThermalDevice managed = new SimulatedThermalDevice();
+        FakeClock clock = new FakeClock();
+        ThroughputGovernor governor = new ThroughputGovernor(clock, managed, 1, null);
+        long managedFrames = managed.run(governor, clock, duration);
+
+        assertEquals(ThroughputGovernor.THERMAL_STATUS_SEVERE, unmanaged.maxStatus);
+        assertEquals(ThroughputGovernor.THERMAL_STATUS_MODERATE, managed.maxStatus);
+        assertTrue(unmanagedFrames + " vs " + managedFrames, managedFrames > unmanagedFrames*1.1);
+    }
+}
@@ -0,0 +1,98 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TranscodePlannerTest {
+    private static final List<String> MP4 = Arrays.asList(TranscodePlanner.MIME_AVC, TranscodePlanner.MIME_HEVC);
+    private static final List<String> MP4_WITH_AV1 = Arrays.asList(TranscodePlanner.MIME_AVC,
+            TranscodePlanner.MIME_HEVC, TranscodePlanner.MIME_AV1);
+
+    private static List<CodecDescriptor> fixture(String name, String fingerprint) throws IOException
+    {
+        InputStream input = TranscodePlannerTest.class.getResourceAsStream("/codecs/" + name);
+        try {
+            return CodecCapabilityCache.read(new InputStreamReader(input, Charset.forName("UTF-8")), fingerprint);
+        } finally {
+            input.close();
+        }
+    }
+
+    private static List<CodecDescriptor> snapdragon() throws IOException
+    {
+        return fixture("snapdragon_android11.txt", "fixture/snapdragon/android11:11/RQ1A/1:user/release-keys");
+    }
+
+    private static List<CodecDescriptor> exynos() throws IOException
+    {
+        return fixture("exynos_android9.txt", "fixture/exynos/android9:9/PPR1/1:user/release-keys");
+    }
+
+    @Test
+    public void keepsInputCodecByDefault() throws IOException {
+        TranscodePlanner.Plan plan = TranscodePlanner.plan(snapdragon(), null, TranscodePlanner.MIME_AVC,
+                1920, 1080, 2000000, MP4);
+        assertEquals(TranscodePlanner.MIME_AVC, plan.mimeType);
+        assertEquals("c2.qti.avc.encoder", plan.codecName);
+        assertEquals(2000000, plan.bitRate);
+        assertFalse(plan.fellBack);
+    }
+
+    @Test
+    public void hevcTargetHalvesBitRate() throws IOException {
+        TranscodePlanner.Plan plan = TranscodePlanner.plan(snapdragon(), TranscodePlanner.MIME_HEVC,
+                TranscodePlanner.MIME_AVC, 1920, 1080, 2000000, MP4);
+        assertEquals(TranscodePlanner.MIME_HEVC, plan.mimeType);
+        assertEquals("c2.qti.hevc.encoder", plan.codecName);
+        assertEquals(1000000, plan.bitRate);
+        assertFalse(plan.fellBack);
+    }
+
+    @Test
+    public void avcTargetForCompatibility() throws IOException {
+        TranscodePlanner.Plan plan = TranscodePlanner.plan(snapdragon(), TranscodePlanner.MIME_AVC,
+                TranscodePlanner.MIME_HEVC, 1920, 1080, 2000000, MP4);
+        assertEquals(TranscodePlanner.MIME_AVC, plan.mimeType);
+        assertEquals(2000000, plan.bitRate);
+    }
+
+    @Test
+    public void fallsBackToInputCodecWithoutTargetEncoder() throws IOException {
+        // No AV1 encoder in the fixture
+        TranscodePlanner.Plan plan = TranscodePlanner.plan(snapdragon(), TranscodePlanner.MIME_AV1,
+                TranscodePlanner.MIME_HEVC, 1920, 1080, 2000000, MP4_WITH_AV1);
+        assertEquals(TranscodePlanner.MIME_HEVC, plan.mimeType);
+        assertEquals(1000000, plan.bitRate);
+        assertTrue(plan.fellBack);
+    }
+
+    @Test
+    public void fallsBackToAvcWhenContainerRejectsCodecs() throws IOException {
+        TranscodePlanner.Plan plan = TranscodePlanner.plan(exynos(), TranscodePlanner.MIME_HEVC,
+                TranscodePlanner.MIME_VP9, 1280, 720, 2000000, MP4);
+        assertEquals(TranscodePlanner.MIME_AVC, plan.mimeType);
+        assertEquals("OMX.Exynos.avc.enc", plan.codecName);
+        assertTrue(plan.fellBack);
+    }
+
+    @Test
+    public void noEncoderAtAll() throws IOException {
+        assertNull(TranscodePlanner.plan(exynos(), null, TranscodePlanner.MIME_AVC, 8192, 4320, 2000000, MP4));
+    }
+
+    @Test
+    public void candidatesAreDistinct() {
+        assertEquals(Arrays.asList(TranscodePlanner.MIME_AVC),
+                TranscodePlanner.candidates(null, TranscodePlanner.MIME_AVC));
+        assertEquals(Arrays.asList(TranscodePlanner.MIME_HEVC, TranscodePlanner.MIME_AVC),
+                TranscodePlanner.candidates(TranscodePlanner.MIME_HEVC, TranscodePlanner.MIME_AVC));
+    }
+}
@@ -0,0 +1,164 @@
+package net.peeknpoke.apps.frameprocessor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TuningSearchTest {
+    private static final List<Integer> DEPTHS = Arrays.asList(1, 2, 3);
+    private static final List<String> CODECS = Arrays.asList(TranscodePlanner.MIME_AVC, TranscodePlanner.MIME_HEVC);
+    private static final List<Integer> SIDES = Arrays.asList(1080, 720, 540);
+    private static final long MB = 1024*1024;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    /**
+     * A device whose frame rate goes with the pixel count, gains from frames in flight up to a
+     * limit, and encodes HEVC at a fraction of the speed of AVC. Every frame in flight takes
+     * memory.
+     */
+    private static class SimulatedDevice implements TuningSearch.Runner {
+        double avcFramesPerSecondAt1080p = 40;
+        double hevcSpeed = 0.8;
+        int usefulDepth = 2;
+        double depthGain = 0.3;
+        long memoryPerFrameInFlight = 20*MB;
+        boolean hevcFails;
+        final List<PipelineProfile> runs = new ArrayList<>();
+
+        @Override
+        public TuningSearch.Measurement run(PipelineProfile candidate) {
+            runs.add(candidate);
+            boolean hevc = TranscodePlanner.MIME_HEVC.equals(candidate.getMimeType());
+            if (hevc && hevcFails)
+                return TuningSearch.Measurement.failed();
+            double pixels = candidate.getMaxShortSide()*candidate.getMaxShortSide()*16.0/9;
+            double fps = avcFramesPerSecondAt1080p*(1080.0*1920/pixels)*(hevc ? hevcSpeed : 1);
+            fps *= 1 + depthGain*(Math.min(candidate.getInFlightFrames(), usefulDepth) - 1);
+            return new TuningSearch.Measurement(fps, 100*MB + memoryPerFrameInFlight*candidate.getInFlightFrames());
+        }
+    }
+
+    private static TuningSearch search(long memoryBudget)
+    {
+        return new TuningSearch(DEPTHS, CODECS, SIDES, 30, memoryBudget);
+    }
+
+    @Test
+    public void fastDeviceGetsEfficientCodecAtFullSize() throws InterruptedException {
+        SimulatedDevice device = new SimulatedDevice();
+        PipelineProfile profile = search(1024*MB).search(device);
+        // 40 fps at depth 1, 52 at depth 2, nothing more at 3; HEVC at 41.6 keeps up
+        assertEquals(2, profile.getInFlightFrames());
+        assertEquals(TranscodePlanner.MIME_HEVC, profile.getMimeType());
+        assertEquals(PipelineProfile.NO_SIZE_LIMIT, profile.getMaxShortSide());
+        assertEquals(41.6, profile.getFramesPerSecond(), 0.01);
+        assertEquals(140*MB, profile.getPeakMemoryBytes());
+    }
+
+    @Test
+    public void runsEachCombinationOnce() throws InterruptedException {
+        SimulatedDevice device = new SimulatedDevice();
+        TuningSearch search = search(1024*MB);
+        search.search(device);
+        // Three depths, the other codec, and the full size again is not run
+        assertEquals(4, device.runs.size());
+        assertEquals(4, search.getTrials().size());
+        assertEquals(device.runs.size(), new HashSet<>(device.runs).size());
+    }
+
+    @Test
+    public void slowDeviceGetsSmallerOutputAndFastestCodec() throws InterruptedException {
+        SimulatedDevice device = new SimulatedDevice();
+        device.avcFramesPerSecondAt1080p = 15;
+        PipelineProfile profile = search(1024*MB).search(device);
+        assertEquals(2, profile.getInFlightFrames());
+        // Neither codec keeps up at 1080p, AVC is faster; at 720p AVC does 43.9 fps
+        assertEquals(TranscodePlanner.MIME_AVC, profile.getMimeType());
+        assertEquals(720, profile.getMaxShortSide());
+    }
+
+    @Test
+    public void smallestSizeWhenNothingKeepsUp() throws InterruptedException {
+        SimulatedDevice device = new SimulatedDevice();
+        device.avcFramesPerSecondAt1080p = 2;
+        PipelineProfile profile = search(1024*MB).search(device);
+        assertEquals(540, profile.getMaxShortSide());
+    }
+
+    @Test
+    public void deeperPipelineNeedsClearGain() throws InterruptedException {
+        SimulatedDevice device = new SimulatedDevice();
+        device.depthGain = 0.02;
+        assertEquals(1, search(1024*MB).search(device).getInFlightFrames());
+    }
+
+    @Test
+    public void memoryBudgetLimitsDepth() throws InterruptedException {
+        SimulatedDevice device = new SimulatedDevice();
+        device.usefulDepth = 3;
+        assertEquals(3, search(1024*MB).search(device).getInFlightFrames());
+        assertEquals(2, search(150*MB).search(device).getInFlightFrames());
+    }
+
+    @Test
+    public void failingCodecIsSkipped() throws InterruptedException {
+        SimulatedDevice device = new SimulatedDevice();
+        device.hevcFails = true;
+        assertEquals(TranscodePlanner.MIME_AVC, search(1024*MB).search(device).getMimeType());
+    }
+
+    @Test
+    public void nothingWhenEveryRunFails() throws InterruptedException {
+        assertNull(search(1024*MB).search(new TuningSearch.Runner() {
+            @Override
+            public TuningSearch.Measurement run(PipelineProfile candidate) {
+                return TuningSearch.Measurement.failed();
+            }
+        }));
+        assertNull(search(MB).search(new SimulatedDevice()));
+    }
+
+    @Test
+    public void storeKeepsProfilePerFingerprint() throws IOException {
+        File directory = new File(mFolder.getRoot(), "profile");
+        PipelineProfileStore store = new PipelineProfileStore(directory);
+        assertNull(store.load("build/1"));
+
+        PipelineProfile profile = new PipelineProfile(2, TranscodePlanner.MIME_HEVC, 720, 35.5f, 80*MB);
+        store.save("build/1", profile);
+        PipelineProfile loaded = store.load("build/1");
+        assertEquals(profile, loaded);
+        assertEquals(35.5f, loaded.getFramesPerSecond(), 0.0f);
+        assertEquals(80*MB, loaded.getPeakMemoryBytes());
+        // A system update changes the fingerprint
+        assertNull(new PipelineProfileStore(directory).load("build/2"));
+
+        store.save("build/2", new PipelineProfile(1, null, PipelineProfile.NO_SIZE_LIMIT, 0, 0));
+        assertNull(store.load("build/1"));
+        assertNull(store.load("build/2").getMimeType());
+
+        store.delete();
+        assertNull(store.load("build/2"));
+    }
+
+    @Test(expected = IOException.class)
+    public void storeRejectsInvalidProfile() throws IOException {
+        File directory = mFolder.newFolder("profile");
+        FileWriter writer = new FileWriter(new File(directory, "profile.properties"));
+        writer.write("fingerprint=build/1\nprofile.inFlightFrames=0\n");
+        writer.close();
+        new PipelineProfileStore(directory).load("build/1");
+    }
+}